@@ -0,0 +1,105 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import waffle.util.AuthorizationHeader;
+
+/**
+ * Measures parsing the authorization header of a request the way the filters do: the security package, the decoded
+ * token, its classification and its inspection, each from a new {@link AuthorizationHeader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthorizationHeaderBenchmark {
+
+    /** The header kind. */
+    @Param({ "ntlm", "negotiate", "negotiate-arg", "bearer" })
+    private String kind;
+
+    /** The request. */
+    private BenchmarkRequest request;
+
+    /**
+     * Creates the request.
+     */
+    @Setup
+    public void setup() {
+        this.request = new BenchmarkRequest();
+        this.request.addHeader("Authorization", Tokens.header(this.kind));
+    }
+
+    /**
+     * Gets the security package.
+     *
+     * @return the security package
+     */
+    @Benchmark
+    public String securityPackage() {
+        return new AuthorizationHeader(this.request).getSecurityPackage();
+    }
+
+    /**
+     * Decodes the token, as the filters do unless the header is a bearer authorization header.
+     *
+     * @return the token bytes, null for a bearer authorization header
+     */
+    @Benchmark
+    public byte[] tokenBytes() {
+        final AuthorizationHeader header = new AuthorizationHeader(this.request);
+        return header.isBearerAuthorizationHeader() ? null : header.getTokenBytes();
+    }
+
+    /**
+     * Classifies the header as the negotiate filter provider does before accepting the token.
+     *
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    public void classify(final Blackhole blackhole) {
+        final AuthorizationHeader header = new AuthorizationHeader(this.request);
+        blackhole.consume(header.isBearerAuthorizationHeader());
+        if (!header.isBearerAuthorizationHeader()) {
+            blackhole.consume(header.isNtlmType1Message());
+            blackhole.consume(header.isSPNegTokenInitMessage());
+            blackhole.consume(header.isNtlmType1PostAuthorizationHeader());
+        }
+    }
+
+    /**
+     * Inspects the token.
+     *
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    public void inspect(final Blackhole blackhole) {
+        final AuthorizationHeader header = new AuthorizationHeader(this.request);
+        if (!header.isBearerAuthorizationHeader()) {
+            blackhole.consume(header.inspectToken().getMechanism());
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A minimal kept-alive HTTP/1.1 client connection of the embedded server benchmarks, keeping the session cookie the
+ * server sets.
+ */
+class BenchmarkConnection implements Closeable {
+
+    /** The socket. */
+    private final Socket socket;
+
+    /** The input. */
+    private final InputStream input;
+
+    /** The output. */
+    private final OutputStream output;
+
+    /** The session cookie. */
+    private String cookie;
+
+    /** The body of the last response. */
+    private String body;
+
+    /**
+     * Opens a new connection.
+     *
+     * @param address
+     *            the server address
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    BenchmarkConnection(final InetSocketAddress address) throws IOException {
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setSoTimeout(10000);
+        this.socket.setTcpNoDelay(true);
+        this.input = new BufferedInputStream(this.socket.getInputStream());
+        this.output = this.socket.getOutputStream();
+    }
+
+    /**
+     * Gets a path.
+     *
+     * @param path
+     *            the path
+     * @param authorization
+     *            the authorization header, null for none
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    int get(final String path, final String authorization) throws IOException {
+        final StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+        if (authorization != null) {
+            request.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        if (this.cookie != null) {
+            request.append("Cookie: ").append(this.cookie).append("\r\n");
+        }
+        request.append("\r\n");
+        this.output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        this.output.flush();
+
+        final String statusLine = this.readLine();
+        final int status = Integer.parseInt(statusLine.substring(statusLine.indexOf(' ') + 1).substring(0, 3));
+        int contentLength = -1;
+        boolean chunked = false;
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            final int colon = line.indexOf(':');
+            final String name = line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            final String value = line.substring(colon + 1).trim();
+            if ("content-length".equals(name)) {
+                contentLength = Integer.parseInt(value);
+            } else if ("transfer-encoding".equals(name)) {
+                chunked = "chunked".equalsIgnoreCase(value);
+            } else if ("set-cookie".equals(name)) {
+                final int semicolon = value.indexOf(';');
+                this.cookie = semicolon < 0 ? value : value.substring(0, semicolon);
+            }
+        }
+        this.body = this.readBody(contentLength, chunked);
+        return status;
+    }
+
+    /**
+     * Gets the body of the last response.
+     *
+     * @return the body
+     */
+    String getBody() {
+        return this.body;
+    }
+
+    /**
+     * Reads the body of a response.
+     *
+     * @param contentLength
+     *            the content length, -1 if not sent
+     * @param chunked
+     *            whether the body is chunked
+     * @return the body
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private String readBody(final int contentLength, final boolean chunked) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        if (chunked) {
+            int size;
+            while ((size = Integer.parseInt(this.readLine().trim(), 16)) > 0) {
+                this.read(buffer, size);
+                this.readLine();
+            }
+            this.readLine();
+        } else if (contentLength > 0) {
+            this.read(buffer, contentLength);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a number of bytes.
+     *
+     * @param buffer
+     *            the buffer to read to
+     * @param size
+     *            the number of bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void read(final ByteArrayOutputStream buffer, final int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            final int b = this.input.read();
+            if (b == -1) {
+                throw new IOException("connection closed");
+            }
+            buffer.write(b);
+        }
+    }
+
+    /**
+     * Reads a line.
+     *
+     * @return the line, without its terminator
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private String readLine() throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = this.input.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("connection closed");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+}
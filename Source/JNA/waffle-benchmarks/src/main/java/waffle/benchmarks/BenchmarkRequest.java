@@ -0,0 +1,151 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+import waffle.mock.http.SimpleHttpSession;
+
+/**
+ * A request cheap enough to create for each benchmark invocation. Unlike {@link waffle.mock.http.SimpleHttpRequest},
+ * it does not create a mock for each request: it wraps a single stub answering default values.
+ */
+class BenchmarkRequest extends HttpServletRequestWrapper {
+
+    /** The Constant REQUEST, the wrapped request for the methods not overridden. */
+    private static final HttpServletRequest REQUEST = (HttpServletRequest) Stubs.create(HttpServletRequest.class);
+
+    /** The headers. */
+    private final Map<String, String> headers = new HashMap<>();
+
+    /** The request uri. */
+    private String requestURI = "/secure/index.html";
+
+    /** The session. */
+    private HttpSession session;
+
+    /**
+     * Instantiates a new benchmark request.
+     */
+    BenchmarkRequest() {
+        super(BenchmarkRequest.REQUEST);
+    }
+
+    /**
+     * Adds a header.
+     *
+     * @param headerName
+     *            the header name
+     * @param headerValue
+     *            the header value
+     */
+    void addHeader(final String headerName, final String headerValue) {
+        this.headers.put(headerName, headerValue);
+    }
+
+    /**
+     * Sets the request uri.
+     *
+     * @param uri
+     *            the new request uri
+     */
+    void setRequestURI(final String uri) {
+        this.requestURI = uri;
+    }
+
+    /**
+     * Sets the session.
+     *
+     * @param value
+     *            the new session
+     */
+    void setSession(final HttpSession value) {
+        this.session = value;
+    }
+
+    @Override
+    public String getHeader(final String headerName) {
+        return this.headers.get(headerName);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(this.headers.keySet());
+    }
+
+    @Override
+    public String getMethod() {
+        return "GET";
+    }
+
+    @Override
+    public int getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer("http://localhost:8080").append(this.requestURI);
+    }
+
+    @Override
+    public String getQueryString() {
+        return null;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return "localhost";
+    }
+
+    @Override
+    public int getRemotePort() {
+        return 50000;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return this.getSession(true);
+    }
+
+    @Override
+    public HttpSession getSession(final boolean create) {
+        if (this.session == null && create) {
+            this.session = new SimpleHttpSession();
+        }
+        return this.session;
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response cheap enough to create for each benchmark invocation, keeping the status and the last value of each
+ * header. Unlike {@link waffle.mock.http.SimpleHttpResponse}, it wraps a single stub.
+ */
+class BenchmarkResponse extends HttpServletResponseWrapper {
+
+    /** The Constant RESPONSE, the wrapped response for the methods not overridden. */
+    private static final HttpServletResponse RESPONSE = (HttpServletResponse) Stubs.create(HttpServletResponse.class);
+
+    /** The headers. */
+    private final Map<String, String> headers = new HashMap<>();
+
+    /** The status. */
+    private int status = HttpServletResponse.SC_OK;
+
+    /**
+     * Instantiates a new benchmark response.
+     */
+    BenchmarkResponse() {
+        super(BenchmarkResponse.RESPONSE);
+    }
+
+    @Override
+    public void addHeader(final String headerName, final String headerValue) {
+        this.headers.put(headerName, headerValue);
+    }
+
+    @Override
+    public void setHeader(final String headerName, final String headerValue) {
+        this.headers.put(headerName, headerValue);
+    }
+
+    @Override
+    public String getHeader(final String headerName) {
+        return this.headers.get(headerName);
+    }
+
+    @Override
+    public void setStatus(final int value) {
+        this.status = value;
+    }
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void sendError(final int rc) {
+        this.status = rc;
+    }
+
+    @Override
+    public void sendError(final int rc, final String message) {
+        this.status = rc;
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+        // Do Nothing
+    }
+
+    @Override
+    public void flushBuffer() {
+        // Do Nothing
+    }
+
+}
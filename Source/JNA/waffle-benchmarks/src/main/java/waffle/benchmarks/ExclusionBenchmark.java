@@ -0,0 +1,117 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import waffle.servlet.NegotiateSecurityFilter;
+
+/**
+ * Measures the exclusion patterns of {@link NegotiateSecurityFilter}, matched against the url of every request: a
+ * request excluded by the last pattern, and an authenticated request matching none of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExclusionBenchmark {
+
+    /** The pattern count. */
+    @Param({ "1", "10", "100" })
+    private int patterns;
+
+    /** The filter. */
+    private NegotiateSecurityFilter filter;
+
+    /** The excluded request uri. */
+    private String excludedURI;
+
+    /** The authenticated session. */
+    private HttpSession session;
+
+    /**
+     * Creates the filter and authenticates a session.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Setup
+    public void setup() throws IOException, ServletException {
+        final StringBuilder excludePatterns = new StringBuilder();
+        for (int i = 0; i < this.patterns; i++) {
+            excludePatterns.append(".*/static/resource").append(i).append("/.*\n");
+        }
+        this.excludedURI = "/static/resource" + (this.patterns - 1) + "/app.js";
+        this.filter = Filters.create(new SimulatedAuthProvider(10), "excludePatterns", excludePatterns.toString());
+        this.session = Filters.authenticate(this.filter, "EXAMPLE\\alice");
+    }
+
+    /**
+     * Destroys the filter.
+     */
+    @TearDown
+    public void tearDown() {
+        this.filter.destroy();
+    }
+
+    /**
+     * Filters a request excluded by the last pattern.
+     *
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Benchmark
+    public int excluded() throws IOException, ServletException {
+        final BenchmarkRequest request = new BenchmarkRequest();
+        request.setRequestURI(this.excludedURI);
+        final BenchmarkResponse response = new BenchmarkResponse();
+        this.filter.doFilter(request, response, Filters.CHAIN);
+        return response.getStatus();
+    }
+
+    /**
+     * Filters an authenticated request matching no pattern.
+     *
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Benchmark
+    public int notExcluded() throws IOException, ServletException {
+        final BenchmarkRequest request = new BenchmarkRequest();
+        request.setSession(this.session);
+        final BenchmarkResponse response = new BenchmarkResponse();
+        this.filter.doFilter(request, response, Filters.CHAIN);
+        return response.getStatus();
+    }
+
+}
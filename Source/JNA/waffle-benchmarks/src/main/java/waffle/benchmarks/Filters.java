@@ -0,0 +1,103 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import waffle.mock.http.SimpleFilterConfig;
+import waffle.servlet.NegotiateSecurityFilter;
+import waffle.windows.auth.IWindowsAuthProvider;
+
+/**
+ * Sets up the {@link NegotiateSecurityFilter} of the benchmarks.
+ */
+final class Filters {
+
+    /** The Constant CHAIN, a filter chain doing nothing. */
+    static final FilterChain CHAIN = (request, response) -> {
+        // Do Nothing
+    };
+
+    /**
+     * Creates and initializes a filter.
+     *
+     * @param provider
+     *            the auth provider
+     * @param parameters
+     *            the init parameters, names followed by values
+     * @return the filter
+     * @throws ServletException
+     *             the servlet exception
+     */
+    static NegotiateSecurityFilter create(final IWindowsAuthProvider provider, final String... parameters)
+            throws ServletException {
+        final SimpleFilterConfig config = new SimpleFilterConfig();
+        for (int i = 0; i + 1 < parameters.length; i += 2) {
+            config.setParameter(parameters[i], parameters[i + 1]);
+        }
+        final NegotiateSecurityFilter filter = new NegotiateSecurityFilter();
+        filter.setAuth(provider);
+        filter.init(config);
+        return filter;
+    }
+
+    /**
+     * Gets the negotiate authorization header naming a user to the {@link SimulatedAuthProvider}.
+     *
+     * @param user
+     *            the fully qualified user name
+     * @return the authorization header
+     */
+    static String negotiate(final String user) {
+        return "Negotiate " + Base64.getEncoder().encodeToString(user.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Authenticates a user through a filter.
+     *
+     * @param filter
+     *            the filter
+     * @param user
+     *            the fully qualified user name
+     * @return the session holding the user's principal
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    static HttpSession authenticate(final NegotiateSecurityFilter filter, final String user)
+            throws IOException, ServletException {
+        final BenchmarkRequest request = new BenchmarkRequest();
+        request.addHeader("Authorization", Filters.negotiate(user));
+        final BenchmarkResponse response = new BenchmarkResponse();
+        filter.doFilter(request, response, Filters.CHAIN);
+        final HttpSession session = request.getSession(false);
+        if (response.getStatus() != HttpServletResponse.SC_OK || session == null) {
+            throw new IllegalStateException("Authentication failed: " + response.getStatus());
+        }
+        return session;
+    }
+
+    /**
+     * Instantiates a new filters.
+     */
+    private Filters() {
+        // Prevent Instantiation of object
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.servlet.Servlets;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.util.ImmediateInstanceFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import waffle.servlet.NegotiateSecurityFilter;
+import waffle.undertow.NegotiateAuthenticationMechanism;
+import waffle.undertow.NegotiateHandlers;
+
+/**
+ * Compares the throughput of an embedded Undertow server secured by the {@link NegotiateAuthenticationMechanism} with
+ * one secured by the servlet {@link NegotiateSecurityFilter}, both authenticating against a
+ * {@link SimulatedAuthProvider}: a request completing a handshake on a new connection, and a request on a kept-alive
+ * connection already authenticated, by its connection with the mechanism and by its session cookie with the filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class NegotiateBenchmark {
+
+    /** The Constant PATH. */
+    private static final String PATH = "/";
+
+    /** The Constant USER. */
+    private static final String USER = "EXAMPLE\\alice";
+
+    /** The security of the server, the mechanism or the servlet filter. */
+    @Param({ "mechanism", "filter" })
+    private String security;
+
+    /** The authorization header. */
+    private String authorization;
+
+    /** The deployment manager of the servlet filter. */
+    private DeploymentManager manager;
+
+    /** The server. */
+    private Undertow server;
+
+    /** The server address. */
+    private InetSocketAddress address;
+
+    /**
+     * Starts the server.
+     *
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Setup
+    public void setup() throws ServletException {
+        final SimulatedAuthProvider provider = new SimulatedAuthProvider(10);
+        final HttpHandler handler;
+        if ("mechanism".equals(this.security)) {
+            final HttpHandler principalHandler = exchange -> exchange.getResponseSender()
+                    .send(exchange.getSecurityContext().getAuthenticatedAccount().getPrincipal().getName());
+            handler = NegotiateHandlers.secure(principalHandler, new NegotiateAuthenticationMechanism(provider));
+        } else {
+            final NegotiateSecurityFilter filter = new NegotiateSecurityFilter();
+            filter.setAuth(provider);
+            final DeploymentInfo deployment = Servlets.deployment()
+                    .setClassLoader(NegotiateBenchmark.class.getClassLoader()).setContextPath("/")
+                    .setDeploymentName("waffle")
+                    .addFilter(Servlets.filter("waffle", NegotiateSecurityFilter.class,
+                            new ImmediateInstanceFactory<>(filter)))
+                    .addFilterUrlMapping("waffle", "/*", DispatcherType.REQUEST)
+                    .addServlet(Servlets.servlet("principal", PrincipalServlet.class).addMapping("/*"));
+            this.manager = Servlets.defaultContainer().addDeployment(deployment);
+            this.manager.deploy();
+            handler = this.manager.start();
+        }
+        this.authorization = Filters.negotiate(NegotiateBenchmark.USER);
+        this.server = Undertow.builder().addHttpListener(0, "127.0.0.1").setHandler(handler).build();
+        this.server.start();
+        this.address = (InetSocketAddress) this.server.getListenerInfo().get(0).getAddress();
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @TearDown
+    public void tearDown() throws ServletException {
+        this.server.stop();
+        if (this.manager != null) {
+            this.manager.stop();
+            this.manager.undeploy();
+        }
+    }
+
+    /**
+     * Completes a handshake on a new connection.
+     *
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    public int handshake() throws IOException {
+        try (final BenchmarkConnection connection = new BenchmarkConnection(this.address)) {
+            return NegotiateBenchmark.check(connection,
+                    connection.get(NegotiateBenchmark.PATH, this.authorization));
+        }
+    }
+
+    /**
+     * Sends a request on a kept-alive connection already authenticated.
+     *
+     * @param client
+     *            the client of the thread
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    public int authenticated(final Client client) throws IOException {
+        return NegotiateBenchmark.check(client.connection, client.connection.get(NegotiateBenchmark.PATH, null));
+    }
+
+    /**
+     * Checks a response answers the authenticated user.
+     *
+     * @param connection
+     *            the connection
+     * @param status
+     *            the response status
+     * @return the response status
+     * @throws IOException
+     *             if the user was not authenticated
+     */
+    static int check(final BenchmarkConnection connection, final int status) throws IOException {
+        if (status != HttpServletResponse.SC_OK || !NegotiateBenchmark.USER.equals(connection.getBody())) {
+            throw new IOException("unexpected response " + status + ": " + connection.getBody());
+        }
+        return status;
+    }
+
+    /**
+     * The client of a benchmark thread, holding a kept-alive connection authenticated once.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        /** The connection. */
+        BenchmarkConnection connection;
+
+        /**
+         * Opens and authenticates the connection.
+         *
+         * @param benchmark
+         *            the benchmark
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        @Setup
+        public void setup(final NegotiateBenchmark benchmark) throws IOException {
+            this.connection = new BenchmarkConnection(benchmark.address);
+            NegotiateBenchmark.check(this.connection,
+                    this.connection.get(NegotiateBenchmark.PATH, benchmark.authorization));
+        }
+
+        /**
+         * Closes the connection.
+         *
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        @TearDown
+        public void tearDown() throws IOException {
+            this.connection.close();
+        }
+
+    }
+
+    /**
+     * A servlet answering with the remote user.
+     */
+    public static class PrincipalServlet extends HttpServlet {
+
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            response.getWriter().write(request.getRemoteUser());
+        }
+
+    }
+
+}
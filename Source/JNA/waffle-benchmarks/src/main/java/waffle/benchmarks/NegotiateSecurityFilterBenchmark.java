@@ -0,0 +1,113 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import waffle.servlet.NegotiateSecurityFilter;
+
+/**
+ * Measures the throughput of {@link NegotiateSecurityFilter#doFilter}: a request completing a negotiate handshake,
+ * which builds the principal and a new session, and a request of a session already authenticated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NegotiateSecurityFilterBenchmark {
+
+    /** The group count. */
+    @Param({ "10", "1000" })
+    private int groups;
+
+    /** The filter. */
+    private NegotiateSecurityFilter filter;
+
+    /** The authorization header. */
+    private String authorization;
+
+    /** The authenticated session. */
+    private HttpSession session;
+
+    /**
+     * Creates the filter and authenticates a session.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Setup
+    public void setup() throws IOException, ServletException {
+        this.filter = Filters.create(new SimulatedAuthProvider(this.groups));
+        this.authorization = Filters.negotiate("EXAMPLE\\alice");
+        this.session = Filters.authenticate(this.filter, "EXAMPLE\\alice");
+    }
+
+    /**
+     * Destroys the filter.
+     */
+    @TearDown
+    public void tearDown() {
+        this.filter.destroy();
+    }
+
+    /**
+     * Filters a request completing a handshake.
+     *
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Benchmark
+    public int handshake() throws IOException, ServletException {
+        final BenchmarkRequest request = new BenchmarkRequest();
+        request.addHeader("Authorization", this.authorization);
+        final BenchmarkResponse response = new BenchmarkResponse();
+        this.filter.doFilter(request, response, Filters.CHAIN);
+        return response.getStatus();
+    }
+
+    /**
+     * Filters a request of an authenticated session.
+     *
+     * @return the response status
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Benchmark
+    public int authenticated() throws IOException, ServletException {
+        final BenchmarkRequest request = new BenchmarkRequest();
+        request.setSession(this.session);
+        final BenchmarkResponse response = new BenchmarkResponse();
+        this.filter.doFilter(request, response, Filters.CHAIN);
+        return response.getStatus();
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import waffle.apache.GenericWindowsPrincipal;
+import waffle.servlet.WindowsPrincipal;
+import waffle.spring.WindowsAuthenticationToken;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.PrincipalFormat;
+
+/**
+ * Measures building the principals of a user of many groups, {@link WindowsPrincipal} for the servlet filters,
+ * {@link GenericWindowsPrincipal} for Tomcat and {@link WindowsAuthenticationToken} for Spring Security, and checking
+ * their roles, for a role held, the user's last group, and a role not held.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PrincipalBenchmark {
+
+    /** The group count. */
+    @Param({ "10", "100", "1000", "2000" })
+    private int groups;
+
+    /** The identity. */
+    private IWindowsIdentity identity;
+
+    /** The windows principal. */
+    private WindowsPrincipal windowsPrincipal;
+
+    /** The generic windows principal. */
+    private GenericWindowsPrincipal genericPrincipal;
+
+    /** The authentication token. */
+    private WindowsAuthenticationToken token;
+
+    /** The role held. */
+    private String role;
+
+    /** The authority held. */
+    private GrantedAuthority authority;
+
+    /** The authority not held. */
+    private GrantedAuthority missingAuthority;
+
+    /**
+     * Creates the identity and principals.
+     */
+    @Setup
+    public void setup() {
+        this.identity = new SimulatedAuthProvider(this.groups).identity("EXAMPLE\\alice");
+        this.windowsPrincipal = new WindowsPrincipal(this.identity);
+        this.genericPrincipal = new GenericWindowsPrincipal(this.identity, PrincipalFormat.FQN, PrincipalFormat.FQN);
+        this.token = new WindowsAuthenticationToken(this.windowsPrincipal);
+        final List<String> groupNames = SimulatedAuthProvider.groupNames(this.groups);
+        this.role = groupNames.get(groupNames.size() - 1);
+        this.authority = new SimpleGrantedAuthority("ROLE_" + this.role.toUpperCase(Locale.ENGLISH));
+        this.missingAuthority = new SimpleGrantedAuthority("ROLE_EXAMPLE\\MISSING");
+        if (!this.windowsPrincipal.hasRole(this.role) || !this.genericPrincipal.hasRole(this.role)
+                || !this.token.getAuthorities().contains(this.authority)) {
+            throw new IllegalStateException("Role not granted: " + this.role);
+        }
+    }
+
+    /**
+     * Builds a windows principal.
+     *
+     * @return the windows principal
+     */
+    @Benchmark
+    public WindowsPrincipal windowsPrincipal() {
+        return new WindowsPrincipal(this.identity);
+    }
+
+    /**
+     * Builds a generic windows principal.
+     *
+     * @return the generic windows principal
+     */
+    @Benchmark
+    public GenericWindowsPrincipal genericWindowsPrincipal() {
+        return new GenericWindowsPrincipal(this.identity, PrincipalFormat.FQN, PrincipalFormat.FQN);
+    }
+
+    /**
+     * Builds an authentication token from a windows principal.
+     *
+     * @return the authentication token
+     */
+    @Benchmark
+    public WindowsAuthenticationToken windowsAuthenticationToken() {
+        return new WindowsAuthenticationToken(this.windowsPrincipal);
+    }
+
+    /**
+     * Checks a role held with a windows principal.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean windowsPrincipalHasRole() {
+        return this.windowsPrincipal.hasRole(this.role);
+    }
+
+    /**
+     * Checks a role not held with a windows principal.
+     *
+     * @return false
+     */
+    @Benchmark
+    public boolean windowsPrincipalHasMissingRole() {
+        return this.windowsPrincipal.hasRole("EXAMPLE\\Missing");
+    }
+
+    /**
+     * Checks a role held with a generic windows principal.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean genericWindowsPrincipalHasRole() {
+        return this.genericPrincipal.hasRole(this.role);
+    }
+
+    /**
+     * Checks an authority held with an authentication token.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean windowsAuthenticationTokenHasAuthority() {
+        return this.token.getAuthorities().contains(this.authority);
+    }
+
+    /**
+     * Checks an authority not held with an authentication token.
+     *
+     * @return false
+     */
+    @Benchmark
+    public boolean windowsAuthenticationTokenHasMissingAuthority() {
+        return this.token.getAuthorities().contains(this.missingAuthority);
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.spring.WindowsAuthenticationToken;
+
+/**
+ * Measures serializing the principals a session holds, as a replicated or persisted session does, and reports their
+ * serialized size in bytes as the {@code bytes} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(1)
+public class SessionSerializationBenchmark {
+
+    /** The group count. */
+    @Param({ "10", "100", "1000", "2000" })
+    private int groups;
+
+    /** The windows principal. */
+    private WindowsPrincipal windowsPrincipal;
+
+    /** The authentication token. */
+    private WindowsAuthenticationToken token;
+
+    /**
+     * The serialized size, reported with each result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+
+        /** The size in bytes of the last serialized object. */
+        public long bytes;
+
+    }
+
+    /**
+     * Creates the principals.
+     */
+    @Setup
+    public void setup() {
+        this.windowsPrincipal = new WindowsPrincipal(new SimulatedAuthProvider(this.groups).identity("EXAMPLE\\alice"));
+        this.token = new WindowsAuthenticationToken(this.windowsPrincipal);
+    }
+
+    /**
+     * Serializes a windows principal.
+     *
+     * @param size
+     *            the size
+     * @return the serialized principal
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    public byte[] windowsPrincipal(final Size size) throws IOException {
+        return SessionSerializationBenchmark.serialize(this.windowsPrincipal, size);
+    }
+
+    /**
+     * Serializes an authentication token.
+     *
+     * @param size
+     *            the size
+     * @return the serialized token
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Benchmark
+    public byte[] windowsAuthenticationToken(final Size size) throws IOException {
+        return SessionSerializationBenchmark.serialize(this.token, size);
+    }
+
+    /**
+     * Serializes an object.
+     *
+     * @param object
+     *            the object
+     * @param size
+     *            the size, set to the serialized size
+     * @return the serialized object
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static byte[] serialize(final Serializable object, final Size size) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        size.bytes = bytes.size();
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.mock.MockWindowsSecurityContext;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * A portable auth provider completing each handshake in one leg without native calls: the token names the user, who
+ * is a member of a given number of groups. Being portable, the filters authenticate with it outside of Windows.
+ */
+class SimulatedAuthProvider extends MockWindowsAuthProvider {
+
+    /** The group names. */
+    private final List<String> groupNames;
+
+    /**
+     * Instantiates a new simulated auth provider.
+     *
+     * @param groups
+     *            the number of groups of each user
+     */
+    SimulatedAuthProvider(final int groups) {
+        this.groupNames = Collections.unmodifiableList(SimulatedAuthProvider.groupNames(groups));
+    }
+
+    /**
+     * Creates group names.
+     *
+     * @param groups
+     *            the number of groups
+     * @return the group names
+     */
+    static List<String> groupNames(final int groups) {
+        final List<String> names = new ArrayList<>(groups);
+        names.add("Everyone");
+        names.add("EXAMPLE\\Domain Users");
+        for (int i = names.size(); i < groups; i++) {
+            names.add("EXAMPLE\\Group " + i);
+        }
+        return names.subList(0, Math.min(groups, names.size()));
+    }
+
+    /**
+     * Creates the identity of a user.
+     *
+     * @param fqn
+     *            the fully qualified user name
+     * @return the identity
+     */
+    IWindowsIdentity identity(final String fqn) {
+        return new MockWindowsIdentity(fqn, this.groupNames);
+    }
+
+    @Override
+    public IWindowsSecurityContext acceptSecurityToken(final String connectionId, final byte[] token,
+            final String securityPackage) {
+        final IWindowsIdentity identity = this.identity(new String(token, StandardCharsets.UTF_8));
+        return new MockWindowsSecurityContext(identity.getFqn()) {
+            @Override
+            public IWindowsIdentity getIdentity() {
+                return identity;
+            }
+        };
+    }
+
+    @Override
+    public boolean isPortable() {
+        return true;
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates stubs answering every method with the default value of its return type, as wrapped objects for the methods
+ * the benchmarks do not override. Being plain proxies, they run on any JVM the benchmarks do.
+ */
+final class Stubs {
+
+    /**
+     * Creates a stub.
+     *
+     * @param type
+     *            the interface to implement
+     * @return the stub
+     */
+    static Object create(final Class<?> type) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> Stubs.defaultValue(method.getReturnType()));
+    }
+
+    /**
+     * Gets the default value of a type.
+     *
+     * @param type
+     *            the type
+     * @return the default value, null for objects
+     */
+    private static Object defaultValue(final Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == char.class) {
+            return Character.valueOf('\0');
+        } else if (type == long.class) {
+            return Long.valueOf(0);
+        } else if (type == float.class) {
+            return Float.valueOf(0);
+        } else if (type == double.class) {
+            return Double.valueOf(0);
+        } else if (type == byte.class) {
+            return Byte.valueOf((byte) 0);
+        } else if (type == short.class) {
+            return Short.valueOf((short) 0);
+        }
+        return Integer.valueOf(0);
+    }
+
+    /**
+     * Instantiates a new stubs.
+     */
+    private Stubs() {
+        // Prevent Instantiation of object
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import waffle.util.NtlmMessage;
+import waffle.util.SPNegoMessage;
+
+/**
+ * Measures classifying decoded tokens with {@link NtlmMessage} and {@link SPNegoMessage}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenClassificationBenchmark {
+
+    /** The token kind. */
+    @Param({ "ntlm", "negotiate", "negotiate-arg" })
+    private String kind;
+
+    /** The token. */
+    private byte[] token;
+
+    /**
+     * Decodes the token.
+     */
+    @Setup
+    public void setup() {
+        final String header = Tokens.header(this.kind);
+        this.token = Base64.getDecoder().decode(header.substring(header.indexOf(' ') + 1));
+    }
+
+    /**
+     * Checks for an NTLM message.
+     *
+     * @return true, if an NTLM message
+     */
+    @Benchmark
+    public boolean isNtlmMessage() {
+        return NtlmMessage.isNtlmMessage(this.token);
+    }
+
+    /**
+     * Gets the NTLM message type.
+     *
+     * @return the message type, 0 if not an NTLM message
+     */
+    @Benchmark
+    public int ntlmMessageType() {
+        return NtlmMessage.isNtlmMessage(this.token) ? NtlmMessage.getMessageType(this.token) : 0;
+    }
+
+    /**
+     * Checks for a NegTokenInit.
+     *
+     * @return true, if a NegTokenInit
+     */
+    @Benchmark
+    public boolean isNegTokenInit() {
+        return SPNegoMessage.isNegTokenInit(this.token);
+    }
+
+    /**
+     * Checks for a NegTokenArg.
+     *
+     * @return true, if a NegTokenArg
+     */
+    @Benchmark
+    public boolean isNegTokenArg() {
+        return SPNegoMessage.isNegTokenArg(this.token);
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import java.util.Base64;
+
+/**
+ * Sample tokens and authorization headers of each kind a filter receives.
+ */
+final class Tokens {
+
+    /** The Constant NTLM_TYPE1, a raw NTLM type 1 message. */
+    static final String NTLM_TYPE1 = "TlRMTVNTUAABAAAABzIAAAYABgArAAAACwALACAAAABXT1JLU1RBVElPTkRPTUFJTg==";
+
+    /** The Constant NEG_TOKEN_INIT, captured from a browser, offering NTLM first with a type 1 mechanism token. */
+    static final String NEG_TOKEN_INIT = "YHYGBisGAQUFAqBsMGqgMDAuBgorBgEEAYI3AgIKBgkqhkiC9xIBAgIGCSqGSIb3"
+            + "EgECAgYKKwYBBAGCNwICHqI2BDROVExNU1NQAAEAAACXsgjiAwADADEAAAAJAAkAKAAAAAYBsR0AAAAPR0xZQ0VSSU5FU0FE";
+
+    /** The Constant NEG_TOKEN_ARG, a NegTokenArg answering with an NTLM type 3 message. */
+    static final String NEG_TOKEN_ARG = Base64.getEncoder()
+            .encodeToString(new byte[] { (byte) 0xA1, 0x33, 0x30, 0x31, 0x0, 0x03, 0x0A, 0x01, 0x01, 0x0, 0x2A, 0x04,
+                    0x28, 0x4E, 0x54, 0x4C, 0x4D, 0x53, 0x53, 0x50, 0x00, 0x03, 0x00, 0x00, 0x00, 0x0, 0x0, 0x08, 0x0,
+                    0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                    0x06, 0x01, 0x0, 0x1D, 0x00, 0x00, 0x00, 0x0F });
+
+    /** The Constant BEARER, a JSON web token. */
+    static final String BEARER = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9.eyJzdWIiOiJhbGljZSJ9."
+            + "SflKxwRJSMeKKF2QT4fwpMeJf36POk6yJV_adQssw5c";
+
+    /**
+     * Gets the authorization header of a kind.
+     *
+     * @param kind
+     *            ntlm, negotiate, negotiate-arg or bearer
+     * @return the header value
+     */
+    static String header(final String kind) {
+        switch (kind) {
+            case "ntlm":
+                return "NTLM " + Tokens.NTLM_TYPE1;
+            case "negotiate":
+                return "Negotiate " + Tokens.NEG_TOKEN_INIT;
+            case "negotiate-arg":
+                return "Negotiate " + Tokens.NEG_TOKEN_ARG;
+            case "bearer":
+                return "Bearer " + Tokens.BEARER;
+            default:
+                throw new IllegalArgumentException("Unknown header kind: " + kind);
+        }
+    }
+
+    /**
+     * Instantiates a new tokens.
+     */
+    private Tokens() {
+        // Prevent Instantiation of object
+    }
+}
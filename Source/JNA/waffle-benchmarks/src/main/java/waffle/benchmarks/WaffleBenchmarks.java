@@ -0,0 +1,79 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the Waffle benchmarks, taking the JMH command line options, for example
+ *
+ * <pre>
+ * java -cp ... waffle.benchmarks.WaffleBenchmarks -p groups=1000 PrincipalBenchmark
+ * </pre>
+ *
+ * Unless set on the command line, all benchmarks of this package run with the GC profiler, reporting the allocation
+ * rate per operation, in one fork of 3 warmup and 5 measurement iterations logging warnings only, and the results are
+ * written as JSON to {@code jmh-result.json}.
+ */
+public final class WaffleBenchmarks {
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the JMH command line options
+     * @throws CommandLineOptionException
+     *             the command line option exception
+     * @throws RunnerException
+     *             the runner exception
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(WaffleBenchmarks.class.getPackage().getName() + "\\..*Benchmark");
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getForkCount().hasValue()) {
+            options.forks(1);
+        }
+        if (!commandLine.getWarmupIterations().hasValue()) {
+            options.warmupIterations(3);
+        }
+        if (!commandLine.getMeasurementIterations().hasValue()) {
+            options.measurementIterations(5);
+        }
+        if (!commandLine.getJvmArgsAppend().hasValue()) {
+            options.jvmArgsAppend("-Dorg.slf4j.simpleLogger.defaultLogLevel=warn");
+        }
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * Instantiates a new waffle benchmarks.
+     */
+    private WaffleBenchmarks() {
+        // Prevent Instantiation of object
+    }
+}
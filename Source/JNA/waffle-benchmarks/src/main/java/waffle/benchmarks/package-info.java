@@ -1,7 +1,7 @@
 /**
  * Waffle (https://github.com/Waffle/waffle)
  *
- * Copyright (c) 2010-2016 Application Security, Inc.
+ * Copyright (c) 2010-2019 Application Security, Inc.
  *
  * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
  * Public License v1.0 which accompanies this distribution, and is available at
@@ -9,13 +9,7 @@
  *
  * Contributors: Application Security, Inc.
  */
-package waffle.jetty;
-
 /**
- * The Class DummyClass.
+ * Waffle JMH Benchmarks Package.
  */
-public class DummyClass {
-
-    // Dummy class to prevent javadoc build issues. Eventually there will be jetty code. This ensures no empty javadoc.
-
-}
+package waffle.benchmarks;
@@ -0,0 +1,381 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.jdk;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.client.NegotiateClientAuthenticator;
+import waffle.client.NegotiateClientContext;
+
+/**
+ * Sends {@link HttpClient} requests authenticated with Negotiate or NTLM. The JDK client only authenticates with
+ * Basic on its own.
+ *
+ * Requests to targets known to require Negotiate carry a Kerberos token preemptively. A <code>401</code> challenging
+ * for Negotiate or NTLM is answered transparently, leg after leg, with the unauthenticated responses discarded. NTLM
+ * authenticates connections: the client reuses the idle HTTP/1.1 connection the challenge came on for the next leg,
+ * and later requests on an authenticated connection are not challenged again.
+ *
+ * Tokens may take a round trip to the KDC, so asynchronous requests create them on the executor of the client.
+ */
+public class NegotiateHttpClient {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateHttpClient.class);
+
+    /** The Constant AUTHORIZATION. */
+    private static final String AUTHORIZATION = "Authorization";
+
+    /** The Constant WWW_AUTHENTICATE. */
+    private static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+
+    /** The Constant UNAUTHORIZED. */
+    private static final int UNAUTHORIZED = 401;
+
+    /** The Constant MAXIMUM_LEGS. */
+    private static final int MAXIMUM_LEGS = 4;
+
+    /** The client. */
+    private final HttpClient client;
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator;
+
+    /** The executor. */
+    private final Executor executor;
+
+    /**
+     * Instantiates a new negotiate http client.
+     *
+     * @param client
+     *            the client
+     * @param authenticator
+     *            the authenticator
+     */
+    public NegotiateHttpClient(final HttpClient client, final NegotiateClientAuthenticator authenticator) {
+        this.client = client;
+        this.authenticator = authenticator;
+        this.executor = client.executor().orElse(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Gets the client.
+     *
+     * @return the client
+     */
+    public HttpClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Sends a request, blocking until the response.
+     *
+     * @param <T>
+     *            the response body type
+     * @param request
+     *            the request
+     * @param bodyHandler
+     *            the body handler of the final response
+     * @return the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    public <T> HttpResponse<T> send(final HttpRequest request, final BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        try {
+            return this.sendAsync(request, bodyHandler, Runnable::run).get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a request asynchronously.
+     *
+     * @param <T>
+     *            the response body type
+     * @param request
+     *            the request
+     * @param bodyHandler
+     *            the body handler of the final response
+     * @return the response
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+            final BodyHandler<T> bodyHandler) {
+        return this.sendAsync(request, bodyHandler, this.executor);
+    }
+
+    /**
+     * Sends a request, creating tokens on an executor.
+     *
+     * @param <T>
+     *            the response body type
+     * @param request
+     *            the request
+     * @param bodyHandler
+     *            the body handler of the final response
+     * @param tokenExecutor
+     *            the executor tokens are created on
+     * @return the response
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(final HttpRequest request,
+            final BodyHandler<T> bodyHandler, final Executor tokenExecutor) {
+        if (request.headers().firstValue(NegotiateHttpClient.AUTHORIZATION).isPresent()) {
+            return this.client.sendAsync(request, bodyHandler);
+        }
+        final String host = request.uri().getHost();
+        final boolean preemptive = this.authenticator.isPreemptive(host);
+        final Handshake handshake = new Handshake(host, preemptive);
+        if (preemptive) {
+            return CompletableFuture
+                    .supplyAsync(() -> handshake.authorize(NegotiateClientAuthenticator.NEGOTIATE, null),
+                            tokenExecutor)
+                    .thenCompose(authorization -> this.send(request, bodyHandler, tokenExecutor, handshake,
+                            authorization, 1));
+        }
+        return this.send(request, bodyHandler, tokenExecutor, handshake, null, 0);
+    }
+
+    /**
+     * Sends a leg of a request.
+     *
+     * @param <T>
+     *            the response body type
+     * @param request
+     *            the request
+     * @param bodyHandler
+     *            the body handler of the final response
+     * @param tokenExecutor
+     *            the executor tokens are created on
+     * @param handshake
+     *            the handshake
+     * @param authorization
+     *            the authorization of the leg, null for none
+     * @param legs
+     *            the number of legs sent with a token
+     * @return the response
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(final HttpRequest request, final BodyHandler<T> bodyHandler,
+            final Executor tokenExecutor, final Handshake handshake, final String authorization, final int legs) {
+        final HttpRequest leg = authorization == null ? request
+                : NegotiateHttpClient.withAuthorization(request, authorization);
+        final BodyHandler<T> legBodyHandler = responseInfo -> {
+            handshake.answering = responseInfo.statusCode() == NegotiateHttpClient.UNAUTHORIZED
+                    && legs < NegotiateHttpClient.MAXIMUM_LEGS
+                    && handshake.select(responseInfo.headers().allValues(NegotiateHttpClient.WWW_AUTHENTICATE));
+            if (handshake.answering) {
+                // the response of an intermediate leg
+                return BodySubscribers.replacing(null);
+            }
+            return bodyHandler.apply(responseInfo);
+        };
+        return this.client.sendAsync(leg, legBodyHandler).thenCompose(response -> {
+            if (!handshake.answering) {
+                handshake.dispose();
+                if (response.statusCode() == NegotiateHttpClient.UNAUTHORIZED && legs > 0) {
+                    NegotiateHttpClient.LOGGER.debug("authentication failed: {}", request.uri());
+                }
+                return CompletableFuture.completedFuture(response);
+            }
+            return CompletableFuture
+                    .supplyAsync(() -> handshake.authorize(handshake.securityPackage, handshake.continueToken),
+                            tokenExecutor)
+                    .thenCompose(next -> this.send(request, bodyHandler, tokenExecutor, handshake, next, legs + 1));
+        }).whenComplete((response, e) -> {
+            if (e != null) {
+                handshake.dispose();
+            }
+        });
+    }
+
+    /**
+     * Copies a request with an authorization header.
+     *
+     * @param request
+     *            the request
+     * @param authorization
+     *            the authorization
+     * @return the request
+     */
+    private static HttpRequest withAuthorization(final HttpRequest request, final String authorization) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+                .expectContinue(request.expectContinue())
+                .method(request.method(), request.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()));
+        request.timeout().ifPresent(builder::timeout);
+        request.version().ifPresent(builder::version);
+        request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder.header(NegotiateHttpClient.AUTHORIZATION, authorization).build();
+    }
+
+    /**
+     * The handshake of a request.
+     */
+    private final class Handshake {
+
+        /** The host. */
+        private final String host;
+
+        /** The security package challenged for. */
+        private volatile String securityPackage;
+
+        /** Whether the last response is answered with another leg. */
+        private volatile boolean answering;
+
+        /** The continue token. */
+        private volatile byte[] continueToken;
+
+        /** The client context. */
+        private volatile NegotiateClientContext clientContext;
+
+        /** Whether a token was sent. */
+        private volatile boolean tokenSent;
+
+        /** Whether a rejected token is retried with a fresh handshake. */
+        private volatile boolean retryAllowed;
+
+        /**
+         * Instantiates a new handshake.
+         *
+         * @param host
+         *            the host
+         * @param preemptive
+         *            whether the first token is sent before any challenge
+         */
+        Handshake(final String host, final boolean preemptive) {
+            this.host = host;
+            this.retryAllowed = preemptive;
+        }
+
+        /**
+         * Selects the challenge to answer.
+         *
+         * @param challenges
+         *            the WWW-Authenticate values
+         * @return true, if the challenge is answered with another leg
+         */
+        boolean select(final List<String> challenges) {
+            String selected = null;
+            String challengeToken = null;
+            for (final String challenge : challenges) {
+                final String[] parts = challenge.trim().split("\\s+", 2);
+                final String scheme = parts[0];
+                if (NegotiateClientAuthenticator.NEGOTIATE.equalsIgnoreCase(scheme)
+                        || (selected == null && NegotiateClientAuthenticator.NTLM.equalsIgnoreCase(scheme))) {
+                    selected = NegotiateClientAuthenticator.NEGOTIATE.equalsIgnoreCase(scheme)
+                            ? NegotiateClientAuthenticator.NEGOTIATE
+                            : NegotiateClientAuthenticator.NTLM;
+                    challengeToken = parts.length > 1 ? parts[1] : null;
+                }
+            }
+            if (selected == null) {
+                return false;
+            }
+            if (NegotiateClientAuthenticator.NEGOTIATE.equals(selected)) {
+                NegotiateHttpClient.this.authenticator.addNegotiateTarget(this.host);
+            }
+
+            final byte[] token = NegotiateClientAuthenticator.getChallengeToken(challengeToken);
+            if (token != null && this.clientContext != null) {
+                this.continueToken = token;
+                this.securityPackage = selected;
+                return true;
+            }
+            this.disposeContext();
+            if (this.tokenSent) {
+                // the service rejected the last token
+                if (!this.retryAllowed) {
+                    return false;
+                }
+                this.retryAllowed = false;
+            }
+            this.securityPackage = selected;
+            return true;
+        }
+
+        /**
+         * Creates the authorization of the next leg.
+         *
+         * @param selectedPackage
+         *            the security package
+         * @param token
+         *            the continue token, null to start a handshake
+         * @return the authorization
+         */
+        String authorize(final String selectedPackage, final byte[] token) {
+            try {
+                if (this.clientContext != null && token != null) {
+                    this.clientContext.continueHandshake(token);
+                } else {
+                    this.disposeContext();
+                    this.clientContext = NegotiateHttpClient.this.authenticator.initialize(selectedPackage,
+                            this.host);
+                }
+                this.continueToken = null;
+                final byte[] bytes = this.clientContext.getToken();
+                if (!this.clientContext.isContinue()) {
+                    this.disposeContext();
+                }
+                this.tokenSent = true;
+                return NegotiateClientAuthenticator.getAuthorization(selectedPackage, bytes);
+            } catch (final RuntimeException e) {
+                this.disposeContext();
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * Disposes the client context of the handshake.
+         */
+        void dispose() {
+            this.disposeContext();
+        }
+
+        /**
+         * Disposes the client context.
+         */
+        private void disposeContext() {
+            final NegotiateClientContext context = this.clientContext;
+            this.clientContext = null;
+            if (context != null) {
+                try {
+                    context.dispose();
+                } catch (final RuntimeException e) {
+                    NegotiateHttpClient.LOGGER.debug("error disposing client context: {}", e.getMessage());
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.jdk;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import waffle.client.NegotiateClientAuthenticator;
+import waffle.client.NegotiateTestServer;
+import waffle.client.SimulatedTokenSource;
+
+/**
+ * The Class NegotiateHttpClientTests.
+ */
+public class NegotiateHttpClientTests {
+
+    /** The token source. */
+    private final SimulatedTokenSource tokenSource = new SimulatedTokenSource();
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator = new NegotiateClientAuthenticator(this.tokenSource);
+
+    /** The client. */
+    private final NegotiateHttpClient client = new NegotiateHttpClient(
+            HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(), this.authenticator);
+
+    /** The server. */
+    private NegotiateTestServer server;
+
+    /**
+     * Closes the server.
+     */
+    @AfterEach
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    /**
+     * Gets the server uri.
+     *
+     * @return the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    private HttpResponse<String> get() throws IOException, InterruptedException {
+        return this.client.send(HttpRequest.newBuilder(URI.create(this.server.getUri())).build(),
+                BodyHandlers.ofString());
+    }
+
+    /**
+     * Test that a Negotiate challenge is answered, and later requests authenticate preemptively.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testNegotiatePreemptive() throws Exception {
+        this.server = new NegotiateTestServer("Negotiate", "NTLM");
+        Assertions.assertEquals("negotiate", this.get().body());
+        Assertions.assertEquals(2, this.server.getRequests());
+
+        Assertions.assertEquals("negotiate", this.client
+                .sendAsync(HttpRequest.newBuilder(URI.create(this.server.getUri())).build(), BodyHandlers.ofString())
+                .get().body());
+        Assertions.assertEquals(3, this.server.getRequests());
+    }
+
+    /**
+     * Test an NTLM handshake on one connection.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testNtlmConnection() throws Exception {
+        this.server = new NegotiateTestServer("NTLM");
+        Assertions.assertEquals("ntlm", this.get().body());
+        Assertions.assertEquals(3, this.server.getRequests());
+        Assertions.assertEquals("ntlm", this.get().body());
+        Assertions.assertEquals(4, this.server.getRequests());
+        Assertions.assertEquals(1, this.tokenSource.getTargetNames().size());
+    }
+
+    /**
+     * Test that a rejected preemptive token is retried once with a fresh handshake.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testPreemptiveRejected() throws Exception {
+        this.server = new NegotiateTestServer("Negotiate");
+        this.authenticator.addNegotiateTarget("localhost");
+        this.server.rejectNext();
+        Assertions.assertEquals("negotiate", this.get().body());
+        Assertions.assertEquals(2, this.server.getRequests());
+        Assertions.assertEquals(2, this.tokenSource.getTargetNames().size());
+    }
+
+    /**
+     * Test that a failing handshake ends with the challenge.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testFailure() throws Exception {
+        this.server = new NegotiateTestServer("Negotiate");
+        this.authenticator.setServiceClass("HOST");
+        final HttpResponse<String> response = this.get();
+        Assertions.assertEquals(401, response.statusCode());
+        Assertions.assertEquals("unauthorized", response.body());
+        Assertions.assertEquals(2, this.server.getRequests());
+        Assertions.assertEquals(this.tokenSource.getTargetNames().size(), this.tokenSource.getDisposed().size());
+    }
+
+}
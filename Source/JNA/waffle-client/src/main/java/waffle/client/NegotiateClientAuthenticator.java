@@ -0,0 +1,254 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The state shared by the Negotiate authentication of outbound calls: the {@link NegotiateTokenSource}, the service
+ * principal names of the targets, and the targets known to require Negotiate.
+ *
+ * A target that challenged for Negotiate once gets a Kerberos token preemptively on the next calls, saving the
+ * unauthenticated round trip. A preemptive token the target rejects is retried once with a fresh handshake.
+ */
+public class NegotiateClientAuthenticator {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateClientAuthenticator.class);
+
+    /** The Constant NEGOTIATE. */
+    public static final String NEGOTIATE = "Negotiate";
+
+    /** The Constant NTLM. */
+    public static final String NTLM = "NTLM";
+
+    /** The Constant MAXIMUM_TARGETS. */
+    private static final int MAXIMUM_TARGETS = 1024;
+
+    /** The token source. */
+    private final NegotiateTokenSource tokenSource;
+
+    /** The service principal names, by host. */
+    private final Cache<String, String> servicePrincipalNames;
+
+    /** The hosts known to require Negotiate. */
+    private final Cache<String, Boolean> negotiateTargets;
+
+    /** The service class. */
+    private String serviceClass = "HTTP";
+
+    /** The canonicalize host name. */
+    private boolean canonicalizeHostName;
+
+    /** The preemptive. */
+    private boolean preemptive = true;
+
+    /**
+     * Instantiates a new negotiate client authenticator, authenticating as the current Windows identity.
+     */
+    public NegotiateClientAuthenticator() {
+        this(new WindowsNegotiateTokenSource());
+    }
+
+    /**
+     * Instantiates a new negotiate client authenticator.
+     *
+     * @param tokenSource
+     *            the token source
+     */
+    public NegotiateClientAuthenticator(final NegotiateTokenSource tokenSource) {
+        this.tokenSource = tokenSource;
+        this.servicePrincipalNames = Caffeine.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES)
+                .maximumSize(NegotiateClientAuthenticator.MAXIMUM_TARGETS).build();
+        this.negotiateTargets = Caffeine.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
+                .maximumSize(NegotiateClientAuthenticator.MAXIMUM_TARGETS).build();
+    }
+
+    /**
+     * Starts a handshake with a host.
+     *
+     * @param securityPackage
+     *            the security package
+     * @param host
+     *            the host name
+     * @return the client context holding the first token
+     */
+    public NegotiateClientContext initialize(final String securityPackage, final String host) {
+        final String targetName = this.getServicePrincipalName(host);
+        NegotiateClientAuthenticator.LOGGER.debug("security package: {}, target name: {}", securityPackage,
+                targetName);
+        return this.tokenSource.initialize(securityPackage, targetName);
+    }
+
+    /**
+     * Gets the service principal name of a host, resolved once and cached.
+     *
+     * @param host
+     *            the host name
+     * @return the service principal name
+     */
+    public String getServicePrincipalName(final String host) {
+        return this.servicePrincipalNames.get(host.toLowerCase(Locale.ENGLISH), this::resolveServicePrincipalName);
+    }
+
+    /**
+     * Resolves the service principal name of a host.
+     *
+     * @param host
+     *            the host name
+     * @return the service principal name
+     */
+    private String resolveServicePrincipalName(final String host) {
+        String hostName = host;
+        if (this.canonicalizeHostName) {
+            try {
+                hostName = InetAddress.getByName(host).getCanonicalHostName().toLowerCase(Locale.ENGLISH);
+            } catch (final UnknownHostException e) {
+                NegotiateClientAuthenticator.LOGGER.debug("cannot canonicalize host name: {}", e.getMessage());
+            }
+        }
+        return this.serviceClass + "/" + hostName;
+    }
+
+    /**
+     * Checks if calls to a host get a Negotiate token preemptively.
+     *
+     * @param host
+     *            the host name
+     * @return true, if preemptive
+     */
+    public boolean isPreemptive(final String host) {
+        return this.preemptive
+                && this.negotiateTargets.getIfPresent(host.toLowerCase(Locale.ENGLISH)) != null;
+    }
+
+    /**
+     * Records that a host requires Negotiate. Called when it challenges, or ahead of the first call to it.
+     *
+     * @param host
+     *            the host name
+     */
+    public void addNegotiateTarget(final String host) {
+        this.negotiateTargets.put(host.toLowerCase(Locale.ENGLISH), Boolean.TRUE);
+    }
+
+    /**
+     * Gets the authorization header value of a token.
+     *
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the token
+     * @return the authorization
+     */
+    public static String getAuthorization(final String securityPackage, final byte[] token) {
+        return securityPackage + " " + Base64.getEncoder().encodeToString(token);
+    }
+
+    /**
+     * Gets the token of an authentication challenge.
+     *
+     * @param challenge
+     *            the challenge, the value of a <code>WWW-Authenticate</code> header without the scheme
+     * @return the token, null if the challenge has none or is malformed
+     */
+    public static byte[] getChallengeToken(final String challenge) {
+        if (challenge == null || challenge.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(challenge.trim());
+        } catch (final IllegalArgumentException e) {
+            NegotiateClientAuthenticator.LOGGER.debug("malformed challenge: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the token source.
+     *
+     * @return the token source
+     */
+    public NegotiateTokenSource getTokenSource() {
+        return this.tokenSource;
+    }
+
+    /**
+     * Gets the service class.
+     *
+     * @return the service class
+     */
+    public String getServiceClass() {
+        return this.serviceClass;
+    }
+
+    /**
+     * Sets the service class of service principal names. Default is HTTP.
+     *
+     * @param value
+     *            the new service class
+     */
+    public void setServiceClass(final String value) {
+        this.serviceClass = value;
+        this.servicePrincipalNames.invalidateAll();
+    }
+
+    /**
+     * Checks if is canonicalize host name.
+     *
+     * @return true, if is canonicalize host name
+     */
+    public boolean isCanonicalizeHostName() {
+        return this.canonicalizeHostName;
+    }
+
+    /**
+     * Sets whether service principal names use the canonical name of hosts, following DNS aliases. Default is false.
+     *
+     * @param value
+     *            the new canonicalize host name
+     */
+    public void setCanonicalizeHostName(final boolean value) {
+        this.canonicalizeHostName = value;
+        this.servicePrincipalNames.invalidateAll();
+    }
+
+    /**
+     * Checks if is preemptive.
+     *
+     * @return true, if is preemptive
+     */
+    public boolean isPreemptive() {
+        return this.preemptive;
+    }
+
+    /**
+     * Sets whether known Negotiate targets get a token preemptively. Default is true.
+     *
+     * @param value
+     *            the new preemptive
+     */
+    public void setPreemptive(final boolean value) {
+        this.preemptive = value;
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+/**
+ * The client side of a Negotiate handshake.
+ */
+public interface NegotiateClientContext {
+
+    /**
+     * Gets the name of the principal the client authenticates as.
+     *
+     * @return the principal name, null if unknown
+     */
+    String getPrincipalName();
+
+    /**
+     * Gets the token to send to the service.
+     *
+     * @return the token
+     */
+    byte[] getToken();
+
+    /**
+     * Checks if the handshake needs another token of the service.
+     *
+     * @return true, if another leg is needed
+     */
+    boolean isContinue();
+
+    /**
+     * Continues the handshake with a token of the service, producing the next token.
+     *
+     * @param continueToken
+     *            the token of the service
+     */
+    void continueHandshake(byte[] continueToken);
+
+    /**
+     * Releases the context.
+     */
+    void dispose();
+
+}
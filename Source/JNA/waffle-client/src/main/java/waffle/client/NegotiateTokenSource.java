@@ -0,0 +1,31 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+/**
+ * A source of client Negotiate tokens. {@link WindowsNegotiateTokenSource} initializes SSPI security contexts as the
+ * current Windows identity; other implementations may use JGSS, or simulate a handshake in tests.
+ */
+public interface NegotiateTokenSource {
+
+    /**
+     * Starts a handshake with a service.
+     *
+     * @param securityPackage
+     *            the security package, "Negotiate", "Kerberos" or "NTLM"
+     * @param targetName
+     *            the service principal name of the target, e.g. <code>HTTP/server.example.com</code>
+     * @return the client context holding the first token
+     */
+    NegotiateClientContext initialize(String securityPackage, String targetName);
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.sun.jna.platform.win32.Sspi;
+import com.sun.jna.platform.win32.Sspi.CredHandle;
+import com.sun.jna.platform.win32.SspiUtil.ManagedSecBufferDesc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.windows.auth.IWindowsCredentialsHandle;
+import waffle.windows.auth.impl.WindowsAccountImpl;
+import waffle.windows.auth.impl.WindowsCredentialsHandleImpl;
+import waffle.windows.auth.impl.WindowsSecurityContextImpl;
+
+/**
+ * A token source initializing SSPI security contexts as the current Windows identity, that of the thread when it
+ * impersonates.
+ *
+ * Acquiring an outbound credentials handle is a round trip to LSA, so handles are pooled per security package and
+ * identity and shared by all threads; SSPI credentials handles are thread safe. Unused handles are freed after the
+ * idle timeout.
+ */
+public class WindowsNegotiateTokenSource implements NegotiateTokenSource {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsNegotiateTokenSource.class);
+
+    /** The Constant DEFAULT_IDLE_TIMEOUT in seconds. */
+    public static final int DEFAULT_IDLE_TIMEOUT = 1800;
+
+    /** The Constant MAXIMUM_HANDLES. */
+    private static final int MAXIMUM_HANDLES = 256;
+
+    /** The credentials handles, by security package and identity. */
+    private final Cache<String, IWindowsCredentialsHandle> credentialsHandles;
+
+    /**
+     * Instantiates a new windows negotiate token source freeing handles idle for {@link #DEFAULT_IDLE_TIMEOUT}
+     * seconds.
+     */
+    public WindowsNegotiateTokenSource() {
+        this(WindowsNegotiateTokenSource.DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new windows negotiate token source.
+     *
+     * @param idleTimeout
+     *            the idle timeout of credentials handles in seconds
+     */
+    public WindowsNegotiateTokenSource(final int idleTimeout) {
+        this.credentialsHandles = Caffeine.newBuilder().expireAfterAccess(idleTimeout, TimeUnit.SECONDS)
+                .maximumSize(WindowsNegotiateTokenSource.MAXIMUM_HANDLES).executor(Runnable::run)
+                .removalListener((final String key, final IWindowsCredentialsHandle handle,
+                        final RemovalCause cause) -> WindowsNegotiateTokenSource.free(key, handle))
+                .build();
+    }
+
+    @Override
+    public NegotiateClientContext initialize(final String securityPackage, final String targetName) {
+        final String principalName = WindowsAccountImpl.getCurrentUsername();
+        final IWindowsCredentialsHandle credentialsHandle = this.credentialsHandles.get(
+                securityPackage + "|" + principalName, key -> WindowsCredentialsHandleImpl.getCurrent(securityPackage));
+
+        final WindowsSecurityContextImpl securityContext = new WindowsSecurityContextImpl();
+        securityContext.setPrincipalName(principalName);
+        securityContext.setCredentialsHandle(new SharedCredentialsHandle(credentialsHandle));
+        securityContext.setSecurityPackage(securityPackage);
+        securityContext.initialize(null, null, targetName);
+        return new WindowsClientContext(securityContext, targetName);
+    }
+
+    /**
+     * Frees the pooled credentials handles.
+     */
+    public void dispose() {
+        this.credentialsHandles.invalidateAll();
+    }
+
+    /**
+     * Frees a credentials handle.
+     *
+     * @param key
+     *            the key
+     * @param handle
+     *            the handle
+     */
+    private static void free(final String key, final IWindowsCredentialsHandle handle) {
+        if (handle == null) {
+            return;
+        }
+        WindowsNegotiateTokenSource.LOGGER.debug("freeing credentials handle: {}", key);
+        try {
+            handle.dispose();
+        } catch (final RuntimeException e) {
+            WindowsNegotiateTokenSource.LOGGER.warn("error freeing credentials handle: {}", e.getMessage());
+            WindowsNegotiateTokenSource.LOGGER.trace("", e);
+        }
+    }
+
+    /**
+     * A pooled credentials handle, which the security contexts using it do not free.
+     */
+    private static class SharedCredentialsHandle implements IWindowsCredentialsHandle {
+
+        /** The handle. */
+        private final IWindowsCredentialsHandle handle;
+
+        /**
+         * Instantiates a new shared credentials handle.
+         *
+         * @param handle
+         *            the pooled handle
+         */
+        SharedCredentialsHandle(final IWindowsCredentialsHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public void initialize() {
+            // acquired by the pool
+        }
+
+        @Override
+        public void dispose() {
+            // freed by the pool
+        }
+
+        @Override
+        public CredHandle getHandle() {
+            return this.handle.getHandle();
+        }
+
+    }
+
+    /**
+     * A client context over an SSPI security context.
+     */
+    private static class WindowsClientContext implements NegotiateClientContext {
+
+        /** The security context. */
+        private final WindowsSecurityContextImpl securityContext;
+
+        /** The target name. */
+        private final String targetName;
+
+        /**
+         * Instantiates a new windows client context.
+         *
+         * @param securityContext
+         *            the initialized security context
+         * @param targetName
+         *            the target name
+         */
+        WindowsClientContext(final WindowsSecurityContextImpl securityContext, final String targetName) {
+            this.securityContext = securityContext;
+            this.targetName = targetName;
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return this.securityContext.getPrincipalName();
+        }
+
+        @Override
+        public byte[] getToken() {
+            return this.securityContext.getToken();
+        }
+
+        @Override
+        public boolean isContinue() {
+            return this.securityContext.isContinue();
+        }
+
+        @Override
+        public void continueHandshake(final byte[] continueToken) {
+            this.securityContext.initialize(this.securityContext.getHandle(),
+                    new ManagedSecBufferDesc(Sspi.SECBUFFER_TOKEN, continueToken), this.targetName);
+        }
+
+        @Override
+        public void dispose() {
+            this.securityContext.dispose();
+        }
+
+    }
+
+}
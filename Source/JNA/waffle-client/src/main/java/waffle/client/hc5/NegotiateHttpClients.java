@@ -0,0 +1,65 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.hc5;
+
+import org.apache.hc.client5.http.auth.AuthSchemeFactory;
+import org.apache.hc.client5.http.auth.StandardAuthScheme;
+import org.apache.hc.client5.http.impl.auth.BasicSchemeFactory;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.core5.http.config.Registry;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+
+import waffle.client.NegotiateClientAuthenticator;
+
+/**
+ * Factory of Apache HttpClient 5 builders authenticating with Negotiate and NTLM as the current Windows identity.
+ */
+public final class NegotiateHttpClients {
+
+    /**
+     * Creates a client builder with the Negotiate and NTLM schemes of an authenticator, and preemptive Kerberos tokens
+     * for the targets known to require them. Reuse an {@link org.apache.hc.client5.http.protocol.HttpClientContext}
+     * per thread for its requests to reuse NTLM authenticated connections.
+     *
+     * @param authenticator
+     *            the authenticator
+     * @return the http client builder
+     */
+    public static HttpClientBuilder custom(final NegotiateClientAuthenticator authenticator) {
+        return HttpClientBuilder.create().setDefaultAuthSchemeRegistry(NegotiateHttpClients.registry(authenticator))
+                .addRequestInterceptorLast(new PreemptiveNegotiateInterceptor(authenticator));
+    }
+
+    /**
+     * Creates the registry of the authentication schemes of an authenticator, along with Basic.
+     *
+     * @param authenticator
+     *            the authenticator
+     * @return the registry
+     */
+    public static Registry<AuthSchemeFactory> registry(final NegotiateClientAuthenticator authenticator) {
+        return RegistryBuilder.<AuthSchemeFactory> create()
+                .register(StandardAuthScheme.SPNEGO,
+                        new WindowsNegotiateSchemeFactory(NegotiateClientAuthenticator.NEGOTIATE, authenticator))
+                .register(StandardAuthScheme.NTLM,
+                        new WindowsNegotiateSchemeFactory(NegotiateClientAuthenticator.NTLM, authenticator))
+                .register(StandardAuthScheme.BASIC, BasicSchemeFactory.INSTANCE).build();
+    }
+
+    /**
+     * Instantiates a new negotiate http clients.
+     */
+    private NegotiateHttpClients() {
+        // Prevent Instantiation of object
+    }
+
+}
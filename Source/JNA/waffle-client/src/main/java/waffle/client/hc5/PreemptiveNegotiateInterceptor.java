@@ -0,0 +1,67 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.hc5;
+
+import org.apache.hc.client5.http.RouteInfo;
+import org.apache.hc.client5.http.auth.AuthExchange;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpRequestInterceptor;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.client.NegotiateClientAuthenticator;
+
+/**
+ * Selects a preemptive {@link WindowsNegotiateScheme} for the unchallenged requests to targets known to require
+ * Negotiate, so that they carry a Kerberos token from the first attempt. Challenges are still answered by the
+ * registered schemes.
+ */
+public class PreemptiveNegotiateInterceptor implements HttpRequestInterceptor {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreemptiveNegotiateInterceptor.class);
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator;
+
+    /**
+     * Instantiates a new preemptive negotiate interceptor.
+     *
+     * @param authenticator
+     *            the authenticator
+     */
+    public PreemptiveNegotiateInterceptor(final NegotiateClientAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    @Override
+    public void process(final HttpRequest request, final EntityDetails entity, final HttpContext context) {
+        final HttpClientContext clientContext = HttpClientContext.adapt(context);
+        final RouteInfo route = clientContext.getHttpRoute();
+        if (route == null) {
+            return;
+        }
+        final HttpHost target = route.getTargetHost();
+        final AuthExchange authExchange = clientContext.getAuthExchange(target);
+        if (authExchange.getState() == AuthExchange.State.UNCHALLENGED && authExchange.getAuthScheme() == null
+                && this.authenticator.isPreemptive(target.getHostName())) {
+            PreemptiveNegotiateInterceptor.LOGGER.debug("preemptive negotiate: {}", target);
+            authExchange.select(new WindowsNegotiateScheme(NegotiateClientAuthenticator.NEGOTIATE,
+                    this.authenticator, true));
+        }
+    }
+
+}
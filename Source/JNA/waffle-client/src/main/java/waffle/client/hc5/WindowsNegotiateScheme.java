@@ -0,0 +1,193 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.hc5;
+
+import java.security.Principal;
+
+import org.apache.hc.client5.http.auth.AuthChallenge;
+import org.apache.hc.client5.http.auth.AuthScheme;
+import org.apache.hc.client5.http.auth.AuthenticationException;
+import org.apache.hc.client5.http.auth.BasicUserPrincipal;
+import org.apache.hc.client5.http.auth.CredentialsProvider;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.client.NegotiateClientAuthenticator;
+import waffle.client.NegotiateClientContext;
+
+/**
+ * A Negotiate or NTLM authentication scheme, authenticating with the tokens of a {@link NegotiateClientAuthenticator}
+ * instead of credentials.
+ *
+ * The scheme is connection based: its principal becomes the state of the authenticated connection, which requests
+ * sharing the same {@link HttpClientContext} then reuse without a new handshake.
+ */
+public class WindowsNegotiateScheme implements AuthScheme {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsNegotiateScheme.class);
+
+    /** The scheme name. */
+    private final String schemeName;
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator;
+
+    /** The client context of the handshake in progress. */
+    private NegotiateClientContext clientContext;
+
+    /** The continue token of the service. */
+    private byte[] continueToken;
+
+    /** The principal. */
+    private Principal principal;
+
+    /** Whether a token was sent since the last challenge. */
+    private boolean tokenSent;
+
+    /** Whether a rejected token is retried with a fresh handshake. */
+    private boolean retryAllowed;
+
+    /** The failed. */
+    private boolean failed;
+
+    /**
+     * Instantiates a new windows negotiate scheme.
+     *
+     * @param schemeName
+     *            the scheme name, "Negotiate" or "NTLM"
+     * @param authenticator
+     *            the authenticator
+     * @param preemptive
+     *            whether the scheme sends its first token before any challenge
+     */
+    public WindowsNegotiateScheme(final String schemeName, final NegotiateClientAuthenticator authenticator,
+            final boolean preemptive) {
+        this.schemeName = schemeName;
+        this.authenticator = authenticator;
+        this.retryAllowed = preemptive;
+    }
+
+    @Override
+    public String getName() {
+        return this.schemeName;
+    }
+
+    @Override
+    public boolean isConnectionBased() {
+        return true;
+    }
+
+    @Override
+    public void processChallenge(final AuthChallenge authChallenge, final HttpContext context) {
+        if (NegotiateClientAuthenticator.NEGOTIATE.equalsIgnoreCase(this.schemeName)) {
+            final HttpClientContext clientContext = HttpClientContext.adapt(context);
+            if (clientContext.getHttpRoute() != null) {
+                this.authenticator.addNegotiateTarget(clientContext.getHttpRoute().getTargetHost().getHostName());
+            }
+        }
+
+        final byte[] token = NegotiateClientAuthenticator.getChallengeToken(authChallenge.getValue());
+        if (token != null && this.clientContext != null) {
+            // next leg
+            this.continueToken = token;
+            return;
+        }
+
+        this.disposeContext();
+        if (this.tokenSent) {
+            // the service rejected the last token
+            if (this.retryAllowed) {
+                WindowsNegotiateScheme.LOGGER.debug("{} token rejected, retrying with a new handshake",
+                        this.schemeName);
+                this.retryAllowed = false;
+            } else {
+                this.failed = true;
+            }
+        }
+        this.tokenSent = false;
+    }
+
+    @Override
+    public boolean isChallengeComplete() {
+        return this.failed;
+    }
+
+    @Override
+    public String getRealm() {
+        return null;
+    }
+
+    @Override
+    public boolean isResponseReady(final HttpHost host, final CredentialsProvider credentialsProvider,
+            final HttpContext context) {
+        return !this.failed;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return this.principal;
+    }
+
+    @Override
+    public String generateAuthResponse(final HttpHost host, final HttpRequest request, final HttpContext context)
+            throws AuthenticationException {
+        if (this.failed) {
+            throw new AuthenticationException(this.schemeName + " authentication failed");
+        }
+        try {
+            if (this.clientContext != null && this.continueToken != null) {
+                this.clientContext.continueHandshake(this.continueToken);
+            } else {
+                this.disposeContext();
+                this.clientContext = this.authenticator.initialize(this.schemeName, host.getHostName());
+                final String principalName = this.clientContext.getPrincipalName();
+                this.principal = principalName == null ? null : new BasicUserPrincipal(principalName);
+            }
+            this.continueToken = null;
+            final byte[] token = this.clientContext.getToken();
+            if (!this.clientContext.isContinue()) {
+                this.disposeContext();
+            }
+            this.tokenSent = true;
+            return NegotiateClientAuthenticator.getAuthorization(this.schemeName, token);
+        } catch (final RuntimeException e) {
+            this.disposeContext();
+            throw new AuthenticationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Disposes the client context of the handshake in progress.
+     */
+    private void disposeContext() {
+        this.continueToken = null;
+        if (this.clientContext != null) {
+            try {
+                this.clientContext.dispose();
+            } catch (final RuntimeException e) {
+                WindowsNegotiateScheme.LOGGER.debug("error disposing client context: {}", e.getMessage());
+            }
+            this.clientContext = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.schemeName;
+    }
+
+}
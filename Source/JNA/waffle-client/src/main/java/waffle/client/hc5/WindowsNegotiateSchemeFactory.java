@@ -0,0 +1,49 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.hc5;
+
+import org.apache.hc.client5.http.auth.AuthScheme;
+import org.apache.hc.client5.http.auth.AuthSchemeFactory;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import waffle.client.NegotiateClientAuthenticator;
+
+/**
+ * Creates {@link WindowsNegotiateScheme}s answering challenges.
+ */
+public class WindowsNegotiateSchemeFactory implements AuthSchemeFactory {
+
+    /** The scheme name. */
+    private final String schemeName;
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator;
+
+    /**
+     * Instantiates a new windows negotiate scheme factory.
+     *
+     * @param schemeName
+     *            the scheme name, "Negotiate" or "NTLM"
+     * @param authenticator
+     *            the authenticator
+     */
+    public WindowsNegotiateSchemeFactory(final String schemeName, final NegotiateClientAuthenticator authenticator) {
+        this.schemeName = schemeName;
+        this.authenticator = authenticator;
+    }
+
+    @Override
+    public AuthScheme create(final HttpContext context) {
+        return new WindowsNegotiateScheme(this.schemeName, this.authenticator, false);
+    }
+
+}
@@ -0,0 +1,19 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+/**
+ * Waffle Apache HttpClient 5 Package.
+ *
+ * <p>
+ * Negotiate (Kerberos/NTLM) authentication schemes for Apache HttpClient 5, with preemptive Kerberos tokens.
+ * </p>
+ */
+package waffle.client.hc5;
@@ -0,0 +1,67 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Class NegotiateClientAuthenticatorTests.
+ */
+public class NegotiateClientAuthenticatorTests {
+
+    /**
+     * Test service principal names.
+     */
+    @Test
+    public void testServicePrincipalName() {
+        final SimulatedTokenSource tokenSource = new SimulatedTokenSource();
+        final NegotiateClientAuthenticator authenticator = new NegotiateClientAuthenticator(tokenSource);
+        Assertions.assertEquals("HTTP/server.example.com", authenticator.getServicePrincipalName("Server.Example.COM"));
+        authenticator.setServiceClass("HOST");
+        Assertions.assertEquals("HOST/server.example.com", authenticator.getServicePrincipalName("server.example.com"));
+
+        authenticator.initialize(NegotiateClientAuthenticator.NEGOTIATE, "server.example.com").dispose();
+        Assertions.assertEquals("HOST/server.example.com", tokenSource.getTargetNames().get(0));
+    }
+
+    /**
+     * Test that targets get preemptive tokens once known.
+     */
+    @Test
+    public void testPreemptive() {
+        final NegotiateClientAuthenticator authenticator = new NegotiateClientAuthenticator(
+                new SimulatedTokenSource());
+        Assertions.assertFalse(authenticator.isPreemptive("server"));
+        authenticator.addNegotiateTarget("SERVER");
+        Assertions.assertTrue(authenticator.isPreemptive("server"));
+        authenticator.setPreemptive(false);
+        Assertions.assertFalse(authenticator.isPreemptive("server"));
+    }
+
+    /**
+     * Test challenge tokens.
+     */
+    @Test
+    public void testChallengeToken() {
+        Assertions.assertNull(NegotiateClientAuthenticator.getChallengeToken(null));
+        Assertions.assertNull(NegotiateClientAuthenticator.getChallengeToken(" "));
+        Assertions.assertNull(NegotiateClientAuthenticator.getChallengeToken("not base64!"));
+        Assertions.assertArrayEquals("token".getBytes(StandardCharsets.UTF_8),
+                NegotiateClientAuthenticator.getChallengeToken("dG9rZW4="));
+        Assertions.assertEquals("NTLM dG9rZW4=", NegotiateClientAuthenticator
+                .getAuthorization(NegotiateClientAuthenticator.NTLM, "token".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP server simulating a Windows authenticated service, for the tokens of a {@link SimulatedTokenSource}.
+ * Negotiate authenticates requests, NTLM authenticates connections in two legs.
+ */
+public class NegotiateTestServer implements AutoCloseable {
+
+    /** The server. */
+    private final HttpServer server;
+
+    /** The protocols challenged for. */
+    private final String[] protocols;
+
+    /** The requests. */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /** The connections with an NTLM handshake in progress. */
+    private final Set<InetSocketAddress> ntlmHandshakes = ConcurrentHashMap.newKeySet();
+
+    /** The NTLM authenticated connections. */
+    private final Set<InetSocketAddress> authenticatedConnections = ConcurrentHashMap.newKeySet();
+
+    /** Whether the next Negotiate token is rejected. */
+    private final AtomicBoolean rejectNext = new AtomicBoolean();
+
+    /**
+     * Starts a server on a free local port.
+     *
+     * @param protocols
+     *            the protocols challenged for
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public NegotiateTestServer(final String... protocols) throws IOException {
+        this.protocols = protocols;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param exchange
+     *            the exchange
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() != -1) {
+                // drain
+            }
+        }
+        final InetSocketAddress connection = exchange.getRemoteAddress();
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null) {
+            if (this.authenticatedConnections.contains(connection)) {
+                NegotiateTestServer.respond(exchange, 200, "ntlm");
+            } else {
+                this.challenge(exchange);
+            }
+            return;
+        }
+
+        final String[] parts = authorization.split(" ", 2);
+        final String token = new String(Base64.getDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+        if ("Negotiate".equals(parts[0]) && token.equals("Negotiate:HTTP/localhost:1")) {
+            if (this.rejectNext.getAndSet(false)) {
+                this.challenge(exchange);
+            } else {
+                NegotiateTestServer.respond(exchange, 200, "negotiate");
+            }
+        } else if ("NTLM".equals(parts[0]) && token.equals("NTLM:HTTP/localhost:1")) {
+            this.ntlmHandshakes.add(connection);
+            exchange.getResponseHeaders().add("WWW-Authenticate",
+                    "NTLM " + Base64.getEncoder().encodeToString("challenge".getBytes(StandardCharsets.UTF_8)));
+            NegotiateTestServer.respond(exchange, 401, null);
+        } else if ("NTLM".equals(parts[0]) && token.equals("NTLM:HTTP/localhost:2")
+                && this.ntlmHandshakes.remove(connection)) {
+            this.authenticatedConnections.add(connection);
+            NegotiateTestServer.respond(exchange, 200, "ntlm");
+        } else {
+            this.challenge(exchange);
+        }
+    }
+
+    /**
+     * Challenges for the protocols of the server.
+     *
+     * @param exchange
+     *            the exchange
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void challenge(final HttpExchange exchange) throws IOException {
+        for (final String protocol : this.protocols) {
+            exchange.getResponseHeaders().add("WWW-Authenticate", protocol);
+        }
+        NegotiateTestServer.respond(exchange, 401, "unauthorized");
+    }
+
+    /**
+     * Sends a response.
+     *
+     * @param exchange
+     *            the exchange
+     * @param status
+     *            the status
+     * @param body
+     *            the body, null for none
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static void respond(final HttpExchange exchange, final int status, final String body)
+            throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * Gets the base uri of the server, on localhost.
+     *
+     * @return the uri
+     */
+    public String getUri() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Gets the number of requests received.
+     *
+     * @return the requests
+     */
+    public int getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Rejects the next Negotiate token.
+     */
+    public void rejectNext() {
+        this.rejectNext.set(true);
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+
+}
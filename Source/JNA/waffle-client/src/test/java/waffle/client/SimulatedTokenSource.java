@@ -0,0 +1,83 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A token source simulating Kerberos and NTLM handshakes without SSPI: Negotiate completes in one leg, NTLM in two.
+ * Tokens read <code>package:target:leg</code>.
+ */
+public class SimulatedTokenSource implements NegotiateTokenSource {
+
+    /** The target names of the handshakes started. */
+    private final List<String> targetNames = new CopyOnWriteArrayList<>();
+
+    /** The target names of the disposed contexts. */
+    private final List<String> disposed = new CopyOnWriteArrayList<>();
+
+    @Override
+    public NegotiateClientContext initialize(final String securityPackage, final String targetName) {
+        this.targetNames.add(targetName);
+        return new NegotiateClientContext() {
+
+            /** The leg. */
+            private int leg = 1;
+
+            @Override
+            public String getPrincipalName() {
+                return "DOMAIN\\client";
+            }
+
+            @Override
+            public byte[] getToken() {
+                return (securityPackage + ":" + targetName + ":" + this.leg).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public boolean isContinue() {
+                return NegotiateClientAuthenticator.NTLM.equals(securityPackage) && this.leg == 1;
+            }
+
+            @Override
+            public void continueHandshake(final byte[] continueToken) {
+                this.leg++;
+            }
+
+            @Override
+            public void dispose() {
+                SimulatedTokenSource.this.disposed.add(targetName);
+            }
+        };
+    }
+
+    /**
+     * Gets the target names of the handshakes started.
+     *
+     * @return the target names
+     */
+    public List<String> getTargetNames() {
+        return this.targetNames;
+    }
+
+    /**
+     * Gets the target names of the disposed contexts.
+     *
+     * @return the disposed
+     */
+    public List<String> getDisposed() {
+        return this.disposed;
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.client.hc5;
+
+import java.io.IOException;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.client.NegotiateClientAuthenticator;
+import waffle.client.NegotiateTestServer;
+import waffle.client.SimulatedTokenSource;
+
+/**
+ * The Class WindowsNegotiateSchemeTests.
+ */
+public class WindowsNegotiateSchemeTests {
+
+    /** The token source. */
+    private final SimulatedTokenSource tokenSource = new SimulatedTokenSource();
+
+    /** The authenticator. */
+    private final NegotiateClientAuthenticator authenticator = new NegotiateClientAuthenticator(this.tokenSource);
+
+    /** The client. */
+    private CloseableHttpClient client;
+
+    /** The server. */
+    private NegotiateTestServer server;
+
+    /**
+     * Sets up the client.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.client = NegotiateHttpClients.custom(this.authenticator).build();
+    }
+
+    /**
+     * Closes the client and server.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+        this.client.close();
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    /**
+     * Gets the server uri.
+     *
+     * @param context
+     *            the context
+     * @return the response body, or the status code of a failure
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private String get(final HttpClientContext context) throws IOException {
+        try (CloseableHttpResponse response = this.client.execute(new HttpGet(this.server.getUri()), context)) {
+            if (response.getCode() != 200) {
+                EntityUtils.consume(response.getEntity());
+                return String.valueOf(response.getCode());
+            }
+            return EntityUtils.toString(response.getEntity());
+        } catch (final ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Test that a Negotiate challenge is answered, and later requests authenticate preemptively.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testNegotiatePreemptive() throws IOException {
+        this.server = new NegotiateTestServer("Negotiate", "NTLM");
+        Assertions.assertEquals("negotiate", this.get(HttpClientContext.create()));
+        Assertions.assertEquals(2, this.server.getRequests());
+        Assertions.assertTrue(this.authenticator.isPreemptive("localhost"));
+
+        Assertions.assertEquals("negotiate", this.get(HttpClientContext.create()));
+        Assertions.assertEquals(3, this.server.getRequests());
+        Assertions.assertEquals("HTTP/localhost", this.tokenSource.getTargetNames().get(0));
+    }
+
+    /**
+     * Test an NTLM handshake, and the reuse of its connection by the next request of the context.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testNtlmConnection() throws IOException {
+        this.server = new NegotiateTestServer("NTLM");
+        final HttpClientContext context = HttpClientContext.create();
+        Assertions.assertEquals("ntlm", this.get(context));
+        Assertions.assertEquals(3, this.server.getRequests());
+        Assertions.assertEquals("ntlm", this.get(context));
+        Assertions.assertEquals(4, this.server.getRequests());
+        Assertions.assertEquals(1, this.tokenSource.getTargetNames().size());
+        Assertions.assertFalse(this.authenticator.isPreemptive("localhost"));
+    }
+
+    /**
+     * Test that a rejected preemptive token is retried once with a fresh handshake.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testPreemptiveRejected() throws IOException {
+        this.server = new NegotiateTestServer("Negotiate");
+        this.authenticator.addNegotiateTarget("localhost");
+        this.server.rejectNext();
+        Assertions.assertEquals("negotiate", this.get(HttpClientContext.create()));
+        Assertions.assertEquals(2, this.server.getRequests());
+        Assertions.assertEquals(2, this.tokenSource.getTargetNames().size());
+    }
+
+    /**
+     * Test that a failing handshake ends with the challenge.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testFailure() throws IOException {
+        this.server = new NegotiateTestServer("Negotiate");
+        this.authenticator.setServiceClass("HOST");
+        Assertions.assertEquals("401", this.get(HttpClientContext.create()));
+        Assertions.assertEquals(2, this.server.getRequests());
+        Assertions.assertEquals(this.tokenSource.getTargetNames().size(), this.tokenSource.getDisposed().size());
+    }
+
+}
@@ -0,0 +1,378 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.grpc;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.PrincipalFormat;
+
+/**
+ * A gRPC server interceptor authenticating calls carrying a single-leg Negotiate (Kerberos) token in their
+ * <code>authorization</code> metadata, as <code>Negotiate &lt;base64 token&gt;</code>.
+ *
+ * HTTP/2 multiplexes calls from many threads of a client on one connection, so the connection-oriented NTLM handshake
+ * does not fit; a token that needs another leg is rejected. With a {@link NegotiateTransportFilter} installed, the
+ * principal is kept in the attributes of the transport: the first call authenticates it, and the calls and long-lived
+ * streams that follow on it run without a native call. The principal is available to the service through
+ * {@link #getWindowsPrincipal()}.
+ *
+ * All calls to the {@link IWindowsAuthProvider} block, so they run on a separate {@link Executor}; the events of the
+ * call are held until it completes. Calls failing to authenticate are closed with {@link Status#UNAUTHENTICATED}.
+ */
+public class NegotiateServerInterceptor implements ServerInterceptor {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateServerInterceptor.class);
+
+    /** The Constant WINDOWS_PRINCIPAL. */
+    public static final Context.Key<WindowsPrincipal> WINDOWS_PRINCIPAL = Context.key("waffle.windowsPrincipal");
+
+    /** The Constant AUTHORIZATION. */
+    public static final Metadata.Key<String> AUTHORIZATION = Metadata.Key.of("authorization",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    /** The Constant WWW_AUTHENTICATE. */
+    public static final Metadata.Key<String> WWW_AUTHENTICATE = Metadata.Key.of("www-authenticate",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    /** The Constant SECURITY_PACKAGE. */
+    private static final String SECURITY_PACKAGE = "Negotiate";
+
+    /** The auth. */
+    private final IWindowsAuthProvider auth;
+
+    /** The executor. */
+    private final Executor executor;
+
+    /** The connection counter, making each handshake unique to the provider. */
+    private final AtomicLong connectionCounter = new AtomicLong();
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /**
+     * Instantiates a new negotiate server interceptor.
+     *
+     * @param auth
+     *            the windows auth provider
+     * @param executor
+     *            the executor the provider calls run on, preferably bounded and not the executor of the server
+     */
+    public NegotiateServerInterceptor(final IWindowsAuthProvider auth, final Executor executor) {
+        this.auth = auth;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the principal of the current call.
+     *
+     * @return the windows principal, null outside of an authenticated call
+     */
+    public static WindowsPrincipal getWindowsPrincipal() {
+        return NegotiateServerInterceptor.WINDOWS_PRINCIPAL.get();
+    }
+
+    @Override
+    public <R, S> ServerCall.Listener<R> interceptCall(final ServerCall<R, S> call, final Metadata headers,
+            final ServerCallHandler<R, S> next) {
+        final NegotiateTransportState transportState = call.getAttributes()
+                .get(NegotiateTransportFilter.TRANSPORT_STATE);
+        final WindowsPrincipal authenticated = transportState == null ? null : transportState.getWindowsPrincipal();
+        if (authenticated != null) {
+            return Contexts.interceptCall(
+                    Context.current().withValue(NegotiateServerInterceptor.WINDOWS_PRINCIPAL, authenticated), call,
+                    headers, next);
+        }
+
+        final byte[] token = NegotiateServerInterceptor.getToken(headers.get(NegotiateServerInterceptor.AUTHORIZATION));
+        if (token == null) {
+            NegotiateServerInterceptor.LOGGER.debug("no negotiate credentials: {}",
+                    call.getMethodDescriptor().getFullMethodName());
+            NegotiateServerInterceptor.reject(call, "Negotiate credentials required");
+            return new ServerCall.Listener<R>() {
+                // the call is closed
+            };
+        }
+
+        final Context context = Context.current();
+        final PendingListener<R> listener = new PendingListener<>();
+        try {
+            this.executor.execute(() -> this.authenticate(call, headers, next, token, transportState, context,
+                    listener));
+        } catch (final RejectedExecutionException e) {
+            NegotiateServerInterceptor.LOGGER.warn("authentication rejected: {}", e.getMessage());
+            call.close(Status.UNAVAILABLE.withDescription("Authentication unavailable"), new Metadata());
+            listener.setDelegate(new ServerCall.Listener<R>() {
+                // the call is closed
+            });
+        }
+        return listener;
+    }
+
+    /**
+     * Authenticates a call and starts the rest of the chain. Runs on the executor.
+     *
+     * @param <R>
+     *            the request type
+     * @param <S>
+     *            the response type
+     * @param call
+     *            the call
+     * @param headers
+     *            the headers
+     * @param next
+     *            the rest of the chain
+     * @param token
+     *            the token
+     * @param transportState
+     *            the transport state, null without a {@link NegotiateTransportFilter}
+     * @param context
+     *            the context of the call
+     * @param listener
+     *            the listener holding the events of the call
+     */
+    private <R, S> void authenticate(final ServerCall<R, S> call, final Metadata headers,
+            final ServerCallHandler<R, S> next, final byte[] token, final NegotiateTransportState transportState,
+            final Context context, final PendingListener<R> listener) {
+        final String connectionId = "grpc:" + this.connectionCounter.incrementAndGet();
+        NegotiateServerInterceptor.LOGGER.debug("method: {}, connection id: {}, {} byte(s)",
+                call.getMethodDescriptor().getFullMethodName(), connectionId, Integer.valueOf(token.length));
+
+        WindowsPrincipal windowsPrincipal = null;
+        byte[] mutualToken = null;
+        String failure = null;
+        try {
+            final IWindowsSecurityContext securityContext = this.auth.acceptSecurityToken(connectionId, token,
+                    NegotiateServerInterceptor.SECURITY_PACKAGE);
+            if (securityContext.isContinue()) {
+                // NTLM or a multi-leg mechanism: nothing keeps the handshake between calls
+                NegotiateServerInterceptor.LOGGER.warn("multi-leg handshake not supported, connection id: {}",
+                        connectionId);
+                this.auth.resetSecurityToken(connectionId);
+                securityContext.dispose();
+                failure = "Single-leg Negotiate token required";
+            } else {
+                mutualToken = securityContext.getToken();
+                windowsPrincipal = this.createPrincipal(securityContext);
+                if (windowsPrincipal == null) {
+                    failure = "Guest login disabled";
+                }
+            }
+        } catch (final RuntimeException e) {
+            NegotiateServerInterceptor.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateServerInterceptor.LOGGER.trace("", e);
+            failure = "Authentication failed";
+        }
+        if (failure != null) {
+            NegotiateServerInterceptor.reject(call, failure);
+            listener.setDelegate(new ServerCall.Listener<R>() {
+                // the call is closed
+            });
+            return;
+        }
+
+        if (transportState != null) {
+            transportState.setWindowsPrincipal(windowsPrincipal);
+        }
+        ServerCall<R, S> authenticatedCall = call;
+        if (mutualToken != null && mutualToken.length > 0) {
+            authenticatedCall = new MutualAuthenticationCall<>(call, NegotiateServerInterceptor.SECURITY_PACKAGE + " "
+                    + Base64.getEncoder().encodeToString(mutualToken));
+        }
+        listener.setDelegate(Contexts.interceptCall(
+                context.withValue(NegotiateServerInterceptor.WINDOWS_PRINCIPAL, windowsPrincipal), authenticatedCall,
+                headers, next));
+    }
+
+    /**
+     * Creates the principal of a completed handshake, disposing the security context.
+     *
+     * @param securityContext
+     *            the security context
+     * @return the windows principal, null for a guest when guest login is disabled
+     */
+    private WindowsPrincipal createPrincipal(final IWindowsSecurityContext securityContext) {
+        final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+        try {
+            NegotiateServerInterceptor.LOGGER.debug("logged in user: {} ({})", windowsIdentity.getFqn(),
+                    windowsIdentity.getSidString());
+            if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+                NegotiateServerInterceptor.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+                return null;
+            }
+            final WindowsPrincipal windowsPrincipal = new WindowsPrincipal(windowsIdentity, this.principalFormat,
+                    this.roleFormat);
+            NegotiateServerInterceptor.LOGGER.debug("roles: {}", windowsPrincipal.getRolesString());
+            NegotiateServerInterceptor.LOGGER.info("successfully logged in user: {}", windowsIdentity.getFqn());
+            return windowsPrincipal;
+        } finally {
+            windowsIdentity.dispose();
+            securityContext.dispose();
+        }
+    }
+
+    /**
+     * Gets the token of a Negotiate authorization.
+     *
+     * @param authorization
+     *            the authorization metadata
+     * @return the token, null if the authorization is missing, of another scheme or malformed
+     */
+    private static byte[] getToken(final String authorization) {
+        if (authorization == null) {
+            return null;
+        }
+        final String prefix = NegotiateServerInterceptor.SECURITY_PACKAGE + " ";
+        if (!authorization.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return null;
+        }
+        try {
+            final byte[] token = Base64.getDecoder().decode(authorization.substring(prefix.length()).trim());
+            return token.length == 0 ? null : token;
+        } catch (final IllegalArgumentException e) {
+            NegotiateServerInterceptor.LOGGER.debug("invalid negotiate token: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Closes a call as unauthenticated, challenging for Negotiate credentials.
+     *
+     * @param call
+     *            the call
+     * @param description
+     *            the description
+     */
+    private static void reject(final ServerCall<?, ?> call, final String description) {
+        final Metadata trailers = new Metadata();
+        trailers.put(NegotiateServerInterceptor.WWW_AUTHENTICATE, NegotiateServerInterceptor.SECURITY_PACKAGE);
+        call.close(Status.UNAUTHENTICATED.withDescription(description), trailers);
+    }
+
+    /**
+     * Gets the principal format.
+     *
+     * @return the principal format
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Sets the principal format.
+     *
+     * @param value
+     *            the new principal format
+     */
+    public void setPrincipalFormat(final String value) {
+        this.principalFormat = PrincipalFormat.valueOf(value.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Gets the role format.
+     *
+     * @return the role format
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * Sets the role format.
+     *
+     * @param value
+     *            the new role format
+     */
+    public void setRoleFormat(final String value) {
+        this.roleFormat = PrincipalFormat.valueOf(value.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Checks if is allow guest login.
+     *
+     * @return true, if is allow guest login
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Sets the allow guest login.
+     *
+     * @param value
+     *            the new allow guest login
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+    }
+
+    /**
+     * A call sending the final token of the handshake in its response headers, for mutual authentication.
+     *
+     * @param <R>
+     *            the request type
+     * @param <S>
+     *            the response type
+     */
+    private static class MutualAuthenticationCall<R, S> extends ForwardingServerCall.SimpleForwardingServerCall<R, S> {
+
+        /** The www authenticate. */
+        private final String wwwAuthenticate;
+
+        /**
+         * Instantiates a new mutual authentication call.
+         *
+         * @param delegate
+         *            the delegate
+         * @param wwwAuthenticate
+         *            the www authenticate value
+         */
+        MutualAuthenticationCall(final ServerCall<R, S> delegate, final String wwwAuthenticate) {
+            super(delegate);
+            this.wwwAuthenticate = wwwAuthenticate;
+        }
+
+        @Override
+        public void sendHeaders(final Metadata headers) {
+            headers.put(NegotiateServerInterceptor.WWW_AUTHENTICATE, this.wwwAuthenticate);
+            super.sendHeaders(headers);
+        }
+
+    }
+
+}
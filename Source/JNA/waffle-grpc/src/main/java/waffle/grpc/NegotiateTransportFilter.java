@@ -0,0 +1,38 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.grpc;
+
+import io.grpc.Attributes;
+import io.grpc.ServerTransportFilter;
+
+/**
+ * Adds the authentication state of a transport to its attributes, for the {@link NegotiateServerInterceptor} to
+ * authenticate each HTTP/2 connection once. Without it, every call is authenticated.
+ *
+ * <pre>
+ * ServerBuilder.forPort(port).addTransportFilter(new NegotiateTransportFilter())
+ *         .addService(ServerInterceptors.intercept(service, new NegotiateServerInterceptor(provider, executor)));
+ * </pre>
+ */
+public class NegotiateTransportFilter extends ServerTransportFilter {
+
+    /** The Constant TRANSPORT_STATE. */
+    static final Attributes.Key<NegotiateTransportState> TRANSPORT_STATE = Attributes.Key
+            .create("waffle.transportState");
+
+    @Override
+    public Attributes transportReady(final Attributes transportAttrs) {
+        return transportAttrs.toBuilder()
+                .set(NegotiateTransportFilter.TRANSPORT_STATE, new NegotiateTransportState()).build();
+    }
+
+}
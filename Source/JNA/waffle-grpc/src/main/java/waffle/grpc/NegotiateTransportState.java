@@ -0,0 +1,43 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.grpc;
+
+import waffle.servlet.WindowsPrincipal;
+
+/**
+ * The authentication state of an HTTP/2 transport, shared by all the calls multiplexed on it.
+ */
+class NegotiateTransportState {
+
+    /** The windows principal. */
+    private volatile WindowsPrincipal windowsPrincipal;
+
+    /**
+     * Gets the principal authenticated on the transport.
+     *
+     * @return the windows principal, null if the transport is not authenticated
+     */
+    WindowsPrincipal getWindowsPrincipal() {
+        return this.windowsPrincipal;
+    }
+
+    /**
+     * Sets the principal authenticated on the transport.
+     *
+     * @param value
+     *            the new windows principal
+     */
+    void setWindowsPrincipal(final WindowsPrincipal value) {
+        this.windowsPrincipal = value;
+    }
+
+}
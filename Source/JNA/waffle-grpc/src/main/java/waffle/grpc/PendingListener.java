@@ -0,0 +1,111 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.grpc;
+
+import io.grpc.ServerCall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A call listener holding the events of a call until the listener of the rest of the chain is known, that is until
+ * the call is authenticated.
+ *
+ * @param <R>
+ *            the request type
+ */
+class PendingListener<R> extends ServerCall.Listener<R> {
+
+    /** The pending events, null once they are delivered directly. */
+    private List<Consumer<ServerCall.Listener<R>>> pendingEvents = new ArrayList<>();
+
+    /** The delegate. */
+    private volatile ServerCall.Listener<R> delegate;
+
+    /** Whether events are delivered directly. */
+    private volatile boolean passThrough;
+
+    /**
+     * Sets the listener of the rest of the chain and replays the pending events to it.
+     *
+     * @param value
+     *            the delegate
+     */
+    void setDelegate(final ServerCall.Listener<R> value) {
+        List<Consumer<ServerCall.Listener<R>>> events;
+        synchronized (this) {
+            this.delegate = value;
+            events = this.pendingEvents;
+            this.pendingEvents = new ArrayList<>();
+        }
+        while (true) {
+            for (final Consumer<ServerCall.Listener<R>> event : events) {
+                event.accept(value);
+            }
+            synchronized (this) {
+                if (this.pendingEvents.isEmpty()) {
+                    // events are delivered directly from now on
+                    this.pendingEvents = null;
+                    this.passThrough = true;
+                    return;
+                }
+                events = this.pendingEvents;
+                this.pendingEvents = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Delivers an event, or holds it until the delegate is set.
+     *
+     * @param event
+     *            the event
+     */
+    private void deliver(final Consumer<ServerCall.Listener<R>> event) {
+        if (!this.passThrough) {
+            synchronized (this) {
+                if (this.pendingEvents != null) {
+                    this.pendingEvents.add(event);
+                    return;
+                }
+            }
+        }
+        event.accept(this.delegate);
+    }
+
+    @Override
+    public void onMessage(final R message) {
+        this.deliver(listener -> listener.onMessage(message));
+    }
+
+    @Override
+    public void onHalfClose() {
+        this.deliver(listener -> listener.onHalfClose());
+    }
+
+    @Override
+    public void onCancel() {
+        this.deliver(listener -> listener.onCancel());
+    }
+
+    @Override
+    public void onComplete() {
+        this.deliver(listener -> listener.onComplete());
+    }
+
+    @Override
+    public void onReady() {
+        this.deliver(listener -> listener.onReady());
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.grpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.servlet.WindowsPrincipal;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * The Class NegotiateServerInterceptorTests.
+ */
+public class NegotiateServerInterceptorTests {
+
+    /** The Constant MARSHALLER. */
+    private static final MethodDescriptor.Marshaller<String> MARSHALLER = new MethodDescriptor.Marshaller<String>() {
+
+        @Override
+        public InputStream stream(final String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(final InputStream stream) {
+            try {
+                final byte[] buffer = new byte[stream.available()];
+                final int length = stream.read(buffer);
+                return new String(buffer, 0, Math.max(length, 0), StandardCharsets.UTF_8);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    /** The Constant WHO_AM_I. */
+    private static final MethodDescriptor<String, String> WHO_AM_I = MethodDescriptor.<String, String> newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY).setFullMethodName("waffle.Test/WhoAmI")
+            .setRequestMarshaller(NegotiateServerInterceptorTests.MARSHALLER)
+            .setResponseMarshaller(NegotiateServerInterceptorTests.MARSHALLER).build();
+
+    /** The executor. */
+    private ExecutorService executor;
+
+    /** The provider. */
+    private IWindowsAuthProvider provider;
+
+    /** The thread of the last provider call. */
+    private final AtomicReference<String> thread = new AtomicReference<>();
+
+    /** The interceptor. */
+    private NegotiateServerInterceptor interceptor;
+
+    /** The server. */
+    private Server server;
+
+    /** The channel. */
+    private ManagedChannel channel;
+
+    /**
+     * Sets up a provider recording the thread it runs on.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "waffle-sspi"));
+        this.provider = Mockito.spy(new MockWindowsAuthProvider());
+        Mockito.doAnswer(invocation -> {
+            this.thread.set(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(this.provider).acceptSecurityToken(Mockito.anyString(), Mockito.any(), Mockito.anyString());
+        this.interceptor = new NegotiateServerInterceptor(this.provider, this.executor);
+    }
+
+    /**
+     * Shuts the server and channel down.
+     */
+    @AfterEach
+    public void tearDown() {
+        if (this.channel != null) {
+            this.channel.shutdownNow();
+        }
+        if (this.server != null) {
+            this.server.shutdownNow();
+        }
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Starts an in-process server answering with the name of the caller.
+     *
+     * @param transportFilter
+     *            whether to install the transport filter
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void start(final boolean transportFilter) throws IOException {
+        final ServerServiceDefinition service = ServerServiceDefinition.builder("waffle.Test")
+                .addMethod(NegotiateServerInterceptorTests.WHO_AM_I, ServerCalls.asyncUnaryCall((request, observer) -> {
+                    final WindowsPrincipal principal = NegotiateServerInterceptor.getWindowsPrincipal();
+                    observer.onNext(principal == null ? "" : principal.getName());
+                    observer.onCompleted();
+                })).build();
+        final String name = InProcessServerBuilder.generateName();
+        final InProcessServerBuilder builder = InProcessServerBuilder.forName(name);
+        if (transportFilter) {
+            builder.addTransportFilter(new NegotiateTransportFilter());
+        }
+        this.server = builder.addService(ServerInterceptors.intercept(service, this.interceptor)).build().start();
+        this.channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    /**
+     * Calls the server.
+     *
+     * @param authorization
+     *            the authorization metadata, null for none
+     * @return the response
+     */
+    private String call(final String authorization) {
+        Channel callChannel = this.channel;
+        if (authorization != null) {
+            final Metadata headers = new Metadata();
+            headers.put(NegotiateServerInterceptor.AUTHORIZATION, authorization);
+            callChannel = ClientInterceptors.intercept(callChannel,
+                    MetadataUtils.newAttachHeadersInterceptor(headers));
+        }
+        return ClientCalls.blockingUnaryCall(callChannel, NegotiateServerInterceptorTests.WHO_AM_I, CallOptions.DEFAULT,
+                "");
+    }
+
+    /**
+     * Negotiate authorization of a user.
+     *
+     * @param user
+     *            the user
+     * @return the authorization
+     */
+    private static String negotiate(final String user) {
+        return "Negotiate " + Base64.getEncoder().encodeToString(user.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that calls without credentials are rejected.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testNoCredentials() throws IOException {
+        this.start(true);
+        final StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class,
+                () -> this.call(null));
+        Assertions.assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+        Assertions.assertEquals("Negotiate", e.getTrailers().get(NegotiateServerInterceptor.WWW_AUTHENTICATE));
+        Mockito.verify(this.provider, Mockito.never()).acceptSecurityToken(Mockito.anyString(), Mockito.any(),
+                Mockito.anyString());
+    }
+
+    /**
+     * Test that the transport is authenticated once, off the transport thread.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testTransportAuthenticatedOnce() throws IOException {
+        this.start(true);
+        Assertions.assertEquals("user", this.call(NegotiateServerInterceptorTests.negotiate("user")));
+        Assertions.assertEquals("waffle-sspi", this.thread.get());
+        Assertions.assertEquals("user", this.call(NegotiateServerInterceptorTests.negotiate("user")));
+        Assertions.assertEquals("user", this.call(null));
+        Mockito.verify(this.provider, Mockito.times(1)).acceptSecurityToken(Mockito.anyString(), Mockito.any(),
+                Mockito.eq("Negotiate"));
+    }
+
+    /**
+     * Test that each call is authenticated without the transport filter.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testWithoutTransportFilter() throws IOException {
+        this.start(false);
+        Assertions.assertEquals("user", this.call(NegotiateServerInterceptorTests.negotiate("user")));
+        Assertions.assertEquals("other", this.call(NegotiateServerInterceptorTests.negotiate("other")));
+        final StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class,
+                () -> this.call(null));
+        Assertions.assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+    }
+
+    /**
+     * Test that a token needing another leg is rejected and its context released.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testContinueRejected() throws IOException {
+        final IWindowsSecurityContext continueContext = Mockito.mock(IWindowsSecurityContext.class);
+        Mockito.when(Boolean.valueOf(continueContext.isContinue())).thenReturn(Boolean.TRUE);
+        Mockito.when(continueContext.getToken()).thenReturn(new byte[] { 1, 2, 3 });
+        this.provider = Mockito.mock(IWindowsAuthProvider.class);
+        Mockito.when(this.provider.acceptSecurityToken(Mockito.anyString(), Mockito.any(), Mockito.eq("Negotiate")))
+                .thenReturn(continueContext);
+        this.interceptor = new NegotiateServerInterceptor(this.provider, this.executor);
+        this.start(true);
+
+        final StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class,
+                () -> this.call(NegotiateServerInterceptorTests.negotiate("TlRMTVNTUAABAAAA")));
+        Assertions.assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+        Mockito.verify(this.provider).resetSecurityToken(Mockito.startsWith("grpc:"));
+        Mockito.verify(continueContext).dispose();
+    }
+
+    /**
+     * Test that guests are rejected when guest login is disabled.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testGuestDisabled() throws IOException {
+        this.interceptor.setAllowGuestLogin(false);
+        this.start(true);
+        final StatusRuntimeException e = Assertions.assertThrows(StatusRuntimeException.class,
+                () -> this.call(NegotiateServerInterceptorTests.negotiate("Guest")));
+        Assertions.assertEquals(Status.Code.UNAUTHENTICATED, e.getStatus().getCode());
+        Assertions.assertEquals("user", this.call(NegotiateServerInterceptorTests.negotiate("user")));
+    }
+
+}
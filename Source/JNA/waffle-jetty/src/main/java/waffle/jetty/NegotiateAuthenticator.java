@@ -0,0 +1,329 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import com.sun.jna.platform.win32.Win32Exception;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.security.ServerAuthException;
+import org.eclipse.jetty.security.UserAuthentication;
+import org.eclipse.jetty.security.authentication.DeferredAuthentication;
+import org.eclipse.jetty.security.authentication.LoginAuthenticator;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Authentication.User;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.util.security.Constraint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.util.AuthorizationHeader;
+import waffle.util.ChallengeResponseWriter;
+import waffle.util.NtlmServletRequest;
+import waffle.util.RequestBodyCheck;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * A Jetty authenticator for Negotiate (Kerberos/NTLM) single sign-on. Requires a {@link WindowsLoginService}.
+ *
+ * When the connector uses a {@link NegotiateHttpConnectionFactory}, the handshake state and the established identity
+ * are kept on the {@link NegotiateHttpConnection}: later requests on an authenticated connection are authenticated
+ * without a lookup, and an in-progress handshake is released when the connection closes. With other connection
+ * factories every request carrying credentials runs a handshake keyed by the remote address and port.
+ */
+public class NegotiateAuthenticator extends LoginAuthenticator {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateAuthenticator.class);
+
+    /** The Constant SUPPORTED_PROTOCOLS. */
+    private static final Set<String> SUPPORTED_PROTOCOLS = new LinkedHashSet<>(Arrays.asList("Negotiate", "NTLM"));
+
+    /** The protocols. */
+    private Set<String> protocols = NegotiateAuthenticator.SUPPORTED_PROTOCOLS;
+
+    /** The connection identity reuse. */
+    private boolean reuseConnectionIdentity = true;
+
+    /** The challenge writer. */
+    private final ChallengeResponseWriter challengeWriter = new ChallengeResponseWriter();
+
+    @Override
+    public void setConfiguration(final AuthConfiguration configuration) {
+        super.setConfiguration(configuration);
+        if (!(this._loginService instanceof WindowsLoginService)) {
+            throw new IllegalStateException("WindowsLoginService required, not " + this._loginService);
+        }
+    }
+
+    @Override
+    public String getAuthMethod() {
+        return Constraint.__NEGOTIATE_AUTH;
+    }
+
+    @Override
+    public Authentication validateRequest(final ServletRequest servletRequest, final ServletResponse servletResponse,
+            final boolean mandatory) throws ServerAuthException {
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        final HttpServletResponse response = (HttpServletResponse) servletResponse;
+        final NegotiateHttpConnection connection = NegotiateAuthenticator.getConnection();
+        final AuthorizationHeader authorizationHeader = new AuthorizationHeader(request);
+
+        if (authorizationHeader.isNull()) {
+            if (connection != null && this.reuseConnectionIdentity) {
+                final UserIdentity userIdentity = connection.getUserIdentity();
+                if (userIdentity != null) {
+                    // connection already authenticated
+                    return new UserAuthentication(this.getAuthMethod(), userIdentity);
+                }
+            }
+            if (!mandatory) {
+                return new DeferredAuthentication(this);
+            }
+            if (DeferredAuthentication.isDeferred(response)) {
+                return Authentication.UNAUTHENTICATED;
+            }
+            NegotiateAuthenticator.LOGGER.debug("authorization required");
+            try {
+                this.challengeWriter.sendChallenge(response, this.protocols,
+                        !RequestBodyCheck.isDrainable(request));
+            } catch (final IOException e) {
+                throw new ServerAuthException(e);
+            }
+            return Authentication.SEND_CONTINUE;
+        }
+
+        if (!mandatory) {
+            return new DeferredAuthentication(this);
+        }
+
+        return this.authenticate(request, response, connection, authorizationHeader);
+    }
+
+    /**
+     * Runs a leg of the handshake.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param connection
+     *            the connection, null if not a {@link NegotiateHttpConnection}
+     * @param authorizationHeader
+     *            the authorization header
+     * @return the authentication
+     * @throws ServerAuthException
+     *             the server auth exception
+     */
+    private Authentication authenticate(final HttpServletRequest request, final HttpServletResponse response,
+            final NegotiateHttpConnection connection, final AuthorizationHeader authorizationHeader)
+            throws ServerAuthException {
+        final WindowsLoginService loginService = (WindowsLoginService) this._loginService;
+        final IWindowsAuthProvider auth = loginService.getAuth();
+        final String securityPackage = authorizationHeader.getSecurityPackage();
+        final String connectionId = connection == null ? NtlmServletRequest.getConnectionId(request)
+                : connection.getConnectionId();
+
+        NegotiateAuthenticator.LOGGER.debug("security package: {}, connection id: {}", securityPackage, connectionId);
+
+        if (authorizationHeader.isNtlmType1PostAuthorizationHeader()) {
+            // type 1 NTLM authentication message received
+            auth.resetSecurityToken(connectionId);
+        }
+
+        final byte[] tokenBuffer = authorizationHeader.getTokenBytes();
+        NegotiateAuthenticator.LOGGER.debug("token buffer: {} byte(s)", Integer.valueOf(tokenBuffer.length));
+
+        // log the user in using the token
+        IWindowsSecurityContext securityContext;
+        try {
+            if (connection != null) {
+                connection.beginHandshake(auth);
+            }
+            securityContext = auth.acceptSecurityToken(connectionId, tokenBuffer, securityPackage);
+        } catch (final Win32Exception e) {
+            NegotiateAuthenticator.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateAuthenticator.LOGGER.trace("", e);
+            if (connection != null) {
+                connection.endHandshake();
+            }
+            return this.sendUnauthorized(response);
+        }
+        NegotiateAuthenticator.LOGGER.debug("continue required: {}", Boolean.valueOf(securityContext.isContinue()));
+
+        final byte[] continueTokenBytes = securityContext.getToken();
+        if (continueTokenBytes != null && continueTokenBytes.length > 0) {
+            final String continueToken = Base64.getEncoder().encodeToString(continueTokenBytes);
+            NegotiateAuthenticator.LOGGER.debug("continue token: {}", continueToken);
+            response.addHeader(ChallengeResponseWriter.WWW_AUTHENTICATE, securityPackage + " " + continueToken);
+        }
+
+        if (securityContext.isContinue()) {
+            try {
+                this.challengeWriter.sendChallenge(response);
+            } catch (final IOException e) {
+                throw new ServerAuthException(e);
+            }
+            return Authentication.SEND_CONTINUE;
+        }
+
+        if (connection != null) {
+            connection.endHandshake();
+        }
+
+        UserIdentity userIdentity;
+        final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+        try {
+            NegotiateAuthenticator.LOGGER.debug("logged in user: {} ({})", windowsIdentity.getFqn(),
+                    windowsIdentity.getSidString());
+            userIdentity = loginService.newUserIdentity(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+            securityContext.dispose();
+        }
+
+        if (userIdentity == null) {
+            return this.sendUnauthorized(response);
+        }
+
+        if (connection != null && this.reuseConnectionIdentity) {
+            connection.setUserIdentity(userIdentity);
+        }
+        NegotiateAuthenticator.LOGGER.info("successfully logged in user: {}", userIdentity);
+        return new UserAuthentication(this.getAuthMethod(), userIdentity);
+    }
+
+    /**
+     * Send a terminal 401 Unauthorized along with protocol authentication headers, and close the connection.
+     *
+     * @param response
+     *            the response
+     * @return the failure authentication
+     * @throws ServerAuthException
+     *             the server auth exception
+     */
+    private Authentication sendUnauthorized(final HttpServletResponse response) throws ServerAuthException {
+        try {
+            for (final String protocol : this.protocols) {
+                response.addHeader(ChallengeResponseWriter.WWW_AUTHENTICATE, protocol);
+            }
+            response.setHeader("Connection", "close");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            response.flushBuffer();
+        } catch (final IOException e) {
+            throw new ServerAuthException(e);
+        }
+        return Authentication.SEND_FAILURE;
+    }
+
+    @Override
+    public boolean secureResponse(final ServletRequest request, final ServletResponse response,
+            final boolean mandatory, final User validatedUser) throws ServerAuthException {
+        return true;
+    }
+
+    /**
+     * Gets the connection of the current request.
+     *
+     * @return the connection, null if it is not a {@link NegotiateHttpConnection}
+     */
+    private static NegotiateHttpConnection getConnection() {
+        final HttpConnection connection = HttpConnection.getCurrentConnection();
+        return connection instanceof NegotiateHttpConnection ? (NegotiateHttpConnection) connection : null;
+    }
+
+    /**
+     * Set the authentication protocols. Default is "Negotiate, NTLM".
+     *
+     * @param value
+     *            Authentication protocols
+     */
+    public void setProtocols(final String value) {
+        this.protocols = new LinkedHashSet<>();
+        final String[] protocolNames = value.split(",", -1);
+        for (String protocolName : protocolNames) {
+            protocolName = protocolName.trim();
+            if (!protocolName.isEmpty()) {
+                NegotiateAuthenticator.LOGGER.debug("init protocol: {}", protocolName);
+                if (NegotiateAuthenticator.SUPPORTED_PROTOCOLS.contains(protocolName)) {
+                    this.protocols.add(protocolName);
+                } else {
+                    NegotiateAuthenticator.LOGGER.error("unsupported protocol: {}", protocolName);
+                    throw new RuntimeException("Unsupported protocol: " + protocolName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the protocols.
+     *
+     * @return the protocols
+     */
+    public Set<String> getProtocols() {
+        return this.protocols;
+    }
+
+    /**
+     * Checks if later requests on an authenticated connection reuse its identity.
+     *
+     * @return true, if connection identities are reused
+     */
+    public boolean isReuseConnectionIdentity() {
+        return this.reuseConnectionIdentity;
+    }
+
+    /**
+     * Set whether later requests on an authenticated {@link NegotiateHttpConnection} reuse its identity without
+     * sending credentials, as NTLM clients expect. Disable when a proxy shares connections between users. Default is
+     * true.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setReuseConnectionIdentity(final boolean value) {
+        this.reuseConnectionIdentity = value;
+    }
+
+    /**
+     * Set whether intermediate handshake challenges set the 401 status directly, with an empty body on a kept-alive
+     * connection, instead of rendering the error page. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setLightweightChallenge(final boolean value) {
+        this.challengeWriter.setLightweight(value);
+    }
+
+    /**
+     * Checks if intermediate handshake challenges bypass the error page.
+     *
+     * @return True if lightweight challenges are enabled.
+     */
+    public boolean isLightweightChallenge() {
+        return this.challengeWriter.isLightweight();
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.http.HttpCompliance;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.UserIdentity;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+
+/**
+ * An HTTP connection carrying the Negotiate/NTLM handshake state of its client.
+ *
+ * NTLM and connection-based Kerberos authenticate the connection rather than each request. The
+ * {@link NegotiateAuthenticator} keeps the identity established on a connection in a field of the connection, so
+ * later requests on it are authenticated with a field read, and the in-progress security context is released when the
+ * connection closes.
+ */
+public class NegotiateHttpConnection extends HttpConnection {
+
+    /** The Constant CONNECTION_IDS. */
+    private static final AtomicLong CONNECTION_IDS = new AtomicLong();
+
+    /** The connection id, used as the handshake key of the windows auth provider. */
+    private final String connectionId = "jetty:" + NegotiateHttpConnection.CONNECTION_IDS.incrementAndGet();
+
+    /** The provider holding an in-progress security context for this connection, null if none. */
+    private volatile IWindowsAuthProvider handshakeProvider;
+
+    /** The user identity established on this connection, null if none. */
+    private volatile UserIdentity userIdentity;
+
+    /**
+     * Instantiates a new negotiate http connection.
+     *
+     * @param config
+     *            the config
+     * @param connector
+     *            the connector
+     * @param endPoint
+     *            the end point
+     * @param compliance
+     *            the compliance
+     * @param recordComplianceViolations
+     *            the record compliance violations
+     */
+    public NegotiateHttpConnection(final HttpConfiguration config, final Connector connector, final EndPoint endPoint,
+            final HttpCompliance compliance, final boolean recordComplianceViolations) {
+        super(config, connector, endPoint, compliance, recordComplianceViolations);
+    }
+
+    /**
+     * Gets the connection id.
+     *
+     * @return the connection id
+     */
+    public String getConnectionId() {
+        return this.connectionId;
+    }
+
+    /**
+     * Records that a handshake is in progress on this connection, and drops any identity previously established.
+     *
+     * @param provider
+     *            the provider holding the security context
+     */
+    public void beginHandshake(final IWindowsAuthProvider provider) {
+        this.userIdentity = null;
+        this.handshakeProvider = provider;
+    }
+
+    /**
+     * Releases the in-progress security context of this connection, if any.
+     */
+    public void endHandshake() {
+        final IWindowsAuthProvider provider = this.handshakeProvider;
+        if (provider != null) {
+            this.handshakeProvider = null;
+            provider.resetSecurityToken(this.connectionId);
+        }
+    }
+
+    /**
+     * Gets the user identity established on this connection.
+     *
+     * @return the user identity, null if none
+     */
+    public UserIdentity getUserIdentity() {
+        return this.userIdentity;
+    }
+
+    /**
+     * Sets the user identity established on this connection.
+     *
+     * @param value
+     *            the user identity, null to clear it
+     */
+    public void setUserIdentity(final UserIdentity value) {
+        this.userIdentity = value;
+    }
+
+    @Override
+    public void onClose() {
+        this.endHandshake();
+        this.userIdentity = null;
+        super.onClose();
+    }
+
+}
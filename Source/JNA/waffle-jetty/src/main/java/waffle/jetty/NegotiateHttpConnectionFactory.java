@@ -0,0 +1,51 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+
+/**
+ * An HTTP/1.1 connection factory creating {@link NegotiateHttpConnection}s. Use it in place of the
+ * {@link HttpConnectionFactory} of a connector to let the {@link NegotiateAuthenticator} keep handshake state on the
+ * connection.
+ */
+public class NegotiateHttpConnectionFactory extends HttpConnectionFactory {
+
+    /**
+     * Instantiates a new negotiate http connection factory.
+     */
+    public NegotiateHttpConnectionFactory() {
+        super();
+    }
+
+    /**
+     * Instantiates a new negotiate http connection factory.
+     *
+     * @param config
+     *            the config
+     */
+    public NegotiateHttpConnectionFactory(final HttpConfiguration config) {
+        super(config);
+    }
+
+    @Override
+    public Connection newConnection(final Connector connector, final EndPoint endPoint) {
+        final NegotiateHttpConnection connection = new NegotiateHttpConnection(this.getHttpConfiguration(), connector,
+                endPoint, this.getHttpCompliance(), this.isRecordHttpComplianceViolations());
+        return this.configure(connection, connector, endPoint);
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import com.sun.jna.platform.win32.Win32Exception;
+
+import java.util.Locale;
+
+import javax.servlet.ServletRequest;
+
+import org.eclipse.jetty.security.DefaultIdentityService;
+import org.eclipse.jetty.security.IdentityService;
+import org.eclipse.jetty.security.LoginService;
+import org.eclipse.jetty.server.UserIdentity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.PrincipalFormat;
+import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+
+/**
+ * A Jetty login service that logs users on with their Windows credentials. It also turns the identities established
+ * by the {@link NegotiateAuthenticator} into {@link WindowsUserIdentity} instances.
+ */
+public class WindowsLoginService implements LoginService {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsLoginService.class);
+
+    /** The name. */
+    private String name = "Waffle";
+
+    /** The auth. */
+    private IWindowsAuthProvider auth;
+
+    /** The identity service. */
+    private IdentityService identityService = new DefaultIdentityService();
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /**
+     * Instantiates a new windows login service with a default windows auth provider.
+     */
+    public WindowsLoginService() {
+        this(new WindowsAuthProviderImpl());
+    }
+
+    /**
+     * Instantiates a new windows login service.
+     *
+     * @param windowsAuthProvider
+     *            the windows auth provider
+     */
+    public WindowsLoginService(final IWindowsAuthProvider windowsAuthProvider) {
+        this.auth = windowsAuthProvider;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Sets the name.
+     *
+     * @param value
+     *            the new name
+     */
+    public void setName(final String value) {
+        this.name = value;
+    }
+
+    @Override
+    public UserIdentity login(final String username, final Object credentials, final ServletRequest request) {
+        if (username == null || credentials == null) {
+            return null;
+        }
+        IWindowsIdentity windowsIdentity;
+        try {
+            windowsIdentity = this.auth.logonUser(username, String.valueOf(credentials));
+        } catch (final Win32Exception e) {
+            WindowsLoginService.LOGGER.debug("logon failed for {}: {}", username, e.getMessage());
+            return null;
+        }
+        try {
+            return this.newUserIdentity(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+        }
+    }
+
+    /**
+     * Creates the user identity of an authenticated windows identity. The windows identity is not disposed.
+     *
+     * @param windowsIdentity
+     *            the windows identity
+     * @return the user identity, null if the identity is a guest and guest login is disabled
+     */
+    public UserIdentity newUserIdentity(final IWindowsIdentity windowsIdentity) {
+        if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+            WindowsLoginService.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+            return null;
+        }
+        final WindowsPrincipal windowsPrincipal = new WindowsPrincipal(windowsIdentity, this.principalFormat,
+                this.roleFormat);
+        WindowsLoginService.LOGGER.debug("roles: {}", windowsPrincipal.getRolesString());
+        return new WindowsUserIdentity(windowsPrincipal);
+    }
+
+    /**
+     * A windows identity remains valid for the lifetime of the connection or session it was established on.
+     */
+    @Override
+    public boolean validate(final UserIdentity user) {
+        return user instanceof WindowsUserIdentity;
+    }
+
+    @Override
+    public IdentityService getIdentityService() {
+        return this.identityService;
+    }
+
+    @Override
+    public void setIdentityService(final IdentityService service) {
+        this.identityService = service;
+    }
+
+    @Override
+    public void logout(final UserIdentity user) {
+        // Windows identities hold no handle once converted to a principal
+    }
+
+    /**
+     * Windows authentication provider.
+     *
+     * @return IWindowsAuthProvider.
+     */
+    public IWindowsAuthProvider getAuth() {
+        return this.auth;
+    }
+
+    /**
+     * Set Windows auth provider.
+     *
+     * @param provider
+     *            Class implements IWindowsAuthProvider.
+     */
+    public void setAuth(final IWindowsAuthProvider provider) {
+        this.auth = provider;
+    }
+
+    /**
+     * Principal format.
+     *
+     * @return Principal format.
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Set the principal format.
+     *
+     * @param format
+     *            Principal format.
+     */
+    public void setPrincipalFormat(final String format) {
+        this.principalFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Principal format.
+     *
+     * @return Role format.
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * Set the principal format.
+     *
+     * @param format
+     *            Role format.
+     */
+    public void setRoleFormat(final String format) {
+        this.roleFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * True if Guest login permitted.
+     *
+     * @return True if Guest login permitted, false otherwise.
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Set whether Guest login is permitted. Default is true, if the Guest account is enabled, an invalid
+     * username/password results in a Guest login.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import java.security.Principal;
+
+import javax.security.auth.Subject;
+
+import org.eclipse.jetty.server.UserIdentity;
+
+import waffle.servlet.WindowsPrincipal;
+
+/**
+ * A Jetty user identity backed by a {@link WindowsPrincipal}, whose roles are the principal's user and group names.
+ */
+public class WindowsUserIdentity implements UserIdentity {
+
+    /** The subject. */
+    private final Subject subject;
+
+    /** The windows principal. */
+    private final WindowsPrincipal windowsPrincipal;
+
+    /**
+     * Instantiates a new windows user identity.
+     *
+     * @param windowsPrincipal
+     *            the windows principal
+     */
+    public WindowsUserIdentity(final WindowsPrincipal windowsPrincipal) {
+        this.windowsPrincipal = windowsPrincipal;
+        this.subject = new Subject();
+        this.subject.getPrincipals().add(windowsPrincipal);
+        this.subject.setReadOnly();
+    }
+
+    @Override
+    public Subject getSubject() {
+        return this.subject;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return this.windowsPrincipal;
+    }
+
+    /**
+     * Gets the windows principal.
+     *
+     * @return the windows principal
+     */
+    public WindowsPrincipal getWindowsPrincipal() {
+        return this.windowsPrincipal;
+    }
+
+    @Override
+    public boolean isUserInRole(final String role, final Scope scope) {
+        String roleName = null;
+        if (scope != null && scope.getRoleRefMap() != null) {
+            roleName = scope.getRoleRefMap().get(role);
+        }
+        return this.windowsPrincipal.hasRole(roleName == null ? role : roleName);
+    }
+
+    @Override
+    public String toString() {
+        return this.windowsPrincipal.getName();
+    }
+
+}
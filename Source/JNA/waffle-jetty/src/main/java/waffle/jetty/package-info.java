@@ -12,17 +12,9 @@
 /**
  * Waffle Jetty Package.
  *
- * Nothing for now, but in the future, this would include:
- *
- * <p>
- * <a href=
- * "https://github.com/eclipse/jetty.project/blob/jetty-9.3.x/jetty-security/src/main/java/org/eclipse/jetty/security/Authenticator.java"
- * >org/eclipse/jetty/security/Authenticator.java</a>
- * </p>
  * <p>
- * <a href=
- * "https://github.com/eclipse/jetty.project/blob/jetty-9.3.x/jetty-security/src/main/java/org/eclipse/jetty/security/LoginService.java"
- * >org/eclipse/jetty/security/LoginService.java</a>
+ * A Jetty {@link org.eclipse.jetty.security.Authenticator} for Negotiate single sign-on backed by a
+ * {@link org.eclipse.jetty.security.LoginService}, with handshake state kept on the HTTP connection.
  * </p>
  */
 package waffle.jetty;
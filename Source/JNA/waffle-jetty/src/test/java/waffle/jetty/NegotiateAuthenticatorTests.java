@@ -0,0 +1,138 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.jetty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.security.Authenticator.AuthConfiguration;
+import org.eclipse.jetty.security.DefaultIdentityService;
+import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.security.ServerAuthException;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.UserIdentity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.mock.http.SimpleHttpRequest;
+import waffle.mock.http.SimpleHttpResponse;
+
+/**
+ * The Class NegotiateAuthenticatorTests.
+ */
+public class NegotiateAuthenticatorTests {
+
+    /** The authenticator. */
+    private NegotiateAuthenticator authenticator;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        final AuthConfiguration configuration = Mockito.mock(AuthConfiguration.class);
+        Mockito.when(configuration.getLoginService())
+                .thenReturn(new WindowsLoginService(new MockWindowsAuthProvider()));
+        Mockito.when(configuration.getIdentityService()).thenReturn(new DefaultIdentityService());
+        this.authenticator = new NegotiateAuthenticator();
+        this.authenticator.setConfiguration(configuration);
+    }
+
+    /**
+     * Test that a windows login service is required.
+     */
+    @Test
+    public void testLoginServiceRequired() {
+        final AuthConfiguration configuration = Mockito.mock(AuthConfiguration.class);
+        Mockito.when(configuration.getLoginService()).thenReturn(new HashLoginService());
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> new NegotiateAuthenticator().setConfiguration(configuration));
+    }
+
+    /**
+     * Test the challenge of a request without credentials.
+     *
+     * @throws ServerAuthException
+     *             the server auth exception
+     */
+    @Test
+    public void testChallenge() throws ServerAuthException {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        Assertions.assertSame(Authentication.SEND_CONTINUE,
+                this.authenticator.validateRequest(request, response, true));
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        Assertions.assertArrayEquals(new String[] { "Negotiate", "NTLM" },
+                response.getHeaderValues("WWW-Authenticate"));
+        Assertions.assertEquals("keep-alive", response.getHeader("Connection"));
+    }
+
+    /**
+     * Test a completed handshake.
+     *
+     * @throws ServerAuthException
+     *             the server auth exception
+     */
+    @Test
+    public void testNegotiate() throws ServerAuthException {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.addHeader("Authorization",
+                "Negotiate " + Base64.getEncoder().encodeToString("user".getBytes(StandardCharsets.UTF_8)));
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        final Authentication authentication = this.authenticator.validateRequest(request, response, true);
+        Assertions.assertTrue(authentication instanceof Authentication.User);
+        final UserIdentity userIdentity = ((Authentication.User) authentication).getUserIdentity();
+        Assertions.assertEquals("user", userIdentity.getUserPrincipal().getName());
+        Assertions.assertTrue(userIdentity.isUserInRole("Everyone", null));
+        Assertions.assertFalse(userIdentity.isUserInRole("Administrators", null));
+    }
+
+    /**
+     * Test that role references of the scope are resolved.
+     */
+    @Test
+    public void testRoleRef() {
+        final WindowsLoginService loginService = new WindowsLoginService(new MockWindowsAuthProvider());
+        final UserIdentity userIdentity = loginService
+                .newUserIdentity(new MockWindowsIdentity("user", Collections.singletonList("Users")));
+        final UserIdentity.Scope scope = Mockito.mock(UserIdentity.Scope.class);
+        Mockito.when(scope.getRoleRefMap()).thenReturn(Collections.singletonMap("member", "Users"));
+        Assertions.assertTrue(userIdentity.isUserInRole("member", scope));
+        Assertions.assertTrue(loginService.validate(userIdentity));
+    }
+
+    /**
+     * Test that guests are rejected when guest login is disabled.
+     *
+     * @throws ServerAuthException
+     *             the server auth exception
+     */
+    @Test
+    public void testGuestDisabled() throws ServerAuthException {
+        ((WindowsLoginService) this.authenticator.getLoginService()).setAllowGuestLogin(false);
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.addHeader("Authorization",
+                "NTLM " + Base64.getEncoder().encodeToString("Guest".getBytes(StandardCharsets.UTF_8)));
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        Assertions.assertSame(Authentication.SEND_FAILURE, this.authenticator.validateRequest(request, response, true));
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        Assertions.assertEquals("close", response.getHeader("Connection"));
+    }
+
+}
@@ -38,6 +38,7 @@ import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.PrincipalFormat;
 import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
 
 /**
  * A Java Security login module for Windows authentication.
@@ -62,8 +63,11 @@ public class WindowsLoginModule implements LoginModule {
     /** The callback handler. */
     private CallbackHandler callbackHandler;
 
-    /** The auth. */
-    private IWindowsAuthProvider auth = new WindowsAuthProviderImpl();
+    /** The provider shared with the other integrations of the process, pinned once. */
+    private final IWindowsAuthProvider sharedAuth = WindowsAuthProviderRegistry.pin();
+
+    /** The auth, the shared provider unless the sharedProvider option is false. */
+    private IWindowsAuthProvider auth = this.sharedAuth;
 
     /** The principals. */
     private Set<Principal> principals;
@@ -92,6 +96,11 @@ public class WindowsLoginModule implements LoginModule {
                         .valueOf(((String) option.getValue()).toUpperCase(Locale.ENGLISH));
             } else if ("roleFormat".equalsIgnoreCase(option.getKey())) {
                 this.roleFormat = PrincipalFormat.valueOf(((String) option.getValue()).toUpperCase(Locale.ENGLISH));
+            } else if ("sharedProvider".equalsIgnoreCase(option.getKey())
+                    && !Boolean.parseBoolean((String) option.getValue())
+                    && this.auth == this.sharedAuth) {
+                // a provider of its own, unless one was set
+                this.auth = new WindowsAuthProviderImpl();
             }
         }
     }
@@ -0,0 +1,54 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import waffle.windows.auth.IWindowsAccount;
+
+/**
+ * A group of a Kerberos identity. The PAC only carries SIDs, so the SID is also the name of the group.
+ */
+public class KerberosAccount implements IWindowsAccount {
+
+    /** The sid string. */
+    private final String sidString;
+
+    /**
+     * Instantiates a new kerberos account.
+     *
+     * @param sidString
+     *            the SID
+     */
+    public KerberosAccount(final String sidString) {
+        this.sidString = sidString;
+    }
+
+    @Override
+    public String getSidString() {
+        return this.sidString;
+    }
+
+    @Override
+    public String getFqn() {
+        return this.sidString;
+    }
+
+    @Override
+    public String getName() {
+        return this.sidString;
+    }
+
+    @Override
+    public String getDomain() {
+        return "";
+    }
+
+}
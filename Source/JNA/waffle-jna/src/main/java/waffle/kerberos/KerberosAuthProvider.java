@@ -0,0 +1,475 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.sun.security.jgss.AuthorizationDataEntry;
+import com.sun.security.jgss.ExtendedGSSContext;
+import com.sun.security.jgss.InquireType;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.Oid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.util.PacLogonInfo;
+import waffle.windows.auth.IWindowsAccount;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsComputer;
+import waffle.windows.auth.IWindowsDomain;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * A pure Java auth provider accepting SPNEGO and Kerberos tokens with JGSS and the keytab of a service principal, for
+ * hosts without SSPI such as Linux nodes.
+ *
+ * The service logs in once and its acceptor credential is shared by all threads. Identities are mapped from the client
+ * principal and the PAC of its ticket, see {@link KerberosIdentity}. Replays are detected by the Java replay cache, keyed
+ * on the authenticator of the tickets, which must stay enabled. The provider also remembers the digests of the tokens
+ * seen within the clock skew, to reject identical tokens before decrypting them.
+ *
+ * The PAC signatures are not verified: the groups are trusted because the PAC is read from the encrypted part of the
+ * ticket, which only the KDC and holders of the service key can produce. Anyone with the keytab can therefore forge a
+ * ticket with any groups, so protect the keytab like the groups it grants.
+ *
+ * Logons with a password, account lookups and impersonation need the Windows API and are not supported.
+ */
+public class KerberosAuthProvider implements IWindowsAuthProvider {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(KerberosAuthProvider.class);
+
+    /** The Constant PRINCIPAL_PROPERTY, the service principal of the default constructor. */
+    public static final String PRINCIPAL_PROPERTY = "waffle.kerberos.principal";
+
+    /** The Constant KEYTAB_PROPERTY, the keytab of the default constructor. */
+    public static final String KEYTAB_PROPERTY = "waffle.kerberos.keytab";
+
+    /** The Constant CONTINUE_CONTEXT_TIMEOUT in seconds. */
+    public static final int CONTINUE_CONTEXT_TIMEOUT = 30;
+
+    /** The Constant CLOCK_SKEW in seconds, how long tokens are remembered by the replay cache. */
+    public static final int CLOCK_SKEW = 300;
+
+    /** The Constant DEFAULT_MAXIMUM_REPLAYS, the size of the replay cache. */
+    public static final int DEFAULT_MAXIMUM_REPLAYS = 1000000;
+
+    /** The Constant MANAGER. */
+    private static final GSSManager MANAGER = GSSManager.getInstance();
+
+    /** The Constant AD_IF_RELEVANT authorization data type. */
+    private static final int AD_IF_RELEVANT = 1;
+
+    /** The Constant AD_WIN2K_PAC authorization data type. */
+    private static final int AD_WIN2K_PAC = 128;
+
+    /** The Constant MAX_NESTING, the deepest AD-IF-RELEVANT nesting searched for the PAC. */
+    private static final int MAX_NESTING = 8;
+
+    /** The Constant MECHANISMS, SPNEGO and Kerberos. */
+    private static final Oid[] MECHANISMS = KerberosAuthProvider.oids("1.3.6.1.5.5.2", "1.2.840.113554.1.2.2");
+
+    /** The service subject. */
+    private final Subject subject;
+
+    /** The shared acceptor credential. */
+    private volatile GSSCredential credential;
+
+    /** The continue contexts. */
+    private final Cache<String, GSSContext> continueContexts;
+
+    /** The digests of the tokens seen within the clock skew, a shortcut in front of the Java replay cache. */
+    private final Cache<ByteBuffer, Boolean> replays = Caffeine.newBuilder()
+            .expireAfterWrite(KerberosAuthProvider.CLOCK_SKEW, TimeUnit.SECONDS)
+            .maximumSize(KerberosAuthProvider.DEFAULT_MAXIMUM_REPLAYS).build();
+
+    /** The digests, per thread. */
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Instantiates a new kerberos auth provider with the service principal and keytab of the
+     * {@value #PRINCIPAL_PROPERTY} and {@value #KEYTAB_PROPERTY} system properties.
+     */
+    public KerberosAuthProvider() {
+        this(System.getProperty(KerberosAuthProvider.PRINCIPAL_PROPERTY),
+                System.getProperty(KerberosAuthProvider.KEYTAB_PROPERTY));
+    }
+
+    /**
+     * Instantiates a new kerberos auth provider.
+     *
+     * @param principal
+     *            the service principal, e.g. HTTP/host.example.com@EXAMPLE.COM
+     * @param keytab
+     *            the path of the keytab holding the keys of the service principal
+     */
+    public KerberosAuthProvider(final String principal, final String keytab) {
+        this(principal, keytab, KerberosAuthProvider.CONTINUE_CONTEXT_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new kerberos auth provider.
+     *
+     * @param principal
+     *            the service principal, e.g. HTTP/host.example.com@EXAMPLE.COM
+     * @param keytab
+     *            the path of the keytab holding the keys of the service principal
+     * @param continueContextsTimeout
+     *            Timeout for security contexts in seconds.
+     */
+    public KerberosAuthProvider(final String principal, final String keytab, final int continueContextsTimeout) {
+        if (principal == null || keytab == null) {
+            throw new RuntimeException("Kerberos service principal and keytab are required");
+        }
+        this.subject = KerberosAuthProvider.login(principal, keytab);
+        this.continueContexts = Caffeine.newBuilder().expireAfterWrite(continueContextsTimeout, TimeUnit.SECONDS)
+                .removalListener((final String key, final GSSContext context, final RemovalCause cause) -> {
+                    if (cause.wasEvicted() && context != null) {
+                        KerberosAuthProvider.dispose(context);
+                    }
+                }).build();
+    }
+
+    /**
+     * Logs the service principal in with its keytab.
+     *
+     * @param principal
+     *            the principal
+     * @param keytab
+     *            the keytab
+     * @return the service subject
+     */
+    private static Subject login(final String principal, final String keytab) {
+        final Map<String, String> options = new HashMap<>();
+        options.put("principal", principal);
+        options.put("keyTab", keytab);
+        options.put("useKeyTab", "true");
+        options.put("storeKey", "true");
+        options.put("doNotPrompt", "true");
+        options.put("isInitiator", "false");
+        final Configuration configuration = new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(final String name) {
+                return new AppConfigurationEntry[] {
+                        new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+                                AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+            }
+        };
+        try {
+            final LoginContext loginContext = new LoginContext("waffle", new Subject(), null, configuration);
+            loginContext.login();
+            KerberosAuthProvider.LOGGER.info("logged in service principal: {}", principal);
+            return loginContext.getSubject();
+        } catch (final LoginException e) {
+            throw new RuntimeException("Error logging in " + principal + " with " + keytab, e);
+        }
+    }
+
+    /**
+     * Gets the shared acceptor credential, created on first use and renewed once expired.
+     *
+     * @return the credential
+     * @throws GSSException
+     *             the GSS exception
+     */
+    private GSSCredential getCredential() throws GSSException {
+        GSSCredential current = this.credential;
+        if (current == null || current.getRemainingLifetime() == 0) {
+            synchronized (this) {
+                current = this.credential;
+                if (current == null || current.getRemainingLifetime() == 0) {
+                    try {
+                        current = Subject.doAs(this.subject,
+                                (PrivilegedExceptionAction<GSSCredential>) () -> KerberosAuthProvider.MANAGER
+                                        .createCredential(null, GSSCredential.INDEFINITE_LIFETIME,
+                                                KerberosAuthProvider.MECHANISMS, GSSCredential.ACCEPT_ONLY));
+                    } catch (final PrivilegedActionException e) {
+                        throw (GSSException) e.getException();
+                    }
+                    this.credential = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public IWindowsSecurityContext acceptSecurityToken(final String connectionId, final byte[] token,
+            final String securityPackage) {
+
+        if (token == null || token.length == 0) {
+            this.resetSecurityToken(connectionId);
+            throw new KerberosException("Empty security token", null);
+        }
+
+        GSSContext context = this.continueContexts.asMap().remove(connectionId);
+        try {
+            if (context == null) {
+                if (this.replays.asMap().putIfAbsent(ByteBuffer.wrap(this.digests.get().digest(token)),
+                        Boolean.TRUE) != null) {
+                    throw new KerberosException("Replayed security token", null);
+                }
+                context = KerberosAuthProvider.MANAGER.createContext(this.getCredential());
+            }
+            final byte[] continueToken = context.acceptSecContext(token, 0, token.length);
+            if (!context.isEstablished()) {
+                KerberosAuthProvider.LOGGER.debug("continue required: {}", connectionId);
+                this.continueContexts.put(connectionId, context);
+                return new KerberosSecurityContext(context, securityPackage, continueToken, null);
+            }
+            final String principalName = context.getSrcName().toString();
+            KerberosAuthProvider.LOGGER.debug("accepted principal: {}", principalName);
+            return new KerberosSecurityContext(context, securityPackage, continueToken,
+                    new KerberosIdentity(principalName, KerberosAuthProvider.getLogonInfo(context)));
+        } catch (final GSSException e) {
+            if (context != null) {
+                KerberosAuthProvider.dispose(context);
+            }
+            throw new KerberosException(e.getMessage(), e);
+        } catch (final KerberosException e) {
+            // malformed authorization data of an established context
+            if (context != null) {
+                KerberosAuthProvider.dispose(context);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the logon information of the PAC of the ticket of an established context.
+     *
+     * @param context
+     *            the context
+     * @return the logon information, null if the ticket has no PAC
+     * @throws GSSException
+     *             the GSS exception
+     * @throws KerberosException
+     *             if the authorization data or the PAC is malformed
+     */
+    private static PacLogonInfo getLogonInfo(final GSSContext context) throws GSSException {
+        if (!(context instanceof ExtendedGSSContext)) {
+            return null;
+        }
+        final AuthorizationDataEntry[] entries = (AuthorizationDataEntry[]) ((ExtendedGSSContext) context)
+                .inquireSecContext(InquireType.KRB5_GET_AUTHZ_DATA);
+        if (entries == null) {
+            return null;
+        }
+        for (final AuthorizationDataEntry entry : entries) {
+            final ByteBuffer pac = KerberosAuthProvider.findPac(entry.getType(), ByteBuffer.wrap(entry.getData()), 0);
+            if (pac != null) {
+                try {
+                    return PacLogonInfo.decode(pac);
+                } catch (final IllegalArgumentException e) {
+                    throw new KerberosException(e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the PAC in an authorization data element, possibly nested in AD-IF-RELEVANT elements.
+     *
+     * @param type
+     *            the authorization data type
+     * @param data
+     *            the authorization data
+     * @param nesting
+     *            the AD-IF-RELEVANT elements the data is nested in
+     * @return a view of the PAC, null if none
+     * @throws KerberosException
+     *             if the authorization data is malformed
+     */
+    static ByteBuffer findPac(final int type, final ByteBuffer data, final int nesting) {
+        if (type == KerberosAuthProvider.AD_WIN2K_PAC) {
+            return data;
+        }
+        if (type != KerberosAuthProvider.AD_IF_RELEVANT) {
+            return null;
+        }
+        if (nesting >= KerberosAuthProvider.MAX_NESTING) {
+            throw new KerberosException("Malformed authorization data: nested too deep", null);
+        }
+        // AuthorizationData ::= SEQUENCE OF SEQUENCE { ad-type [0] Int32, ad-data [1] OCTET STRING }
+        final ByteBuffer elements = KerberosAuthProvider.readDer(data, 0x30);
+        while (elements.hasRemaining()) {
+            final ByteBuffer element = KerberosAuthProvider.readDer(elements, 0x30);
+            final ByteBuffer adType = KerberosAuthProvider.readDer(KerberosAuthProvider.readDer(element, 0xa0), 0x02);
+            if (adType.remaining() < 1 || adType.remaining() > 4) {
+                throw new KerberosException("Malformed authorization data: ad-type of " + adType.remaining()
+                        + " byte(s)", null);
+            }
+            // signed big-endian Int32
+            int value = adType.get();
+            while (adType.hasRemaining()) {
+                value = (value << 8) | (adType.get() & 0xff);
+            }
+            final ByteBuffer adData = KerberosAuthProvider.readDer(KerberosAuthProvider.readDer(element, 0xa1), 0x04);
+            final ByteBuffer pac = KerberosAuthProvider.findPac(value, adData, nesting + 1);
+            if (pac != null) {
+                return pac;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a DER element, checking its length against the remaining bytes.
+     *
+     * @param buffer
+     *            the buffer, positioned on the element
+     * @param tag
+     *            the expected tag
+     * @return a view of the element contents
+     * @throws KerberosException
+     *             if the element is not of the tag, or is truncated
+     */
+    private static ByteBuffer readDer(final ByteBuffer buffer, final int tag) {
+        if (buffer.remaining() < 2) {
+            throw new KerberosException("Malformed authorization data: truncated element", null);
+        }
+        final int actualTag = buffer.get() & 0xff;
+        if (actualTag != tag) {
+            throw new KerberosException("Malformed authorization data: tag " + actualTag + ", expected " + tag, null);
+        }
+        int length = buffer.get() & 0xff;
+        if (length == 0x80) {
+            // indefinite lengths are not DER
+            throw new KerberosException("Malformed authorization data: indefinite length", null);
+        }
+        if (length > 0x80) {
+            int octets = length & 0x7f;
+            // lengths beyond 3 octets cannot fit in authorization data
+            if (octets > 3 || octets > buffer.remaining()) {
+                throw new KerberosException("Malformed authorization data: length of " + octets + " octets", null);
+            }
+            length = 0;
+            while (octets-- > 0) {
+                length = (length << 8) | (buffer.get() & 0xff);
+            }
+        }
+        if (length > buffer.remaining()) {
+            throw new KerberosException("Malformed authorization data: length " + length + " beyond the "
+                    + buffer.remaining() + " remaining byte(s)", null);
+        }
+        final ByteBuffer contents = buffer.slice();
+        contents.limit(length);
+        buffer.position(buffer.position() + length);
+        return contents;
+    }
+
+    /**
+     * Disposes a context.
+     *
+     * @param context
+     *            the context
+     */
+    private static void dispose(final GSSContext context) {
+        try {
+            context.dispose();
+        } catch (final GSSException e) {
+            KerberosAuthProvider.LOGGER.trace("", e);
+        }
+    }
+
+    /**
+     * Creates oids.
+     *
+     * @param values
+     *            the dotted values
+     * @return the oids
+     */
+    private static Oid[] oids(final String... values) {
+        final Oid[] oids = new Oid[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                oids[i] = new Oid(values[i]);
+            }
+        } catch (final GSSException e) {
+            throw new IllegalStateException(e);
+        }
+        return oids;
+    }
+
+    @Override
+    public boolean isPortable() {
+        return true;
+    }
+
+    @Override
+    public void resetSecurityToken(final String connectionId) {
+        final GSSContext context = this.continueContexts.asMap().remove(connectionId);
+        if (context != null) {
+            KerberosAuthProvider.dispose(context);
+        }
+    }
+
+    @Override
+    public IWindowsIdentity logonUser(final String username, final String password) {
+        throw new KerberosException("Password logons need the Windows API", null);
+    }
+
+    @Override
+    public IWindowsIdentity logonDomainUser(final String username, final String domain, final String password) {
+        throw new KerberosException("Password logons need the Windows API", null);
+    }
+
+    @Override
+    public IWindowsIdentity logonDomainUserEx(final String username, final String domain, final String password,
+            final int logonType, final int logonProvider) {
+        throw new KerberosException("Password logons need the Windows API", null);
+    }
+
+    @Override
+    public IWindowsAccount lookupAccount(final String username) {
+        throw new KerberosException("Account lookups need the Windows API", null);
+    }
+
+    @Override
+    public IWindowsComputer getCurrentComputer() {
+        throw new KerberosException("Computer information needs the Windows API", null);
+    }
+
+    @Override
+    public IWindowsDomain[] getDomains() {
+        throw new KerberosException("Domain information needs the Windows API", null);
+    }
+
+}
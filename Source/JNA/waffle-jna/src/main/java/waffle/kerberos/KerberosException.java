@@ -0,0 +1,42 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import com.sun.jna.platform.win32.Win32Exception;
+import com.sun.jna.platform.win32.WinError;
+import com.sun.jna.platform.win32.WinNT.HRESULT;
+
+/**
+ * A Kerberos authentication failure, surfaced as a {@link Win32Exception} like the failures of the native provider so
+ * that callers handle both alike.
+ */
+public class KerberosException extends Win32Exception {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Instantiates a new kerberos exception.
+     *
+     * @param message
+     *            the message
+     * @param cause
+     *            the cause, may be null
+     */
+    public KerberosException(final String message, final Throwable cause) {
+        super(WinError.SEC_E_LOGON_DENIED, new HRESULT(WinError.SEC_E_LOGON_DENIED), message);
+        if (cause != null) {
+            this.initCause(cause);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import waffle.util.PacLogonInfo;
+import waffle.util.SecurityIdentifiers;
+import waffle.windows.auth.IWindowsAccount;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsImpersonationContext;
+
+/**
+ * The identity of a Kerberos client, mapped from its principal and the logon information of the PAC of its ticket.
+ *
+ * With a PAC the name is <code>DOMAIN&#92;user</code> and the SIDs are those of the Windows logon. Tickets of other
+ * KDCs carry no PAC: the name is then <code>REALM&#92;user</code>, the SID the null SID and the identity has no groups.
+ */
+public class KerberosIdentity implements IWindowsIdentity {
+
+    /** The principal name. */
+    private final String principalName;
+
+    /** The fqn. */
+    private final String fqn;
+
+    /** The sid string. */
+    private final String sidString;
+
+    /** The group SIDs. */
+    private final Set<String> groupSids;
+
+    /**
+     * Instantiates a new kerberos identity.
+     *
+     * @param principalName
+     *            the client principal, user@REALM
+     * @param logonInfo
+     *            the logon information of the PAC, null if none
+     */
+    public KerberosIdentity(final String principalName, final PacLogonInfo logonInfo) {
+        this.principalName = principalName;
+        if (logonInfo == null) {
+            final int at = principalName.lastIndexOf('@');
+            this.fqn = at < 0 ? principalName : principalName.substring(at + 1) + "\\" + principalName.substring(0, at);
+            this.sidString = SecurityIdentifiers.NULL_SID;
+            this.groupSids = Collections.emptySet();
+        } else {
+            this.fqn = logonInfo.getLogonDomainName() + "\\" + logonInfo.getEffectiveName();
+            this.sidString = logonInfo.getUserSid();
+            this.groupSids = new LinkedHashSet<>();
+            this.groupSids.add(logonInfo.getPrimaryGroupSid());
+            this.groupSids.addAll(logonInfo.getGroupSids());
+        }
+    }
+
+    /**
+     * Gets the principal name.
+     *
+     * @return the client principal, user@REALM
+     */
+    public String getPrincipalName() {
+        return this.principalName;
+    }
+
+    @Override
+    public String getSidString() {
+        return this.sidString;
+    }
+
+    @Override
+    public byte[] getSid() {
+        return SecurityIdentifiers.toBytes(this.sidString);
+    }
+
+    @Override
+    public String getFqn() {
+        return this.fqn;
+    }
+
+    @Override
+    public IWindowsAccount[] getGroups() {
+        final IWindowsAccount[] groups = new IWindowsAccount[this.groupSids.size()];
+        int i = 0;
+        for (final String groupSid : this.groupSids) {
+            groups[i++] = new KerberosAccount(groupSid);
+        }
+        return groups;
+    }
+
+    @Override
+    public IWindowsImpersonationContext impersonate() {
+        throw new UnsupportedOperationException("Kerberos identities cannot be impersonated: " + this.fqn);
+    }
+
+    @Override
+    public void dispose() {
+        // no native resources
+    }
+
+    @Override
+    public boolean isGuest() {
+        return SecurityIdentifiers.isGuest(this.sidString, this.groupSids);
+    }
+
+}
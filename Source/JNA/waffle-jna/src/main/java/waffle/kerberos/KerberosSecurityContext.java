@@ -0,0 +1,111 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import com.sun.jna.platform.win32.Sspi.CtxtHandle;
+import com.sun.jna.platform.win32.Sspi.SecBufferDesc;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsImpersonationContext;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * A JGSS acceptor security context.
+ */
+public class KerberosSecurityContext implements IWindowsSecurityContext {
+
+    /** The context. */
+    private final GSSContext context;
+
+    /** The security package. */
+    private final String securityPackage;
+
+    /** The token. */
+    private final byte[] token;
+
+    /** The identity, null until the context is established. */
+    private final KerberosIdentity identity;
+
+    /**
+     * Instantiates a new kerberos security context.
+     *
+     * @param context
+     *            the context
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the output token, may be null
+     * @param identity
+     *            the identity, null if the context needs another leg
+     */
+    public KerberosSecurityContext(final GSSContext context, final String securityPackage, final byte[] token,
+            final KerberosIdentity identity) {
+        this.context = context;
+        this.securityPackage = securityPackage;
+        this.token = token;
+        this.identity = identity;
+    }
+
+    @Override
+    public String getSecurityPackage() {
+        return this.securityPackage;
+    }
+
+    @Override
+    public String getPrincipalName() {
+        return this.identity == null ? null : this.identity.getPrincipalName();
+    }
+
+    @Override
+    public byte[] getToken() {
+        return this.token == null ? null : this.token.clone();
+    }
+
+    @Override
+    public boolean isContinue() {
+        return this.identity == null;
+    }
+
+    @Override
+    public IWindowsIdentity getIdentity() {
+        return this.identity;
+    }
+
+    @Override
+    public CtxtHandle getHandle() {
+        // not an SSPI context
+        return null;
+    }
+
+    @Override
+    public void initialize(final CtxtHandle continueCtx, final SecBufferDesc continueToken, final String targetName) {
+        throw new UnsupportedOperationException("Kerberos contexts are acceptor contexts");
+    }
+
+    @Override
+    public IWindowsImpersonationContext impersonate() {
+        throw new UnsupportedOperationException("Kerberos identities cannot be impersonated");
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            this.context.dispose();
+        } catch (final GSSException e) {
+            throw new KerberosException(e.getMessage(), e);
+        }
+    }
+
+}
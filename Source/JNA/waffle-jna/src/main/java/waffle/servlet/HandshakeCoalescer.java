@@ -0,0 +1,429 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.servlet;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the handshakes of parallel unauthenticated requests from the same client.
+ *
+ * A browser typically opens several connections at once and each of them would otherwise perform its own NTLM
+ * handshake. The first unauthenticated request of a client is challenged and leads the handshake; further
+ * unauthenticated requests of the same client are parked until the leading handshake completes. On success they are
+ * released with the resulting principal, on failure or timeout they are challenged as usual.
+ *
+ * Only requests parked while the handshake is in flight receive its principal: the handshake is forgotten as soon as it
+ * completes, so a later request of the same client is challenged as usual. Parked requests hold a container thread,
+ * so they are held for a fraction of a second at most, and at most {@link #getMaxParked()} of them at the same time,
+ * a percentage of the request threads of the container. A client has at most {@link #getMaxParkedPerClient()}
+ * requests parked, further ones are challenged at once.
+ *
+ * Clients are identified by the requested session id, once the container validated it. Identifying them by remote
+ * address and User-Agent is optional, it must only be enabled when those identify a single user, i.e. not behind a
+ * shared proxy or NAT.
+ */
+public class HandshakeCoalescer {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HandshakeCoalescer.class);
+
+    /** The Constant DEFAULT_TIMEOUT in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 300;
+
+    /** The Constant DEFAULT_CONTAINER_THREADS, the default request threads of Tomcat and Jetty. */
+    public static final int DEFAULT_CONTAINER_THREADS = 200;
+
+    /** The Constant DEFAULT_MAX_PARKED_PERCENT, of the container threads. */
+    public static final int DEFAULT_MAX_PARKED_PERCENT = 10;
+
+    /** The Constant DEFAULT_MAX_PARKED_PER_CLIENT, the other connections a browser opens to a host. */
+    public static final int DEFAULT_MAX_PARKED_PER_CLIENT = 5;
+
+    /** The enabled. */
+    private boolean enabled;
+
+    /** The key by address. */
+    private boolean keyByAddress;
+
+    /** The timeout in milliseconds. */
+    private int timeout;
+
+    /** The container threads. */
+    private int containerThreads = HandshakeCoalescer.DEFAULT_CONTAINER_THREADS;
+
+    /** The max parked percent. */
+    private int maxParkedPercent = HandshakeCoalescer.DEFAULT_MAX_PARKED_PERCENT;
+
+    /** The max parked per client. */
+    private int maxParkedPerClient = HandshakeCoalescer.DEFAULT_MAX_PARKED_PER_CLIENT;
+
+    /** The handshakes in flight, by client key. */
+    private Cache<String, Handshake> handshakes;
+
+    /** The parked. */
+    private final AtomicInteger parked = new AtomicInteger();
+
+    /** The led handshakes. */
+    private final AtomicLong ledHandshakes = new AtomicLong();
+
+    /** The parked requests. */
+    private final AtomicLong parkedRequests = new AtomicLong();
+
+    /** The attached requests. */
+    private final AtomicLong attachedRequests = new AtomicLong();
+
+    /** The released requests, challenged after a failed or timed out handshake. */
+    private final AtomicLong releasedRequests = new AtomicLong();
+
+    /**
+     * A handshake led by one request of a client.
+     */
+    private static final class Handshake {
+
+        /** The done. */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /** The deadline, in nanoseconds, after which its parked requests are challenged. */
+        private final long deadline;
+
+        /** The requests parked. */
+        private final AtomicInteger parked = new AtomicInteger();
+
+        /** The principal, null until the handshake succeeded. */
+        private volatile WindowsPrincipal principal;
+
+        /**
+         * Instantiates a new handshake.
+         *
+         * @param timeout
+         *            the timeout in milliseconds
+         */
+        Handshake(final int timeout) {
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+
+    }
+
+    /**
+     * Instantiates a new handshake coalescer.
+     */
+    public HandshakeCoalescer() {
+        this.setTimeout(HandshakeCoalescer.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Called for an unauthenticated request without an authorization header. Either elects the request as leader of a
+     * new handshake, or parks it until the handshake in flight for the same client completes.
+     *
+     * @param request
+     *            the request
+     * @return the principal to attach to the request, null if the request must be challenged
+     */
+    public WindowsPrincipal await(final HttpServletRequest request) {
+        final String key = this.getClientKey(request);
+        if (key == null) {
+            return null;
+        }
+
+        final Handshake handshake = this.handshakes.asMap().putIfAbsent(key, new Handshake(this.timeout));
+        if (handshake == null) {
+            HandshakeCoalescer.LOGGER.debug("leading handshake for {}", key);
+            this.ledHandshakes.incrementAndGet();
+            return null;
+        }
+
+        final long remaining = handshake.deadline - System.nanoTime();
+        if (remaining <= 0) {
+            if (this.handshakes.asMap().replace(key, handshake, new Handshake(this.timeout))) {
+                HandshakeCoalescer.LOGGER.debug("leading handshake for {} after a timed out one", key);
+                this.ledHandshakes.incrementAndGet();
+            }
+            return null;
+        }
+        if (handshake.done.getCount() == 0) {
+            // completed while this request arrived, which was not parked behind it
+            return null;
+        }
+        if (handshake.parked.incrementAndGet() > this.maxParkedPerClient) {
+            handshake.parked.decrementAndGet();
+            HandshakeCoalescer.LOGGER.debug("too many parked requests for {}, challenging", key);
+            return null;
+        }
+        if (this.parked.incrementAndGet() > this.getMaxParked()) {
+            this.parked.decrementAndGet();
+            handshake.parked.decrementAndGet();
+            HandshakeCoalescer.LOGGER.debug("too many parked requests, challenging {}", key);
+            return null;
+        }
+        this.parkedRequests.incrementAndGet();
+        try {
+            HandshakeCoalescer.LOGGER.debug("parking request for {}", key);
+            handshake.done.await(remaining, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.parked.decrementAndGet();
+            handshake.parked.decrementAndGet();
+        }
+
+        final WindowsPrincipal principal = handshake.principal;
+        if (principal == null) {
+            HandshakeCoalescer.LOGGER.debug("releasing request for {} without principal", key);
+            this.releasedRequests.incrementAndGet();
+            return null;
+        }
+        HandshakeCoalescer.LOGGER.debug("attaching {} to request for {}", principal.getName(), key);
+        this.attachedRequests.incrementAndGet();
+        return principal;
+    }
+
+    /**
+     * Called when a handshake succeeded, releases the requests of the same client parked behind it with the principal
+     * and forgets the handshake.
+     *
+     * @param request
+     *            the request that completed the handshake
+     * @param principal
+     *            the principal
+     */
+    public void complete(final HttpServletRequest request, final WindowsPrincipal principal) {
+        final String key = this.getClientKey(request);
+        if (key == null) {
+            return;
+        }
+        final Handshake handshake = this.handshakes.asMap().remove(key);
+        if (handshake != null) {
+            handshake.principal = principal;
+            handshake.done.countDown();
+        }
+    }
+
+    /**
+     * Called when a handshake failed, releases the parked requests of the same client so that they are challenged.
+     *
+     * @param request
+     *            the request that failed the handshake
+     */
+    public void fail(final HttpServletRequest request) {
+        final String key = this.getClientKey(request);
+        if (key == null) {
+            return;
+        }
+        final Handshake handshake = this.handshakes.asMap().remove(key);
+        if (handshake != null) {
+            handshake.done.countDown();
+        }
+    }
+
+    /**
+     * Gets the client key of a request.
+     *
+     * @param request
+     *            the request
+     * @return the requested session id, when valid, or the remote address and User-Agent when enabled, null if the
+     *         request cannot be coalesced
+     */
+    public String getClientKey(final HttpServletRequest request) {
+        if (!this.enabled) {
+            return null;
+        }
+        final String sessionId = request.getRequestedSessionId();
+        if (sessionId != null && request.isRequestedSessionIdValid()) {
+            return "session:" + sessionId;
+        }
+        if (this.keyByAddress && request.getRemoteAddr() != null) {
+            return "address:" + request.getRemoteAddr() + "|" + request.getHeader("User-Agent");
+        }
+        return null;
+    }
+
+    /**
+     * Checks if is enabled.
+     *
+     * @return true, if is enabled
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Sets the enabled.
+     *
+     * @param value
+     *            the new enabled
+     */
+    public void setEnabled(final boolean value) {
+        this.enabled = value;
+    }
+
+    /**
+     * Checks if clients without a session are identified by remote address and User-Agent.
+     *
+     * @return true, if clients are keyed by address
+     */
+    public boolean isKeyByAddress() {
+        return this.keyByAddress;
+    }
+
+    /**
+     * Sets whether clients without a session are identified by remote address and User-Agent.
+     *
+     * @param value
+     *            the new key by address
+     */
+    public void setKeyByAddress(final boolean value) {
+        this.keyByAddress = value;
+    }
+
+    /**
+     * Gets the timeout.
+     *
+     * @return how long, in milliseconds, requests are parked behind a handshake
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Sets the timeout.
+     *
+     * @param value
+     *            how long, in milliseconds, requests are parked behind a handshake
+     */
+    public void setTimeout(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + value);
+        }
+        this.timeout = value;
+        this.handshakes = Caffeine.newBuilder().expireAfterWrite(value, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * Gets the max parked.
+     *
+     * @return the maximum number of requests parked at the same time, the max parked percent of the container threads
+     */
+    public int getMaxParked() {
+        return this.containerThreads * this.maxParkedPercent / 100;
+    }
+
+    /**
+     * Gets the container threads.
+     *
+     * @return the number of request threads of the container
+     */
+    public int getContainerThreads() {
+        return this.containerThreads;
+    }
+
+    /**
+     * Sets the container threads, such as the <code>maxThreads</code> of a Tomcat connector.
+     *
+     * @param value
+     *            the number of request threads of the container
+     */
+    public void setContainerThreads(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid container threads: " + value);
+        }
+        this.containerThreads = value;
+    }
+
+    /**
+     * Gets the max parked percent.
+     *
+     * @return the percentage of the container threads that may be parked at the same time
+     */
+    public int getMaxParkedPercent() {
+        return this.maxParkedPercent;
+    }
+
+    /**
+     * Sets the max parked percent.
+     *
+     * @param value
+     *            the percentage of the container threads that may be parked at the same time
+     */
+    public void setMaxParkedPercent(final int value) {
+        if (value < 0 || value > 100) {
+            throw new IllegalArgumentException("Invalid max parked percent: " + value);
+        }
+        this.maxParkedPercent = value;
+    }
+
+    /**
+     * Gets the max parked per client.
+     *
+     * @return the maximum number of requests of one client parked at the same time
+     */
+    public int getMaxParkedPerClient() {
+        return this.maxParkedPerClient;
+    }
+
+    /**
+     * Sets the max parked per client.
+     *
+     * @param value
+     *            the maximum number of requests of one client parked at the same time
+     */
+    public void setMaxParkedPerClient(final int value) {
+        this.maxParkedPerClient = value;
+    }
+
+    /**
+     * Gets the number of handshakes led.
+     *
+     * @return the led handshakes
+     */
+    public long getLedHandshakes() {
+        return this.ledHandshakes.get();
+    }
+
+    /**
+     * Gets the number of requests parked.
+     *
+     * @return the parked requests
+     */
+    public long getParkedRequests() {
+        return this.parkedRequests.get();
+    }
+
+    /**
+     * Gets the number of requests attached to the principal of another request's handshake.
+     *
+     * @return the attached requests
+     */
+    public long getAttachedRequests() {
+        return this.attachedRequests.get();
+    }
+
+    /**
+     * Gets the number of requests released without a principal.
+     *
+     * @return the released requests
+     */
+    public long getReleasedRequests() {
+        return this.releasedRequests.get();
+    }
+
+}
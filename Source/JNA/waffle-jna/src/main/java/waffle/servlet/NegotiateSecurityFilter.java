@@ -14,6 +14,7 @@ package waffle.servlet;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.security.Principal;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
@@ -34,15 +35,21 @@ import javax.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import waffle.servlet.spi.NegotiateSecurityFilterProvider;
 import waffle.servlet.spi.SecurityFilterProvider;
 import waffle.servlet.spi.SecurityFilterProviderCollection;
 import waffle.util.AuthorizationHeader;
+import waffle.util.ChallengeResponseWriter;
 import waffle.util.CorsPreflightCheck;
+import waffle.util.HandshakeThrottle;
+import waffle.util.RequestBodyCheck;
+import waffle.util.WarmUp;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.IWindowsImpersonationContext;
 import waffle.windows.auth.PrincipalFormat;
 import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
 
 /**
  * A Negotiate (NTLM/Kerberos) Security Filter.
@@ -72,6 +79,15 @@ public class NegotiateSecurityFilter implements Filter {
     /** The auth. */
     private IWindowsAuthProvider auth;
 
+    /** The shared provider acquired from the registry, released when the filter is destroyed. */
+    private IWindowsAuthProvider sharedAuth;
+
+    /** Whether the default provider is shared with the other integrations of the process. */
+    private boolean sharedProvider = true;
+
+    /** The continue contexts timeout of the default provider, in seconds. */
+    private int continueContextsTimeout = WindowsAuthProviderImpl.CONTINUE_CONTEXT_TIMEOUT;
+
     /** The exclusion filter. */
     private String[] excludePatterns;
 
@@ -90,6 +106,21 @@ public class NegotiateSecurityFilter implements Filter {
     /** The disable SSO. */
     private boolean disableSSO;
 
+    /** The challenge writer. */
+    private final ChallengeResponseWriter challengeWriter = new ChallengeResponseWriter();
+
+    /** The handshake coalescer. */
+    private final HandshakeCoalescer handshakeCoalescer = new HandshakeCoalescer();
+
+    /** The handshake throttle, handed to the providers. */
+    private final HandshakeThrottle handshakeThrottle = new HandshakeThrottle();
+
+    /** The warm up, null when disabled. */
+    private WarmUp warmUp;
+
+    /** The readiness path, null when disabled. */
+    private String readinessPath;
+
     /**
      * Instantiates a new negotiate security filter.
      */
@@ -99,6 +130,16 @@ public class NegotiateSecurityFilter implements Filter {
 
     @Override
     public void destroy() {
+        if (this.warmUp != null) {
+            this.warmUp.stop();
+        }
+        if (this.sharedAuth != null) {
+            WindowsAuthProviderRegistry.release(this.sharedAuth);
+            if (this.auth == this.sharedAuth) {
+                this.auth = null;
+            }
+            this.sharedAuth = null;
+        }
         NegotiateSecurityFilter.LOGGER.info("[waffle.servlet.NegotiateSecurityFilter] stopped");
     }
 
@@ -112,8 +153,15 @@ public class NegotiateSecurityFilter implements Filter {
         NegotiateSecurityFilter.LOGGER.debug("{} {}, contentlength: {}", request.getMethod(), request.getRequestURI(),
                 Integer.valueOf(request.getContentLength()));
 
-        // If we are not in a windows environment, resume filter chain
-        if (!NegotiateSecurityFilter.isWindows()) {
+        // If readiness check, answer it without authentication
+        if (WarmUp.isReadinessRequest(request, this.readinessPath)) {
+            WarmUp.sendReadiness(response, this.isReady());
+            return;
+        }
+
+        // If we are not in a windows environment and no provider is portable, resume filter chain
+        final boolean windowsEnvironment = NegotiateSecurityFilter.isWindows();
+        if (!windowsEnvironment && !this.providers.isPortable()) {
             NegotiateSecurityFilter.LOGGER.debug("Running in a non windows environment, SSO skipped");
             chain.doFilter(request, response);
             return;
@@ -159,8 +207,10 @@ public class NegotiateSecurityFilter implements Filter {
             return;
         }
 
-        // authenticate user
-        if (!authorizationHeader.isNull()) {
+        // authenticate user, only with portable providers outside of a windows environment
+        final boolean assertion = this.providers.isAuthenticationRequest(request);
+        if (assertion || (!authorizationHeader.isNull()
+                && (windowsEnvironment || this.providers.isPortable(authorizationHeader.getSecurityPackage())))) {
 
             // log the user in using the token
             IWindowsIdentity windowsIdentity;
@@ -172,7 +222,8 @@ public class NegotiateSecurityFilter implements Filter {
             } catch (final IOException e) {
                 NegotiateSecurityFilter.LOGGER.warn("error logging in user: {}", e.getMessage());
                 NegotiateSecurityFilter.LOGGER.trace("", e);
-                this.sendUnauthorized(response, true);
+                this.handshakeCoalescer.fail(request);
+                this.sendUnauthorized(request, response, true);
                 return;
             }
 
@@ -180,7 +231,8 @@ public class NegotiateSecurityFilter implements Filter {
             try {
                 if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
                     NegotiateSecurityFilter.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
-                    this.sendUnauthorized(response, true);
+                    this.handshakeCoalescer.fail(request);
+                    this.sendUnauthorized(request, response, true);
                     return;
                 }
 
@@ -212,6 +264,9 @@ public class NegotiateSecurityFilter implements Filter {
                 NegotiateSecurityFilter.LOGGER.info("successfully logged in user: {}", windowsIdentity.getFqn());
 
                 request.getSession(false).setAttribute(NegotiateSecurityFilter.PRINCIPALSESSIONKEY, windowsPrincipal);
+                if (!this.impersonate && !assertion) {
+                    this.handshakeCoalescer.complete(request, windowsPrincipal);
+                }
 
                 final NegotiateRequestWrapper requestWrapper = new NegotiateRequestWrapper(request, windowsPrincipal);
 
@@ -233,8 +288,16 @@ public class NegotiateSecurityFilter implements Filter {
             return;
         }
 
+        // park parallel requests of a client while its first request performs the handshake
+        final WindowsPrincipal coalescedPrincipal = this.impersonate ? null : this.handshakeCoalescer.await(request);
+        if (coalescedPrincipal != null) {
+            NegotiateSecurityFilter.LOGGER.debug("coalesced handshake for user: {}", coalescedPrincipal.getName());
+            chain.doFilter(new NegotiateRequestWrapper(request, coalescedPrincipal), response);
+            return;
+        }
+
         NegotiateSecurityFilter.LOGGER.debug("authorization required");
-        this.sendUnauthorized(response, false);
+        this.sendUnauthorized(request, response, false);
     }
 
     /**
@@ -313,6 +376,8 @@ public class NegotiateSecurityFilter implements Filter {
         NegotiateSecurityFilter.LOGGER.debug("[waffle.servlet.NegotiateSecurityFilter] starting");
 
         String authProvider = null;
+        boolean warmUpEnabled = false;
+        String warmUpGroups = null;
         String[] providerNames = null;
         if (filterConfig != null) {
             final Enumeration<String> parameterNames = filterConfig.getInitParameterNames();
@@ -340,6 +405,12 @@ public class NegotiateSecurityFilter implements Filter {
                     case "authProvider":
                         authProvider = parameterValue;
                         break;
+                    case "sharedProvider":
+                        this.sharedProvider = Boolean.parseBoolean(parameterValue);
+                        break;
+                    case "continueContextsTimeout":
+                        this.continueContextsTimeout = Integer.parseInt(parameterValue.trim());
+                        break;
                     case "excludePatterns":
                         this.excludePatterns = parameterValue.split("\\s+");
                         break;
@@ -352,6 +423,51 @@ public class NegotiateSecurityFilter implements Filter {
                     case "disableSSO":
                         this.disableSSO = Boolean.parseBoolean(parameterValue);
                         break;
+                    case "lightweightChallenge":
+                        this.challengeWriter.setLightweight(Boolean.parseBoolean(parameterValue));
+                        break;
+                    case "coalesceHandshakes":
+                        this.handshakeCoalescer.setEnabled(Boolean.parseBoolean(parameterValue));
+                        break;
+                    case "coalesceByAddress":
+                        this.handshakeCoalescer.setKeyByAddress(Boolean.parseBoolean(parameterValue));
+                        break;
+                    case "coalesceTimeout":
+                        this.handshakeCoalescer.setTimeout(Integer.parseInt(parameterValue));
+                        break;
+                    case "coalesceContainerThreads":
+                        this.handshakeCoalescer.setContainerThreads(Integer.parseInt(parameterValue));
+                        break;
+                    case "coalesceMaxParkedPercent":
+                        this.handshakeCoalescer.setMaxParkedPercent(Integer.parseInt(parameterValue));
+                        break;
+                    case "coalesceMaxParkedPerClient":
+                        this.handshakeCoalescer.setMaxParkedPerClient(Integer.parseInt(parameterValue));
+                        break;
+                    case "throttleFailures":
+                        this.handshakeThrottle.setEnabled(Boolean.parseBoolean(parameterValue));
+                        break;
+                    case "throttleClientBurst":
+                        this.handshakeThrottle.setClientBurst(Integer.parseInt(parameterValue.trim()));
+                        break;
+                    case "throttleClientRate":
+                        this.handshakeThrottle.setClientRate(Integer.parseInt(parameterValue.trim()));
+                        break;
+                    case "throttleAccountBurst":
+                        this.handshakeThrottle.setAccountBurst(Integer.parseInt(parameterValue.trim()));
+                        break;
+                    case "throttleAccountRate":
+                        this.handshakeThrottle.setAccountRate(Integer.parseInt(parameterValue.trim()));
+                        break;
+                    case "warmUp":
+                        warmUpEnabled = Boolean.parseBoolean(parameterValue);
+                        break;
+                    case "warmUpGroups":
+                        warmUpGroups = parameterValue;
+                        break;
+                    case "readinessPath":
+                        this.readinessPath = parameterValue;
+                        break;
                     default:
                         implParameters.put(parameterName, parameterValue);
                         break;
@@ -372,8 +488,11 @@ public class NegotiateSecurityFilter implements Filter {
             }
         }
 
-        if (this.auth == null) {
-            this.auth = new WindowsAuthProviderImpl();
+        if (this.auth == null && this.sharedProvider) {
+            this.sharedAuth = WindowsAuthProviderRegistry.acquire(this.continueContextsTimeout);
+            this.auth = this.sharedAuth;
+        } else if (this.auth == null) {
+            this.auth = new WindowsAuthProviderImpl(this.continueContextsTimeout);
         }
 
         if (providerNames != null) {
@@ -385,6 +504,13 @@ public class NegotiateSecurityFilter implements Filter {
             NegotiateSecurityFilter.LOGGER.debug("initializing default security filter providers");
             this.providers = new SecurityFilterProviderCollection(this.auth);
         }
+        this.providers.setThrottle(this.handshakeThrottle);
+
+        // portable providers authenticate without a Windows logon, their identities cannot be impersonated
+        if (this.impersonate && this.providers.isPortable()) {
+            NegotiateSecurityFilter.LOGGER.error("impersonate is not supported with portable providers");
+            throw new ServletException("impersonate is not supported with portable providers");
+        }
 
         // apply provider implementation parameters
         NegotiateSecurityFilter.LOGGER.debug("[waffle.servlet.NegotiateSecurityFilter] load provider parameters");
@@ -415,6 +541,22 @@ public class NegotiateSecurityFilter implements Filter {
             }
         }
 
+        if (warmUpEnabled) {
+            NegotiateSecurityFilter.LOGGER.debug("[waffle.servlet.NegotiateSecurityFilter] warm-up");
+            this.warmUp = new WarmUp(this.auth);
+            try {
+                this.warmUp.setSecurityPackages(((NegotiateSecurityFilterProvider) this.providers
+                        .getByClassName(NegotiateSecurityFilterProvider.class.getName())).getProtocols());
+            } catch (final ClassNotFoundException e) {
+                // only Basic logons, no handshake to warm up
+                this.warmUp.setSecurityPackages(Collections.emptyList());
+            }
+            if (warmUpGroups != null) {
+                this.warmUp.setGroups(warmUpGroups);
+            }
+            this.warmUp.start();
+        }
+
         NegotiateSecurityFilter.LOGGER.info("[waffle.servlet.NegotiateSecurityFilter] started");
     }
 
@@ -461,21 +603,26 @@ public class NegotiateSecurityFilter implements Filter {
     /**
      * Send a 401 Unauthorized along with protocol authentication headers.
      *
+     * @param request
+     *            HTTP Request
      * @param response
      *            HTTP Response
      * @param close
-     *            Close connection.
+     *            Close connection, used for terminal failures which keep the container error page.
      */
-    private void sendUnauthorized(final HttpServletResponse response, final boolean close) {
+    private void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response,
+            final boolean close) {
         try {
-            this.providers.sendUnauthorized(response);
+            this.providers.sendUnauthorized(request, response);
             if (close) {
                 response.setHeader("Connection", "close");
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                response.flushBuffer();
             } else {
-                response.setHeader("Connection", "keep-alive");
+                // the body is never read before authentication, only keep the connection if it can be drained; an
+                // Expect: 100-continue was already acknowledged before the filter chain, the body is on its way
+                this.challengeWriter.sendChallenge(response, !RequestBodyCheck.isDrainable(request, true));
             }
-            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
-            response.flushBuffer();
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
@@ -528,6 +675,62 @@ public class NegotiateSecurityFilter implements Filter {
         return this.impersonate;
     }
 
+    /**
+     * Enable/Disable lightweight challenges, which set the 401 status directly instead of rendering the container error
+     * page.
+     *
+     * @param value
+     *            true to enable lightweight challenges, false otherwise
+     */
+    public void setLightweightChallenge(final boolean value) {
+        this.challengeWriter.setLightweight(value);
+    }
+
+    /**
+     * Checks if is lightweight challenge.
+     *
+     * @return true if lightweight challenges are enabled, false otherwise
+     */
+    public boolean isLightweightChallenge() {
+        return this.challengeWriter.isLightweight();
+    }
+
+    /**
+     * Handshake coalescer, which parks parallel unauthenticated requests of a client during its first handshake.
+     *
+     * @return the handshake coalescer
+     */
+    public HandshakeCoalescer getHandshakeCoalescer() {
+        return this.handshakeCoalescer;
+    }
+
+    /**
+     * Handshake throttle, which refuses clients and accounts with too many failed handshakes.
+     *
+     * @return the handshake throttle
+     */
+    public HandshakeThrottle getHandshakeThrottle() {
+        return this.handshakeThrottle;
+    }
+
+    /**
+     * Checks if the filter is ready, i.e. its warm-up completed or is disabled.
+     *
+     * @return true, if ready
+     */
+    public boolean isReady() {
+        return this.warmUp == null || this.warmUp.isReady();
+    }
+
+    /**
+     * Warm up of the native authentication stack.
+     *
+     * @return the warm up, null when disabled
+     */
+    public WarmUp getWarmUp() {
+        return this.warmUp;
+    }
+
     /**
      * Security filter providers.
      *
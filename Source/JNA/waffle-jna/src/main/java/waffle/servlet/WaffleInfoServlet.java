@@ -12,35 +12,88 @@
 package waffle.servlet;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import waffle.util.WaffleInfo;
+import waffle.util.WaffleInfoWriter;
 
 /**
- * A servlet that returns WaffleInfo as XML.
+ * A servlet that returns WaffleInfo as XML, or as JSON when the <code>Accept</code> header asks for it.
+ *
+ * The response is written as it is produced. The versions, current user, computer and domains are captured once and
+ * refreshed in the background every <code>refreshInterval</code> seconds, 300 by default, 0 to capture them on each
+ * request. Only the request and the lookups of the <code>lookup</code> parameters are produced for each request, the
+ * lookups through a cache shared by all callers.
  */
 public class WaffleInfoServlet extends HttpServlet {
 
     /** The Constant serialVersionUID. */
     private static final long serialVersionUID = 1L;
 
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WaffleInfoServlet.class);
+
+    /** The Constant DEFAULT_REFRESH_INTERVAL, in seconds. */
+    public static final int DEFAULT_REFRESH_INTERVAL = 300;
+
+    /** The refresh interval, in seconds. */
+    private int refreshInterval = WaffleInfoServlet.DEFAULT_REFRESH_INTERVAL;
+
+    /** The host info, null until first captured. */
+    private transient volatile WaffleInfo.HostInfo hostInfo;
+
+    /** The refresher. */
+    private transient ScheduledExecutorService refresher;
+
+    /** The scheduled refresh. */
+    private transient ScheduledFuture<?> refresh;
+
+    @Override
+    public void init() throws ServletException {
+        final String interval = this.getInitParameter("refreshInterval");
+        if (interval != null) {
+            this.refreshInterval = Integer.parseInt(interval.trim());
+        }
+        if (this.refreshInterval > 0) {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "waffle-info-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.refresh = this.refresher.scheduleWithFixedDelay(this::refresh, 0, this.refreshInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.refresh != null) {
+            this.refresh.cancel(true);
+            this.refresh = null;
+        }
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
+    }
+
     @Override
     public void doGet(final HttpServletRequest request, final HttpServletResponse response)
             throws ServletException, IOException {
@@ -68,85 +121,104 @@ public class WaffleInfoServlet extends HttpServlet {
     public void getWaffleInfoResponse(final HttpServletRequest request, final HttpServletResponse response)
             throws IOException, ServletException {
         final WaffleInfo info = new WaffleInfo();
+        final WaffleInfo.HostInfo host = this.getHostInfo(info);
+
+        final boolean json = WaffleInfoServlet.acceptsJson(request.getHeader("Accept"));
+        response.setContentType(json ? WaffleInfoWriter.JSON_CONTENT_TYPE : WaffleInfoWriter.XML_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        final Writer out = response.getWriter();
+        final WaffleInfoWriter writer = json ? WaffleInfoWriter.json(out) : WaffleInfoWriter.xml(out);
+
+        writer.startDocument("waffle");
+        host.writeVersions(writer);
+        this.writeRequestInfo(writer, request);
+        host.writeAuth(writer);
+
+        // Lookup Accounts By Name
+        final String[] lookup = request.getParameterValues("lookup");
+        info.writeLookups(writer, lookup == null ? Collections.<String> emptySet()
+                : new LinkedHashSet<>(Arrays.asList(lookup)));
+        writer.endDocument();
+    }
+
+    /**
+     * Gets the host info, capturing it when it was not yet or when it is not refreshed in the background.
+     *
+     * @param info
+     *            the waffle info
+     * @return the host info
+     */
+    private WaffleInfo.HostInfo getHostInfo(final WaffleInfo info) {
+        WaffleInfo.HostInfo host = this.hostInfo;
+        if (host == null || this.refreshInterval <= 0) {
+            host = info.getHostInfo();
+            this.hostInfo = host;
+        }
+        return host;
+    }
+
+    /**
+     * Refreshes the host info, keeping the previous one on failure.
+     */
+    private void refresh() {
         try {
-            final Document doc = info.getWaffleInfo();
-            final Element root = doc.getDocumentElement();
-
-            // Add the Request Information Here
-            final Element http = this.getRequestInfo(doc, request);
-            root.insertBefore(http, root.getFirstChild());
-
-            // Lookup Accounts By Name
-            final String[] lookup = request.getParameterValues("lookup");
-            if (lookup != null) {
-                for (final String name : lookup) {
-                    root.appendChild(info.getLookupInfo(doc, name));
-                }
-            }
+            this.hostInfo = new WaffleInfo().getHostInfo();
+        } catch (final RuntimeException | LinkageError e) {
+            WaffleInfoServlet.LOGGER.warn("Error refreshing waffle info: {}", e.getMessage());
+            WaffleInfoServlet.LOGGER.trace("", e);
+        }
+    }
 
-            // Write the XML Response
-            final TransformerFactory transfac = TransformerFactory.newInstance();
-            final Transformer trans = transfac.newTransformer();
-            trans.setOutputProperty(OutputKeys.INDENT, "yes");
-
-            final StreamResult result = new StreamResult(response.getWriter());
-            final DOMSource source = new DOMSource(doc);
-            trans.transform(source, result);
-            response.setContentType("application/xml");
-        } catch (final ParserConfigurationException e) {
-            throw new ServletException(e);
-        } catch (final TransformerConfigurationException e) {
-            throw new ServletException(e);
-        } catch (final TransformerException e) {
-            throw new ServletException(e);
+    /**
+     * Checks whether an <code>Accept</code> header prefers JSON to XML.
+     *
+     * @param accept
+     *            the header, may be null
+     * @return true, for JSON
+     */
+    static boolean acceptsJson(final String accept) {
+        if (accept == null) {
+            return false;
         }
+        final String value = accept.toLowerCase(Locale.ENGLISH);
+        final int jsonIndex = value.indexOf("json");
+        final int xmlIndex = value.indexOf("xml");
+        return jsonIndex >= 0 && (xmlIndex < 0 || jsonIndex < xmlIndex);
     }
 
     /**
-     * Gets the request info.
+     * Writes the request info.
      *
-     * @param doc
-     *            the doc
+     * @param writer
+     *            the writer
      * @param request
      *            the request
-     * @return the request info
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
      */
-    private Element getRequestInfo(final Document doc, final HttpServletRequest request) {
-        final Element node = doc.createElement("request");
-
-        Element value = doc.createElement("AuthType");
-        value.setTextContent(request.getAuthType());
-        node.appendChild(value);
+    private void writeRequestInfo(final WaffleInfoWriter writer, final HttpServletRequest request)
+            throws IOException {
+        writer.startObject("request");
+        writer.value("AuthType", request.getAuthType());
 
         final Principal p = request.getUserPrincipal();
         if (p != null) {
-            final Element child = doc.createElement("principal");
-            child.setAttribute("class", p.getClass().getName());
-
-            value = doc.createElement("name");
-            value.setTextContent(p.getName());
-            child.appendChild(value);
-
-            value = doc.createElement("string");
-            value.setTextContent(p.toString());
-            child.appendChild(value);
-
-            node.appendChild(child);
+            writer.startObject("principal");
+            writer.attribute("class", p.getClass().getName());
+            writer.value("name", p.getName());
+            writer.value("string", p.toString());
+            writer.end();
         }
 
         final Enumeration<?> headers = request.getHeaderNames();
         if (headers.hasMoreElements()) {
-            String name;
-            final Element child = doc.createElement("headers");
+            writer.startObject("headers");
             while (headers.hasMoreElements()) {
-                name = (String) headers.nextElement();
-
-                value = doc.createElement(name);
-                value.setTextContent(request.getHeader(name));
-                child.appendChild(value);
+                final String name = (String) headers.nextElement();
+                writer.value(name, request.getHeader(name));
             }
-            node.appendChild(child);
+            writer.end();
         }
-        return node;
+        writer.end();
     }
 }
@@ -14,6 +14,7 @@ package waffle.servlet;
 import java.io.Serializable;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -212,6 +213,15 @@ public class WindowsPrincipal implements Principal, Serializable {
         return String.join(", ", this.roles);
     }
 
+    /**
+     * Gets the roles: the principal names followed by the group names, in the configured formats.
+     *
+     * @return the roles
+     */
+    public List<String> getRoles() {
+        return Collections.unmodifiableList(this.roles);
+    }
+
     /**
      * Checks whether the principal has a given role.
      *
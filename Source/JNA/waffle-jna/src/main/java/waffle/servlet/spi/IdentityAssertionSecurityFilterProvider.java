@@ -0,0 +1,191 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.servlet.spi;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidParameterException;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.util.AddressMatcher;
+import waffle.util.IdentityAssertion;
+import waffle.util.IdentityAssertionVerifier;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+
+/**
+ * A security filter provider accepting identity assertions of trusted front-ends.
+ *
+ * A Windows front tier, for example IIS with ARR, authenticates users with SSPI and forwards requests with a signed
+ * assertion of the user SID, name and groups in a header. The provider verifies it and returns an
+ * {@link IdentityAssertion} identity without native calls, so that application servers can run on any platform. See
+ * {@link IdentityAssertionVerifier} for the header format.
+ */
+public class IdentityAssertionSecurityFilterProvider implements SecurityFilterProvider {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentityAssertionSecurityFilterProvider.class);
+
+    /** The Constant DEFAULT_HEADER_NAME. */
+    public static final String DEFAULT_HEADER_NAME = "X-Waffle-Identity";
+
+    /** The header name. */
+    private String headerName = IdentityAssertionSecurityFilterProvider.DEFAULT_HEADER_NAME;
+
+    /** The verifier. */
+    private final IdentityAssertionVerifier verifier = new IdentityAssertionVerifier();
+
+    /** The trusted addresses, null to accept assertions from any address. */
+    private AddressMatcher trustedAddresses;
+
+    /**
+     * Instantiates a new identity assertion security filter provider.
+     *
+     * @param newAuthProvider
+     *            the auth provider, unused since assertions are verified without it
+     */
+    public IdentityAssertionSecurityFilterProvider(final IWindowsAuthProvider newAuthProvider) {
+        // assertions are verified without the auth provider
+    }
+
+    @Override
+    public IWindowsIdentity doFilter(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        final String remoteAddr = request.getRemoteAddr();
+        if (this.trustedAddresses != null && !this.trustedAddresses.matches(remoteAddr)) {
+            throw new IOException("Identity assertion from untrusted address: " + remoteAddr);
+        }
+        final IdentityAssertion assertion;
+        try {
+            assertion = this.verifier.verify(request.getHeader(this.headerName));
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        IdentityAssertionSecurityFilterProvider.LOGGER.debug("asserted user: {} ({}) from {}", assertion.getFqn(),
+                assertion.getSidString(), remoteAddr);
+        return assertion;
+    }
+
+    @Override
+    public boolean isAuthenticationRequest(final HttpServletRequest request) {
+        return request.getHeader(this.headerName) != null;
+    }
+
+    @Override
+    public boolean isPortable() {
+        return true;
+    }
+
+    @Override
+    public boolean isPrincipalException(final HttpServletRequest request) {
+        // each assertion is verified, the front-end may forward requests of several users on a connection
+        return this.isAuthenticationRequest(request);
+    }
+
+    @Override
+    public boolean isSecurityPackageSupported(final String securityPackage) {
+        return false;
+    }
+
+    @Override
+    public void sendUnauthorized(final HttpServletResponse response) {
+        // clients authenticate with the front-end
+    }
+
+    /**
+     * Gets the header name.
+     *
+     * @return the header name
+     */
+    public String getHeaderName() {
+        return this.headerName;
+    }
+
+    /**
+     * Sets the name of the assertion header. Default is X-Waffle-Identity.
+     *
+     * @param value
+     *            the new header name
+     */
+    public void setHeaderName(final String value) {
+        this.headerName = value;
+    }
+
+    /**
+     * Gets the verifier.
+     *
+     * @return the verifier
+     */
+    public IdentityAssertionVerifier getVerifier() {
+        return this.verifier;
+    }
+
+    /**
+     * Sets the addresses and CIDR networks of the trusted front-ends.
+     *
+     * @param value
+     *            the trusted addresses, separated by white space or commas, null to accept any address
+     */
+    public void setTrustedAddresses(final String value) {
+        this.trustedAddresses = value == null ? null : new AddressMatcher(value);
+    }
+
+    /**
+     * Init configuration parameters.
+     *
+     * @param parameterName
+     *            the parameter name
+     * @param parameterValue
+     *            the parameter value
+     */
+    @Override
+    public void initParameter(final String parameterName, final String parameterValue) {
+        switch (parameterName) {
+            case "headerName":
+                this.setHeaderName(parameterValue);
+                break;
+            case "hmacKey":
+                this.verifier.setHmacKey(Base64.getDecoder().decode(parameterValue));
+                break;
+            case "hmacAlgorithm":
+                this.verifier.setHmacAlgorithm(parameterValue);
+                break;
+            case "publicKey":
+                this.verifier.setPublicKey(Base64.getMimeDecoder().decode(parameterValue));
+                break;
+            case "signatureAlgorithm":
+                this.verifier.setSignatureAlgorithm(parameterValue);
+                break;
+            case "maxAge":
+                this.verifier.setMaxAge(Integer.parseInt(parameterValue));
+                break;
+            case "replayProtection":
+                this.verifier.setReplayProtection(Boolean.parseBoolean(parameterValue));
+                break;
+            case "maximumNonces":
+                this.verifier.setMaximumNonces(Integer.parseInt(parameterValue));
+                break;
+            case "trustedAddresses":
+                this.setTrustedAddresses(parameterValue);
+                break;
+            default:
+                throw new InvalidParameterException(parameterName);
+        }
+    }
+
+}
@@ -23,7 +23,9 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import waffle.util.AdaptiveChallengePolicy;
 import waffle.util.AuthorizationHeader;
+import waffle.util.NegotiateTokenInspector;
 import waffle.util.NtlmServletRequest;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
@@ -57,6 +59,9 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
     /** The auth. */
     private final IWindowsAuthProvider auth;
 
+    /** The adaptive challenge policy. */
+    private final AdaptiveChallengePolicy adaptivePolicy = new AdaptiveChallengePolicy();
+
     /**
      * Instantiates a new negotiate security filter provider.
      *
@@ -88,6 +93,15 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
         this.protocols = values;
     }
 
+    /**
+     * Gets the adaptive challenge policy.
+     *
+     * @return the adaptive challenge policy
+     */
+    public AdaptiveChallengePolicy getAdaptivePolicy() {
+        return this.adaptivePolicy;
+    }
+
     @Override
     public void sendUnauthorized(final HttpServletResponse response) {
         for (final String protocol : this.protocols) {
@@ -95,6 +109,18 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
         }
     }
 
+    @Override
+    public void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response) {
+        for (final String protocol : this.adaptivePolicy.getProtocols(request, this.protocols)) {
+            response.addHeader(NegotiateSecurityFilterProvider.WWW_AUTHENTICATE, protocol);
+        }
+    }
+
+    @Override
+    public boolean isPortable() {
+        return this.auth.isPortable();
+    }
+
     @Override
     public boolean isPrincipalException(final HttpServletRequest request) {
         final AuthorizationHeader authorizationHeader = new AuthorizationHeader(request);
@@ -124,6 +150,27 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
 
         final byte[] tokenBuffer = authorizationHeader.getTokenBytes();
         NegotiateSecurityFilterProvider.LOGGER.debug("token buffer: {} byte(s)", Integer.valueOf(tokenBuffer.length));
+
+        // reject tokens that claim a known format but do not parse, before they reach the security package
+        final NegotiateTokenInspector inspector = authorizationHeader.inspectToken();
+        NegotiateSecurityFilterProvider.LOGGER.debug("token: {}", inspector);
+        if (inspector.isMalformed() || inspector.isOversized()) {
+            NegotiateSecurityFilterProvider.LOGGER.warn("rejecting {} token from {}", inspector.getFormat(),
+                    request.getRemoteAddr());
+            throw new IOException("Invalid " + securityPackage + " token.");
+        }
+
+        if (this.adaptivePolicy.isRejected(request, securityPackage, tokenBuffer)) {
+            // client is known to complete Kerberos, offer it a fresh Negotiate challenge instead of NTLM
+            this.auth.resetSecurityToken(connectionId);
+            response.addHeader(NegotiateSecurityFilterProvider.WWW_AUTHENTICATE,
+                    NegotiateSecurityFilterProvider.NEGOTIATE);
+            response.setHeader("Connection", "keep-alive");
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.flushBuffer();
+            return null;
+        }
+
         final IWindowsSecurityContext securityContext = this.auth.acceptSecurityToken(connectionId, tokenBuffer,
                 securityPackage);
 
@@ -145,6 +192,7 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
 
         final IWindowsIdentity identity = securityContext.getIdentity();
         securityContext.dispose();
+        this.adaptivePolicy.recordSuccess(request, securityPackage, tokenBuffer);
         return identity;
     }
 
@@ -160,24 +208,44 @@ public class NegotiateSecurityFilterProvider implements SecurityFilterProvider {
 
     @Override
     public void initParameter(final String parameterName, final String parameterValue) {
-        if (NegotiateSecurityFilterProvider.PROTOCOLS.equals(parameterName)) {
-            this.protocols = new ArrayList<>();
-            final String[] protocolNames = parameterValue.split("\\s+");
-            for (String protocolName : protocolNames) {
-                protocolName = protocolName.trim();
-                if (protocolName.length() > 0) {
-                    NegotiateSecurityFilterProvider.LOGGER.debug("init protocol: {}", protocolName);
-                    if (NegotiateSecurityFilterProvider.NEGOTIATE.equals(protocolName)
-                            || NegotiateSecurityFilterProvider.NTLM.equals(protocolName)) {
-                        this.protocols.add(protocolName);
-                    } else {
-                        NegotiateSecurityFilterProvider.LOGGER.error("unsupported protocol: {}", protocolName);
-                        throw new RuntimeException("Unsupported protocol: " + protocolName);
+        switch (parameterName) {
+            case NegotiateSecurityFilterProvider.PROTOCOLS:
+                this.protocols = new ArrayList<>();
+                final String[] protocolNames = parameterValue.split("\\s+");
+                for (String protocolName : protocolNames) {
+                    protocolName = protocolName.trim();
+                    if (protocolName.length() > 0) {
+                        NegotiateSecurityFilterProvider.LOGGER.debug("init protocol: {}", protocolName);
+                        if (NegotiateSecurityFilterProvider.NEGOTIATE.equals(protocolName)
+                                || NegotiateSecurityFilterProvider.NTLM.equals(protocolName)) {
+                            this.protocols.add(protocolName);
+                        } else {
+                            NegotiateSecurityFilterProvider.LOGGER.error("unsupported protocol: {}", protocolName);
+                            throw new RuntimeException("Unsupported protocol: " + protocolName);
+                        }
                     }
                 }
-            }
-        } else {
-            throw new InvalidParameterException(parameterName);
+                break;
+            case "adaptiveAdvertisement":
+                this.adaptivePolicy.setEnabled(Boolean.parseBoolean(parameterValue));
+                break;
+            case "adaptivePaths":
+                this.adaptivePolicy.setPaths(parameterValue.trim().split("\\s+"));
+                break;
+            case "adaptiveNetworkPrefix":
+                this.adaptivePolicy.setNetworkPrefix(Integer.parseInt(parameterValue.trim()));
+                break;
+            case "adaptiveKeyByUserAgent":
+                this.adaptivePolicy.setKeyByUserAgent(Boolean.parseBoolean(parameterValue));
+                break;
+            case "adaptiveTimeout":
+                this.adaptivePolicy.setTimeout(Integer.parseInt(parameterValue.trim()));
+                break;
+            case "rejectNtlmInNegotiate":
+                this.adaptivePolicy.setRejectNtlmInNegotiate(Boolean.parseBoolean(parameterValue));
+                break;
+            default:
+                throw new InvalidParameterException(parameterName);
         }
     }
 }
@@ -33,6 +33,19 @@ public interface SecurityFilterProvider {
      */
     void sendUnauthorized(final HttpServletResponse response);
 
+    /**
+     * Add authentication method headers for a specific request. Providers that adapt their challenge to the client
+     * override this method, the default implementation ignores the request.
+     *
+     * @param request
+     *            Http Request.
+     * @param response
+     *            Http Response.
+     */
+    default void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response) {
+        this.sendUnauthorized(response);
+    }
+
     /**
      * Returns true if despite having a principal authentication needs to happen.
      *
@@ -42,6 +55,29 @@ public interface SecurityFilterProvider {
      */
     boolean isPrincipalException(final HttpServletRequest request);
 
+    /**
+     * Returns true if a request carries credentials of this provider outside of the Authorization header. Such a
+     * request is authenticated by this provider whatever its Authorization header, the default implementation returns
+     * false.
+     *
+     * @param request
+     *            Http Request.
+     * @return True if this provider authenticates the request.
+     */
+    default boolean isAuthenticationRequest(final HttpServletRequest request) {
+        return false;
+    }
+
+    /**
+     * Returns true if this provider authenticates without the Windows API, and can therefore run on any platform. The
+     * default implementation returns false.
+     *
+     * @return True if the provider is portable.
+     */
+    default boolean isPortable() {
+        return false;
+    }
+
     /**
      * Execute filter.
      *
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import waffle.util.AuthorizationHeader;
+import waffle.util.HandshakeThrottle;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 
@@ -42,6 +43,9 @@ public class SecurityFilterProviderCollection {
     /** The providers. */
     private final List<SecurityFilterProvider> providers = new ArrayList<>();
 
+    /** The handshake throttle. */
+    private HandshakeThrottle throttle = new HandshakeThrottle();
+
     /**
      * Instantiates a new security filter provider collection.
      *
@@ -125,6 +129,59 @@ public class SecurityFilterProviderCollection {
         return null;
     }
 
+    /**
+     * Gets the provider authenticating a request outside of the Authorization header.
+     *
+     * @param request
+     *            the request
+     * @return the security filter provider, null if none
+     */
+    private SecurityFilterProvider get(final HttpServletRequest request) {
+        for (final SecurityFilterProvider provider : this.providers) {
+            if (provider.isAuthenticationRequest(request)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether a provider authenticates a request outside of the Authorization header.
+     *
+     * @param request
+     *            Http Request
+     * @return True if a provider authenticates the request.
+     */
+    public boolean isAuthenticationRequest(final HttpServletRequest request) {
+        return this.get(request) != null;
+    }
+
+    /**
+     * Tests whether any of the providers authenticates without the Windows API.
+     *
+     * @return True if a provider is portable.
+     */
+    public boolean isPortable() {
+        for (final SecurityFilterProvider provider : this.providers) {
+            if (provider.isPortable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether the provider of a security package authenticates without the Windows API.
+     *
+     * @param securityPackage
+     *            Security package.
+     * @return True if the provider of the security package is portable.
+     */
+    public boolean isPortable(final String securityPackage) {
+        final SecurityFilterProvider provider = this.get(securityPackage);
+        return provider != null && provider.isPortable();
+    }
+
     /**
      * Filter.
      *
@@ -138,18 +195,55 @@ public class SecurityFilterProviderCollection {
      */
     public IWindowsIdentity doFilter(final HttpServletRequest request, final HttpServletResponse response)
             throws IOException {
+        SecurityFilterProvider provider = this.get(request);
         final AuthorizationHeader authorizationHeader = new AuthorizationHeader(request);
-        final SecurityFilterProvider provider = this.get(authorizationHeader.getSecurityPackage());
+        final boolean handshake = provider == null;
+        if (handshake) {
+            provider = this.get(authorizationHeader.getSecurityPackage());
+        }
         if (provider == null) {
             throw new RuntimeException("Unsupported security package: " + authorizationHeader.getSecurityPackage());
         }
+        if (handshake && this.throttle.isThrottled(request, authorizationHeader)) {
+            SecurityFilterProviderCollection.LOGGER.warn("throttling failed handshakes from {}",
+                    request.getRemoteAddr());
+            this.throttle.sendThrottled(response);
+            return null;
+        }
         try {
             return provider.doFilter(request, response);
         } catch (final Win32Exception e) {
+            if (handshake) {
+                this.throttle.recordFailure(request, authorizationHeader);
+            }
             throw new IOException(e);
+        } catch (final IOException e) {
+            if (handshake) {
+                this.throttle.recordFailure(request, authorizationHeader);
+            }
+            throw e;
         }
     }
 
+    /**
+     * Gets the throttle of failed handshakes, disabled by default.
+     *
+     * @return the handshake throttle
+     */
+    public HandshakeThrottle getThrottle() {
+        return this.throttle;
+    }
+
+    /**
+     * Sets the throttle of failed handshakes.
+     *
+     * @param value
+     *            the new handshake throttle
+     */
+    public void setThrottle(final HandshakeThrottle value) {
+        this.throttle = value;
+    }
+
     /**
      * Returns true if authentication still needs to happen despite an existing principal.
      *
@@ -178,6 +272,20 @@ public class SecurityFilterProviderCollection {
         }
     }
 
+    /**
+     * Send authorization headers adapted to the request.
+     *
+     * @param request
+     *            Http Request
+     * @param response
+     *            Http Response
+     */
+    public void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response) {
+        for (final SecurityFilterProvider provider : this.providers) {
+            provider.sendUnauthorized(request, response);
+        }
+    }
+
     /**
      * Number of providers.
      *
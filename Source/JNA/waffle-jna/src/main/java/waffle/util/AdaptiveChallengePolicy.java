@@ -0,0 +1,489 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive WWW-Authenticate advertisement policy.
+ *
+ * Remembers which client networks (address prefix and, optionally, User-Agent) have previously completed a single-leg
+ * Kerberos handshake. Such clients are challenged with <code>Negotiate</code> only, and a raw NTLM token sent by them
+ * under the <code>Negotiate</code> scheme can be rejected once with a fresh challenge, giving the client another
+ * chance to obtain a Kerberos ticket before falling back to the three-leg NTLM handshake. A rejected client is
+ * forgotten so that its next attempt is served with the full protocol list and can never be locked out.
+ *
+ * The policy is disabled by default and can be limited to a set of request URI patterns.
+ */
+public class AdaptiveChallengePolicy {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveChallengePolicy.class);
+
+    /** The Constant DEFAULT_TIMEOUT in seconds. */
+    public static final int DEFAULT_TIMEOUT = 3600;
+
+    /** The Constant DEFAULT_NETWORK_PREFIX for IPv4 addresses. */
+    public static final int DEFAULT_NETWORK_PREFIX = 24;
+
+    /** The Constant DEFAULT_MAXIMUM_SIZE. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** The Constant NEGOTIATE. */
+    private static final String NEGOTIATE = "Negotiate";
+
+    /** The Constant IPV6_NETWORK_PREFIX. */
+    private static final int IPV6_NETWORK_PREFIX = 64;
+
+    /** The enabled. */
+    private boolean enabled;
+
+    /** The reject ntlm in negotiate. */
+    private boolean rejectNtlmInNegotiate;
+
+    /** The key by user agent. */
+    private boolean keyByUserAgent = true;
+
+    /** The network prefix. */
+    private int networkPrefix = AdaptiveChallengePolicy.DEFAULT_NETWORK_PREFIX;
+
+    /** The path patterns. */
+    private Pattern[] pathPatterns;
+
+    /** The kerberos clients. */
+    private Cache<String, Boolean> kerberosClients;
+
+    /** The negotiate only challenges. */
+    private final AtomicLong negotiateOnlyChallenges = new AtomicLong();
+
+    /** The default challenges. */
+    private final AtomicLong defaultChallenges = new AtomicLong();
+
+    /** The kerberos logins. */
+    private final AtomicLong kerberosLogins = new AtomicLong();
+
+    /** The ntlm logins. */
+    private final AtomicLong ntlmLogins = new AtomicLong();
+
+    /** The ntlm rejections. */
+    private final AtomicLong ntlmRejections = new AtomicLong();
+
+    /**
+     * Instantiates a new adaptive challenge policy.
+     */
+    public AdaptiveChallengePolicy() {
+        this.setTimeout(AdaptiveChallengePolicy.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Returns the protocols to advertise for a given request.
+     *
+     * @param request
+     *            the request
+     * @param protocols
+     *            the configured protocols
+     * @return <code>Negotiate</code> only for clients known to complete Kerberos, the configured protocols otherwise
+     */
+    public Collection<String> getProtocols(final HttpServletRequest request, final Collection<String> protocols) {
+        if (!this.isApplicable(request)) {
+            return protocols;
+        }
+        if (protocols.size() > 1 && protocols.contains(AdaptiveChallengePolicy.NEGOTIATE)
+                && this.isKerberosClient(request)) {
+            AdaptiveChallengePolicy.LOGGER.debug("advertising Negotiate only to {}", this.getClientKey(request));
+            this.negotiateOnlyChallenges.incrementAndGet();
+            return Collections.singletonList(AdaptiveChallengePolicy.NEGOTIATE);
+        }
+        this.defaultChallenges.incrementAndGet();
+        return protocols;
+    }
+
+    /**
+     * Tests whether the first leg of an NTLM handshake sent under the Negotiate scheme should be rejected with a fresh
+     * challenge because the client is known to complete Kerberos. A client is rejected at most once, it is forgotten
+     * afterwards.
+     *
+     * @param request
+     *            the request
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the token bytes
+     * @return true, if the token should be rejected
+     */
+    public boolean isRejected(final HttpServletRequest request, final String securityPackage, final byte[] token) {
+        if (!this.rejectNtlmInNegotiate || !this.isApplicable(request)
+                || !AdaptiveChallengePolicy.isNtlmInNegotiate(securityPackage, token)
+                || !AdaptiveChallengePolicy.isNtlmType1(token)) {
+            return false;
+        }
+        final String key = this.getClientKey(request);
+        if (this.kerberosClients.asMap().remove(key) == null) {
+            return false;
+        }
+        AdaptiveChallengePolicy.LOGGER.debug("rejecting NTLM in Negotiate from Kerberos client {}", key);
+        this.ntlmRejections.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the outcome of a completed handshake.
+     *
+     * @param request
+     *            the request
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the last token received from the client
+     */
+    public void recordSuccess(final HttpServletRequest request, final String securityPackage, final byte[] token) {
+        if (!this.isApplicable(request)) {
+            return;
+        }
+        if (AdaptiveChallengePolicy.isKerberos(securityPackage, token)) {
+            final String key = this.getClientKey(request);
+            AdaptiveChallengePolicy.LOGGER.debug("recording Kerberos client {}", key);
+            this.kerberosClients.put(key, Boolean.TRUE);
+            this.kerberosLogins.incrementAndGet();
+        } else {
+            this.ntlmLogins.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks if a client is known to complete Kerberos.
+     *
+     * @param request
+     *            the request
+     * @return true, if the client previously completed Kerberos
+     */
+    public boolean isKerberosClient(final HttpServletRequest request) {
+        return this.kerberosClients.getIfPresent(this.getClientKey(request)) != null;
+    }
+
+    /**
+     * Checks if the policy applies to a request.
+     *
+     * @param request
+     *            the request
+     * @return true, if enabled and the request URI matches the configured paths
+     */
+    public boolean isApplicable(final HttpServletRequest request) {
+        if (!this.enabled) {
+            return false;
+        }
+        if (this.pathPatterns == null) {
+            return true;
+        }
+        final String uri = request.getRequestURI();
+        if (uri == null) {
+            return false;
+        }
+        for (final Pattern pattern : this.pathPatterns) {
+            if (pattern.matcher(uri).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the client key, the client network and optionally its User-Agent.
+     *
+     * @param request
+     *            the request
+     * @return the client key
+     */
+    public String getClientKey(final HttpServletRequest request) {
+        final String network = this.getNetwork(request.getRemoteAddr());
+        if (!this.keyByUserAgent) {
+            return network;
+        }
+        final String userAgent = request.getHeader("User-Agent");
+        return String.join("|", network, userAgent == null ? "" : userAgent);
+    }
+
+    /**
+     * Gets the network of an address literal.
+     *
+     * @param remoteAddr
+     *            the remote address
+     * @return the network address with host bits cleared and the prefix length
+     */
+    private String getNetwork(final String remoteAddr) {
+        if (remoteAddr == null || remoteAddr.isEmpty()) {
+            return "";
+        }
+        final byte[] address;
+        try {
+            // remote addresses are IP literals, no name resolution takes place
+            address = InetAddress.getByName(remoteAddr).getAddress();
+        } catch (final UnknownHostException e) {
+            AdaptiveChallengePolicy.LOGGER.trace("", e);
+            return remoteAddr;
+        }
+        final int prefix = address.length == 4 ? this.networkPrefix
+                : Math.max(this.networkPrefix, AdaptiveChallengePolicy.IPV6_NETWORK_PREFIX);
+        for (int i = 0; i < address.length; i++) {
+            final int bits = prefix - i * 8;
+            if (bits <= 0) {
+                address[i] = 0;
+            } else if (bits < 8) {
+                address[i] &= (byte) (0xff << (8 - bits));
+            }
+        }
+        try {
+            return InetAddress.getByAddress(address).getHostAddress() + "/" + prefix;
+        } catch (final UnknownHostException e) {
+            AdaptiveChallengePolicy.LOGGER.trace("", e);
+            return remoteAddr;
+        }
+    }
+
+    /**
+     * Checks if a token is an NTLM message sent under the Negotiate scheme, either raw or wrapped in SPNEGO.
+     *
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the token
+     * @return true, if NTLM in Negotiate
+     */
+    public static boolean isNtlmInNegotiate(final String securityPackage, final byte[] token) {
+        return AdaptiveChallengePolicy.NEGOTIATE.equalsIgnoreCase(securityPackage)
+                && AdaptiveChallengePolicy.inspect(token).getMechanism() == NegotiateTokenInspector.Mechanism.NTLM;
+    }
+
+    /**
+     * Checks if a completed Negotiate handshake used Kerberos.
+     *
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the last token received from the client
+     * @return true, if Kerberos
+     */
+    public static boolean isKerberos(final String securityPackage, final byte[] token) {
+        return AdaptiveChallengePolicy.NEGOTIATE.equalsIgnoreCase(securityPackage) && token != null
+                && token.length > 0
+                && AdaptiveChallengePolicy.inspect(token).getMechanism() == NegotiateTokenInspector.Mechanism.KERBEROS;
+    }
+
+    /**
+     * Checks if a raw or SPNEGO wrapped token carries an NTLM type 1 message.
+     *
+     * @param token
+     *            the token
+     * @return true, if NTLM type 1
+     */
+    private static boolean isNtlmType1(final byte[] token) {
+        return AdaptiveChallengePolicy.inspect(token).getNtlmMessageType() == 1;
+    }
+
+    /**
+     * Inspects a token.
+     *
+     * @param token
+     *            the token, possibly null
+     * @return the token inspector
+     */
+    private static NegotiateTokenInspector inspect(final byte[] token) {
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        inspector.inspect(token == null ? new byte[0] : token);
+        return inspector;
+    }
+
+    /**
+     * Checks if is enabled.
+     *
+     * @return true, if is enabled
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Sets the enabled.
+     *
+     * @param value
+     *            the new enabled
+     */
+    public void setEnabled(final boolean value) {
+        this.enabled = value;
+    }
+
+    /**
+     * Checks if is reject ntlm in negotiate.
+     *
+     * @return true, if is reject ntlm in negotiate
+     */
+    public boolean isRejectNtlmInNegotiate() {
+        return this.rejectNtlmInNegotiate;
+    }
+
+    /**
+     * Sets the reject ntlm in negotiate.
+     *
+     * @param value
+     *            the new reject ntlm in negotiate
+     */
+    public void setRejectNtlmInNegotiate(final boolean value) {
+        this.rejectNtlmInNegotiate = value;
+    }
+
+    /**
+     * Checks if is key by user agent.
+     *
+     * @return true, if is key by user agent
+     */
+    public boolean isKeyByUserAgent() {
+        return this.keyByUserAgent;
+    }
+
+    /**
+     * Sets the key by user agent.
+     *
+     * @param value
+     *            the new key by user agent
+     */
+    public void setKeyByUserAgent(final boolean value) {
+        this.keyByUserAgent = value;
+    }
+
+    /**
+     * Gets the network prefix.
+     *
+     * @return the network prefix
+     */
+    public int getNetworkPrefix() {
+        return this.networkPrefix;
+    }
+
+    /**
+     * Sets the network prefix length applied to client addresses.
+     *
+     * @param value
+     *            the new network prefix, 0 to 128
+     */
+    public void setNetworkPrefix(final int value) {
+        if (value < 0 || value > 128) {
+            throw new IllegalArgumentException("Invalid network prefix: " + value);
+        }
+        this.networkPrefix = value;
+    }
+
+    /**
+     * Sets the paths the policy applies to.
+     *
+     * @param patterns
+     *            regular expressions matched against the request URI, null for all paths
+     */
+    public void setPaths(final String[] patterns) {
+        if (patterns == null) {
+            this.pathPatterns = null;
+            return;
+        }
+        final Pattern[] compiled = new Pattern[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            compiled[i] = Pattern.compile(patterns[i].trim());
+        }
+        this.pathPatterns = compiled;
+    }
+
+    /**
+     * Sets how long a Kerberos outcome is remembered, discarding any recorded outcomes.
+     *
+     * @param seconds
+     *            the timeout in seconds
+     */
+    public void setTimeout(final int seconds) {
+        this.kerberosClients = Caffeine.newBuilder().expireAfterWrite(seconds, TimeUnit.SECONDS)
+                .maximumSize(AdaptiveChallengePolicy.DEFAULT_MAXIMUM_SIZE).build();
+    }
+
+    /**
+     * Gets the number of challenges advertising Negotiate only.
+     *
+     * @return the negotiate only challenges
+     */
+    public long getNegotiateOnlyChallenges() {
+        return this.negotiateOnlyChallenges.get();
+    }
+
+    /**
+     * Gets the number of challenges advertising the configured protocols.
+     *
+     * @return the default challenges
+     */
+    public long getDefaultChallenges() {
+        return this.defaultChallenges.get();
+    }
+
+    /**
+     * Gets the number of completed Kerberos logins.
+     *
+     * @return the kerberos logins
+     */
+    public long getKerberosLogins() {
+        return this.kerberosLogins.get();
+    }
+
+    /**
+     * Gets the number of completed NTLM logins.
+     *
+     * @return the ntlm logins
+     */
+    public long getNtlmLogins() {
+        return this.ntlmLogins.get();
+    }
+
+    /**
+     * Gets the number of NTLM tokens rejected with a fresh challenge.
+     *
+     * @return the ntlm rejections
+     */
+    public long getNtlmRejections() {
+        return this.ntlmRejections.get();
+    }
+
+    /**
+     * Gets the number of clients currently known to complete Kerberos.
+     *
+     * @return the kerberos clients
+     */
+    public long getKerberosClients() {
+        return this.kerberosClients.estimatedSize();
+    }
+
+    @Override
+    public String toString() {
+        return "enabled=" + this.enabled + ", rejectNtlmInNegotiate=" + this.rejectNtlmInNegotiate
+                + ", kerberosClients=" + this.getKerberosClients() + ", negotiateOnlyChallenges="
+                + this.getNegotiateOnlyChallenges() + ", defaultChallenges=" + this.getDefaultChallenges()
+                + ", kerberosLogins=" + this.getKerberosLogins() + ", ntlmLogins=" + this.getNtlmLogins()
+                + ", ntlmRejections=" + this.getNtlmRejections();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matches IP address literals against a list of addresses and CIDR networks, such as
+ * <code>10.0.0.0/8 192.168.1.10 ::1</code>. Only address literals are expected, no name resolution takes place.
+ */
+public class AddressMatcher {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AddressMatcher.class);
+
+    /** The networks. */
+    private final List<byte[]> networks = new ArrayList<>();
+
+    /** The prefix lengths, one per network. */
+    private final List<Integer> prefixes = new ArrayList<>();
+
+    /**
+     * Instantiates a new address matcher.
+     *
+     * @param value
+     *            the addresses and networks, separated by white space or commas
+     */
+    public AddressMatcher(final String value) {
+        for (final String entry : value.trim().split("[\\s,]+", -1)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            final int slash = entry.indexOf('/');
+            final byte[] address = AddressMatcher.parse(slash < 0 ? entry : entry.substring(0, slash));
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid address: " + entry);
+            }
+            final int prefix = slash < 0 ? address.length * 8 : Integer.parseInt(entry.substring(slash + 1));
+            if (prefix < 0 || prefix > address.length * 8) {
+                throw new IllegalArgumentException("Invalid network prefix: " + entry);
+            }
+            this.networks.add(address);
+            this.prefixes.add(Integer.valueOf(prefix));
+        }
+    }
+
+    /**
+     * Tests whether an address literal belongs to one of the networks.
+     *
+     * @param remoteAddr
+     *            the remote address
+     * @return true, if the address matches
+     */
+    public boolean matches(final String remoteAddr) {
+        final byte[] address = AddressMatcher.parse(remoteAddr);
+        if (address == null) {
+            return false;
+        }
+        for (int i = 0; i < this.networks.size(); i++) {
+            if (AddressMatcher.matches(this.networks.get(i), this.prefixes.get(i).intValue(), address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether an address belongs to a network.
+     *
+     * @param network
+     *            the network
+     * @param prefix
+     *            the prefix length
+     * @param address
+     *            the address
+     * @return true, if the address matches
+     */
+    private static boolean matches(final byte[] network, final int prefix, final byte[] address) {
+        if (network.length != address.length) {
+            return false;
+        }
+        for (int i = 0; i < network.length; i++) {
+            final int bits = prefix - i * 8;
+            if (bits <= 0) {
+                return true;
+            }
+            final int mask = bits < 8 ? (0xff << (8 - bits)) & 0xff : 0xff;
+            if ((network[i] & mask) != (address[i] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an address literal.
+     *
+     * @param literal
+     *            the address literal
+     * @return the address bytes, null if not an address literal
+     */
+    private static byte[] parse(final String literal) {
+        if (literal == null || literal.isEmpty()
+                || (literal.indexOf(':') < 0 && !literal.chars().allMatch(c -> c == '.' || Character.isDigit(c)))) {
+            // a host name would be resolved
+            return null;
+        }
+        try {
+            // IPv4-mapped IPv6 literals are returned as IPv4 addresses
+            return InetAddress.getByName(literal).getAddress();
+        } catch (final UnknownHostException e) {
+            AddressMatcher.LOGGER.trace("", e);
+            return null;
+        }
+    }
+
+}
@@ -32,6 +32,15 @@ public class AuthorizationHeader {
     /** The request. */
     private final HttpServletRequest request;
 
+    /** The header the token bytes and inspector were computed from. */
+    private String tokenHeader;
+
+    /** The token bytes. */
+    private byte[] tokenBytes;
+
+    /** The token inspector. */
+    private NegotiateTokenInspector tokenInspector;
+
     /**
      * Instantiates a new authorization header.
      *
@@ -97,17 +106,38 @@ public class AuthorizationHeader {
     }
 
     /**
-     * Gets the token bytes.
+     * Gets the token bytes, decoded once per header value.
      *
      * @return the token bytes
      */
     public byte[] getTokenBytes() {
-        try {
-            return Base64.getDecoder().decode(this.getToken());
-        } catch (final IllegalArgumentException e) {
-            AuthorizationHeader.LOGGER.debug("", e);
-            throw new RuntimeException("Invalid authorization header.");
+        final String header = this.getHeader();
+        if (this.tokenBytes == null || !header.equals(this.tokenHeader)) {
+            try {
+                this.tokenBytes = Base64.getDecoder().decode(this.getToken());
+            } catch (final IllegalArgumentException e) {
+                AuthorizationHeader.LOGGER.debug("", e);
+                throw new RuntimeException("Invalid authorization header.");
+            }
+            this.tokenHeader = header;
+            this.tokenInspector = null;
         }
+        return this.tokenBytes;
+    }
+
+    /**
+     * Inspects the token, once per header value.
+     *
+     * @return the token inspector, holding the format, mechanism and NTLM fields of the token
+     */
+    public NegotiateTokenInspector inspectToken() {
+        final byte[] bytes = this.getTokenBytes();
+        if (this.tokenInspector == null) {
+            final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+            inspector.inspect(bytes);
+            this.tokenInspector = inspector;
+        }
+        return this.tokenInspector;
     }
 
     /**
@@ -120,12 +150,8 @@ public class AuthorizationHeader {
             return false;
         }
 
-        final byte[] tokenBytes = this.getTokenBytes();
-        if (!NtlmMessage.isNtlmMessage(tokenBytes)) {
-            return false;
-        }
-
-        return 1 == NtlmMessage.getMessageType(tokenBytes);
+        final NegotiateTokenInspector inspector = this.inspectToken();
+        return inspector.getFormat() == NegotiateTokenInspector.Format.NTLM && inspector.getNtlmMessageType() == 1;
     }
 
     /**
@@ -139,8 +165,7 @@ public class AuthorizationHeader {
             return false;
         }
 
-        final byte[] tokenBytes = this.getTokenBytes();
-        return SPNegoMessage.isNegTokenInit(tokenBytes);
+        return this.inspectToken().getFormat() == NegotiateTokenInspector.Format.NEG_TOKEN_INIT;
     }
 
     /**
@@ -0,0 +1,692 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.sun.jna.platform.win32.Sspi;
+import com.sun.jna.platform.win32.SspiUtil.ManagedSecBufferDesc;
+import com.sun.jna.platform.win32.Win32Exception;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsSecurityContextImpl;
+
+/**
+ * Measures how many handshakes, and optionally group resolutions and account lookups, an auth provider sustains,
+ * to size a deployment against a server and domain controller pair.
+ *
+ * Each thread runs loopback handshakes for the configured duration. With a {@link WindowsAuthProviderImpl}, the client
+ * is the SSPI context of the current user, {@link WindowsSecurityContextImpl#getCurrent}, and the server is the
+ * provider's {@link IWindowsAuthProvider#acceptSecurityToken}. With any other provider, such as a simulated one, the
+ * client sends the configured user name as its first token and echoes the server tokens back. The report holds, for
+ * each workload, the throughput, the latency percentiles in nanoseconds and a histogram of the error codes, and the
+ * change of the process memory outside of the heap. Latencies are counted in a histogram of fixed size, whose buckets
+ * split each power of two in 32, so percentiles are within 3% of the measured latencies whatever the duration.
+ */
+public class CapacityProbe {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CapacityProbe.class);
+
+    /** The Constant DEFAULT_DURATION, in seconds. */
+    public static final int DEFAULT_DURATION = 10;
+
+    /** The Constant DEFAULT_SECURITY_PACKAGE. */
+    public static final String DEFAULT_SECURITY_PACKAGE = "Negotiate";
+
+    /** The Constant DEFAULT_TARGET_NAME. */
+    public static final String DEFAULT_TARGET_NAME = "localhost";
+
+    /** The Constant HANDSHAKE. */
+    private static final int HANDSHAKE = 0;
+
+    /** The Constant GROUPS. */
+    private static final int GROUPS = 1;
+
+    /** The Constant LOOKUP. */
+    private static final int LOOKUP = 2;
+
+    /** The Constant WORKLOADS, names by index. */
+    private static final String[] WORKLOADS = { "handshake", "groups", "lookup" };
+
+    /** The Constant PERCENTILES. */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    /** The Constant PERCENTILE_NAMES. */
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    /** The Constant SUB_BUCKET_BITS, the latency histogram splits each power of two in 2^5 buckets. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** The Constant SUB_BUCKETS. */
+    private static final int SUB_BUCKETS = 1 << CapacityProbe.SUB_BUCKET_BITS;
+
+    /** The Constant BUCKETS, enough for any positive long. */
+    static final int BUCKETS = CapacityProbe.getBucket(Long.MAX_VALUE) + 1;
+
+    /** The provider. */
+    private final IWindowsAuthProvider provider;
+
+    /** The security package. */
+    private String securityPackage = CapacityProbe.DEFAULT_SECURITY_PACKAGE;
+
+    /** The target name. */
+    private String targetName = CapacityProbe.DEFAULT_TARGET_NAME;
+
+    /** The user name sent by the simulated client. */
+    private String user = System.getProperty("user.name");
+
+    /** The threads. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /** The duration, in seconds. */
+    private int duration = CapacityProbe.DEFAULT_DURATION;
+
+    /** Whether to resolve the groups of each authenticated identity. */
+    private boolean groups;
+
+    /** The account names to look up after each handshake. */
+    private List<String> lookups = Collections.emptyList();
+
+    /**
+     * Instantiates a new capacity probe.
+     *
+     * @param provider
+     *            the auth provider under test
+     */
+    public CapacityProbe(final IWindowsAuthProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Gets the security package.
+     *
+     * @return the security package
+     */
+    public String getSecurityPackage() {
+        return this.securityPackage;
+    }
+
+    /**
+     * Sets the security package, Negotiate by default.
+     *
+     * @param value
+     *            the new security package
+     */
+    public void setSecurityPackage(final String value) {
+        this.securityPackage = value;
+    }
+
+    /**
+     * Gets the target name.
+     *
+     * @return the target name
+     */
+    public String getTargetName() {
+        return this.targetName;
+    }
+
+    /**
+     * Sets the target name of the SSPI client, localhost by default.
+     *
+     * @param value
+     *            the new target name
+     */
+    public void setTargetName(final String value) {
+        this.targetName = value;
+    }
+
+    /**
+     * Gets the user name sent by the simulated client.
+     *
+     * @return the user
+     */
+    public String getUser() {
+        return this.user;
+    }
+
+    /**
+     * Sets the user name sent by the simulated client, the <code>user.name</code> system property by default.
+     *
+     * @param value
+     *            the new user
+     */
+    public void setUser(final String value) {
+        this.user = value;
+    }
+
+    /**
+     * Gets the number of concurrent threads.
+     *
+     * @return the threads
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Sets the number of concurrent threads, the number of processors by default.
+     *
+     * @param value
+     *            the new threads
+     */
+    public void setThreads(final int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Invalid threads: " + value);
+        }
+        this.threads = value;
+    }
+
+    /**
+     * Gets the duration, in seconds.
+     *
+     * @return the duration
+     */
+    public int getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * Sets how long, in seconds, the probe runs.
+     *
+     * @param value
+     *            the new duration
+     */
+    public void setDuration(final int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+        this.duration = value;
+    }
+
+    /**
+     * Checks whether the groups of each authenticated identity are resolved.
+     *
+     * @return true, if groups are resolved
+     */
+    public boolean isGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Sets whether the groups of each authenticated identity are resolved, measured as their own workload.
+     *
+     * @param value
+     *            true to resolve groups
+     */
+    public void setGroups(final boolean value) {
+        this.groups = value;
+    }
+
+    /**
+     * Gets the account names looked up after each handshake.
+     *
+     * @return the lookups
+     */
+    public List<String> getLookups() {
+        return this.lookups;
+    }
+
+    /**
+     * Sets the account names looked up after each handshake, measured as their own workload.
+     *
+     * @param value
+     *            the account names
+     */
+    public void setLookups(final List<String> value) {
+        this.lookups = Collections.unmodifiableList(new ArrayList<>(value));
+    }
+
+    /**
+     * Runs the probe and writes its report.
+     *
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void run(final WaffleInfoWriter writer) throws IOException {
+        final Worker[] workers = new Worker[this.threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] running = new Thread[this.threads];
+        for (int i = 0; i < this.threads; i++) {
+            workers[i] = new Worker(i, start);
+            running[i] = new Thread(workers[i], "waffle-bench-" + i);
+            running[i].setDaemon(true);
+            running[i].start();
+        }
+
+        final long[] before = CapacityProbe.getMemory();
+        final long started = System.nanoTime();
+        final long deadline = started + TimeUnit.SECONDS.toNanos(this.duration);
+        for (final Worker worker : workers) {
+            worker.deadline = deadline;
+        }
+        start.countDown();
+        try {
+            for (final Thread thread : running) {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        final long elapsed = System.nanoTime() - started;
+        final long[] after = CapacityProbe.getMemory();
+
+        writer.startDocument("bench");
+        writer.attribute("provider", this.provider.getClass().getName());
+        writer.attribute("securityPackage", this.securityPackage);
+        writer.number("threads", Integer.valueOf(this.threads));
+        writer.number("elapsedMillis", Long.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        writer.startArray("workloads", true);
+        for (int w = 0; w < CapacityProbe.WORKLOADS.length; w++) {
+            if ((w == CapacityProbe.GROUPS && !this.groups)
+                    || (w == CapacityProbe.LOOKUP && this.lookups.isEmpty())) {
+                continue;
+            }
+            final Recorder merged = new Recorder();
+            for (final Worker worker : workers) {
+                merged.merge(worker.recorders[w]);
+            }
+            merged.write(writer, CapacityProbe.WORKLOADS[w], elapsed);
+        }
+        writer.end();
+
+        writer.startObject("memory");
+        writer.number("committedVirtualDelta", CapacityProbe.delta(before[0], after[0]));
+        writer.number("nonHeapCommittedDelta", CapacityProbe.delta(before[1], after[1]));
+        writer.number("directBuffersDelta", CapacityProbe.delta(before[2], after[2]));
+        writer.number("mappedBuffersDelta", CapacityProbe.delta(before[3], after[3]));
+        writer.end();
+        writer.endDocument();
+    }
+
+    /**
+     * Runs one loopback handshake.
+     *
+     * @param connectionId
+     *            the connection id
+     * @return the server context, complete
+     */
+    private IWindowsSecurityContext handshake(final String connectionId) {
+        IWindowsSecurityContext client = null;
+        IWindowsSecurityContext server = null;
+        boolean complete = false;
+        try {
+            byte[] token;
+            if (this.provider instanceof WindowsAuthProviderImpl) {
+                client = WindowsSecurityContextImpl.getCurrent(this.securityPackage, this.targetName);
+                token = client.getToken();
+            } else {
+                token = this.user.getBytes(StandardCharsets.UTF_8);
+            }
+            do {
+                server = this.provider.acceptSecurityToken(connectionId, token, this.securityPackage);
+                if (server.isContinue()) {
+                    if (client != null) {
+                        client.initialize(client.getHandle(),
+                                new ManagedSecBufferDesc(Sspi.SECBUFFER_TOKEN, server.getToken()), this.targetName);
+                        token = client.getToken();
+                    } else {
+                        token = server.getToken();
+                    }
+                }
+            } while (server.isContinue());
+            complete = true;
+            return server;
+        } finally {
+            if (client != null) {
+                client.dispose();
+            }
+            if (!complete) {
+                this.provider.resetSecurityToken(connectionId);
+            }
+        }
+    }
+
+    /**
+     * Captures the memory of the process outside of the heap: the committed virtual memory, the committed non-heap
+     * memory of the JVM, and the direct and mapped buffers.
+     *
+     * @return the memory in bytes, -1 when not available
+     */
+    private static long[] getMemory() {
+        final long[] memory = { -1, ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage().getCommitted(), 0, 0 };
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            memory[0] = ((com.sun.management.OperatingSystemMXBean) os).getCommittedVirtualMemorySize();
+        }
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                memory[2] = pool.getMemoryUsed();
+            } else if ("mapped".equals(pool.getName())) {
+                memory[3] = pool.getMemoryUsed();
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * Computes the difference between two memory measures.
+     *
+     * @param before
+     *            the measure before
+     * @param after
+     *            the measure after
+     * @return the difference, null when not available
+     */
+    private static Long delta(final long before, final long after) {
+        return before < 0 || after < 0 ? null : Long.valueOf(after - before);
+    }
+
+    /**
+     * Gets the code of an error: the HRESULT of a Win32 error, the class name of others.
+     *
+     * @param e
+     *            the error
+     * @return the code
+     */
+    static String getErrorCode(final RuntimeException e) {
+        if (e instanceof Win32Exception) {
+            return String.format("0x%08X", Integer.valueOf(((Win32Exception) e).getHR().intValue()));
+        }
+        return e.getClass().getName();
+    }
+
+    /**
+     * Gets the latency histogram bucket of a value. Values below 64 have a bucket each, larger values share a bucket
+     * with the values of the same power of two and the same 5 most significant bits.
+     *
+     * @param value
+     *            the value, negative values count as 0
+     * @return the bucket
+     */
+    static int getBucket(final long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - CapacityProbe.SUB_BUCKET_BITS);
+        return (shift << CapacityProbe.SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the highest value of a latency histogram bucket.
+     *
+     * @param bucket
+     *            the bucket
+     * @return the highest value
+     */
+    static long getBucketValue(final int bucket) {
+        final int shift = Math.max(0, (bucket >>> CapacityProbe.SUB_BUCKET_BITS) - 1);
+        final long lowest = (long) (bucket - (shift << CapacityProbe.SUB_BUCKET_BITS)) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * Disposes an identity and its security context, logging failures.
+     *
+     * @param identity
+     *            the identity, may be null
+     * @param server
+     *            the security context
+     */
+    static void dispose(final IWindowsIdentity identity, final IWindowsSecurityContext server) {
+        try {
+            if (identity != null) {
+                identity.dispose();
+            }
+            server.dispose();
+        } catch (final RuntimeException e) {
+            CapacityProbe.LOGGER.debug("Error disposing security context: {}", e.getMessage());
+            CapacityProbe.LOGGER.trace("", e);
+        }
+    }
+
+    /**
+     * A thread of the probe, with a recorder for each workload.
+     */
+    private final class Worker implements Runnable {
+
+        /** The index. */
+        private final int index;
+
+        /** The start signal. */
+        private final CountDownLatch start;
+
+        /** The recorders, by workload. */
+        final Recorder[] recorders = { new Recorder(), new Recorder(), new Recorder() };
+
+        /** The deadline, set before the start signal. */
+        long deadline;
+
+        /**
+         * Instantiates a new worker.
+         *
+         * @param index
+         *            the index
+         * @param start
+         *            the start signal
+         */
+        Worker(final int index, final CountDownLatch start) {
+            this.index = index;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.start.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (long i = 0; System.nanoTime() < this.deadline; i++) {
+                final String connectionId = "waffle-bench-" + this.index + "-" + i;
+                long time = System.nanoTime();
+                IWindowsSecurityContext server;
+                try {
+                    server = CapacityProbe.this.handshake(connectionId);
+                } catch (final RuntimeException e) {
+                    this.recorders[CapacityProbe.HANDSHAKE].error(e);
+                    continue;
+                }
+                IWindowsIdentity identity = null;
+                try {
+                    identity = server.getIdentity();
+                    time = this.recorders[CapacityProbe.HANDSHAKE].record(time);
+                    if (CapacityProbe.this.groups) {
+                        try {
+                            identity.getGroups();
+                            this.recorders[CapacityProbe.GROUPS].record(time);
+                        } catch (final RuntimeException e) {
+                            this.recorders[CapacityProbe.GROUPS].error(e);
+                        }
+                    }
+                } catch (final RuntimeException e) {
+                    this.recorders[CapacityProbe.HANDSHAKE].error(e);
+                } finally {
+                    CapacityProbe.dispose(identity, server);
+                }
+                for (final String name : CapacityProbe.this.lookups) {
+                    final long lookupTime = System.nanoTime();
+                    try {
+                        CapacityProbe.this.provider.lookupAccount(name);
+                        this.recorders[CapacityProbe.LOOKUP].record(lookupTime);
+                    } catch (final RuntimeException e) {
+                        this.recorders[CapacityProbe.LOOKUP].error(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The latencies and errors of a workload.
+     */
+    private static final class Recorder {
+
+        /** The latency histogram of the successful operations, counts by bucket. */
+        private final long[] buckets = new long[CapacityProbe.BUCKETS];
+
+        /** The count of successful operations. */
+        private int count;
+
+        /** The total latency, in nanoseconds. */
+        private long total;
+
+        /** The lowest latency, in nanoseconds. */
+        private long min = Long.MAX_VALUE;
+
+        /** The highest latency, in nanoseconds. */
+        private long max;
+
+        /** The error counts, by code. */
+        private final Map<String, Integer> errors = new TreeMap<>();
+
+        /** The error count. */
+        private int errorCount;
+
+        /**
+         * Records a successful operation.
+         *
+         * @param started
+         *            when the operation started, in nanoseconds
+         * @return the current time, in nanoseconds
+         */
+        long record(final long started) {
+            final long now = System.nanoTime();
+            final long latency = now - started;
+            this.buckets[CapacityProbe.getBucket(latency)]++;
+            this.count++;
+            this.total += latency;
+            this.min = Math.min(this.min, latency);
+            this.max = Math.max(this.max, latency);
+            return now;
+        }
+
+        /**
+         * Records a failed operation.
+         *
+         * @param e
+         *            the error
+         * @return the current time, in nanoseconds
+         */
+        long error(final RuntimeException e) {
+            this.errors.merge(CapacityProbe.getErrorCode(e), Integer.valueOf(1), Integer::sum);
+            this.errorCount++;
+            return System.nanoTime();
+        }
+
+        /**
+         * Adds the operations of another recorder.
+         *
+         * @param other
+         *            the other recorder
+         */
+        void merge(final Recorder other) {
+            for (int b = 0; b < this.buckets.length; b++) {
+                this.buckets[b] += other.buckets[b];
+            }
+            this.count += other.count;
+            this.total += other.total;
+            this.min = Math.min(this.min, other.min);
+            this.max = Math.max(this.max, other.max);
+            for (final Map.Entry<String, Integer> error : other.errors.entrySet()) {
+                this.errors.merge(error.getKey(), error.getValue(), Integer::sum);
+            }
+            this.errorCount += other.errorCount;
+        }
+
+        /**
+         * Gets a latency percentile, the highest value of the bucket of its rank, within the recorded range.
+         *
+         * @param percentile
+         *            the percentile
+         * @return the latency, in nanoseconds
+         */
+        long getPercentile(final double percentile) {
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            int bucket = 0;
+            while (bucket < this.buckets.length - 1) {
+                seen += this.buckets[bucket];
+                if (seen >= rank) {
+                    break;
+                }
+                bucket++;
+            }
+            return Math.max(this.min, Math.min(this.max, CapacityProbe.getBucketValue(bucket)));
+        }
+
+        /**
+         * Writes the report of the workload.
+         *
+         * @param writer
+         *            the writer
+         * @param name
+         *            the workload name
+         * @param elapsed
+         *            the elapsed time, in nanoseconds
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        void write(final WaffleInfoWriter writer, final String name, final long elapsed) throws IOException {
+            writer.startObject("workload");
+            writer.attribute("name", name);
+            writer.number("operations", Integer.valueOf(this.count));
+            writer.number("errors", Integer.valueOf(this.errorCount));
+            writer.number("throughput",
+                    Double.valueOf(Math.round(this.count * 1e11 / elapsed) / 100.0));
+
+            writer.startObject("latencyNanos");
+            if (this.count > 0) {
+                writer.number("mean", Long.valueOf(this.total / this.count));
+                writer.number("min", Long.valueOf(this.min));
+                for (int p = 0; p < CapacityProbe.PERCENTILES.length; p++) {
+                    writer.number(CapacityProbe.PERCENTILE_NAMES[p],
+                            Long.valueOf(this.getPercentile(CapacityProbe.PERCENTILES[p])));
+                }
+                writer.number("max", Long.valueOf(this.max));
+            }
+            writer.end();
+
+            writer.startArray("errorCodes", true);
+            for (final Map.Entry<String, Integer> error : this.errors.entrySet()) {
+                writer.startObject("error");
+                writer.attribute("code", error.getKey());
+                writer.number("count", error.getValue());
+                writer.end();
+            }
+            writer.end();
+            writer.end();
+        }
+    }
+
+}
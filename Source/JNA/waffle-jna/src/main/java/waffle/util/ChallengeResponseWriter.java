@@ -0,0 +1,134 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes the intermediate <code>401 Unauthorized</code> responses of an authentication handshake.
+ *
+ * By default a challenge is sent with {@link HttpServletResponse#sendError(int)}, which makes the container render its
+ * error page and run any configured error-page dispatch. In lightweight mode the status is set directly and the
+ * response is committed with an empty body and an explicit <code>Content-Length: 0</code>, so the connection can be
+ * kept alive for the next leg without chunked encoding. Terminal failures are not written by this class and keep
+ * going through the container error page.
+ */
+public class ChallengeResponseWriter {
+
+    /** The Constant WWW_AUTHENTICATE. */
+    public static final String WWW_AUTHENTICATE = "WWW-Authenticate";
+
+    /** The Constant CONNECTION. */
+    private static final String CONNECTION = "Connection";
+
+    /** The Constant KEEP_ALIVE. */
+    private static final String KEEP_ALIVE = "keep-alive";
+
+    /** The Constant CLOSE. */
+    private static final String CLOSE = "close";
+
+    /** The lightweight. */
+    private boolean lightweight;
+
+    /**
+     * Send an intermediate challenge advertising the given protocols.
+     *
+     * @param response
+     *            the response
+     * @param protocols
+     *            the protocols to add as <code>WWW-Authenticate</code> headers
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void sendChallenge(final HttpServletResponse response, final Collection<String> protocols)
+            throws IOException {
+        this.sendChallenge(response, protocols, false);
+    }
+
+    /**
+     * Send an initial challenge advertising the given protocols.
+     *
+     * @param response
+     *            the response
+     * @param protocols
+     *            the protocols to add as <code>WWW-Authenticate</code> headers
+     * @param close
+     *            close the connection instead of keeping it alive, e.g. when an unread request body is not drainable
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void sendChallenge(final HttpServletResponse response, final Collection<String> protocols,
+            final boolean close) throws IOException {
+        for (final String protocol : protocols) {
+            response.addHeader(ChallengeResponseWriter.WWW_AUTHENTICATE, protocol);
+        }
+        this.sendChallenge(response, close);
+    }
+
+    /**
+     * Send an intermediate challenge on a kept-alive connection. The <code>WWW-Authenticate</code> headers must have
+     * been added to the response already.
+     *
+     * @param response
+     *            the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void sendChallenge(final HttpServletResponse response) throws IOException {
+        this.sendChallenge(response, false);
+    }
+
+    /**
+     * Send a challenge. The <code>WWW-Authenticate</code> headers must have been added to the response already.
+     *
+     * @param response
+     *            the response
+     * @param close
+     *            close the connection instead of keeping it alive, e.g. when an unread request body is not drainable
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void sendChallenge(final HttpServletResponse response, final boolean close) throws IOException {
+        response.setHeader(ChallengeResponseWriter.CONNECTION,
+                close ? ChallengeResponseWriter.CLOSE : ChallengeResponseWriter.KEEP_ALIVE);
+        if (this.lightweight) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.setContentLength(0);
+        } else {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * Checks if challenges bypass the container error page.
+     *
+     * @return true, if lightweight
+     */
+    public boolean isLightweight() {
+        return this.lightweight;
+    }
+
+    /**
+     * Sets whether challenges bypass the container error page.
+     *
+     * @param value
+     *            true to set the status directly and write an empty body
+     */
+    public void setLightweight(final boolean value) {
+        this.lightweight = value;
+    }
+
+}
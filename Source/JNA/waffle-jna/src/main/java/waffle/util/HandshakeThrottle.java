@@ -0,0 +1,525 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throttles failed handshakes per client address and per target account of each client address, before they reach
+ * the security package.
+ *
+ * Every failed handshake or logon takes a token from the bucket of the client address and, when the account is known
+ * without calling the security package, from the bucket of the account as targeted by that client: the domain and user
+ * of an NTLM authenticate message or the user of Basic credentials. Buckets refill at a steady rate up to their burst
+ * size. A request whose client bucket or bucket for its account is empty is refused with a 429 instead of costing a
+ * round trip to the domain controller, so a misconfigured client or a password guessing script cannot starve other
+ * users. Successful handshakes take no tokens. Account buckets are kept per client address because the account of a
+ * handshake is read before the security package validates anything: other clients failing with an account never get
+ * its handshakes refused, so a client cannot lock a user out of the application by failing on purpose.
+ *
+ * Buckets live in bounded caches, whose concurrent maps lock per bin, and are dropped once idle long enough to have
+ * refilled. Clients are identified by their remote address, which must be the address of the user agent rather than
+ * of a shared proxy. The throttle is disabled by default.
+ */
+public class HandshakeThrottle {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HandshakeThrottle.class);
+
+    /** The Constant SC_TOO_MANY_REQUESTS. */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /** The Constant DEFAULT_CLIENT_BURST, in failed handshakes. */
+    public static final int DEFAULT_CLIENT_BURST = 20;
+
+    /** The Constant DEFAULT_CLIENT_RATE, in failed handshakes per minute. */
+    public static final int DEFAULT_CLIENT_RATE = 20;
+
+    /** The Constant DEFAULT_ACCOUNT_BURST, in failed handshakes. */
+    public static final int DEFAULT_ACCOUNT_BURST = 5;
+
+    /** The Constant DEFAULT_ACCOUNT_RATE, in failed handshakes per minute. */
+    public static final int DEFAULT_ACCOUNT_RATE = 2;
+
+    /** The Constant DEFAULT_MAXIMUM_SIZE, per cache. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** The ticker. */
+    private final Ticker ticker;
+
+    /** The enabled. */
+    private boolean enabled;
+
+    /** The client limit. */
+    private Limit clientLimit = new Limit(HandshakeThrottle.DEFAULT_CLIENT_BURST,
+            HandshakeThrottle.DEFAULT_CLIENT_RATE);
+
+    /** The account limit. */
+    private Limit accountLimit = new Limit(HandshakeThrottle.DEFAULT_ACCOUNT_BURST,
+            HandshakeThrottle.DEFAULT_ACCOUNT_RATE);
+
+    /** The client buckets, by remote address. */
+    private Cache<String, Bucket> clients;
+
+    /** The account buckets, by client address and lower case account name. */
+    private Cache<String, Bucket> accounts;
+
+    /** The recorded failures. */
+    private final AtomicLong failures = new AtomicLong();
+
+    /** The throttled requests. */
+    private final AtomicLong throttledRequests = new AtomicLong();
+
+    /**
+     * The burst size and refill rate of buckets.
+     */
+    private static final class Limit {
+
+        /** The burst, in tokens. */
+        private final int burst;
+
+        /** The rate, in tokens per minute. */
+        private final int rate;
+
+        /**
+         * Instantiates a new limit.
+         *
+         * @param burst
+         *            the burst
+         * @param rate
+         *            the rate
+         */
+        private Limit(final int burst, final int rate) {
+            if (burst < 1 || rate < 1) {
+                throw new IllegalArgumentException("Invalid throttle limit: " + burst + " at " + rate + "/min");
+            }
+            this.burst = burst;
+            this.rate = rate;
+        }
+
+        /**
+         * Gets the time one token takes to refill.
+         *
+         * @return the time in nanoseconds
+         */
+        private long getIntervalNanos() {
+            return TimeUnit.MINUTES.toNanos(1) / this.rate;
+        }
+
+        /**
+         * Gets the time an empty bucket takes to refill.
+         *
+         * @return the time in nanoseconds
+         */
+        private long getRefillNanos() {
+            return this.burst * this.getIntervalNanos();
+        }
+
+    }
+
+    /**
+     * A token bucket, kept as the time it is full again so that refilling is exact integer arithmetic. It holds a
+     * token while it would be full again within the time a burst less one token takes to refill. Failures completing
+     * concurrently may overdraw it.
+     */
+    private static final class Bucket {
+
+        /** The time the bucket is full again, in ticker nanoseconds. */
+        private long full;
+
+        /**
+         * Instantiates a new full bucket.
+         *
+         * @param now
+         *            the current time
+         */
+        private Bucket(final long now) {
+            this.full = now;
+        }
+
+        /**
+         * Checks if the bucket holds a token.
+         *
+         * @param limit
+         *            the limit
+         * @param now
+         *            the current time
+         * @return true, if at least one token is left
+         */
+        private synchronized boolean hasToken(final Limit limit, final long now) {
+            return this.full - now <= limit.getRefillNanos() - limit.getIntervalNanos();
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @param limit
+         *            the limit
+         * @param now
+         *            the current time
+         */
+        private synchronized void take(final Limit limit, final long now) {
+            this.full = Math.max(this.full, now) + limit.getIntervalNanos();
+        }
+
+    }
+
+    /**
+     * Instantiates a new handshake throttle.
+     */
+    public HandshakeThrottle() {
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * Instantiates a new handshake throttle on a given time source.
+     *
+     * @param ticker
+     *            the ticker
+     */
+    public HandshakeThrottle(final Ticker ticker) {
+        this.ticker = ticker;
+        this.clients = this.newCache(this.clientLimit);
+        this.accounts = this.newCache(this.accountLimit);
+    }
+
+    /**
+     * Checks if a handshake must be refused, before handing its token to the security package.
+     *
+     * @param request
+     *            the request
+     * @param authorizationHeader
+     *            the authorization header of the request
+     * @return true, if the client or the account is throttled
+     */
+    public boolean isThrottled(final HttpServletRequest request, final AuthorizationHeader authorizationHeader) {
+        return this.enabled
+                && this.isThrottled(request.getRemoteAddr(), HandshakeThrottle.getAccount(authorizationHeader));
+    }
+
+    /**
+     * Checks if a handshake or logon must be refused.
+     *
+     * @param client
+     *            the client address
+     * @param account
+     *            the account, null if unknown
+     * @return true, if the client or the account is throttled
+     */
+    public boolean isThrottled(final String client, final String account) {
+        if (!this.enabled) {
+            return false;
+        }
+        final long now = this.ticker.read();
+        final Bucket clientBucket = client == null ? null : this.clients.getIfPresent(client);
+        final Bucket accountBucket = account == null ? null
+                : this.accounts.getIfPresent(HandshakeThrottle.getAccountKey(client, account));
+        final boolean throttled = (clientBucket != null && !clientBucket.hasToken(this.clientLimit, now))
+                || (accountBucket != null && !accountBucket.hasToken(this.accountLimit, now));
+        if (throttled) {
+            HandshakeThrottle.LOGGER.debug("throttling client {}, account {}", client, account);
+            this.throttledRequests.incrementAndGet();
+        }
+        return throttled;
+    }
+
+    /**
+     * Records a failed handshake.
+     *
+     * @param request
+     *            the request
+     * @param authorizationHeader
+     *            the authorization header of the request
+     */
+    public void recordFailure(final HttpServletRequest request, final AuthorizationHeader authorizationHeader) {
+        if (this.enabled) {
+            this.recordFailure(request.getRemoteAddr(), HandshakeThrottle.getAccount(authorizationHeader));
+        }
+    }
+
+    /**
+     * Records a failed handshake or logon.
+     *
+     * @param client
+     *            the client address
+     * @param account
+     *            the account, null if unknown
+     */
+    public void recordFailure(final String client, final String account) {
+        if (!this.enabled) {
+            return;
+        }
+        final long now = this.ticker.read();
+        if (client != null) {
+            this.clients.get(client, key -> new Bucket(now)).take(this.clientLimit, now);
+        }
+        if (account != null) {
+            this.accounts.get(HandshakeThrottle.getAccountKey(client, account), key -> new Bucket(now))
+                    .take(this.accountLimit, now);
+        }
+        this.failures.incrementAndGet();
+    }
+
+    /**
+     * Refuses a throttled request with a 429, an empty body and the connection closed. The container error page is
+     * bypassed.
+     *
+     * @param response
+     *            the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void sendThrottled(final HttpServletResponse response) throws IOException {
+        response.setStatus(HandshakeThrottle.SC_TOO_MANY_REQUESTS);
+        response.setHeader("Retry-After", Long.toString(this.getRetryAfter()));
+        response.setHeader("Connection", "close");
+        response.setContentLength(0);
+        response.flushBuffer();
+    }
+
+    /**
+     * Gets the account a handshake targets, known without calling the security package.
+     *
+     * @param authorizationHeader
+     *            the authorization header
+     * @return <code>DOMAIN\\user</code> of an NTLM authenticate message, the user of Basic credentials, null otherwise
+     */
+    public static String getAccount(final AuthorizationHeader authorizationHeader) {
+        if (authorizationHeader.isNull()) {
+            return null;
+        }
+        final byte[] token;
+        try {
+            token = authorizationHeader.getTokenBytes();
+        } catch (final RuntimeException e) {
+            HandshakeThrottle.LOGGER.trace("", e);
+            return null;
+        }
+        if ("Basic".equalsIgnoreCase(authorizationHeader.getSecurityPackage())) {
+            final String credentials = new String(token, StandardCharsets.UTF_8);
+            final int colon = credentials.indexOf(':');
+            return colon < 0 ? null : credentials.substring(0, colon);
+        }
+        final NegotiateTokenInspector inspector = authorizationHeader.inspectToken();
+        final String user = inspector.getNtlmUserName();
+        if (user == null || user.isEmpty()) {
+            return null;
+        }
+        return inspector.getNtlmDomainName() + "\\" + user;
+    }
+
+    /**
+     * Gets the key of the bucket of an account targeted by a client: the client address and the lower case user name,
+     * without the domain of <code>DOMAIN\\user</code> and <code>user@domain</code> forms. Whatever domain form a
+     * client sends, NetBIOS, DNS, empty or a user principal name, it spends the same bucket. Users of the same name in
+     * different domains share it.
+     *
+     * @param client
+     *            the client address, null if unknown
+     * @param account
+     *            the account
+     * @return the key
+     */
+    static String getAccountKey(final String client, final String account) {
+        String user = account.substring(account.lastIndexOf('\\') + 1);
+        final int at = user.indexOf('@');
+        if (at >= 0) {
+            user = user.substring(0, at);
+        }
+        // account names cannot hold a '|'
+        return client + "|" + user.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Gets the number of seconds a throttled client should wait before retrying, the time one client token refills.
+     *
+     * @return the retry after in seconds
+     */
+    public long getRetryAfter() {
+        return Math.max(1, TimeUnit.MINUTES.toSeconds(1) / this.clientLimit.rate);
+    }
+
+    /**
+     * Creates a bucket cache dropping buckets idle long enough to have refilled.
+     *
+     * @param limit
+     *            the limit
+     * @return the cache
+     */
+    private Cache<String, Bucket> newCache(final Limit limit) {
+        return Caffeine.newBuilder().ticker(this.ticker)
+                .expireAfterAccess(limit.getRefillNanos(), TimeUnit.NANOSECONDS)
+                .maximumSize(HandshakeThrottle.DEFAULT_MAXIMUM_SIZE).build();
+    }
+
+    /**
+     * Checks if is enabled.
+     *
+     * @return true, if is enabled
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Sets the enabled.
+     *
+     * @param value
+     *            the new enabled
+     */
+    public void setEnabled(final boolean value) {
+        this.enabled = value;
+    }
+
+    /**
+     * Sets the failed handshakes a client address may burst and the rate they are allowed at afterwards, discarding
+     * the client buckets.
+     *
+     * @param burst
+     *            the burst, in failed handshakes
+     * @param rate
+     *            the rate, in failed handshakes per minute
+     */
+    public void setClientLimit(final int burst, final int rate) {
+        this.clientLimit = new Limit(burst, rate);
+        this.clients = this.newCache(this.clientLimit);
+    }
+
+    /**
+     * Sets the failed handshakes a client address may burst against an account and the rate they are allowed at
+     * afterwards, discarding the account buckets.
+     *
+     * @param burst
+     *            the burst, in failed handshakes
+     * @param rate
+     *            the rate, in failed handshakes per minute
+     */
+    public void setAccountLimit(final int burst, final int rate) {
+        this.accountLimit = new Limit(burst, rate);
+        this.accounts = this.newCache(this.accountLimit);
+    }
+
+    /**
+     * Gets the client burst.
+     *
+     * @return the client burst
+     */
+    public int getClientBurst() {
+        return this.clientLimit.burst;
+    }
+
+    /**
+     * Sets the client burst.
+     *
+     * @param value
+     *            the new client burst
+     */
+    public void setClientBurst(final int value) {
+        this.setClientLimit(value, this.clientLimit.rate);
+    }
+
+    /**
+     * Gets the client rate.
+     *
+     * @return the client rate, in failed handshakes per minute
+     */
+    public int getClientRate() {
+        return this.clientLimit.rate;
+    }
+
+    /**
+     * Sets the client rate.
+     *
+     * @param value
+     *            the new client rate, in failed handshakes per minute
+     */
+    public void setClientRate(final int value) {
+        this.setClientLimit(this.clientLimit.burst, value);
+    }
+
+    /**
+     * Gets the account burst.
+     *
+     * @return the account burst
+     */
+    public int getAccountBurst() {
+        return this.accountLimit.burst;
+    }
+
+    /**
+     * Sets the account burst.
+     *
+     * @param value
+     *            the new account burst
+     */
+    public void setAccountBurst(final int value) {
+        this.setAccountLimit(value, this.accountLimit.rate);
+    }
+
+    /**
+     * Gets the account rate.
+     *
+     * @return the account rate, in failed handshakes per minute
+     */
+    public int getAccountRate() {
+        return this.accountLimit.rate;
+    }
+
+    /**
+     * Sets the account rate.
+     *
+     * @param value
+     *            the new account rate, in failed handshakes per minute
+     */
+    public void setAccountRate(final int value) {
+        this.setAccountLimit(this.accountLimit.burst, value);
+    }
+
+    /**
+     * Gets the number of failed handshakes recorded.
+     *
+     * @return the failures
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * Gets the number of requests refused.
+     *
+     * @return the throttled requests
+     */
+    public long getThrottledRequests() {
+        return this.throttledRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "enabled=" + this.enabled + ", clients=" + this.clients.estimatedSize() + ", accounts="
+                + this.accounts.estimatedSize() + ", failures=" + this.getFailures() + ", throttledRequests="
+                + this.getThrottledRequests();
+    }
+}
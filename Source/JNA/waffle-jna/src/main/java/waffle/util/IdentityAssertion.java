@@ -0,0 +1,288 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import waffle.windows.auth.IWindowsAccount;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsImpersonationContext;
+
+/**
+ * An identity asserted by a trusted front-end that authenticated the user, for example with SSPI on IIS.
+ *
+ * The payload is an <code>application/x-www-form-urlencoded</code> string of a timestamp in seconds since the epoch,
+ * a nonce, the user SID and name, and one <code>group</code> parameter per group made of the group SID, optionally
+ * followed by a semicolon and the group name:
+ *
+ * <pre>
+ * ts=1571234567&amp;nonce=4f&amp;sid=S-1-5-21-1-2-3-1001&amp;fqn=DOM%5Cuser&amp;group=S-1-5-21-1-2-3-513%3BDOM%5CUsers
+ * </pre>
+ *
+ * The header carries the base64url encoded payload and signature separated by a dot, see
+ * {@link IdentityAssertionVerifier}. An asserted identity holds no native resources: it is checked without calls to
+ * the Windows API and cannot be impersonated.
+ */
+public class IdentityAssertion implements IWindowsIdentity {
+
+    /** The timestamp in seconds. */
+    private final long timestamp;
+
+    /** The nonce. */
+    private final String nonce;
+
+    /** The sid string. */
+    private final String sidString;
+
+    /** The fqn. */
+    private final String fqn;
+
+    /** The groups. */
+    private final IWindowsAccount[] groups;
+
+    /**
+     * Instantiates a new identity assertion.
+     *
+     * @param timestamp
+     *            the timestamp in seconds since the epoch
+     * @param nonce
+     *            the nonce, may be null when replay protection is off
+     * @param sidString
+     *            the user SID
+     * @param fqn
+     *            the user name, the SID when null
+     * @param groups
+     *            the groups
+     */
+    public IdentityAssertion(final long timestamp, final String nonce, final String sidString, final String fqn,
+            final IWindowsAccount[] groups) {
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        this.sidString = sidString;
+        this.fqn = fqn == null ? sidString : fqn;
+        this.groups = groups.clone();
+    }
+
+    /**
+     * Parses a payload.
+     *
+     * @param payload
+     *            the decoded payload
+     * @return the identity assertion
+     * @throws IllegalArgumentException
+     *             if the payload is malformed
+     */
+    public static IdentityAssertion parse(final String payload) {
+        long timestamp = -1;
+        String nonce = null;
+        String sidString = null;
+        String fqn = null;
+        final List<IWindowsAccount> groups = new ArrayList<>();
+        for (final String parameter : payload.split("&", -1)) {
+            final int equals = parameter.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            final String value = IdentityAssertion.decode(parameter.substring(equals + 1));
+            switch (parameter.substring(0, equals)) {
+                case "ts":
+                    timestamp = Long.parseLong(value);
+                    break;
+                case "nonce":
+                    nonce = value;
+                    break;
+                case "sid":
+                    sidString = value;
+                    break;
+                case "fqn":
+                    fqn = value;
+                    break;
+                case "group":
+                    // SIDs never contain a semicolon, the group name may
+                    final int semicolon = value.indexOf(';');
+                    groups.add(semicolon < 0 ? new Account(value, value)
+                            : new Account(value.substring(0, semicolon), value.substring(semicolon + 1)));
+                    break;
+                default:
+                    // ignore unknown parameters, for newer front-ends
+                    break;
+            }
+        }
+        if (timestamp < 0 || sidString == null) {
+            throw new IllegalArgumentException("Missing timestamp or SID");
+        }
+        SecurityIdentifiers.toBytes(sidString);
+        return new IdentityAssertion(timestamp, nonce, sidString, fqn, groups.toArray(new IWindowsAccount[0]));
+    }
+
+    /**
+     * Encodes the payload of this assertion, base64url encoded without padding. A front-end signs these bytes.
+     *
+     * @return the encoded payload
+     */
+    public String encode() {
+        final StringBuilder payload = new StringBuilder();
+        payload.append("ts=").append(this.timestamp);
+        if (this.nonce != null) {
+            payload.append("&nonce=").append(IdentityAssertion.encode(this.nonce));
+        }
+        payload.append("&sid=").append(IdentityAssertion.encode(this.sidString));
+        payload.append("&fqn=").append(IdentityAssertion.encode(this.fqn));
+        for (final IWindowsAccount group : this.groups) {
+            payload.append("&group=").append(IdentityAssertion.encode(group.getSidString() + ";" + group.getFqn()));
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the timestamp.
+     *
+     * @return the timestamp in seconds since the epoch
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Gets the nonce.
+     *
+     * @return the nonce, null if none
+     */
+    public String getNonce() {
+        return this.nonce;
+    }
+
+    @Override
+    public String getSidString() {
+        return this.sidString;
+    }
+
+    @Override
+    public byte[] getSid() {
+        return SecurityIdentifiers.toBytes(this.sidString);
+    }
+
+    @Override
+    public String getFqn() {
+        return this.fqn;
+    }
+
+    @Override
+    public IWindowsAccount[] getGroups() {
+        return this.groups.clone();
+    }
+
+    @Override
+    public IWindowsImpersonationContext impersonate() {
+        throw new UnsupportedOperationException("Asserted identities cannot be impersonated: " + this.fqn);
+    }
+
+    @Override
+    public void dispose() {
+        // no native resources
+    }
+
+    @Override
+    public boolean isGuest() {
+        final List<String> groupSids = new ArrayList<>(this.groups.length);
+        for (final IWindowsAccount group : this.groups) {
+            groupSids.add(group.getSidString());
+        }
+        return SecurityIdentifiers.isGuest(this.sidString, groupSids);
+    }
+
+    /**
+     * Decodes a form encoded value.
+     *
+     * @param value
+     *            the value
+     * @return the decoded value
+     */
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Form encodes a value.
+     *
+     * @param value
+     *            the value
+     * @return the encoded value
+     */
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * An asserted group.
+     */
+    public static class Account implements IWindowsAccount {
+
+        /** The sid string. */
+        private final String sidString;
+
+        /** The fqn. */
+        private final String fqn;
+
+        /**
+         * Instantiates a new account.
+         *
+         * @param sidString
+         *            the SID
+         * @param fqn
+         *            the fully qualified name
+         */
+        public Account(final String sidString, final String fqn) {
+            this.sidString = sidString;
+            this.fqn = fqn;
+        }
+
+        @Override
+        public String getSidString() {
+            return this.sidString;
+        }
+
+        @Override
+        public String getFqn() {
+            return this.fqn;
+        }
+
+        @Override
+        public String getName() {
+            final int backslash = this.fqn.indexOf('\\');
+            return backslash < 0 ? this.fqn : this.fqn.substring(backslash + 1);
+        }
+
+        @Override
+        public String getDomain() {
+            final int backslash = this.fqn.indexOf('\\');
+            return backslash < 0 ? "" : this.fqn.substring(0, backslash);
+        }
+
+    }
+
+}
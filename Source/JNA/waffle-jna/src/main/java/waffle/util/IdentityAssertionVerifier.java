@@ -0,0 +1,353 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifies identity assertions of trusted front-ends.
+ *
+ * An assertion is <code>base64url(payload) "." base64url(signature)</code>, the signature being computed over the
+ * encoded payload either with a shared HMAC key or with the private key of the front-end. See
+ * {@link IdentityAssertion} for the payload. Verified assertions must be fresh, and with replay protection each nonce
+ * is only accepted once within the freshness window by this verifier: the nonces are kept in memory, so a cluster
+ * only protects each node against replays. Once it holds the maximum number of nonces still within the window, new
+ * assertions are rejected rather than evicting a nonce that could then be replayed.
+ *
+ * Mac and Signature engines are initialized once per thread, so that a verification costs a few microseconds.
+ */
+public class IdentityAssertionVerifier {
+
+    /** The Constant DEFAULT_HMAC_ALGORITHM. */
+    public static final String DEFAULT_HMAC_ALGORITHM = "HmacSHA256";
+
+    /** The Constant DEFAULT_SIGNATURE_ALGORITHM, available from Java 15. */
+    public static final String DEFAULT_SIGNATURE_ALGORITHM = "Ed25519";
+
+    /** The Constant DEFAULT_MAX_AGE in seconds. */
+    public static final int DEFAULT_MAX_AGE = 30;
+
+    /** The Constant DEFAULT_MAXIMUM_NONCES, the nonces kept within the freshness window. */
+    public static final int DEFAULT_MAXIMUM_NONCES = 1000000;
+
+    /** The hmac algorithm. */
+    private String hmacAlgorithm = IdentityAssertionVerifier.DEFAULT_HMAC_ALGORITHM;
+
+    /** The hmac key, null if none. */
+    private byte[] hmacKey;
+
+    /** The signature algorithm. */
+    private String signatureAlgorithm = IdentityAssertionVerifier.DEFAULT_SIGNATURE_ALGORITHM;
+
+    /** The X.509 encoded public key, null if none. */
+    private byte[] publicKey;
+
+    /** The max age in seconds. */
+    private int maxAge = IdentityAssertionVerifier.DEFAULT_MAX_AGE;
+
+    /** The replay protection. */
+    private boolean replayProtection = true;
+
+    /** The maximum number of nonces. */
+    private int maximumNonces = IdentityAssertionVerifier.DEFAULT_MAXIMUM_NONCES;
+
+    /** The macs, per thread. */
+    private ThreadLocal<Mac> macs;
+
+    /** The signatures, per thread. */
+    private ThreadLocal<Signature> signatures;
+
+    /** The nonces seen within the freshness window, only evicted once expired. */
+    private Cache<String, Boolean> nonces;
+
+    /**
+     * Instantiates a new identity assertion verifier.
+     */
+    public IdentityAssertionVerifier() {
+        this.reset();
+    }
+
+    /**
+     * Verifies an assertion.
+     *
+     * @param value
+     *            the assertion header value
+     * @return the asserted identity
+     * @throws GeneralSecurityException
+     *             if the assertion is malformed, not signed by a trusted key, stale or replayed, or if the nonces
+     *             within the freshness window reached the maximum
+     */
+    public IdentityAssertion verify(final String value) throws GeneralSecurityException {
+        final int dot = value.lastIndexOf('.');
+        if (dot <= 0) {
+            throw new SignatureException("Malformed identity assertion");
+        }
+        final byte[] signed = value.getBytes(StandardCharsets.US_ASCII);
+        final byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(value.substring(dot + 1));
+        } catch (final IllegalArgumentException e) {
+            throw new SignatureException("Malformed identity assertion signature", e);
+        }
+        if (!this.isSigned(signed, dot, signature)) {
+            throw new SignatureException("Invalid identity assertion signature");
+        }
+
+        final IdentityAssertion assertion;
+        try {
+            assertion = IdentityAssertion.parse(new String(Base64.getUrlDecoder().decode(value.substring(0, dot)),
+                    StandardCharsets.UTF_8));
+        } catch (final IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed identity assertion: " + e.getMessage(), e);
+        }
+
+        final long age = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - assertion.getTimestamp();
+        if (Math.abs(age) > this.maxAge) {
+            throw new GeneralSecurityException("Stale identity assertion, age: " + age + "s");
+        }
+        if (this.replayProtection) {
+            if (assertion.getNonce() == null || assertion.getNonce().isEmpty()) {
+                throw new GeneralSecurityException("Identity assertion without nonce");
+            }
+            this.checkNonceCapacity();
+            if (this.nonces.asMap().putIfAbsent(assertion.getNonce(), Boolean.TRUE) != null) {
+                throw new GeneralSecurityException("Replayed identity assertion, nonce: " + assertion.getNonce());
+            }
+        }
+        return assertion;
+    }
+
+    /**
+     * Checks a nonce can be kept without evicting one still within the freshness window, failing closed otherwise.
+     * Concurrent verifications may exceed the maximum by a few nonces, but never evict one.
+     *
+     * @throws GeneralSecurityException
+     *             if the nonces within the freshness window reached the maximum
+     */
+    private void checkNonceCapacity() throws GeneralSecurityException {
+        if (this.nonces.estimatedSize() < this.maximumNonces) {
+            return;
+        }
+        // drop the expired nonces before refusing
+        this.nonces.cleanUp();
+        if (this.nonces.estimatedSize() >= this.maximumNonces) {
+            throw new GeneralSecurityException(
+                    "Too many identity assertions within the freshness window, maximum: " + this.maximumNonces);
+        }
+    }
+
+    /**
+     * Checks the signature of an assertion with the HMAC key, or else the public key.
+     *
+     * @param signed
+     *            the assertion bytes
+     * @param length
+     *            the length of the signed payload
+     * @param signature
+     *            the signature
+     * @return true, if signed by a trusted key
+     * @throws GeneralSecurityException
+     *             if no key is configured or the signature cannot be checked
+     */
+    private boolean isSigned(final byte[] signed, final int length, final byte[] signature)
+            throws GeneralSecurityException {
+        if (this.hmacKey != null) {
+            final Mac mac = this.macs.get();
+            mac.update(signed, 0, length);
+            // constant time comparison
+            if (MessageDigest.isEqual(mac.doFinal(), signature)) {
+                return true;
+            }
+        }
+        if (this.publicKey != null) {
+            final Signature verifier = this.signatures.get();
+            try {
+                verifier.update(signed, 0, length);
+                return verifier.verify(signature);
+            } catch (final SignatureException e) {
+                // the engine state is undefined after a failure
+                this.signatures.remove();
+                throw e;
+            }
+        }
+        if (this.hmacKey == null) {
+            throw new GeneralSecurityException("No identity assertion key configured");
+        }
+        return false;
+    }
+
+    /**
+     * Recreates the engines and the nonce cache after a configuration change.
+     */
+    private void reset() {
+        final String macAlgorithm = this.hmacAlgorithm;
+        final byte[] macKey = this.hmacKey;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac mac = Mac.getInstance(macAlgorithm);
+                mac.init(new SecretKeySpec(macKey, macAlgorithm));
+                return mac;
+            } catch (final GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        final String algorithm = this.signatureAlgorithm;
+        final byte[] key = this.publicKey;
+        this.signatures = ThreadLocal.withInitial(() -> {
+            try {
+                final Signature signature = Signature.getInstance(algorithm);
+                signature.initVerify(KeyFactory.getInstance(IdentityAssertionVerifier.getKeyAlgorithm(algorithm))
+                        .generatePublic(new X509EncodedKeySpec(key)));
+                return signature;
+            } catch (final GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // no size bound: evicting a nonce within the window would allow its replay, see checkNonceCapacity
+        this.nonces = Caffeine.newBuilder().expireAfterWrite(2L * this.maxAge, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * Gets the key algorithm of a signature algorithm, for example EC for SHA256withECDSA.
+     *
+     * @param signatureAlgorithm
+     *            the signature algorithm
+     * @return the key algorithm
+     */
+    private static String getKeyAlgorithm(final String signatureAlgorithm) {
+        final int with = signatureAlgorithm.indexOf("with");
+        if (with < 0) {
+            return signatureAlgorithm;
+        }
+        final String keyAlgorithm = signatureAlgorithm.substring(with + 4);
+        return "ECDSA".equals(keyAlgorithm) ? "EC" : keyAlgorithm;
+    }
+
+    /**
+     * Sets the shared HMAC key.
+     *
+     * @param value
+     *            the new hmac key, null for none
+     */
+    public void setHmacKey(final byte[] value) {
+        this.hmacKey = value == null ? null : value.clone();
+        this.reset();
+    }
+
+    /**
+     * Sets the HMAC algorithm. Default is HmacSHA256.
+     *
+     * @param value
+     *            the new hmac algorithm
+     */
+    public void setHmacAlgorithm(final String value) {
+        this.hmacAlgorithm = value;
+        this.reset();
+    }
+
+    /**
+     * Sets the X.509 encoded public key of the front-end.
+     *
+     * @param value
+     *            the new public key, null for none
+     */
+    public void setPublicKey(final byte[] value) {
+        this.publicKey = value == null ? null : value.clone();
+        this.reset();
+    }
+
+    /**
+     * Sets the signature algorithm of the public key. Default is Ed25519, which needs Java 15; earlier runtimes can
+     * use SHA256withECDSA.
+     *
+     * @param value
+     *            the new signature algorithm
+     */
+    public void setSignatureAlgorithm(final String value) {
+        this.signatureAlgorithm = value;
+        this.reset();
+    }
+
+    /**
+     * Gets the max age.
+     *
+     * @return the max age in seconds
+     */
+    public int getMaxAge() {
+        return this.maxAge;
+    }
+
+    /**
+     * Sets the freshness window, the maximum difference between the assertion timestamp and the local clock.
+     *
+     * @param value
+     *            the new max age in seconds
+     */
+    public void setMaxAge(final int value) {
+        this.maxAge = value;
+        this.reset();
+    }
+
+    /**
+     * Checks if is replay protection.
+     *
+     * @return true, if is replay protection
+     */
+    public boolean isReplayProtection() {
+        return this.replayProtection;
+    }
+
+    /**
+     * Sets whether each nonce is only accepted once. Default is true.
+     *
+     * @param value
+     *            the new replay protection
+     */
+    public void setReplayProtection(final boolean value) {
+        this.replayProtection = value;
+    }
+
+    /**
+     * Gets the maximum number of nonces.
+     *
+     * @return the maximum number of nonces
+     */
+    public int getMaximumNonces() {
+        return this.maximumNonces;
+    }
+
+    /**
+     * Sets the maximum number of nonces kept within the freshness window, beyond which new assertions are rejected.
+     * Default is 1000000.
+     *
+     * @param value
+     *            the new maximum number of nonces
+     */
+    public void setMaximumNonces(final int value) {
+        this.maximumNonces = value;
+    }
+
+}
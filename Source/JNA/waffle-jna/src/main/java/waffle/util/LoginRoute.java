@@ -0,0 +1,142 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The login endpoint a request to a mixed single sign-on and form authenticator is routed to.
+ *
+ * The route is read from the request URI and query string, which never reads the request body: a request is routed to
+ * an endpoint when its query string has a parameter named after it, as in <code>index.jsp?j_security_check</code>, or
+ * when its path ends with it, as in <code>j_security_check</code>. Routing on form fields sent in the body makes the
+ * container parse the body of every POST before authentication and is only done when asked for.
+ */
+public enum LoginRoute {
+
+    /** Single sign-on with the Negotiate protocol. */
+    NEGOTIATE_CHECK("j_negotiate_check"),
+
+    /** Form login with a username and password. */
+    SECURITY_CHECK("j_security_check"),
+
+    /** Neither, the login page. */
+    NONE(null);
+
+    /** The Constant ROUTES, the endpoints by precedence. */
+    private static final LoginRoute[] ROUTES = { LoginRoute.NEGOTIATE_CHECK, LoginRoute.SECURITY_CHECK };
+
+    /** The endpoint name. */
+    private final String endpoint;
+
+    /**
+     * Instantiates a new login route.
+     *
+     * @param endpoint
+     *            the endpoint name
+     */
+    LoginRoute(final String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Gets the endpoint name, used as a query string parameter or last path segment.
+     *
+     * @return the endpoint name, null for {@link #NONE}
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * Routes a request.
+     *
+     * @param request
+     *            the request
+     * @param formFields
+     *            whether to also route on form fields sent in the body, which parses the body of a form POST
+     * @return the route
+     */
+    public static LoginRoute of(final HttpServletRequest request, final boolean formFields) {
+        final LoginRoute route = LoginRoute.of(request.getRequestURI(), request.getQueryString());
+        if (route != LoginRoute.NONE || !formFields) {
+            return route;
+        }
+        for (final LoginRoute formRoute : LoginRoute.ROUTES) {
+            if (request.getParameter(formRoute.endpoint) != null) {
+                return formRoute;
+            }
+        }
+        return LoginRoute.NONE;
+    }
+
+    /**
+     * Routes a request URI and query string.
+     *
+     * @param uri
+     *            the request URI, may be null
+     * @param queryString
+     *            the query string, may be null
+     * @return the route
+     */
+    public static LoginRoute of(final String uri, final String queryString) {
+        LoginRoute route = LoginRoute.NONE;
+        if (queryString != null) {
+            int start = 0;
+            while (start <= queryString.length()) {
+                int end = queryString.indexOf('&', start);
+                if (end < 0) {
+                    end = queryString.length();
+                }
+                int nameEnd = queryString.indexOf('=', start);
+                if (nameEnd < 0 || nameEnd > end) {
+                    nameEnd = end;
+                }
+                final LoginRoute parameterRoute = LoginRoute.match(queryString, start, nameEnd);
+                if (parameterRoute.ordinal() < route.ordinal()) {
+                    route = parameterRoute;
+                }
+                start = end + 1;
+            }
+        }
+        if (route == LoginRoute.NONE && uri != null) {
+            int end = uri.indexOf(';');
+            if (end < 0) {
+                end = uri.length();
+            }
+            route = LoginRoute.match(uri, uri.lastIndexOf('/', end - 1) + 1, end);
+        }
+        return route;
+    }
+
+    /**
+     * Matches a region of a string against the endpoint names.
+     *
+     * @param value
+     *            the string
+     * @param start
+     *            the start of the region
+     * @param end
+     *            the end of the region, exclusive
+     * @return the route of the endpoint, {@link #NONE} if none matches
+     */
+    private static LoginRoute match(final String value, final int start, final int end) {
+        for (final LoginRoute route : LoginRoute.ROUTES) {
+            final String name = route.endpoint;
+            if (end - start == name.length() && value.regionMatches(start, name, 0, name.length())) {
+                return route;
+            }
+        }
+        return LoginRoute.NONE;
+    }
+
+}
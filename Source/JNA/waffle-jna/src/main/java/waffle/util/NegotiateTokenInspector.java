@@ -0,0 +1,789 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Inspects Negotiate and NTLM tokens before they reach the security provider: raw NTLM messages, raw Kerberos GSS
+ * tokens, and the SPNEGO <code>NegTokenInit</code> and <code>NegTokenResp</code> of RFC 4178 with the mechanism token
+ * they carry.
+ *
+ * Inspecting walks the DER and NTLM structures in place, checking every length against its enclosing structure, and
+ * records offsets only: it allocates nothing, and the mechanism types, mechanism token and NTLM fields are views of
+ * the inspected buffer. An instance is reusable but not thread safe.
+ */
+public final class NegotiateTokenInspector {
+
+    /**
+     * The format of a token.
+     */
+    public enum Format {
+
+        /** A raw NTLM message. */
+        NTLM,
+
+        /** A raw Kerberos GSS token. */
+        KERBEROS,
+
+        /** A SPNEGO NegTokenInit. */
+        NEG_TOKEN_INIT,
+
+        /** A SPNEGO NegTokenResp. */
+        NEG_TOKEN_RESP,
+
+        /** Unrecognized. */
+        UNKNOWN
+    }
+
+    /**
+     * The authentication mechanism of a token.
+     */
+    public enum Mechanism {
+
+        /** NTLM. */
+        NTLM,
+
+        /** Kerberos. */
+        KERBEROS,
+
+        /** Unrecognized. */
+        UNKNOWN
+    }
+
+    /** The Constant DEFAULT_MAX_TOKEN_LENGTH, the largest token Windows issues. */
+    public static final int DEFAULT_MAX_TOKEN_LENGTH = 65535;
+
+    /** The Constant NTLM_SSP_SIGNATURE. */
+    private static final byte[] NTLM_SSP_SIGNATURE = { 0x4e, 0x54, 0x4c, 0x4d, 0x53, 0x53, 0x50, 0x00 };
+
+    /** The Constant SPNEGO_OID, 1.3.6.1.5.5.2. */
+    private static final byte[] SPNEGO_OID = { 0x2b, 0x06, 0x01, 0x05, 0x05, 0x02 };
+
+    /** The Constant KERBEROS_OID, 1.2.840.113554.1.2.2. */
+    private static final byte[] KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02,
+            0x02 };
+
+    /** The Constant MS_KERBEROS_OID, 1.2.840.48018.1.2.2. */
+    private static final byte[] MS_KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x82, (byte) 0xf7, 0x12, 0x01,
+            0x02, 0x02 };
+
+    /** The Constant NTLM_OID, 1.3.6.1.4.1.311.2.2.10. */
+    private static final byte[] NTLM_OID = { 0x2b, 0x06, 0x01, 0x04, 0x01, (byte) 0x82, 0x37, 0x02, 0x02, 0x0a };
+
+    /** The Constant NEGOTIATE_UNICODE NTLM flag. */
+    private static final int NEGOTIATE_UNICODE = 0x00000001;
+
+    /** The max token length. */
+    private final int maxTokenLength;
+
+    /** The inspected token. */
+    private ByteBuffer token;
+
+    /** The position of the token in its buffer. */
+    private int base;
+
+    /** The token length. */
+    private int length;
+
+    /** The format. */
+    private Format format;
+
+    /** The mechanism. */
+    private Mechanism mechanism;
+
+    /** Whether the token is malformed. */
+    private boolean malformed;
+
+    /** Whether the token is oversized. */
+    private boolean oversized;
+
+    /** The offset and end of the contents of the mechTypes sequence, -1 if none. */
+    private int mechTypes;
+
+    /** The mech types end. */
+    private int mechTypesEnd;
+
+    /** The offset of the mechanism token, -1 if none. */
+    private int mechToken;
+
+    /** The mech token end. */
+    private int mechTokenEnd;
+
+    /** The offset of the NTLM message, -1 if none. */
+    private int ntlm;
+
+    /** The NTLM message end. */
+    private int ntlmEnd;
+
+    /** The NTLM message type. */
+    private int ntlmType;
+
+    /** The NTLM negotiate flags. */
+    private int ntlmFlags;
+
+    /** The start of the contents of the last element read. */
+    private int contentStart;
+
+    /** The end of the contents of the last element read. */
+    private int contentEnd;
+
+    /**
+     * Instantiates a new negotiate token inspector, rejecting tokens over {@link #DEFAULT_MAX_TOKEN_LENGTH} bytes.
+     */
+    public NegotiateTokenInspector() {
+        this(NegotiateTokenInspector.DEFAULT_MAX_TOKEN_LENGTH);
+    }
+
+    /**
+     * Instantiates a new negotiate token inspector.
+     *
+     * @param maxTokenLength
+     *            the max token length
+     */
+    public NegotiateTokenInspector(final int maxTokenLength) {
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    /**
+     * Inspects a token.
+     *
+     * @param message
+     *            the token
+     * @return true, if the token may be handed to the security provider: it is within the size limit and, when its
+     *         format is recognized, well formed
+     */
+    public boolean inspect(final byte[] message) {
+        return this.inspect(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Inspects a token, without copying it. The position of the buffer is left unchanged.
+     *
+     * @param message
+     *            the token, from the buffer position to its limit
+     * @return true, if the token may be handed to the security provider: it is within the size limit and, when its
+     *         format is recognized, well formed
+     */
+    public boolean inspect(final ByteBuffer message) {
+        this.token = message;
+        this.base = message.position();
+        this.length = message.remaining();
+        this.format = Format.UNKNOWN;
+        this.mechanism = Mechanism.UNKNOWN;
+        this.malformed = false;
+        this.oversized = this.length > this.maxTokenLength;
+        this.mechTypes = -1;
+        this.mechTypesEnd = -1;
+        this.mechToken = -1;
+        this.mechTokenEnd = -1;
+        this.ntlm = -1;
+        this.ntlmEnd = -1;
+        this.ntlmType = 0;
+        this.ntlmFlags = 0;
+        if (this.oversized || this.length == 0) {
+            return !this.oversized;
+        }
+
+        final int tag = this.at(0);
+        if (this.isNtlm(0, this.length)) {
+            this.format = Format.NTLM;
+            this.mechanism = Mechanism.NTLM;
+            this.malformed = !this.inspectNtlm(0, this.length);
+        } else if (tag == 0x60) {
+            this.malformed = !this.inspectInitialContextToken();
+        } else if (tag == 0xa1) {
+            this.format = Format.NEG_TOKEN_RESP;
+            this.malformed = !this.inspectNegTokenResp();
+        }
+        return !this.malformed;
+    }
+
+    /**
+     * Inspects a GSS-API InitialContextToken: <code>[APPLICATION 0] { thisMech OID, innerToken }</code>, of SPNEGO or
+     * Kerberos.
+     *
+     * @return true, if well formed
+     */
+    private boolean inspectInitialContextToken() {
+        if (!this.element(0, this.length, 0x60) || this.contentEnd != this.length
+                || !this.element(this.contentStart, this.length, 0x06)) {
+            // recognize truncated SPNEGO tokens, as SPNegoMessage does
+            if (this.length > 2 + NegotiateTokenInspector.SPNEGO_OID.length && this.headerLength(0) > 0
+                    && this.matches(this.headerLength(0) + 2, NegotiateTokenInspector.SPNEGO_OID)) {
+                this.format = Format.NEG_TOKEN_INIT;
+            }
+            return false;
+        }
+        final int oid = this.contentStart;
+        final int oidEnd = this.contentEnd;
+        if (this.isOid(oid, oidEnd, NegotiateTokenInspector.KERBEROS_OID)
+                || this.isOid(oid, oidEnd, NegotiateTokenInspector.MS_KERBEROS_OID)) {
+            this.format = Format.KERBEROS;
+            this.mechanism = Mechanism.KERBEROS;
+            return true;
+        }
+        if (!this.isOid(oid, oidEnd, NegotiateTokenInspector.SPNEGO_OID)) {
+            return true;
+        }
+
+        // NegotiationToken ::= CHOICE { negTokenInit [0] NegTokenInit, ... }
+        this.format = Format.NEG_TOKEN_INIT;
+        if (!this.element(oidEnd, this.length, 0xa0) || this.contentEnd != this.length
+                || !this.element(this.contentStart, this.length, 0x30) || this.contentEnd != this.length) {
+            return false;
+        }
+        // NegTokenInit ::= SEQUENCE { mechTypes [0], reqFlags [1], mechToken [2] OCTET STRING, mechListMIC [3] }
+        int offset = this.contentStart;
+        int lastTag = -1;
+        while (offset < this.length) {
+            final int tag = this.at(offset);
+            if (tag <= lastTag || tag < 0xa0 || tag > 0xa3 || !this.element(offset, this.length, tag)) {
+                return false;
+            }
+            final int end = this.contentEnd;
+            if (tag == 0xa0) {
+                if (!this.element(this.contentStart, end, 0x30) || this.contentEnd != end) {
+                    return false;
+                }
+                this.mechTypes = this.contentStart;
+                this.mechTypesEnd = end;
+                for (int oidOffset = this.mechTypes; oidOffset < end; oidOffset = this.contentEnd) {
+                    if (!this.element(oidOffset, end, 0x06)) {
+                        return false;
+                    }
+                }
+            } else if (tag == 0xa2) {
+                if (!this.element(this.contentStart, end, 0x04) || this.contentEnd != end) {
+                    return false;
+                }
+                this.mechToken = this.contentStart;
+                this.mechTokenEnd = end;
+            }
+            lastTag = tag;
+            offset = end;
+        }
+        if (this.mechTypes < 0) {
+            return false;
+        }
+
+        // the optimistic mechanism token, if any, is of the preferred mechanism
+        if (this.element(this.mechTypes, this.mechTypesEnd, 0x06)) {
+            this.mechanism = this.toMechanism(this.contentStart, this.contentEnd);
+        }
+        return this.mechToken < 0 || this.inspectMechToken();
+    }
+
+    /**
+     * Inspects a SPNEGO NegTokenResp: <code>[1] SEQUENCE { negState [0], supportedMech [1] OID, responseToken [2]
+     * OCTET STRING, mechListMIC [3] }</code>.
+     *
+     * @return true, if well formed
+     */
+    private boolean inspectNegTokenResp() {
+        if (!this.element(0, this.length, 0xa1) || this.contentEnd != this.length
+                || !this.element(this.contentStart, this.length, 0x30) || this.contentEnd != this.length) {
+            return false;
+        }
+        int offset = this.contentStart;
+        int lastTag = -1;
+        Mechanism supportedMech = Mechanism.UNKNOWN;
+        while (offset < this.length) {
+            final int tag = this.at(offset);
+            if (tag <= lastTag || tag < 0xa0 || tag > 0xa3 || !this.element(offset, this.length, tag)) {
+                return false;
+            }
+            final int end = this.contentEnd;
+            if (tag == 0xa0) {
+                if (!this.element(this.contentStart, end, 0x0a) || this.contentEnd != end) {
+                    return false;
+                }
+            } else if (tag == 0xa1) {
+                if (!this.element(this.contentStart, end, 0x06) || this.contentEnd != end) {
+                    return false;
+                }
+                supportedMech = this.toMechanism(this.contentStart, end);
+            } else if (tag == 0xa2) {
+                if (!this.element(this.contentStart, end, 0x04) || this.contentEnd != end) {
+                    return false;
+                }
+                this.mechToken = this.contentStart;
+                this.mechTokenEnd = end;
+            }
+            lastTag = tag;
+            offset = end;
+        }
+        this.mechanism = supportedMech;
+        return this.mechToken < 0 || this.inspectMechToken();
+    }
+
+    /**
+     * Inspects the mechanism token of a SPNEGO token.
+     *
+     * @return true, if well formed
+     */
+    private boolean inspectMechToken() {
+        if (this.isNtlm(this.mechToken, this.mechTokenEnd)) {
+            this.mechanism = Mechanism.NTLM;
+            return this.inspectNtlm(this.mechToken, this.mechTokenEnd);
+        }
+        if (this.mechanism == Mechanism.UNKNOWN && this.element(this.mechToken, this.mechTokenEnd, 0x60)
+                && this.element(this.contentStart, this.mechTokenEnd, 0x06)
+                && (this.isOid(this.contentStart, this.contentEnd, NegotiateTokenInspector.KERBEROS_OID)
+                        || this.isOid(this.contentStart, this.contentEnd, NegotiateTokenInspector.MS_KERBEROS_OID))) {
+            this.mechanism = Mechanism.KERBEROS;
+        }
+        return true;
+    }
+
+    /**
+     * Inspects an NTLM message: its type, flags and, for an authenticate message, the security buffers of its fields.
+     *
+     * @param offset
+     *            the offset of the message
+     * @param end
+     *            the end of the message
+     * @return true, if well formed
+     */
+    private boolean inspectNtlm(final int offset, final int end) {
+        final int messageLength = end - offset;
+        if (messageLength < 12) {
+            return false;
+        }
+        this.ntlm = offset;
+        this.ntlmEnd = end;
+        this.ntlmType = this.int32(offset + 8);
+        if (this.ntlmType == 1 || this.ntlmType == 2) {
+            final int flagsOffset = this.ntlmType == 1 ? 12 : 20;
+            if (messageLength >= flagsOffset + 4) {
+                this.ntlmFlags = this.int32(offset + flagsOffset);
+            }
+            return true;
+        }
+        if (this.ntlmType != 3 || messageLength < 52) {
+            return false;
+        }
+        // LM and NT challenge responses, domain, user and workstation security buffers
+        int payload = messageLength;
+        for (int field = 12; field <= 44; field += 8) {
+            final int fieldLength = this.int16(offset + field);
+            final long fieldOffset = this.int32(offset + field + 4) & 0xffffffffL;
+            if (fieldOffset + fieldLength > messageLength) {
+                return false;
+            }
+            if (fieldLength > 0) {
+                payload = Math.min(payload, (int) fieldOffset);
+            }
+        }
+        // the session key and flags follow, unless the payload starts there
+        if (messageLength >= 64 && payload >= 64) {
+            this.ntlmFlags = this.int32(offset + 60);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the header of a DER element, setting the bounds of its contents.
+     *
+     * @param offset
+     *            the offset of the element
+     * @param end
+     *            the end of the enclosing structure
+     * @param tag
+     *            the expected tag
+     * @return true, if the element has the tag and fits in the enclosing structure
+     */
+    private boolean element(final int offset, final int end, final int tag) {
+        if (offset + 2 > end || this.at(offset) != tag) {
+            return false;
+        }
+        final int header = this.headerLength(offset);
+        if (header < 0 || offset + header > end) {
+            return false;
+        }
+        long contentLength = this.at(offset + 1);
+        if (contentLength > 0x80) {
+            contentLength = 0;
+            for (int i = offset + 2; i < offset + header; i++) {
+                contentLength = contentLength << 8 | this.at(i);
+            }
+        }
+        if (offset + header + contentLength > end) {
+            return false;
+        }
+        this.contentStart = offset + header;
+        this.contentEnd = (int) (this.contentStart + contentLength);
+        return true;
+    }
+
+    /**
+     * Gets the length of the tag and length octets of a DER element.
+     *
+     * @param offset
+     *            the offset of the element
+     * @return the header length, -1 for indefinite or over 4 byte lengths
+     */
+    private int headerLength(final int offset) {
+        final int first = this.at(offset + 1);
+        if (first < 0x80) {
+            return 2;
+        }
+        final int octets = first & 0x7f;
+        return octets == 0 || octets > 4 || offset + 2 + octets > this.length ? -1 : 2 + octets;
+    }
+
+    /**
+     * Maps a mechanism OID.
+     *
+     * @param offset
+     *            the offset of the OID contents
+     * @param end
+     *            the end of the OID contents
+     * @return the mechanism
+     */
+    private Mechanism toMechanism(final int offset, final int end) {
+        if (this.isOid(offset, end, NegotiateTokenInspector.NTLM_OID)) {
+            return Mechanism.NTLM;
+        }
+        if (this.isOid(offset, end, NegotiateTokenInspector.KERBEROS_OID)
+                || this.isOid(offset, end, NegotiateTokenInspector.MS_KERBEROS_OID)) {
+            return Mechanism.KERBEROS;
+        }
+        return Mechanism.UNKNOWN;
+    }
+
+    /**
+     * Checks if OID contents are a given OID.
+     *
+     * @param offset
+     *            the offset of the OID contents
+     * @param end
+     *            the end of the OID contents
+     * @param oid
+     *            the OID contents
+     * @return true, if equal
+     */
+    private boolean isOid(final int offset, final int end, final byte[] oid) {
+        return end - offset == oid.length && this.matches(offset, oid);
+    }
+
+    /**
+     * Checks if an NTLM message starts at an offset.
+     *
+     * @param offset
+     *            the offset
+     * @param end
+     *            the end of the enclosing structure
+     * @return true, if the NTLMSSP signature is there
+     */
+    private boolean isNtlm(final int offset, final int end) {
+        return end - offset >= NegotiateTokenInspector.NTLM_SSP_SIGNATURE.length
+                && this.matches(offset, NegotiateTokenInspector.NTLM_SSP_SIGNATURE);
+    }
+
+    /**
+     * Compares bytes of the token.
+     *
+     * @param offset
+     *            the offset
+     * @param bytes
+     *            the expected bytes
+     * @return true, if equal
+     */
+    private boolean matches(final int offset, final byte[] bytes) {
+        if (offset + bytes.length > this.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (this.token.get(this.base + offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads an unsigned byte of the token.
+     *
+     * @param offset
+     *            the offset
+     * @return the byte
+     */
+    private int at(final int offset) {
+        return this.token.get(this.base + offset) & 0xff;
+    }
+
+    /**
+     * Reads a little endian unsigned 16 bit integer of the token.
+     *
+     * @param offset
+     *            the offset
+     * @return the integer
+     */
+    private int int16(final int offset) {
+        return this.at(offset) | this.at(offset + 1) << 8;
+    }
+
+    /**
+     * Reads a little endian 32 bit integer of the token.
+     *
+     * @param offset
+     *            the offset
+     * @return the integer
+     */
+    private int int32(final int offset) {
+        return this.int16(offset) | this.int16(offset + 2) << 16;
+    }
+
+    /**
+     * Creates a read-only view of the token.
+     *
+     * @param offset
+     *            the offset
+     * @param end
+     *            the end
+     * @return the view
+     */
+    private ByteBuffer view(final int offset, final int end) {
+        final ByteBuffer view = this.token.asReadOnlyBuffer();
+        view.limit(this.base + end);
+        view.position(this.base + offset);
+        return view.slice();
+    }
+
+    /**
+     * Creates a view of a field of an NTLM authenticate message.
+     *
+     * @param field
+     *            the offset of the security buffer of the field
+     * @return the view, null if not an authenticate message
+     */
+    private ByteBuffer ntlmField(final int field) {
+        if (this.ntlmType != 3 || this.malformed) {
+            return null;
+        }
+        final int offset = this.ntlm + this.int32(this.ntlm + field + 4);
+        return this.view(offset, offset + this.int16(this.ntlm + field));
+    }
+
+    /**
+     * Decodes a field of an NTLM authenticate message.
+     *
+     * @param field
+     *            the offset of the security buffer of the field
+     * @return the field, null if not an authenticate message
+     */
+    private String ntlmString(final int field) {
+        final ByteBuffer view = this.ntlmField(field);
+        if (view == null) {
+            return null;
+        }
+        final Charset charset = (this.ntlmFlags & NegotiateTokenInspector.NEGOTIATE_UNICODE) != 0
+                ? StandardCharsets.UTF_16LE
+                : StandardCharsets.ISO_8859_1;
+        return charset.decode(view).toString();
+    }
+
+    /**
+     * Gets the format.
+     *
+     * @return the format of the token
+     */
+    public Format getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Gets the mechanism, of the mechanism token of SPNEGO tokens, or else of their preferred or supported mechanism.
+     *
+     * @return the mechanism
+     */
+    public Mechanism getMechanism() {
+        return this.mechanism;
+    }
+
+    /**
+     * Checks if the token has a recognized format but is malformed.
+     *
+     * @return true, if malformed
+     */
+    public boolean isMalformed() {
+        return this.malformed;
+    }
+
+    /**
+     * Checks if the token is over the max token length.
+     *
+     * @return true, if oversized
+     */
+    public boolean isOversized() {
+        return this.oversized;
+    }
+
+    /**
+     * Gets the length of the token.
+     *
+     * @return the length
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Gets the number of mechanism types offered by a NegTokenInit.
+     *
+     * @return the mech type count
+     */
+    public int getMechTypeCount() {
+        int count = 0;
+        if (this.mechTypes >= 0) {
+            for (int offset = this.mechTypes; offset < this.mechTypesEnd; offset = this.contentEnd) {
+                this.element(offset, this.mechTypesEnd, 0x06);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets a mechanism type offered by a NegTokenInit, by order of preference.
+     *
+     * @param index
+     *            the index, less than the mech type count
+     * @return a read-only view of the contents of the OID
+     */
+    public ByteBuffer getMechType(final int index) {
+        int offset = this.mechTypes;
+        for (int i = 0; i <= index; i++) {
+            if (index < 0 || offset < 0 || offset >= this.mechTypesEnd) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            this.element(offset, this.mechTypesEnd, 0x06);
+            offset = this.contentEnd;
+        }
+        return this.view(this.contentStart, this.contentEnd);
+    }
+
+    /**
+     * Gets the mechanism token of a NegTokenInit, or the response token of a NegTokenResp.
+     *
+     * @return a read-only view of the token, null if none
+     */
+    public ByteBuffer getMechToken() {
+        return this.mechToken < 0 ? null : this.view(this.mechToken, this.mechTokenEnd);
+    }
+
+    /**
+     * Gets the NTLM message, raw or carried by a SPNEGO token.
+     *
+     * @return a read-only view of the message, null if none
+     */
+    public ByteBuffer getNtlmMessage() {
+        return this.ntlm < 0 ? null : this.view(this.ntlm, this.ntlmEnd);
+    }
+
+    /**
+     * Gets the NTLM message type.
+     *
+     * @return 1 for negotiate, 2 for challenge and 3 for authenticate messages, 0 if none
+     */
+    public int getNtlmMessageType() {
+        return this.ntlmType;
+    }
+
+    /**
+     * Gets the NTLM negotiate flags.
+     *
+     * @return the flags, 0 if none
+     */
+    public int getNtlmFlags() {
+        return this.ntlmFlags;
+    }
+
+    /**
+     * Gets the domain of an NTLM authenticate message.
+     *
+     * @return a read-only view of the encoded domain, null if not an authenticate message
+     */
+    public ByteBuffer getNtlmDomain() {
+        return this.ntlmField(28);
+    }
+
+    /**
+     * Gets the user of an NTLM authenticate message.
+     *
+     * @return a read-only view of the encoded user, null if not an authenticate message
+     */
+    public ByteBuffer getNtlmUser() {
+        return this.ntlmField(36);
+    }
+
+    /**
+     * Gets the workstation of an NTLM authenticate message.
+     *
+     * @return a read-only view of the encoded workstation, null if not an authenticate message
+     */
+    public ByteBuffer getNtlmWorkstation() {
+        return this.ntlmField(44);
+    }
+
+    /**
+     * Decodes the domain of an NTLM authenticate message.
+     *
+     * @return the domain, null if not an authenticate message
+     */
+    public String getNtlmDomainName() {
+        return this.ntlmString(28);
+    }
+
+    /**
+     * Decodes the user of an NTLM authenticate message.
+     *
+     * @return the user, null if not an authenticate message
+     */
+    public String getNtlmUserName() {
+        return this.ntlmString(36);
+    }
+
+    /**
+     * Decodes the workstation of an NTLM authenticate message.
+     *
+     * @return the workstation, null if not an authenticate message
+     */
+    public String getNtlmWorkstationName() {
+        return this.ntlmString(44);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(this.format).append('/').append(this.mechanism);
+        if (this.ntlmType != 0) {
+            builder.append(" type ").append(this.ntlmType);
+        }
+        if (this.ntlmType == 3 && !this.malformed) {
+            builder.append(' ').append(this.getNtlmDomainName()).append('\\').append(this.getNtlmUserName())
+                    .append(" from ").append(this.getNtlmWorkstationName());
+        }
+        builder.append(", ").append(this.length).append(" byte(s)");
+        if (this.malformed) {
+            builder.append(", malformed");
+        }
+        if (this.oversized) {
+            builder.append(", oversized");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,476 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The logon information of a Kerberos Privilege Attribute Certificate (PAC), the <code>KERB_VALIDATION_INFO</code>
+ * structure of [MS-PAC] 2.5 which carries the user and group SIDs of a ticket.
+ *
+ * Decoding walks the NDR serialization once, checking its bounds and recording where each member starts; nothing is
+ * copied. The SIDs and relative ids are read from the PAC on access, and the SID views share its content, so the PAC
+ * must not be modified while the logon information is in use.
+ */
+public final class PacLogonInfo {
+
+    /** The Constant LOGON_INFO buffer type. */
+    private static final int LOGON_INFO = 1;
+
+    /** The Constant HEADER_SIZE, of the NDR common and private headers and the top-level referent. */
+    private static final int HEADER_SIZE = 20;
+
+    /** The Constant KERB_VALIDATION_INFO_SIZE, the fixed part after the NDR headers. */
+    private static final int KERB_VALIDATION_INFO_SIZE = 216;
+
+    /** The Constant MAX_SUB_AUTHORITIES of a SID. */
+    private static final int MAX_SUB_AUTHORITIES = 15;
+
+    /** The logon info, little endian. */
+    private final ByteBuffer info;
+
+    /** The offset of the effective name, -1 if none. */
+    private int effectiveName = -1;
+
+    /** The offset of the logon domain name, -1 if none. */
+    private int logonDomainName = -1;
+
+    /** The offset of the logon domain SID. */
+    private int domainSid;
+
+    /** The offset of the group memberships. */
+    private int groupIds;
+
+    /** The group count. */
+    private int groupCount;
+
+    /** The offsets of the extra SIDs. */
+    private int[] extraSids = new int[0];
+
+    /** The offset of the resource group domain SID, -1 if none. */
+    private int resourceGroupDomainSid = -1;
+
+    /** The offset of the resource group memberships. */
+    private int resourceGroupIds;
+
+    /** The resource group count. */
+    private int resourceGroupCount;
+
+    /**
+     * Instantiates a new pac logon info.
+     *
+     * @param info
+     *            the <code>PAC_LOGON_INFO</code> buffer, little endian
+     */
+    private PacLogonInfo(final ByteBuffer info) {
+        this.info = info;
+        if (info.limit() < PacLogonInfo.HEADER_SIZE + PacLogonInfo.KERB_VALIDATION_INFO_SIZE) {
+            throw PacLogonInfo.malformed();
+        }
+
+        // deferred pointers follow the fixed part, in the order of the structure members
+        int offset = PacLogonInfo.HEADER_SIZE + PacLogonInfo.KERB_VALIDATION_INFO_SIZE;
+        for (int i = 0; i < 6; i++) {
+            if (this.fixed(48 + 8 * i + 4) != 0) {
+                offset = PacLogonInfo.align(offset);
+                if (i == 0) {
+                    this.effectiveName = offset;
+                }
+                offset = this.skipString(offset);
+            }
+        }
+        this.groupCount = this.fixed(108);
+        if (this.fixed(112) != 0) {
+            this.groupIds = PacLogonInfo.align(offset) + 4;
+            offset = this.skipGroups(this.groupIds - 4, this.groupCount);
+        } else if (this.groupCount != 0) {
+            throw PacLogonInfo.malformed();
+        }
+        if (this.fixed(140) != 0) {
+            offset = this.skipString(PacLogonInfo.align(offset));
+        }
+        if (this.fixed(148) != 0) {
+            this.logonDomainName = PacLogonInfo.align(offset);
+            offset = this.skipString(this.logonDomainName);
+        }
+        if (this.fixed(152) == 0) {
+            throw PacLogonInfo.malformed();
+        }
+        this.domainSid = PacLogonInfo.align(offset) + 4;
+        offset = this.skipSid(this.domainSid - 4);
+
+        if (this.fixed(200) != 0) {
+            final int sidCount = this.fixed(196);
+            final int sidPointers = PacLogonInfo.align(offset) + 4;
+            offset = this.skipGroups(sidPointers - 4, sidCount);
+            int count = 0;
+            for (int i = 0; i < sidCount; i++) {
+                if (this.info.getInt(sidPointers + 8 * i) != 0) {
+                    count++;
+                }
+            }
+            this.extraSids = new int[count];
+            for (int i = 0; i < count; i++) {
+                this.extraSids[i] = PacLogonInfo.align(offset) + 4;
+                offset = this.skipSid(this.extraSids[i] - 4);
+            }
+        }
+        if (this.fixed(204) != 0) {
+            this.resourceGroupDomainSid = PacLogonInfo.align(offset) + 4;
+            offset = this.skipSid(this.resourceGroupDomainSid - 4);
+        }
+        this.resourceGroupCount = this.fixed(208);
+        if (this.fixed(212) != 0 && this.resourceGroupDomainSid >= 0) {
+            this.resourceGroupIds = PacLogonInfo.align(offset) + 4;
+            this.skipGroups(this.resourceGroupIds - 4, this.resourceGroupCount);
+        } else if (this.resourceGroupCount != 0) {
+            throw PacLogonInfo.malformed();
+        }
+    }
+
+    /**
+     * Decodes the logon information of a PAC.
+     *
+     * @param pac
+     *            the PACTYPE structure, the data of the AD-WIN2K-PAC authorization data
+     * @return the logon information, null if the PAC has none
+     * @throws IllegalArgumentException
+     *             if the PAC is malformed
+     */
+    public static PacLogonInfo decode(final byte[] pac) {
+        return PacLogonInfo.decode(ByteBuffer.wrap(pac));
+    }
+
+    /**
+     * Decodes the logon information of a PAC, without copying it. The position of the buffer is left unchanged.
+     *
+     * @param pac
+     *            the PACTYPE structure from the buffer position to its limit
+     * @return the logon information, viewing the buffer, null if the PAC has none
+     * @throws IllegalArgumentException
+     *             if the PAC is malformed
+     */
+    public static PacLogonInfo decode(final ByteBuffer pac) {
+        final ByteBuffer buffer = pac.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final int count = buffer.getInt(0);
+            if (count < 0 || count > (buffer.limit() - 8) / 16) {
+                throw PacLogonInfo.malformed();
+            }
+            for (int i = 0; i < count; i++) {
+                final int entry = 8 + 16 * i;
+                if (buffer.getInt(entry) == PacLogonInfo.LOGON_INFO) {
+                    final int size = buffer.getInt(entry + 4);
+                    final long offset = buffer.getLong(entry + 8);
+                    if (size < 0 || offset < 0 || offset > buffer.limit() - size) {
+                        throw PacLogonInfo.malformed();
+                    }
+                    buffer.position((int) offset);
+                    buffer.limit((int) offset + size);
+                    return new PacLogonInfo(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+                }
+            }
+            return null;
+        } catch (final IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed PAC", e);
+        }
+    }
+
+    /**
+     * Reads a member of the fixed part of the <code>KERB_VALIDATION_INFO</code>.
+     *
+     * @param offset
+     *            the offset of the member in the structure
+     * @return the value
+     */
+    private int fixed(final int offset) {
+        return this.info.getInt(PacLogonInfo.HEADER_SIZE + offset);
+    }
+
+    /**
+     * Skips the deferred buffer of an <code>RPC_UNICODE_STRING</code>: maximum count, offset, actual count and
+     * characters.
+     *
+     * @param offset
+     *            the aligned offset of the buffer
+     * @return the offset past the buffer
+     */
+    private int skipString(final int offset) {
+        final int length = this.info.getInt(offset + 8);
+        if (length < 0 || length > this.info.getInt(offset) || length > (this.info.limit() - offset - 12) / 2) {
+            throw PacLogonInfo.malformed();
+        }
+        return offset + 12 + 2 * length;
+    }
+
+    /**
+     * Skips a deferred conformant array of 8 byte elements, such as <code>GROUP_MEMBERSHIP</code>.
+     *
+     * @param offset
+     *            the aligned offset of the array conformance
+     * @param count
+     *            the number of elements
+     * @return the offset past the array
+     */
+    private int skipGroups(final int offset, final int count) {
+        if (count < 0 || count > this.info.getInt(offset) || count > (this.info.limit() - offset - 4) / 8) {
+            throw PacLogonInfo.malformed();
+        }
+        return offset + 4 + 8 * count;
+    }
+
+    /**
+     * Skips a deferred <code>RPC_SID</code>: conformance, revision, sub-authority count, identifier authority and
+     * sub-authorities.
+     *
+     * @param offset
+     *            the aligned offset of the SID conformance
+     * @return the offset past the SID
+     */
+    private int skipSid(final int offset) {
+        final int subAuthorityCount = this.info.get(offset + 5) & 0xff;
+        if (subAuthorityCount > PacLogonInfo.MAX_SUB_AUTHORITIES
+                || offset + 12 + 4 * subAuthorityCount > this.info.limit()) {
+            throw PacLogonInfo.malformed();
+        }
+        return offset + 12 + 4 * subAuthorityCount;
+    }
+
+    /**
+     * Aligns an offset on 4 bytes.
+     *
+     * @param offset
+     *            the offset
+     * @return the aligned offset
+     */
+    private static int align(final int offset) {
+        return offset + 3 & ~3;
+    }
+
+    /**
+     * Creates the exception thrown for malformed logon info.
+     *
+     * @return the exception
+     */
+    private static IllegalArgumentException malformed() {
+        return new IllegalArgumentException("Malformed PAC logon info");
+    }
+
+    /**
+     * Reads a string.
+     *
+     * @param offset
+     *            the offset of the string buffer, -1 if none
+     * @return the string, null if none
+     */
+    private String readString(final int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        return StandardCharsets.UTF_16LE.decode(this.view(offset + 12, 2 * this.info.getInt(offset + 8))).toString();
+    }
+
+    /**
+     * Creates a read-only view of the logon info.
+     *
+     * @param offset
+     *            the offset
+     * @param length
+     *            the length
+     * @return the view
+     */
+    private ByteBuffer view(final int offset, final int length) {
+        final ByteBuffer view = this.info.asReadOnlyBuffer();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a read-only view of a SID.
+     *
+     * @param offset
+     *            the offset of the SID, past its conformance
+     * @return the view
+     */
+    private ByteBuffer sid(final int offset) {
+        return this.view(offset, 8 + 4 * (this.info.get(offset + 1) & 0xff));
+    }
+
+    /**
+     * Gets the effective name.
+     *
+     * @return the effective name, the account name of the user
+     */
+    public String getEffectiveName() {
+        return this.readString(this.effectiveName);
+    }
+
+    /**
+     * Gets the logon domain name.
+     *
+     * @return the NetBIOS name of the logon domain
+     */
+    public String getLogonDomainName() {
+        return this.readString(this.logonDomainName);
+    }
+
+    /**
+     * Gets the logon domain SID.
+     *
+     * @return a read-only view of the binary SID
+     */
+    public ByteBuffer getDomainSid() {
+        return this.sid(this.domainSid);
+    }
+
+    /**
+     * Gets the relative id of the user in the logon domain.
+     *
+     * @return the user id
+     */
+    public int getUserId() {
+        return this.fixed(100);
+    }
+
+    /**
+     * Gets the relative id of the primary group in the logon domain.
+     *
+     * @return the primary group id
+     */
+    public int getPrimaryGroupId() {
+        return this.fixed(104);
+    }
+
+    /**
+     * Gets the number of logon domain groups.
+     *
+     * @return the group count
+     */
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    /**
+     * Gets the relative id of a logon domain group.
+     *
+     * @param index
+     *            the index, less than the group count
+     * @return the group id
+     */
+    public int getGroupId(final int index) {
+        if (index < 0 || index >= this.groupCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return this.info.getInt(this.groupIds + 8 * index);
+    }
+
+    /**
+     * Gets the number of extra SIDs, such as universal groups of other domains.
+     *
+     * @return the extra SID count
+     */
+    public int getExtraSidCount() {
+        return this.extraSids.length;
+    }
+
+    /**
+     * Gets an extra SID.
+     *
+     * @param index
+     *            the index, less than the extra SID count
+     * @return a read-only view of the binary SID
+     */
+    public ByteBuffer getExtraSid(final int index) {
+        return this.sid(this.extraSids[index]);
+    }
+
+    /**
+     * Gets the resource group domain SID.
+     *
+     * @return a read-only view of the binary SID, null if none
+     */
+    public ByteBuffer getResourceGroupDomainSid() {
+        return this.resourceGroupDomainSid < 0 ? null : this.sid(this.resourceGroupDomainSid);
+    }
+
+    /**
+     * Gets the number of resource groups.
+     *
+     * @return the resource group count
+     */
+    public int getResourceGroupCount() {
+        return this.resourceGroupCount;
+    }
+
+    /**
+     * Gets the relative id of a resource group in the resource group domain.
+     *
+     * @param index
+     *            the index, less than the resource group count
+     * @return the resource group id
+     */
+    public int getResourceGroupId(final int index) {
+        if (index < 0 || index >= this.resourceGroupCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return this.info.getInt(this.resourceGroupIds + 8 * index);
+    }
+
+    /**
+     * Gets the user SID.
+     *
+     * @return the user SID
+     */
+    public String getUserSid() {
+        return SecurityIdentifiers.toString(this.getDomainSid(), this.getUserId());
+    }
+
+    /**
+     * Gets the primary group SID.
+     *
+     * @return the primary group SID
+     */
+    public String getPrimaryGroupSid() {
+        return SecurityIdentifiers.toString(this.getDomainSid(), this.getPrimaryGroupId());
+    }
+
+    /**
+     * Formats the group SIDs: domain groups, extra SIDs and resource groups.
+     *
+     * @return the group SIDs
+     */
+    public List<String> getGroupSids() {
+        final List<String> groupSids = new ArrayList<>(
+                this.groupCount + this.extraSids.length + this.resourceGroupCount);
+        // format each domain SID once
+        final String domainPrefix = SecurityIdentifiers.toString(this.getDomainSid()) + '-';
+        for (int i = 0; i < this.groupCount; i++) {
+            groupSids.add(domainPrefix + Integer.toUnsignedString(this.getGroupId(i)));
+        }
+        for (int i = 0; i < this.extraSids.length; i++) {
+            groupSids.add(SecurityIdentifiers.toString(this.getExtraSid(i)));
+        }
+        if (this.resourceGroupCount > 0) {
+            final String resourcePrefix = SecurityIdentifiers.toString(this.getResourceGroupDomainSid()) + '-';
+            for (int i = 0; i < this.resourceGroupCount; i++) {
+                groupSids.add(resourcePrefix + Integer.toUnsignedString(this.getResourceGroupId(i)));
+            }
+        }
+        return groupSids;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks on the body of a request that is challenged before its body was read.
+ *
+ * Authentication challenges are sent without reading the request body. The Tomcat valve authenticators run before
+ * the container acknowledges <code>Expect: 100-continue</code>, so they can challenge a client before it sends the
+ * body. A servlet filter cannot: Tomcat's <code>StandardContextValve</code> sends <code>100 Continue</code> before
+ * the filter chain runs, and the client is then already sending the body when it is challenged. Either way, to keep
+ * the connection alive the container has to drain the unread body; that is only worth it for small bodies which were
+ * actually sent.
+ */
+public final class RequestBodyCheck {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestBodyCheck.class);
+
+    /** The Constant MAX_DRAIN_SIZE, the largest unread body drained to keep a connection alive. */
+    public static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+    /**
+     * Checks if the client waits for <code>100 Continue</code> before sending the body.
+     *
+     * @param request
+     *            the request
+     * @return true, if the request has an <code>Expect: 100-continue</code> header
+     */
+    public static boolean isExpectContinue(final HttpServletRequest request) {
+        final String expect = request.getHeader("Expect");
+        return expect != null && "100-continue".equalsIgnoreCase(expect.trim());
+    }
+
+    /**
+     * Checks if the request announces a body.
+     *
+     * @param request
+     *            the request
+     * @return true, if the request has a non-empty or chunked body
+     */
+    public static boolean hasBody(final HttpServletRequest request) {
+        return request.getContentLength() > 0 || request.getHeader("Transfer-Encoding") != null
+                || (request.getContentLength() < 0 && request.getHeader("Content-Length") != null);
+    }
+
+    /**
+     * Checks if the unread body of a challenged request can be drained to keep the connection alive, before the
+     * container acknowledged an <code>Expect: 100-continue</code>.
+     *
+     * @param request
+     *            the request
+     * @return true, if the connection can be kept alive
+     */
+    public static boolean isDrainable(final HttpServletRequest request) {
+        return RequestBodyCheck.isDrainable(request, false);
+    }
+
+    /**
+     * Checks if the unread body of a challenged request can be drained to keep the connection alive. This is not the
+     * case when the client still waits for <code>100 Continue</code>, since it would then either send the body anyway
+     * or the next request, nor when the body is chunked or larger than {@link #MAX_DRAIN_SIZE}.
+     *
+     * @param request
+     *            the request
+     * @param continued
+     *            true if the container already sent <code>100 Continue</code>, as Tomcat does before the filter chain
+     * @return true, if the connection can be kept alive
+     */
+    public static boolean isDrainable(final HttpServletRequest request, final boolean continued) {
+        if (!RequestBodyCheck.hasBody(request)) {
+            return true;
+        }
+        final boolean drainable = (continued || !RequestBodyCheck.isExpectContinue(request))
+                && request.getContentLength() >= 0 && request.getContentLength() <= RequestBodyCheck.MAX_DRAIN_SIZE
+                && request.getHeader("Transfer-Encoding") == null;
+        if (!drainable) {
+            RequestBodyCheck.LOGGER.debug("unread body of {} {} is not drained, content length: {}",
+                    request.getMethod(), request.getRequestURI(), Integer.valueOf(request.getContentLength()));
+        }
+        return drainable;
+    }
+
+    /**
+     * Instantiates a new request body check.
+     */
+    private RequestBodyCheck() {
+        // Prevent Instantiation of object
+    }
+}
@@ -95,24 +95,25 @@ public final class SPNegoMessage {
             return false;
         }
 
-        int lenBytes;
-        int len;
+        int lenBytes = 0;
+        long len;
 
         // Get length of message for additional check.
         if ((message[1] & 0x80) == 0) {
             len = message[1];
         } else {
             lenBytes = message[1] & 0x7f;
+            if (lenBytes == 0 || lenBytes > 4 || message.length < 2 + lenBytes) {
+                return false;
+            }
             len = 0;
-            final int i = 2;
-            while (lenBytes > 0) {
+            for (int i = 2; i < 2 + lenBytes; i++) {
                 len = len << 8;
                 len |= message[i] & 0xff;
-                --lenBytes;
             }
         }
 
-        return len + 2 == message.length;
+        return len + 2 + lenBytes == message.length;
     }
 
     /**
@@ -0,0 +1,156 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure Java security identifier (SID) utility, for identities built without the Windows API.
+ */
+public final class SecurityIdentifiers {
+
+    /** The Constant NULL_SID, of identities whose SID is unknown. */
+    public static final String NULL_SID = "S-1-0-0";
+
+    /** The Constant ANONYMOUS_SID. */
+    private static final String ANONYMOUS_SID = "S-1-5-7";
+
+    /** The Constant BUILTIN_GUESTS_SID. */
+    private static final String BUILTIN_GUESTS_SID = "S-1-5-32-546";
+
+    /** The Constant DOMAIN_SID_PREFIX. */
+    private static final String DOMAIN_SID_PREFIX = "S-1-5-21-";
+
+    /**
+     * Converts a SID string to its binary form.
+     *
+     * @param sidString
+     *            the SID string, S-R-I-S1-S2...
+     * @return the binary SID
+     * @throws IllegalArgumentException
+     *             if the SID is malformed
+     */
+    public static byte[] toBytes(final String sidString) {
+        final String[] parts = sidString.split("-", -1);
+        if (parts.length < 3 || parts.length > 18 || !"S".equalsIgnoreCase(parts[0])) {
+            throw new IllegalArgumentException("Invalid SID: " + sidString);
+        }
+        final ByteBuffer sid = ByteBuffer.allocate(8 + 4 * (parts.length - 3));
+        sid.put((byte) Integer.parseInt(parts[1]));
+        sid.put((byte) (parts.length - 3));
+        final long authority = Long.parseLong(parts[2]);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            sid.put((byte) (authority >>> shift));
+        }
+        sid.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 3; i < parts.length; i++) {
+            sid.putInt((int) Long.parseLong(parts[i]));
+        }
+        return sid.array();
+    }
+
+    /**
+     * Formats a binary SID.
+     *
+     * @param sid
+     *            the binary SID, from the buffer position; the position is left unchanged
+     * @return the SID string, S-R-I-S1-S2...
+     */
+    public static String toString(final ByteBuffer sid) {
+        return SecurityIdentifiers.append(new StringBuilder(), sid).toString();
+    }
+
+    /**
+     * Formats the SID of an account or group of a domain.
+     *
+     * @param domainSid
+     *            the binary domain SID, from the buffer position; the position is left unchanged
+     * @param relativeId
+     *            the relative id in the domain
+     * @return the SID string, the domain SID followed by the relative id
+     */
+    public static String toString(final ByteBuffer domainSid, final int relativeId) {
+        return SecurityIdentifiers.append(new StringBuilder(), domainSid).append('-')
+                .append(Integer.toUnsignedString(relativeId)).toString();
+    }
+
+    /**
+     * Appends a binary SID in string form.
+     *
+     * @param builder
+     *            the builder
+     * @param sid
+     *            the binary SID, from the buffer position
+     * @return the builder
+     */
+    private static StringBuilder append(final StringBuilder builder, final ByteBuffer sid) {
+        final int offset = sid.position();
+        final int subAuthorityCount = sid.get(offset + 1) & 0xff;
+        long authority = 0;
+        for (int i = 2; i < 8; i++) {
+            authority = (authority << 8) | (sid.get(offset + i) & 0xff);
+        }
+        builder.append("S-").append(sid.get(offset) & 0xff).append('-').append(authority);
+        for (int i = 0; i < subAuthorityCount; i++) {
+            // sub-authorities are little endian, whatever the byte order of the buffer
+            final int index = offset + 8 + 4 * i;
+            final int subAuthority = (sid.get(index) & 0xff) | ((sid.get(index + 1) & 0xff) << 8)
+                    | ((sid.get(index + 2) & 0xff) << 16) | ((sid.get(index + 3) & 0xff) << 24);
+            builder.append('-').append(Integer.toUnsignedString(subAuthority));
+        }
+        return builder;
+    }
+
+    /**
+     * Checks if a user is a guest: the anonymous or a guest account, or a member of the built-in or a domain guests
+     * group.
+     *
+     * @param userSid
+     *            the user SID string
+     * @param groupSids
+     *            the group SID strings
+     * @return true, if a guest
+     */
+    public static boolean isGuest(final String userSid, final Iterable<String> groupSids) {
+        if (SecurityIdentifiers.ANONYMOUS_SID.equals(userSid) || SecurityIdentifiers.isGuestSid(userSid)) {
+            return true;
+        }
+        for (final String groupSid : groupSids) {
+            if (SecurityIdentifiers.isGuestSid(groupSid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a SID is the built-in guests group, a domain guests group or a guest account.
+     *
+     * @param sid
+     *            the SID string
+     * @return true, if a guest SID
+     */
+    private static boolean isGuestSid(final String sid) {
+        if (SecurityIdentifiers.BUILTIN_GUESTS_SID.equals(sid)) {
+            return true;
+        }
+        return sid.startsWith(SecurityIdentifiers.DOMAIN_SID_PREFIX) && (sid.endsWith("-501") || sid.endsWith("-514"));
+    }
+
+    /**
+     * Instantiates a new security identifiers.
+     */
+    private SecurityIdentifiers() {
+        // Prevent Instantiation of object
+    }
+}
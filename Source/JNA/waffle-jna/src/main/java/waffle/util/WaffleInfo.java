@@ -11,6 +11,8 @@
  */
 package waffle.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.sun.jna.Platform;
 import com.sun.jna.platform.WindowUtils;
 import com.sun.jna.platform.win32.LMJoin;
@@ -26,7 +28,12 @@ import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -46,8 +53,9 @@ import waffle.windows.auth.IWindowsAccount;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsComputer;
 import waffle.windows.auth.IWindowsDomain;
+import waffle.windows.auth.WindowsAccount;
 import waffle.windows.auth.impl.WindowsAccountImpl;
-import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
 
 /**
  * A Utility class to read system info to help troubleshoot WAFFLE system configuration.
@@ -80,12 +88,32 @@ import waffle.windows.auth.impl.WindowsAuthProviderImpl;
  * </code>
  * </pre>
  *
+ * To measure how many handshakes per second the host sustains, with 8 threads for 30 seconds, also resolving groups
+ * and looking up an account after each handshake, and write the report as JSON, run:
+ *
+ * <pre>
+ * <code>
+ *   java -cp "..." waffle.util.WaffleInfo -bench -threads 8 -duration 30 -groups -lookup AccountName
+ * </code>
+ * </pre>
+ *
+ * Add <code>-provider</code> with the class name of an {@link IWindowsAuthProvider} with a public no-argument
+ * constructor to measure another provider, such as a simulated one, and <code>-user</code> with the user name its
+ * simulated client sends.
+ *
  */
 public class WaffleInfo {
 
     /** The Constant LOGGER. */
     private static final Logger LOGGER = LoggerFactory.getLogger(WaffleInfo.class);
 
+    /** The Constant LOOKUP_TIMEOUT, how long a lookup is cached in seconds. */
+    public static final int LOOKUP_TIMEOUT = 60;
+
+    /** The Constant LOOKUPS, account lookups shared by all callers, by account name. */
+    private static final Cache<String, Lookup> LOOKUPS = Caffeine.newBuilder()
+            .expireAfterWrite(WaffleInfo.LOOKUP_TIMEOUT, TimeUnit.SECONDS).maximumSize(10000).build();
+
     /**
      * Get a Document with basic system information
      *
@@ -130,7 +158,7 @@ public class WaffleInfo {
      * @return the auth provider info
      */
     protected Element getAuthProviderInfo(final Document doc) {
-        final IWindowsAuthProvider auth = new WindowsAuthProviderImpl();
+        final IWindowsAuthProvider auth = WindowsAuthProviderRegistry.pin();
 
         final Element node = doc.createElement("auth");
         node.setAttribute("class", auth.getClass().getName());
@@ -222,6 +250,23 @@ public class WaffleInfo {
         node.appendChild(value);
     }
 
+    /**
+     * Writes the account info.
+     *
+     * @param writer
+     *            the writer
+     * @param account
+     *            the account
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static void writeAccount(final WaffleInfoWriter writer, final WindowsAccount account) throws IOException {
+        writer.value("Name", account.getName());
+        writer.value("FQN", account.getFqn());
+        writer.value("Domain", account.getDomain());
+        writer.value("SID", account.getSidString());
+    }
+
     /**
      * Gets the lookup info.
      *
@@ -232,7 +277,7 @@ public class WaffleInfo {
      * @return the lookup info
      */
     public Element getLookupInfo(final Document doc, final String lookup) {
-        final IWindowsAuthProvider auth = new WindowsAuthProviderImpl();
+        final IWindowsAuthProvider auth = WindowsAuthProviderRegistry.pin();
         final Element node = doc.createElement("lookup");
         node.setAttribute("name", lookup);
         try {
@@ -243,6 +288,64 @@ public class WaffleInfo {
         return node;
     }
 
+    /**
+     * Captures the sections that do not depend on the request: versions, current user, computer and domains.
+     *
+     * @return the host info
+     */
+    public HostInfo getHostInfo() {
+        return new HostInfo(WindowsAuthProviderRegistry.pin());
+    }
+
+    /**
+     * Writes the lookups of account names, resolving the names missing from the cache shared by all callers.
+     *
+     * @param writer
+     *            the writer
+     * @param names
+     *            the account names
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public void writeLookups(final WaffleInfoWriter writer, final Collection<String> names) throws IOException {
+        if (names.isEmpty()) {
+            return;
+        }
+        final Map<String, Lookup> lookups = new HashMap<>(WaffleInfo.LOOKUPS.getAllPresent(names));
+        for (final String name : names) {
+            if (!lookups.containsKey(name)) {
+                final Lookup lookup = new Lookup(name);
+                lookups.put(name, lookup);
+                WaffleInfo.LOOKUPS.put(name, lookup);
+            }
+        }
+        writer.startArray("lookups", false);
+        for (final String name : names) {
+            lookups.get(name).write(writer);
+        }
+        writer.end();
+    }
+
+    /**
+     * Writes an exception.
+     *
+     * @param writer
+     *            the writer
+     * @param t
+     *            the exception
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public static void writeException(final WaffleInfoWriter writer, final Exception t) throws IOException {
+        writer.startObject("exception");
+        writer.attribute("class", t.getClass().getName());
+        if (t.getMessage() != null) {
+            writer.value("message", t.getMessage());
+        }
+        writer.value("trace", Arrays.toString(t.getStackTrace()));
+        writer.end();
+    }
+
     /**
      * Gets the exception.
      *
@@ -296,11 +399,14 @@ public class WaffleInfo {
      * Print system information.
      *
      * @param args
-     *            variable arguments to pass to main. Valid values are "-show" and "-lookup".
+     *            variable arguments to pass to main. Valid values are "-show" and "-lookup", and "-bench" with its
+     *            options "-threads", "-duration", "-groups", "-provider", "-package", "-target" and "-user".
      */
     public static void main(final String[] args) {
         boolean show = false;
+        boolean bench = false;
         final List<String> lookup = new ArrayList<>();
+        final Map<String, String> options = new HashMap<>();
         if (args != null) {
             String arg;
             for (int i = 0; i < args.length; i++) {
@@ -313,6 +419,20 @@ public class WaffleInfo {
                         case "-lookup":
                             lookup.add(args[++i]);
                             break;
+                        case "-bench":
+                            bench = true;
+                            break;
+                        case "-groups":
+                            options.put(arg, Boolean.TRUE.toString());
+                            break;
+                        case "-threads":
+                        case "-duration":
+                        case "-provider":
+                        case "-package":
+                        case "-target":
+                        case "-user":
+                            options.put(arg, args[++i]);
+                            break;
                         default:
                             WaffleInfo.LOGGER.error("Unknown Argument: {}", arg);
                             throw new RuntimeException("Unknown Argument: " + arg);
@@ -321,6 +441,16 @@ public class WaffleInfo {
             }
         }
 
+        if (bench) {
+            try {
+                WaffleInfo.LOGGER.info(WaffleInfo.bench(options, lookup));
+            } catch (final IOException e) {
+                WaffleInfo.LOGGER.error(e.getMessage());
+                WaffleInfo.LOGGER.trace("", e);
+            }
+            return;
+        }
+
         final WaffleInfo helper = new WaffleInfo();
         try {
             final Document info = helper.getWaffleInfo();
@@ -342,4 +472,217 @@ public class WaffleInfo {
             WaffleInfo.LOGGER.trace("", e);
         }
     }
+
+    /**
+     * Runs a {@link CapacityProbe} with the command line options.
+     *
+     * @param options
+     *            the probe options, by command line argument
+     * @param lookup
+     *            the account names to look up after each handshake
+     * @return the report, as JSON
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    static String bench(final Map<String, String> options, final List<String> lookup) throws IOException {
+        final IWindowsAuthProvider provider;
+        final String providerClass = options.get("-provider");
+        if (providerClass == null) {
+            provider = WindowsAuthProviderRegistry.pin();
+        } else {
+            try {
+                provider = Class.forName(providerClass).asSubclass(IWindowsAuthProvider.class).getDeclaredConstructor()
+                        .newInstance();
+            } catch (final ReflectiveOperationException | ClassCastException e) {
+                throw new RuntimeException("Invalid provider: " + providerClass, e);
+            }
+        }
+        final CapacityProbe probe = new CapacityProbe(provider);
+        if (options.containsKey("-threads")) {
+            probe.setThreads(Integer.parseInt(options.get("-threads")));
+        }
+        if (options.containsKey("-duration")) {
+            probe.setDuration(Integer.parseInt(options.get("-duration")));
+        }
+        if (options.containsKey("-package")) {
+            probe.setSecurityPackage(options.get("-package"));
+        }
+        if (options.containsKey("-target")) {
+            probe.setTargetName(options.get("-target"));
+        }
+        if (options.containsKey("-user")) {
+            probe.setUser(options.get("-user"));
+        }
+        probe.setGroups(options.containsKey("-groups"));
+        probe.setLookups(lookup);
+
+        final StringWriter json = new StringWriter();
+        probe.run(WaffleInfoWriter.json(json));
+        return json.toString();
+    }
+
+    /**
+     * The sections of Waffle info that do not depend on the request, captured once.
+     */
+    public static final class HostInfo {
+
+        /** The versions, waffle, jna and jna-platform. */
+        private final String[] versions = { WaffleInfo.class.getPackage().getImplementationVersion(),
+                Platform.class.getPackage().getImplementationVersion(),
+                WindowUtils.class.getPackage().getImplementationVersion() };
+
+        /** The auth provider class. */
+        private final String authClass;
+
+        /** The current user. */
+        private final WindowsAccount currentUser;
+
+        /** The computer name. */
+        private final String computerName;
+
+        /** The member of. */
+        private final String memberOf;
+
+        /** The join status. */
+        private final String joinStatus;
+
+        /** The local groups. */
+        private final List<String> groups;
+
+        /** The domains, null when not joined to a domain. */
+        private final List<String[]> domains;
+
+        /**
+         * Captures the host info.
+         *
+         * @param auth
+         *            the auth provider
+         */
+        HostInfo(final IWindowsAuthProvider auth) {
+            this.authClass = auth.getClass().getName();
+            this.currentUser = new WindowsAccount(new WindowsAccountImpl(WindowsAccountImpl.getCurrentUsername()));
+            final IWindowsComputer computer = auth.getCurrentComputer();
+            this.computerName = computer.getComputerName();
+            this.memberOf = computer.getMemberOf();
+            this.joinStatus = computer.getJoinStatus();
+            this.groups = Collections.unmodifiableList(Arrays.asList(computer.getGroups()));
+            if (Netapi32Util.getJoinStatus() == LMJoin.NETSETUP_JOIN_STATUS.NetSetupDomainName) {
+                final List<String[]> trusts = new ArrayList<>();
+                for (final IWindowsDomain domain : auth.getDomains()) {
+                    trusts.add(new String[] { domain.getFqn(), domain.getTrustTypeString(),
+                            domain.getTrustDirectionString() });
+                }
+                this.domains = Collections.unmodifiableList(trusts);
+            } else {
+                this.domains = null;
+            }
+        }
+
+        /**
+         * Writes the versions, as attributes of the root object.
+         *
+         * @param writer
+         *            the writer
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        public void writeVersions(final WaffleInfoWriter writer) throws IOException {
+            writer.attribute("version", this.versions[0]);
+            writer.attribute("jna", this.versions[1]);
+            writer.attribute("jna-platform", this.versions[2]);
+        }
+
+        /**
+         * Writes the auth provider section, with the current user, computer and domains.
+         *
+         * @param writer
+         *            the writer
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        public void writeAuth(final WaffleInfoWriter writer) throws IOException {
+            writer.startObject("auth");
+            writer.attribute("class", this.authClass);
+            writer.startObject("currentUser");
+            WaffleInfo.writeAccount(writer, this.currentUser);
+            writer.end();
+
+            writer.startObject("computer");
+            writer.value("computerName", this.computerName);
+            writer.value("memberOf", this.memberOf);
+            writer.value("joinStatus", this.joinStatus);
+            writer.startArray("groups", true);
+            for (final String group : this.groups) {
+                writer.value("group", group);
+            }
+            writer.end();
+            writer.end();
+
+            if (this.domains != null) {
+                writer.startArray("domains", true);
+                for (final String[] domain : this.domains) {
+                    writer.startObject("domain");
+                    writer.value("FQN", domain[0]);
+                    writer.value("TrustTypeString", domain[1]);
+                    writer.value("TrustDirectionString", domain[2]);
+                    writer.end();
+                }
+                writer.end();
+            }
+            writer.end();
+        }
+    }
+
+    /**
+     * The lookup of an account name, the account found or the error.
+     */
+    private static final class Lookup {
+
+        /** The name. */
+        private final String name;
+
+        /** The account, null when the lookup failed. */
+        private final WindowsAccount account;
+
+        /** The error. */
+        private final Win32Exception error;
+
+        /**
+         * Looks an account name up.
+         *
+         * @param name
+         *            the name
+         */
+        Lookup(final String name) {
+            this.name = name;
+            WindowsAccount found = null;
+            Win32Exception failure = null;
+            try {
+                found = new WindowsAccount(WindowsAuthProviderRegistry.pin().lookupAccount(name));
+            } catch (final Win32Exception e) {
+                failure = e;
+            }
+            this.account = found;
+            this.error = failure;
+        }
+
+        /**
+         * Writes the lookup.
+         *
+         * @param writer
+         *            the writer
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        void write(final WaffleInfoWriter writer) throws IOException {
+            writer.startObject("lookup");
+            writer.attribute("name", this.name);
+            if (this.account != null) {
+                WaffleInfo.writeAccount(writer, this.account);
+            } else {
+                WaffleInfo.writeException(writer, this.error);
+            }
+            writer.end();
+        }
+    }
 }
@@ -0,0 +1,445 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes Waffle info as it is produced, without building a document, either as indented XML through StAX or as JSON.
+ *
+ * Objects become XML elements and JSON objects, attributes become XML attributes and JSON members, and values become
+ * XML elements with text content and JSON string members. The items of an array are written with the same calls as
+ * object members; they become repeated XML elements, wrapped in an element named after the array unless unwrapped,
+ * and the elements of a JSON array.
+ */
+public abstract class WaffleInfoWriter {
+
+    /** The Constant XML_CONTENT_TYPE. */
+    public static final String XML_CONTENT_TYPE = "application/xml";
+
+    /** The Constant JSON_CONTENT_TYPE. */
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    /**
+     * Creates an XML writer.
+     *
+     * @param writer
+     *            the underlying writer
+     * @return the info writer
+     * @throws IOException
+     *             when the writer cannot be created
+     */
+    public static WaffleInfoWriter xml(final Writer writer) throws IOException {
+        try {
+            return new Xml(XMLOutputFactory.newInstance().createXMLStreamWriter(writer));
+        } catch (final XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a JSON writer.
+     *
+     * @param writer
+     *            the underlying writer
+     * @return the info writer
+     */
+    public static WaffleInfoWriter json(final Writer writer) {
+        return new Json(writer);
+    }
+
+    /**
+     * Gets the content type written.
+     *
+     * @return the content type
+     */
+    public abstract String getContentType();
+
+    /**
+     * Starts the document with its root object.
+     *
+     * @param name
+     *            the root name
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void startDocument(String name) throws IOException;
+
+    /**
+     * Starts an object.
+     *
+     * @param name
+     *            the name
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void startObject(String name) throws IOException;
+
+    /**
+     * Starts an array.
+     *
+     * @param name
+     *            the name
+     * @param wrapped
+     *            whether the XML items are wrapped in an element named after the array
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void startArray(String name, boolean wrapped) throws IOException;
+
+    /**
+     * Writes an attribute of the current object, before any of its members.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value, skipped when null
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void attribute(String name, String value) throws IOException;
+
+    /**
+     * Writes a value.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the value, may be null
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void value(String name, String value) throws IOException;
+
+    /**
+     * Writes a numeric value, unquoted in JSON.
+     *
+     * @param name
+     *            the name
+     * @param value
+     *            the finite value, may be null
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void number(String name, Number value) throws IOException;
+
+    /**
+     * Ends the current object or array.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void end() throws IOException;
+
+    /**
+     * Ends the document and flushes it, leaving the underlying writer open.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public abstract void endDocument() throws IOException;
+
+    /**
+     * Writes indented XML with a {@link XMLStreamWriter}.
+     */
+    private static final class Xml extends WaffleInfoWriter {
+
+        /** The writer. */
+        private final XMLStreamWriter writer;
+
+        /** Whether each open element is written, false for unwrapped arrays. */
+        private final Deque<Boolean> written = new ArrayDeque<>();
+
+        /** The depth of the written open elements. */
+        private int depth;
+
+        /** Whether the current element has child elements. */
+        private boolean children;
+
+        /**
+         * Instantiates a new xml writer.
+         *
+         * @param writer
+         *            the writer
+         */
+        Xml(final XMLStreamWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public String getContentType() {
+            return WaffleInfoWriter.XML_CONTENT_TYPE;
+        }
+
+        @Override
+        public void startDocument(final String name) throws IOException {
+            try {
+                this.writer.writeStartDocument("UTF-8", "1.0");
+                this.writer.writeCharacters("\n");
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+            this.startObject(name);
+        }
+
+        @Override
+        public void startObject(final String name) throws IOException {
+            this.startElement(name);
+            this.written.push(Boolean.TRUE);
+        }
+
+        @Override
+        public void startArray(final String name, final boolean wrapped) throws IOException {
+            if (wrapped) {
+                this.startElement(name);
+            }
+            this.written.push(Boolean.valueOf(wrapped));
+        }
+
+        @Override
+        public void attribute(final String name, final String value) throws IOException {
+            if (value != null) {
+                try {
+                    this.writer.writeAttribute(name, value);
+                } catch (final XMLStreamException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        @Override
+        public void value(final String name, final String value) throws IOException {
+            try {
+                this.indent();
+                this.writer.writeStartElement(name);
+                if (value != null) {
+                    this.writer.writeCharacters(value);
+                }
+                this.writer.writeEndElement();
+                this.children = true;
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void number(final String name, final Number value) throws IOException {
+            this.value(name, value == null ? null : value.toString());
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (this.written.pop().booleanValue()) {
+                this.depth--;
+                try {
+                    if (this.children) {
+                        this.indent();
+                    }
+                    this.writer.writeEndElement();
+                } catch (final XMLStreamException e) {
+                    throw new IOException(e);
+                }
+            }
+            this.children = true;
+        }
+
+        @Override
+        public void endDocument() throws IOException {
+            while (!this.written.isEmpty()) {
+                this.end();
+            }
+            try {
+                this.writer.writeEndDocument();
+                this.writer.writeCharacters("\n");
+                this.writer.flush();
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Starts an element.
+         *
+         * @param name
+         *            the name
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private void startElement(final String name) throws IOException {
+            try {
+                if (this.depth > 0) {
+                    this.indent();
+                }
+                this.writer.writeStartElement(name);
+            } catch (final XMLStreamException e) {
+                throw new IOException(e);
+            }
+            this.depth++;
+            this.children = false;
+        }
+
+        /**
+         * Writes a new line and the indentation of the current depth.
+         *
+         * @throws XMLStreamException
+         *             the XML stream exception
+         */
+        private void indent() throws XMLStreamException {
+            final StringBuilder indentation = new StringBuilder("\n");
+            for (int i = 0; i < this.depth; i++) {
+                indentation.append("  ");
+            }
+            this.writer.writeCharacters(indentation.toString());
+        }
+    }
+
+    /**
+     * Writes compact JSON.
+     */
+    private static final class Json extends WaffleInfoWriter {
+
+        /** The writer. */
+        private final Writer writer;
+
+        /** Whether each open object or array is an array. */
+        private final Deque<Boolean> arrays = new ArrayDeque<>();
+
+        /** Whether the current object or array has no member yet. */
+        private boolean first = true;
+
+        /**
+         * Instantiates a new json writer.
+         *
+         * @param writer
+         *            the writer
+         */
+        Json(final Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public String getContentType() {
+            return WaffleInfoWriter.JSON_CONTENT_TYPE;
+        }
+
+        @Override
+        public void startDocument(final String name) throws IOException {
+            this.writer.write('{');
+            this.arrays.push(Boolean.FALSE);
+        }
+
+        @Override
+        public void startObject(final String name) throws IOException {
+            this.member(name);
+            this.writer.write('{');
+            this.arrays.push(Boolean.FALSE);
+            this.first = true;
+        }
+
+        @Override
+        public void startArray(final String name, final boolean wrapped) throws IOException {
+            this.member(name);
+            this.writer.write('[');
+            this.arrays.push(Boolean.TRUE);
+            this.first = true;
+        }
+
+        @Override
+        public void attribute(final String name, final String value) throws IOException {
+            if (value != null) {
+                this.value(name, value);
+            }
+        }
+
+        @Override
+        public void value(final String name, final String value) throws IOException {
+            this.member(name);
+            if (value == null) {
+                this.writer.write("null");
+            } else {
+                this.string(value);
+            }
+        }
+
+        @Override
+        public void number(final String name, final Number value) throws IOException {
+            this.member(name);
+            this.writer.write(String.valueOf(value));
+        }
+
+        @Override
+        public void end() throws IOException {
+            this.writer.write(this.arrays.pop().booleanValue() ? ']' : '}');
+            this.first = false;
+        }
+
+        @Override
+        public void endDocument() throws IOException {
+            while (!this.arrays.isEmpty()) {
+                this.end();
+            }
+            this.writer.write('\n');
+            this.writer.flush();
+        }
+
+        /**
+         * Writes the separator and, within an object, the name of a member.
+         *
+         * @param name
+         *            the name
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private void member(final String name) throws IOException {
+            if (!this.first) {
+                this.writer.write(',');
+            }
+            this.first = false;
+            if (!this.arrays.peek().booleanValue()) {
+                this.string(name);
+                this.writer.write(':');
+            }
+        }
+
+        /**
+         * Writes a quoted and escaped string.
+         *
+         * @param value
+         *            the value
+         * @throws IOException
+         *             Signals that an I/O exception has occurred.
+         */
+        private void string(final String value) throws IOException {
+            this.writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    this.writer.write('\\');
+                    this.writer.write(c);
+                } else if (c < 0x20) {
+                    this.writer.write(String.format("\\u%04x", Integer.valueOf(c)));
+                } else {
+                    this.writer.write(c);
+                }
+            }
+            this.writer.write('"');
+        }
+    }
+
+}
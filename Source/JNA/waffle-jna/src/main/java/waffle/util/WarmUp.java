@@ -0,0 +1,323 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.sun.jna.platform.win32.Advapi32;
+import com.sun.jna.platform.win32.Netapi32;
+import com.sun.jna.platform.win32.Secur32;
+import com.sun.jna.platform.win32.Sspi;
+import com.sun.jna.platform.win32.SspiUtil.ManagedSecBufferDesc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsCredentialsHandle;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.impl.WindowsAccountImpl;
+import waffle.windows.auth.impl.WindowsCredentialsHandleImpl;
+import waffle.windows.auth.impl.WindowsSecurityContextImpl;
+
+/**
+ * Warms up the native authentication stack before the first request.
+ *
+ * Loads the JNA libraries, acquires inbound credentials, runs a loopback handshake with the current user for each
+ * security package and resolves a list of groups, so that the first authenticated request does not pay for them. The
+ * warm-up runs on a daemon thread and exposes a readiness flag, which can be answered to load balancer health checks
+ * with {@link #sendReadiness(HttpServletResponse, boolean)}. The warm-up is only ready once it succeeded: a failure
+ * is logged and kept, so that a node whose native authentication stack is broken is not reported ready.
+ */
+public class WarmUp implements Runnable {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+
+    /** The auth. */
+    private final IWindowsAuthProvider auth;
+
+    /** The security packages. */
+    private Collection<String> securityPackages = Collections.singletonList("Negotiate");
+
+    /** The groups. */
+    private Collection<String> groups = Collections.emptyList();
+
+    /** The ready, once the warm-up succeeded. */
+    private volatile boolean ready;
+
+    /** The stopped. */
+    private volatile boolean stopped;
+
+    /** The thread, null unless started. */
+    private volatile Thread thread;
+
+    /** The failure. */
+    private volatile Throwable failure;
+
+    /** The elapsed time in milliseconds. */
+    private volatile long elapsed;
+
+    /**
+     * Instantiates a new warm up.
+     *
+     * @param windowsAuthProvider
+     *            the windows auth provider
+     */
+    public WarmUp(final IWindowsAuthProvider windowsAuthProvider) {
+        this.auth = windowsAuthProvider;
+    }
+
+    /**
+     * Runs the warm-up on a daemon thread.
+     *
+     * @return the thread
+     */
+    public Thread start() {
+        final Thread warmUpThread = new Thread(this, "waffle-warm-up");
+        warmUpThread.setDaemon(true);
+        this.thread = warmUpThread;
+        warmUpThread.start();
+        return warmUpThread;
+    }
+
+    /**
+     * Stops the warm-up, which does not become ready. A native call in progress completes, the remaining steps are
+     * skipped.
+     */
+    public void stop() {
+        this.stopped = true;
+        final Thread warmUpThread = this.thread;
+        if (warmUpThread != null) {
+            warmUpThread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        final long start = System.currentTimeMillis();
+        try {
+            if (this.isStopped()) {
+                return;
+            }
+            WarmUp.LOGGER.debug("loading native libraries");
+            Objects.requireNonNull(Secur32.INSTANCE);
+            Objects.requireNonNull(Advapi32.INSTANCE);
+            Objects.requireNonNull(Netapi32.INSTANCE);
+
+            for (final String securityPackage : this.securityPackages) {
+                if (this.isStopped()) {
+                    return;
+                }
+                WarmUp.LOGGER.debug("acquiring inbound credentials for {}", securityPackage);
+                final IWindowsCredentialsHandle credentials = new WindowsCredentialsHandleImpl(null,
+                        Sspi.SECPKG_CRED_INBOUND, securityPackage);
+                credentials.initialize();
+                credentials.dispose();
+                this.handshake(securityPackage);
+            }
+
+            for (final String group : this.groups) {
+                if (this.isStopped()) {
+                    return;
+                }
+                WarmUp.LOGGER.debug("resolving {}", group);
+                this.auth.lookupAccount(group);
+            }
+            this.elapsed = System.currentTimeMillis() - start;
+            this.ready = true;
+            WarmUp.LOGGER.info("warm-up completed in {} ms", Long.valueOf(this.elapsed));
+        } catch (final RuntimeException | LinkageError e) {
+            this.elapsed = System.currentTimeMillis() - start;
+            this.failure = e;
+            WarmUp.LOGGER.warn("warm-up failed after {} ms: {}", Long.valueOf(this.elapsed), e.getMessage());
+            WarmUp.LOGGER.trace("", e);
+        }
+    }
+
+    /**
+     * Checks if the warm-up was stopped.
+     *
+     * @return true, if stopped
+     */
+    private boolean isStopped() {
+        if (this.stopped) {
+            WarmUp.LOGGER.debug("warm-up stopped");
+        }
+        return this.stopped;
+    }
+
+    /**
+     * Runs a loopback handshake with the current user.
+     *
+     * @param securityPackage
+     *            the security package
+     */
+    private void handshake(final String securityPackage) {
+        WarmUp.LOGGER.debug("loopback {} handshake", securityPackage);
+        final String targetName = WindowsAccountImpl.getCurrentUsername();
+        final String connectionId = "waffle-warm-up-" + securityPackage;
+        IWindowsSecurityContext clientContext = null;
+        IWindowsSecurityContext serverContext = null;
+        try {
+            clientContext = WindowsSecurityContextImpl.getCurrent(securityPackage, targetName);
+            do {
+                serverContext = this.auth.acceptSecurityToken(connectionId, clientContext.getToken(),
+                        securityPackage);
+                if (serverContext.isContinue()) {
+                    clientContext.initialize(clientContext.getHandle(),
+                            new ManagedSecBufferDesc(Sspi.SECBUFFER_TOKEN, serverContext.getToken()), targetName);
+                }
+            } while (serverContext.isContinue());
+
+            // resolve the groups of the current user to warm up the LSA lookup cache
+            final IWindowsIdentity identity = serverContext.getIdentity();
+            try {
+                identity.getGroups();
+            } finally {
+                identity.dispose();
+            }
+        } finally {
+            this.auth.resetSecurityToken(connectionId);
+            if (serverContext != null) {
+                serverContext.dispose();
+            }
+            if (clientContext != null) {
+                clientContext.dispose();
+            }
+        }
+    }
+
+    /**
+     * Checks if a request is a readiness check.
+     *
+     * @param request
+     *            the request
+     * @param readinessPath
+     *            the readiness path within the context, null if disabled
+     * @return true, if the request targets the readiness path
+     */
+    public static boolean isReadinessRequest(final HttpServletRequest request, final String readinessPath) {
+        if (readinessPath == null || request.getRequestURI() == null) {
+            return false;
+        }
+        final String contextPath = request.getContextPath() == null ? "" : request.getContextPath();
+        return request.getRequestURI().equals(contextPath + readinessPath);
+    }
+
+    /**
+     * Answers a readiness check with <code>200</code> once the warm-up succeeded, <code>503</code> before or when it
+     * failed.
+     *
+     * @param response
+     *            the response
+     * @param ready
+     *            whether the warm-up succeeded
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public static void sendReadiness(final HttpServletResponse response, final boolean ready) throws IOException {
+        final byte[] body = (ready ? "ready" : "not ready").getBytes(StandardCharsets.US_ASCII);
+        response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Cache-Control", "no-store");
+        response.setContentType("text/plain");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.flushBuffer();
+    }
+
+    /**
+     * Checks if the warm-up succeeded.
+     *
+     * @return true, if ready
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * Gets the failure of the warm-up.
+     *
+     * @return the failure, null if the warm-up succeeded or did not complete yet
+     */
+    public Throwable getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Gets the elapsed time.
+     *
+     * @return how long, in milliseconds, the warm-up took
+     */
+    public long getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * Gets the security packages.
+     *
+     * @return the security packages
+     */
+    public Collection<String> getSecurityPackages() {
+        return this.securityPackages;
+    }
+
+    /**
+     * Sets the security packages handshakes are run for.
+     *
+     * @param value
+     *            the security packages, eg. Negotiate and NTLM
+     */
+    public void setSecurityPackages(final Collection<String> value) {
+        this.securityPackages = value;
+    }
+
+    /**
+     * Gets the groups.
+     *
+     * @return the groups
+     */
+    public Collection<String> getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Sets the groups resolved during the warm-up.
+     *
+     * @param value
+     *            the group names
+     */
+    public void setGroups(final Collection<String> value) {
+        this.groups = value;
+    }
+
+    /**
+     * Sets the groups resolved during the warm-up.
+     *
+     * @param value
+     *            the group names, whitespace or comma separated
+     */
+    public void setGroups(final String value) {
+        this.groups = Arrays.asList(value.trim().split("[\\s,]+"));
+    }
+
+}
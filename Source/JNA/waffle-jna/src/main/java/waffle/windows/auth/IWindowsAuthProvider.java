@@ -119,4 +119,14 @@ public interface IWindowsAuthProvider {
      *            Connection id.
      */
     void resetSecurityToken(final String connectionId);
+
+    /**
+     * Returns true if this provider accepts security tokens without the Windows API, and can therefore run on any
+     * platform. The default implementation returns false.
+     *
+     * @return True if the provider is portable.
+     */
+    default boolean isPortable() {
+        return false;
+    }
 }
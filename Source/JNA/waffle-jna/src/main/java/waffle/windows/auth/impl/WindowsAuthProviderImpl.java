@@ -33,6 +33,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import waffle.windows.auth.IWindowsAccount;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsComputer;
@@ -48,6 +51,9 @@ import waffle.windows.auth.IWindowsSecurityContext;
  */
 public class WindowsAuthProviderImpl implements IWindowsAuthProvider {
 
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsAuthProviderImpl.class);
+
     /** The Continue Context Timeout. */
     public static final int CONTINUE_CONTEXT_TIMEOUT = 30;
 
@@ -228,6 +234,22 @@ public class WindowsAuthProviderImpl implements IWindowsAuthProvider {
         this.continueContexts.asMap().remove(connectionId);
     }
 
+    /**
+     * Disposes the security contexts of pending handshakes and their credentials. Later handshakes start over.
+     */
+    public void dispose() {
+        for (final ContinueContext continueContext : this.continueContexts.asMap().values()) {
+            try {
+                WindowsSecurityContextImpl.dispose(continueContext.continueHandle);
+                continueContext.serverCredential.dispose();
+            } catch (final RuntimeException e) {
+                WindowsAuthProviderImpl.LOGGER.debug("error disposing a pending security context: {}", e.getMessage());
+                WindowsAuthProviderImpl.LOGGER.trace("", e);
+            }
+        }
+        this.continueContexts.invalidateAll();
+    }
+
     /**
      * Number of elements in the continue contexts map.
      *
@@ -0,0 +1,205 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.windows.auth.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+
+/**
+ * A process-wide registry of {@link WindowsAuthProviderImpl}, one for each configuration, so that the integrations of
+ * a process share their providers and the pending security contexts cached by them.
+ *
+ * Integrations with a lifecycle, such as filters and realms, {@link #acquire} a provider when they start and
+ * {@link #release} it when they stop. A provider is disposed when the last reference to it is released. Integrations
+ * without one, such as JAAS login modules, which are created for each login, {@link #pin} the provider instead, which
+ * then lives until {@link #shutdown}.
+ */
+public final class WindowsAuthProviderRegistry {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsAuthProviderRegistry.class);
+
+    /** The Constant REGISTRATIONS, by continue contexts timeout. */
+    private static final Map<Integer, Registration> REGISTRATIONS = new HashMap<>();
+
+    /**
+     * Acquires a reference to the shared provider with the default continue contexts timeout.
+     *
+     * @return the provider
+     */
+    public static WindowsAuthProviderImpl acquire() {
+        return WindowsAuthProviderRegistry.acquire(WindowsAuthProviderImpl.CONTINUE_CONTEXT_TIMEOUT);
+    }
+
+    /**
+     * Acquires a reference to the shared provider with a continue contexts timeout, to {@link #release} when done.
+     *
+     * @param continueContextsTimeout
+     *            the timeout for security contexts in seconds
+     * @return the provider
+     */
+    public static synchronized WindowsAuthProviderImpl acquire(final int continueContextsTimeout) {
+        final Registration registration = WindowsAuthProviderRegistry.register(continueContextsTimeout);
+        registration.references++;
+        return registration.provider;
+    }
+
+    /**
+     * Pins the shared provider with the default continue contexts timeout.
+     *
+     * @return the provider
+     */
+    public static WindowsAuthProviderImpl pin() {
+        return WindowsAuthProviderRegistry.pin(WindowsAuthProviderImpl.CONTINUE_CONTEXT_TIMEOUT);
+    }
+
+    /**
+     * Pins the shared provider with a continue contexts timeout, which keeps it until {@link #shutdown}.
+     *
+     * @param continueContextsTimeout
+     *            the timeout for security contexts in seconds
+     * @return the provider
+     */
+    public static synchronized WindowsAuthProviderImpl pin(final int continueContextsTimeout) {
+        final Registration registration = WindowsAuthProviderRegistry.register(continueContextsTimeout);
+        registration.pinned = true;
+        return registration.provider;
+    }
+
+    /**
+     * Releases a reference to a shared provider, disposing it when it was the last one and the provider is not pinned.
+     * Providers that are not shared are left alone.
+     *
+     * @param provider
+     *            the provider
+     */
+    public static synchronized void release(final IWindowsAuthProvider provider) {
+        final Registration registration = WindowsAuthProviderRegistry.find(provider);
+        if (registration == null || registration.references == 0) {
+            return;
+        }
+        registration.references--;
+        if (registration.references == 0 && !registration.pinned) {
+            WindowsAuthProviderRegistry.REGISTRATIONS.remove(Integer.valueOf(registration.continueContextsTimeout));
+            WindowsAuthProviderRegistry.dispose(registration);
+        }
+    }
+
+    /**
+     * Gets the number of references acquired to a shared provider.
+     *
+     * @param provider
+     *            the provider
+     * @return the number of references, 0 for a provider that is not shared
+     */
+    public static synchronized int getReferenceCount(final IWindowsAuthProvider provider) {
+        final Registration registration = WindowsAuthProviderRegistry.find(provider);
+        return registration == null ? 0 : registration.references;
+    }
+
+    /**
+     * Disposes all shared providers, for example when the application stops. Later acquisitions create new ones.
+     */
+    public static void shutdown() {
+        final List<Registration> registrations;
+        synchronized (WindowsAuthProviderRegistry.class) {
+            registrations = new ArrayList<>(WindowsAuthProviderRegistry.REGISTRATIONS.values());
+            WindowsAuthProviderRegistry.REGISTRATIONS.clear();
+        }
+        for (final Registration registration : registrations) {
+            WindowsAuthProviderRegistry.dispose(registration);
+        }
+    }
+
+    /**
+     * Gets or creates the registration of a configuration.
+     *
+     * @param continueContextsTimeout
+     *            the timeout for security contexts in seconds
+     * @return the registration
+     */
+    private static Registration register(final int continueContextsTimeout) {
+        return WindowsAuthProviderRegistry.REGISTRATIONS.computeIfAbsent(Integer.valueOf(continueContextsTimeout),
+                key -> new Registration(continueContextsTimeout));
+    }
+
+    /**
+     * Finds the registration of a provider.
+     *
+     * @param provider
+     *            the provider
+     * @return the registration, null for a provider that is not shared
+     */
+    private static Registration find(final IWindowsAuthProvider provider) {
+        for (final Registration registration : WindowsAuthProviderRegistry.REGISTRATIONS.values()) {
+            if (registration.provider == provider) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Disposes the provider of a registration.
+     *
+     * @param registration
+     *            the registration
+     */
+    private static void dispose(final Registration registration) {
+        WindowsAuthProviderRegistry.LOGGER.debug("disposing shared provider with a continue contexts timeout of {}s",
+                Integer.valueOf(registration.continueContextsTimeout));
+        registration.provider.dispose();
+    }
+
+    /**
+     * A shared provider and its references.
+     */
+    private static final class Registration {
+
+        /** The continue contexts timeout. */
+        final int continueContextsTimeout;
+
+        /** The provider. */
+        final WindowsAuthProviderImpl provider;
+
+        /** The references. */
+        int references;
+
+        /** The pinned. */
+        boolean pinned;
+
+        /**
+         * Instantiates a new registration.
+         *
+         * @param continueContextsTimeout
+         *            the timeout for security contexts in seconds
+         */
+        Registration(final int continueContextsTimeout) {
+            this.continueContextsTimeout = continueContextsTimeout;
+            this.provider = new WindowsAuthProviderImpl(continueContextsTimeout);
+        }
+    }
+
+    /**
+     * Instantiates a new windows auth provider registry.
+     */
+    private WindowsAuthProviderRegistry() {
+        // Prevent Instantiation of object
+    }
+}
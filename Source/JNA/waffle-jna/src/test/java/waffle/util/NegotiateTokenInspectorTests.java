@@ -0,0 +1,243 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Class NegotiateTokenInspectorTests.
+ */
+public class NegotiateTokenInspectorTests {
+
+    /** The Constant NEG_TOKEN_INIT, captured from a browser, offering NTLM first with a type 1 mechanism token. */
+    private static final String NEG_TOKEN_INIT = "YHYGBisGAQUFAqBsMGqgMDAuBgorBgEEAYI3AgIKBgkqhkiC9xIBAgIGCSqGSIb3"
+            + "EgECAgYKKwYBBAGCNwICHqI2BDROVExNU1NQAAEAAACXsgjiAwADADEAAAAJAAkAKAAAAAYBsR0AAAAPR0xZQ0VSSU5FU0FE";
+
+    /** The Constant NTLM_TYPE1. */
+    private static final String NTLM_TYPE1 = "TlRMTVNTUAABAAAABzIAAAYABgArAAAACwALACAAAABXT1JLU1RBVElPTkRPTUFJTg==";
+
+    /** The Constant NTLM_OID. */
+    private static final byte[] NTLM_OID = { 0x2b, 0x06, 0x01, 0x04, 0x01, (byte) 0x82, 0x37, 0x02, 0x02, 0x0a };
+
+    /**
+     * Test a captured NegTokenInit.
+     */
+    @Test
+    public void testNegTokenInit() {
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        final byte[] token = Base64.getDecoder().decode(NegotiateTokenInspectorTests.NEG_TOKEN_INIT);
+        Assertions.assertTrue(inspector.inspect(token));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.NEG_TOKEN_INIT, inspector.getFormat());
+        Assertions.assertEquals(NegotiateTokenInspector.Mechanism.NTLM, inspector.getMechanism());
+        Assertions.assertEquals(4, inspector.getMechTypeCount());
+        Assertions.assertArrayEquals(NegotiateTokenInspectorTests.NTLM_OID,
+                NegotiateTokenInspectorTests.toBytes(inspector.getMechType(0)));
+        Assertions.assertEquals(9, inspector.getMechType(1).remaining());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> inspector.getMechType(4));
+        Assertions.assertEquals(52, inspector.getMechToken().remaining());
+        Assertions.assertEquals(1, inspector.getNtlmMessageType());
+        Assertions.assertEquals(0xe208b297, inspector.getNtlmFlags());
+        Assertions.assertNull(inspector.getNtlmUserName());
+        Assertions.assertFalse(inspector.isMalformed());
+    }
+
+    /**
+     * Test a raw NTLM negotiate message.
+     */
+    @Test
+    public void testNtlmType1() {
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        Assertions.assertTrue(inspector.inspect(Base64.getDecoder().decode(NegotiateTokenInspectorTests.NTLM_TYPE1)));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.NTLM, inspector.getFormat());
+        Assertions.assertEquals(NegotiateTokenInspector.Mechanism.NTLM, inspector.getMechanism());
+        Assertions.assertEquals(1, inspector.getNtlmMessageType());
+        Assertions.assertEquals(0x3207, inspector.getNtlmFlags());
+        Assertions.assertEquals(0, inspector.getMechTypeCount());
+        Assertions.assertNull(inspector.getMechToken());
+    }
+
+    /**
+     * Test an NTLM authenticate message carried by a NegTokenResp.
+     */
+    @Test
+    public void testNtlmType3InNegTokenResp() {
+        final byte[] type3 = NegotiateTokenInspectorTests.ntlmType3("EXAMPLE", "alice", "WS1");
+        final byte[] token = NegotiateTokenInspectorTests.der(0xa1,
+                NegotiateTokenInspectorTests.der(0x30,
+                        NegotiateTokenInspectorTests.der(0xa0,
+                                NegotiateTokenInspectorTests.der(0x0a, new byte[] { 1 })),
+                        NegotiateTokenInspectorTests.der(0xa1,
+                                NegotiateTokenInspectorTests.der(0x06, NegotiateTokenInspectorTests.NTLM_OID)),
+                        NegotiateTokenInspectorTests.der(0xa2, NegotiateTokenInspectorTests.der(0x04, type3))));
+
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        Assertions.assertTrue(inspector.inspect(token));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.NEG_TOKEN_RESP, inspector.getFormat());
+        Assertions.assertEquals(NegotiateTokenInspector.Mechanism.NTLM, inspector.getMechanism());
+        Assertions.assertEquals(3, inspector.getNtlmMessageType());
+        Assertions.assertEquals("EXAMPLE", inspector.getNtlmDomainName());
+        Assertions.assertEquals("alice", inspector.getNtlmUserName());
+        Assertions.assertEquals("WS1", inspector.getNtlmWorkstationName());
+        Assertions.assertEquals(type3.length, inspector.getNtlmMessage().remaining());
+        Assertions.assertTrue(inspector.toString().contains("EXAMPLE\\alice from WS1"));
+    }
+
+    /**
+     * Test that inspecting views the token without copying it, nor moving the buffer position.
+     */
+    @Test
+    public void testZeroCopy() {
+        final byte[] type3 = NegotiateTokenInspectorTests.ntlmType3("EXAMPLE", "alice", "WS1");
+        final byte[] header = new byte[type3.length + 5];
+        System.arraycopy(type3, 0, header, 5, type3.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(header, 5, type3.length);
+
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        Assertions.assertTrue(inspector.inspect(buffer));
+        Assertions.assertEquals(5, buffer.position());
+        final ByteBuffer user = inspector.getNtlmUser();
+        Assertions.assertTrue(user.isReadOnly());
+        Assertions.assertEquals(10, user.remaining());
+        header[5 + 64 + 14] = 'A';
+        Assertions.assertEquals('A', user.get(0));
+        Assertions.assertEquals("Alice", inspector.getNtlmUserName());
+    }
+
+    /**
+     * Test that malformed tokens of recognized formats are rejected, and unrecognized ones are not.
+     */
+    @Test
+    public void testMalformed() {
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        final byte[] negTokenInit = Base64.getDecoder().decode(NegotiateTokenInspectorTests.NEG_TOKEN_INIT);
+        Assertions.assertFalse(inspector.inspect(Arrays.copyOf(negTokenInit, negTokenInit.length - 1)));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.NEG_TOKEN_INIT, inspector.getFormat());
+        Assertions.assertTrue(inspector.isMalformed());
+
+        // the mechToken claims one more byte than the token holds
+        final byte[] mechTokenLength = negTokenInit.clone();
+        mechTokenLength[67]++;
+        Assertions.assertFalse(inspector.inspect(mechTokenLength));
+
+        // the domain security buffer points past the message
+        final byte[] type3 = NegotiateTokenInspectorTests.ntlmType3("EXAMPLE", "alice", "WS1");
+        type3[32] = (byte) 0xff;
+        Assertions.assertFalse(inspector.inspect(type3));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.NTLM, inspector.getFormat());
+        Assertions.assertNull(inspector.getNtlmDomain());
+
+        Assertions.assertFalse(inspector.inspect(new byte[] { (byte) 0xa1, (byte) 0x84, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, 0x30 }));
+        Assertions.assertFalse(inspector.inspect(Arrays.copyOf("NTLMSSP\0".getBytes(StandardCharsets.US_ASCII), 10)));
+
+        Assertions.assertTrue(inspector.inspect("user".getBytes(StandardCharsets.US_ASCII)));
+        Assertions.assertEquals(NegotiateTokenInspector.Format.UNKNOWN, inspector.getFormat());
+        Assertions.assertTrue(inspector.inspect(new byte[0]));
+    }
+
+    /**
+     * Test that tokens over the max token length are rejected.
+     */
+    @Test
+    public void testOversized() {
+        final byte[] type1 = Base64.getDecoder().decode(NegotiateTokenInspectorTests.NTLM_TYPE1);
+        Assertions.assertFalse(new NegotiateTokenInspector(type1.length - 1).inspect(type1));
+        Assertions.assertTrue(new NegotiateTokenInspector(type1.length).inspect(type1));
+
+        final NegotiateTokenInspector inspector = new NegotiateTokenInspector();
+        Assertions.assertFalse(inspector.inspect(new byte[NegotiateTokenInspector.DEFAULT_MAX_TOKEN_LENGTH + 1]));
+        Assertions.assertTrue(inspector.isOversized());
+        Assertions.assertFalse(inspector.isMalformed());
+    }
+
+    /**
+     * Encodes an NTLM authenticate message, with unicode fields and empty challenge responses.
+     *
+     * @param domain
+     *            the domain
+     * @param user
+     *            the user
+     * @param workstation
+     *            the workstation
+     * @return the message
+     */
+    private static byte[] ntlmType3(final String domain, final String user, final String workstation) {
+        final byte[][] fields = { domain.getBytes(StandardCharsets.UTF_16LE), user.getBytes(StandardCharsets.UTF_16LE),
+                workstation.getBytes(StandardCharsets.UTF_16LE) };
+        final ByteBuffer buffer = ByteBuffer.allocate(64 + fields[0].length + fields[1].length + fields[2].length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("NTLMSSP\0".getBytes(StandardCharsets.US_ASCII)).putInt(3);
+        buffer.putShort((short) 0).putShort((short) 0).putInt(64);
+        buffer.putShort((short) 0).putShort((short) 0).putInt(64);
+        int offset = 64;
+        for (final byte[] field : fields) {
+            buffer.putShort((short) field.length).putShort((short) field.length).putInt(offset);
+            offset += field.length;
+        }
+        buffer.putShort((short) 0).putShort((short) 0).putInt(offset);
+        buffer.putInt(0x00000201);
+        for (final byte[] field : fields) {
+            buffer.put(field);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a DER element.
+     *
+     * @param tag
+     *            the tag
+     * @param contents
+     *            the contents, concatenated
+     * @return the element
+     */
+    private static byte[] der(final int tag, final byte[]... contents) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        final byte[] bytes = out.toByteArray();
+        final ByteArrayOutputStream element = new ByteArrayOutputStream();
+        element.write(tag);
+        if (bytes.length < 0x80) {
+            element.write(bytes.length);
+        } else {
+            element.write(0x82);
+            element.write(bytes.length >> 8);
+            element.write(bytes.length);
+        }
+        element.write(bytes, 0, bytes.length);
+        return element.toByteArray();
+    }
+
+    /**
+     * Copies the content of a buffer.
+     *
+     * @param buffer
+     *            the buffer
+     * @return the bytes
+     */
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,306 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes PACTYPE structures as a domain controller does, a <code>PAC_CLIENT_INFO</code> buffer followed by the NDR
+ * serialized <code>KERB_VALIDATION_INFO</code> of [MS-PAC] 2.5, without signatures.
+ */
+public final class PacFixture {
+
+    /** The Constant REFERENT, a non-null NDR pointer. */
+    private static final int REFERENT = 0x00020000;
+
+    /** The effective name. */
+    private String effectiveName = "alice";
+
+    /** The full name. */
+    private String fullName = "Alice";
+
+    /** The logon server. */
+    private String logonServer = "DC1";
+
+    /** The logon domain name. */
+    private String logonDomainName = "EXAMPLE";
+
+    /** The domain SID. */
+    private String domainSid = "S-1-5-21-1004336348-1177238915-682003330";
+
+    /** The user id. */
+    private int userId = 1105;
+
+    /** The primary group id. */
+    private int primaryGroupId = 513;
+
+    /** The group ids. */
+    private int[] groupIds = { 513, 1106 };
+
+    /** The extra SIDs. */
+    private String[] extraSids = { "S-1-18-1" };
+
+    /** The resource group domain SID. */
+    private String resourceGroupDomainSid;
+
+    /** The resource group ids. */
+    private int[] resourceGroupIds = new int[0];
+
+    /**
+     * Sets the names.
+     *
+     * @param effective
+     *            the effective name
+     * @param domain
+     *            the logon domain name
+     * @return the pac fixture
+     */
+    public PacFixture names(final String effective, final String domain) {
+        this.effectiveName = effective;
+        this.logonDomainName = domain;
+        return this;
+    }
+
+    /**
+     * Sets the user.
+     *
+     * @param sid
+     *            the domain SID
+     * @param user
+     *            the user id
+     * @param primaryGroup
+     *            the primary group id
+     * @return the pac fixture
+     */
+    public PacFixture user(final String sid, final int user, final int primaryGroup) {
+        this.domainSid = sid;
+        this.userId = user;
+        this.primaryGroupId = primaryGroup;
+        return this;
+    }
+
+    /**
+     * Sets the domain groups.
+     *
+     * @param ids
+     *            the group ids
+     * @return the pac fixture
+     */
+    public PacFixture groups(final int... ids) {
+        this.groupIds = ids;
+        return this;
+    }
+
+    /**
+     * Sets the extra SIDs.
+     *
+     * @param sids
+     *            the extra SIDs
+     * @return the pac fixture
+     */
+    public PacFixture extraSids(final String... sids) {
+        this.extraSids = sids;
+        return this;
+    }
+
+    /**
+     * Sets the resource groups.
+     *
+     * @param sid
+     *            the resource group domain SID
+     * @param ids
+     *            the resource group ids
+     * @return the pac fixture
+     */
+    public PacFixture resourceGroups(final String sid, final int... ids) {
+        this.resourceGroupDomainSid = sid;
+        this.resourceGroupIds = ids;
+        return this;
+    }
+
+    /**
+     * Encodes the PAC.
+     *
+     * @return the PACTYPE structure
+     */
+    public byte[] encode() {
+        final byte[] logonInfo = this.encodeLogonInfo();
+        final byte[] clientInfo = new byte[10 + 2 * this.effectiveName.length()];
+        Arrays.fill(clientInfo, 0, 8, (byte) 0x5a);
+        final int clientInfoOffset = 40;
+        final int logonInfoOffset = PacFixture.align(clientInfoOffset + clientInfo.length, 8);
+        final ByteBuffer pac = ByteBuffer.allocate(logonInfoOffset + logonInfo.length).order(ByteOrder.LITTLE_ENDIAN);
+        pac.putInt(2).putInt(0);
+        pac.putInt(10).putInt(clientInfo.length).putLong(clientInfoOffset);
+        pac.putInt(1).putInt(logonInfo.length).putLong(logonInfoOffset);
+        pac.put(clientInfo);
+        pac.position(logonInfoOffset);
+        pac.put(logonInfo);
+        return pac.array();
+    }
+
+    /**
+     * Encodes the <code>PAC_LOGON_INFO</code> buffer.
+     *
+     * @return the buffer
+     */
+    private byte[] encodeLogonInfo() {
+        final ByteBuffer buffer = ByteBuffer
+                .allocate(4096 + 8 * (this.groupIds.length + this.resourceGroupIds.length) + 80 * this.extraSids.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        // common and private type serialization headers, and the referent of the top-level pointer
+        buffer.put(new byte[] { 1, 0x10, 8, 0, (byte) 0xcc, (byte) 0xcc, (byte) 0xcc, (byte) 0xcc });
+        buffer.putInt(0).putInt(0);
+        buffer.putInt(PacFixture.REFERENT);
+
+        final int info = buffer.position();
+        buffer.put(new byte[48]); // logon, logoff, kick off and password times
+        final String[] strings = { this.effectiveName, this.fullName, null, null, null, null };
+        for (final String string : strings) {
+            PacFixture.putUnicodeString(buffer, string);
+        }
+        buffer.putShort((short) 1).putShort((short) 0);
+        buffer.putInt(this.userId).putInt(this.primaryGroupId);
+        buffer.putInt(this.groupIds.length).putInt(this.groupIds.length == 0 ? 0 : PacFixture.REFERENT);
+        buffer.putInt(0x20); // user flags
+        buffer.put(new byte[16]); // user session key
+        PacFixture.putUnicodeString(buffer, this.logonServer);
+        PacFixture.putUnicodeString(buffer, this.logonDomainName);
+        buffer.putInt(PacFixture.REFERENT);
+        buffer.put(new byte[40]); // reserved, account control, sub auth status, interactive logon times and count
+        buffer.putInt(this.extraSids.length).putInt(this.extraSids.length == 0 ? 0 : PacFixture.REFERENT);
+        buffer.putInt(this.resourceGroupDomainSid == null ? 0 : PacFixture.REFERENT);
+        buffer.putInt(this.resourceGroupIds.length).putInt(this.resourceGroupIds.length == 0 ? 0 : PacFixture.REFERENT);
+        if (buffer.position() - info != 216) {
+            throw new IllegalStateException("KERB_VALIDATION_INFO size " + (buffer.position() - info));
+        }
+
+        // deferred pointers
+        for (final String string : strings) {
+            PacFixture.putString(buffer, string);
+        }
+        PacFixture.putGroups(buffer, this.groupIds);
+        PacFixture.putString(buffer, this.logonServer);
+        PacFixture.putString(buffer, this.logonDomainName);
+        PacFixture.putSid(buffer, this.domainSid);
+        if (this.extraSids.length > 0) {
+            PacFixture.align(buffer);
+            buffer.putInt(this.extraSids.length);
+            for (int i = 0; i < this.extraSids.length; i++) {
+                buffer.putInt(PacFixture.REFERENT + 4 * (i + 1)).putInt(7);
+            }
+            for (final String sid : this.extraSids) {
+                PacFixture.putSid(buffer, sid);
+            }
+        }
+        if (this.resourceGroupDomainSid != null) {
+            PacFixture.putSid(buffer, this.resourceGroupDomainSid);
+        }
+        PacFixture.putGroups(buffer, this.resourceGroupIds);
+
+        final int length = PacFixture.align(buffer.position(), 8);
+        buffer.putInt(8, length - 16);
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    /**
+     * Puts the fixed part of an <code>RPC_UNICODE_STRING</code>.
+     *
+     * @param buffer
+     *            the buffer
+     * @param string
+     *            the string, null for a null pointer
+     */
+    private static void putUnicodeString(final ByteBuffer buffer, final String string) {
+        final int length = string == null ? 0 : 2 * string.length();
+        buffer.putShort((short) length).putShort((short) length);
+        buffer.putInt(string == null ? 0 : PacFixture.REFERENT);
+    }
+
+    /**
+     * Puts the deferred buffer of an <code>RPC_UNICODE_STRING</code>.
+     *
+     * @param buffer
+     *            the buffer
+     * @param string
+     *            the string, null for none
+     */
+    private static void putString(final ByteBuffer buffer, final String string) {
+        if (string != null) {
+            PacFixture.align(buffer);
+            buffer.putInt(string.length()).putInt(0).putInt(string.length());
+            buffer.put(string.getBytes(StandardCharsets.UTF_16LE));
+        }
+    }
+
+    /**
+     * Puts a deferred <code>GROUP_MEMBERSHIP</code> array.
+     *
+     * @param buffer
+     *            the buffer
+     * @param ids
+     *            the relative ids, empty for none
+     */
+    private static void putGroups(final ByteBuffer buffer, final int[] ids) {
+        if (ids.length > 0) {
+            PacFixture.align(buffer);
+            buffer.putInt(ids.length);
+            for (final int id : ids) {
+                buffer.putInt(id).putInt(7);
+            }
+        }
+    }
+
+    /**
+     * Puts a deferred <code>RPC_SID</code>.
+     *
+     * @param buffer
+     *            the buffer
+     * @param sid
+     *            the SID string
+     */
+    private static void putSid(final ByteBuffer buffer, final String sid) {
+        final byte[] bytes = SecurityIdentifiers.toBytes(sid);
+        PacFixture.align(buffer);
+        buffer.putInt(bytes[1]);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Aligns a buffer on 4 bytes, with zero padding.
+     *
+     * @param buffer
+     *            the buffer
+     */
+    private static void align(final ByteBuffer buffer) {
+        while (buffer.position() % 4 != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Aligns an offset.
+     *
+     * @param offset
+     *            the offset
+     * @param alignment
+     *            the alignment
+     * @return the aligned offset
+     */
+    private static int align(final int offset, final int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+}
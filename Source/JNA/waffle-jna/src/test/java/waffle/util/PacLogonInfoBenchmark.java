@@ -0,0 +1,111 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures decoding the logon information of PACs of many groups: walking the PAC alone, reading every relative id
+ * through the views, and formatting every group SID as the Kerberos identity does. Run its main method from the test
+ * classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PacLogonInfoBenchmark {
+
+    /** The group count. */
+    @Param({ "10", "1000" })
+    private int groups;
+
+    /** The PAC. */
+    private ByteBuffer pac;
+
+    /**
+     * The main method.
+     *
+     * @param args
+     *            the arguments
+     * @throws RunnerException
+     *             the runner exception
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PacLogonInfoBenchmark.class.getSimpleName()).forks(1)
+                .warmupIterations(3).measurementIterations(5).build()).run();
+    }
+
+    /**
+     * Encodes the PAC, with a tenth of the groups as extra SIDs of another domain.
+     */
+    @Setup
+    public void setup() {
+        final int[] groupIds = new int[this.groups];
+        final String[] extraSids = new String[this.groups / 10];
+        for (int i = 0; i < groupIds.length; i++) {
+            groupIds[i] = 1100 + i;
+        }
+        for (int i = 0; i < extraSids.length; i++) {
+            extraSids[i] = "S-1-5-21-1111111111-2222222222-3333333333-" + (5000 + i);
+        }
+        this.pac = ByteBuffer.wrap(new PacFixture().groups(groupIds).extraSids(extraSids).encode());
+    }
+
+    /**
+     * Decodes the PAC.
+     *
+     * @return the logon info
+     */
+    @Benchmark
+    public PacLogonInfo decode() {
+        return PacLogonInfo.decode(this.pac);
+    }
+
+    /**
+     * Decodes the PAC and reads the relative id of every group.
+     *
+     * @return the sum of the group ids
+     */
+    @Benchmark
+    public int decodeGroupIds() {
+        final PacLogonInfo logonInfo = PacLogonInfo.decode(this.pac);
+        int sum = 0;
+        for (int i = 0; i < logonInfo.getGroupCount(); i++) {
+            sum += logonInfo.getGroupId(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Decodes the PAC and formats every group SID.
+     *
+     * @return the group SIDs
+     */
+    @Benchmark
+    public List<String> decodeGroupSids() {
+        return PacLogonInfo.decode(this.pac).getGroupSids();
+    }
+
+}
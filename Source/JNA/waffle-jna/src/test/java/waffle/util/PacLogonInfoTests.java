@@ -0,0 +1,293 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Class PacLogonInfoTests.
+ */
+public class PacLogonInfoTests {
+
+    /** The Constant DOMAIN_SID. */
+    private static final String DOMAIN_SID = "S-1-5-21-3623811015-3361044348-30300820";
+
+    /** The Constant RESOURCE_DOMAIN_SID. */
+    private static final String RESOURCE_DOMAIN_SID = "S-1-5-21-1111111111-2222222222-3333333333";
+
+    /**
+     * The Constant DC_PAC, a PAC as issued by a domain controller, assembled byte by byte from [MS-PAC] and the NDR
+     * rules of [MS-RPCE] rather than with {@link PacFixture}: incrementing referents, empty strings with non-null
+     * pointers, the logon info first and followed by the client info and the signatures.
+     */
+    private static final byte[] DC_PAC = PacLogonInfoTests.hex(
+            // PACTYPE: 4 buffers, version 0
+            "0400000000000000",
+            // PAC_INFO_BUFFER: PAC_LOGON_INFO
+            "01000000280200004800000000000000",
+            // PAC_INFO_BUFFER: PAC_CLIENT_INFO
+            "0a000000160000007002000000000000",
+            // PAC_INFO_BUFFER: PAC_SERVER_CHECKSUM
+            "06000000140000008802000000000000",
+            // PAC_INFO_BUFFER: PAC_PRIVSVR_CHECKSUM
+            "0700000014000000a002000000000000",
+            // PAC_LOGON_INFO: NDR common type header
+            "01100800cccccccc",
+            // private header: length, filler
+            "1802000000000000",
+            // referent of the KERB_VALIDATION_INFO pointer
+            "00000200",
+            // KERB_VALIDATION_INFO: LogonTime
+            "003e8c2b6a86d501",
+            // LogoffTime, KickOffTime: never
+            "ffffffffffffff7fffffffffffffff7f",
+            // PasswordLastSet, PasswordCanChange
+            "005c7d0b1f7ed50100d42735e87ed501",
+            // PasswordMustChange: never
+            "ffffffffffffff7f",
+            // EffectiveName
+            "0c000c0004000200",
+            // FullName
+            "1800180008000200",
+            // LogonScript
+            "000000000c000200",
+            // ProfilePath
+            "0000000010000200",
+            // HomeDirectory
+            "0000000014000200",
+            // HomeDirectoryDrive
+            "0000000018000200",
+            // LogonCount, BadPasswordCount
+            "2a000000",
+            // UserId 1108, PrimaryGroupId 513
+            "5404000001020000",
+            // GroupCount, GroupIds
+            "030000001c000200",
+            // UserFlags: LOGON_EXTRA_SIDS | LOGON_RESOURCE_GROUPS
+            "20020000",
+            // UserSessionKey
+            "00000000000000000000000000000000",
+            // LogonServer
+            "0800080020000200",
+            // LogonDomainName
+            "0800080024000200",
+            // LogonDomainId
+            "28000200",
+            // Reserved1
+            "0000000000000000",
+            // UserAccountControl: USER_NORMAL_ACCOUNT, SubAuthStatus
+            "1000000000000000",
+            // LastSuccessfulILogon, LastFailedILogon, FailedILogonCount, Reserved3
+            "000000000000000000000000000000000000000000000000",
+            // SidCount, ExtraSids
+            "020000002c000200",
+            // ResourceGroupDomainSid
+            "30000200",
+            // ResourceGroupCount, ResourceGroupIds
+            "0100000034000200",
+            // deferred EffectiveName "rsmith"
+            "060000000000000006000000720073006d00690074006800",
+            // FullName "Robert Smith"
+            "0c000000000000000c00000052006f006200650072007400200053006d006900",
+            "74006800",
+            // LogonScript ""
+            "000000000000000000000000",
+            // ProfilePath ""
+            "000000000000000000000000",
+            // HomeDirectory ""
+            "000000000000000000000000",
+            // HomeDirectoryDrive ""
+            "000000000000000000000000",
+            // GroupIds: 513, 1117, 1118
+            "0300000001020000070000005d040000070000005e04000007000000",
+            // LogonServer "DC01"
+            "0400000000000000040000004400430030003100",
+            // LogonDomainName "CORP"
+            "04000000000000000400000043004f0052005000",
+            // LogonDomainId S-1-5-21-1004336348-1177238915-682003330
+            "04000000010400000000000515000000dcf4dc3b833d2b46828ba628",
+            // ExtraSids
+            "0200000038000200070000003c00020007000000",
+            // S-1-18-1
+            "01000000010100000000001201000000",
+            // S-1-5-21-3623811015-3361044348-30300820-1013
+            "05000000010500000000000515000000c7f7fed77c7755c8945ace01f5030000",
+            // ResourceGroupDomainSid S-1-5-21-1111111111-2222222222-3333333333
+            "04000000010400000000000515000000c7353a428e6b748455a1aec6",
+            // ResourceGroupIds: 1201
+            "01000000b104000007000020",
+            // padding to 8 bytes
+            "00000000",
+            // PAC_CLIENT_INFO: ClientId, NameLength, Name
+            "003e8c2b6a86d5010c00720073006d006900740068000000",
+            // PAC_SERVER_CHECKSUM: KERB_CHECKSUM_HMAC_MD5, zeroed signature
+            "76ffffff0000000000000000000000000000000000000000",
+            // PAC_PRIVSVR_CHECKSUM
+            "76ffffff0000000000000000000000000000000000000000");
+
+    /**
+     * Test decoding the user, domain groups, extra SIDs and resource groups.
+     */
+    @Test
+    public void testDecode() {
+        final byte[] pac = new PacFixture().names("bob", "CONTOSO").user(PacLogonInfoTests.DOMAIN_SID, 1013, 513)
+                .groups(513, 1010, -294967296).extraSids("S-1-18-1", "S-1-5-21-1-2-3-4000")
+                .resourceGroups(PacLogonInfoTests.RESOURCE_DOMAIN_SID, 1201).encode();
+        final PacLogonInfo logonInfo = PacLogonInfo.decode(pac);
+        Assertions.assertEquals("bob", logonInfo.getEffectiveName());
+        Assertions.assertEquals("CONTOSO", logonInfo.getLogonDomainName());
+        Assertions.assertEquals(PacLogonInfoTests.DOMAIN_SID + "-1013", logonInfo.getUserSid());
+        Assertions.assertEquals(PacLogonInfoTests.DOMAIN_SID + "-513", logonInfo.getPrimaryGroupSid());
+        Assertions.assertArrayEquals(SecurityIdentifiers.toBytes(PacLogonInfoTests.DOMAIN_SID),
+                PacLogonInfoTests.toBytes(logonInfo.getDomainSid()));
+        Assertions.assertEquals(3, logonInfo.getGroupCount());
+        Assertions.assertEquals(1010, logonInfo.getGroupId(1));
+        Assertions.assertEquals(2, logonInfo.getExtraSidCount());
+        Assertions.assertEquals("S-1-5-21-1-2-3-4000", SecurityIdentifiers.toString(logonInfo.getExtraSid(1)));
+        Assertions.assertEquals(1, logonInfo.getResourceGroupCount());
+        Assertions.assertEquals(PacLogonInfoTests.RESOURCE_DOMAIN_SID,
+                SecurityIdentifiers.toString(logonInfo.getResourceGroupDomainSid()));
+        final List<String> expected = Arrays.asList(PacLogonInfoTests.DOMAIN_SID + "-513",
+                PacLogonInfoTests.DOMAIN_SID + "-1010", PacLogonInfoTests.DOMAIN_SID + "-4000000000", "S-1-18-1",
+                "S-1-5-21-1-2-3-4000", PacLogonInfoTests.RESOURCE_DOMAIN_SID + "-1201");
+        Assertions.assertEquals(expected, logonInfo.getGroupSids());
+    }
+
+    /**
+     * Test decoding a PAC assembled independently of {@link PacFixture}.
+     */
+    @Test
+    public void testDecodeDomainControllerPac() {
+        final PacLogonInfo logonInfo = PacLogonInfo.decode(PacLogonInfoTests.DC_PAC);
+        final String domainSid = "S-1-5-21-1004336348-1177238915-682003330";
+        Assertions.assertEquals("rsmith", logonInfo.getEffectiveName());
+        Assertions.assertEquals("CORP", logonInfo.getLogonDomainName());
+        Assertions.assertEquals(domainSid + "-1108", logonInfo.getUserSid());
+        Assertions.assertEquals(domainSid + "-513", logonInfo.getPrimaryGroupSid());
+        Assertions.assertEquals(3, logonInfo.getGroupCount());
+        Assertions.assertEquals(2, logonInfo.getExtraSidCount());
+        Assertions.assertEquals(1, logonInfo.getResourceGroupCount());
+        final List<String> expected = Arrays.asList(domainSid + "-513", domainSid + "-1117", domainSid + "-1118",
+                "S-1-18-1", PacLogonInfoTests.DOMAIN_SID + "-1013", PacLogonInfoTests.RESOURCE_DOMAIN_SID + "-1201");
+        Assertions.assertEquals(expected, logonInfo.getGroupSids());
+    }
+
+    /**
+     * Test that decoding views the PAC without copying it, nor moving the buffer position.
+     */
+    @Test
+    public void testZeroCopy() {
+        final int[] groupIds = new int[1000];
+        groupIds[999] = 0x12345678;
+        final byte[] pac = new PacFixture().groups(groupIds).extraSids().encode();
+        final byte[] authorizationData = new byte[pac.length + 7];
+        System.arraycopy(pac, 0, authorizationData, 7, pac.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(authorizationData, 7, pac.length);
+
+        final PacLogonInfo logonInfo = PacLogonInfo.decode(buffer);
+        Assertions.assertEquals(7, buffer.position());
+        Assertions.assertEquals(1000, logonInfo.getGroupCount());
+        Assertions.assertEquals(0, logonInfo.getExtraSidCount());
+        Assertions.assertNull(logonInfo.getResourceGroupDomainSid());
+        Assertions.assertEquals(1000, logonInfo.getGroupSids().size());
+        Assertions.assertTrue(logonInfo.getDomainSid().isReadOnly());
+
+        Assertions.assertEquals(0x12345678, logonInfo.getGroupId(999));
+        final int lastGroup = PacLogonInfoTests.indexOf(authorizationData, new byte[] { 0x78, 0x56, 0x34, 0x12 });
+        authorizationData[lastGroup] = 0x42;
+        Assertions.assertEquals(0x12345642, logonInfo.getGroupId(999));
+    }
+
+    /**
+     * Test PACs without logon info.
+     */
+    @Test
+    public void testNoLogonInfo() {
+        final byte[] pac = new PacFixture().encode();
+        // retype the logon info buffer as a UPN and DNS info buffer
+        pac[24] = 12;
+        Assertions.assertNull(PacLogonInfo.decode(pac));
+    }
+
+    /**
+     * Test that malformed PACs are rejected.
+     */
+    @Test
+    public void testMalformed() {
+        final byte[] pac = new PacFixture().groups(new int[10]).encode();
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PacLogonInfo.decode(Arrays.copyOf(pac, pac.length - 64)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PacLogonInfo.decode(new byte[3]));
+
+        // claim more groups than the array holds
+        final byte[] groups = pac.clone();
+        final int logonInfo = ByteBuffer.wrap(pac).order(ByteOrder.LITTLE_ENDIAN).getInt(32);
+        groups[logonInfo + 20 + 108] = 11;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PacLogonInfo.decode(groups));
+        groups[logonInfo + 20 + 108 + 3] = (byte) 0x80;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PacLogonInfo.decode(groups));
+    }
+
+    /**
+     * Parses hexadecimal bytes.
+     *
+     * @param lines
+     *            the hexadecimal lines
+     * @return the bytes
+     */
+    private static byte[] hex(final String... lines) {
+        final String hex = String.join("", lines);
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies the content of a buffer.
+     *
+     * @param buffer
+     *            the buffer
+     * @return the bytes
+     */
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Finds a pattern.
+     *
+     * @param array
+     *            the array
+     * @param pattern
+     *            the pattern
+     * @return the index of the pattern, -1 if none
+     */
+    private static int indexOf(final byte[] array, final byte[] pattern) {
+        for (int i = 0; i <= array.length - pattern.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(array, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -11,6 +11,8 @@
  */
 package waffle.util;
 
+import java.util.Arrays;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -61,4 +63,20 @@ public class SPNegoMessageTests {
         Assertions.assertFalse(SPNegoMessage.isNegTokenArg(SPNegoMessageTests.negTokenArgTooShort));
         Assertions.assertFalse(SPNegoMessage.isNegTokenArg(SPNegoMessageTests.badMessage));
     }
+
+    /**
+     * Test is neg token arg with long form lengths.
+     */
+    @Test
+    public void testIsNegTokenArgLongLength() {
+        final byte[] negTokenArg = new byte[0x103];
+        negTokenArg[0] = (byte) 0xA1;
+        negTokenArg[1] = (byte) 0x82;
+        negTokenArg[2] = 0x01;
+        negTokenArg[3] = 0x00;
+        negTokenArg[4] = 0x30;
+        Assertions.assertFalse(SPNegoMessage.isNegTokenArg(negTokenArg));
+        Assertions.assertTrue(SPNegoMessage.isNegTokenArg(Arrays.copyOf(negTokenArg, 0x104)));
+        Assertions.assertFalse(SPNegoMessage.isNegTokenArg(Arrays.copyOf(negTokenArg, 3)));
+    }
 }
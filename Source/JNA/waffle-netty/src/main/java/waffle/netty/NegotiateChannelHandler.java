@@ -0,0 +1,578 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.util.NtlmMessage;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.PrincipalFormat;
+
+/**
+ * A Netty handler for Negotiate (Kerberos/NTLM) single sign-on, to be added after the HTTP server codec.
+ *
+ * NTLM authenticates connections, not requests, and the channel is the connection: the handshake, including the
+ * security context of an unfinished one, and the authenticated {@link WindowsPrincipal} are channel attributes. Each
+ * connection is authenticated once; later requests on it pass through without a native call, and the principal is
+ * available to the handlers after this one through {@link #getWindowsPrincipal(Channel)}. An unfinished handshake is
+ * disposed when the channel becomes inactive.
+ *
+ * All calls to the {@link IWindowsAuthProvider} block, so they run on an {@link EventExecutorGroup}, never on the
+ * event loop. Reading from the channel is suspended meanwhile, and the request is held until its leg completes.
+ */
+@Sharable
+public class NegotiateChannelHandler extends ChannelDuplexHandler {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateChannelHandler.class);
+
+    /** The Constant WINDOWS_PRINCIPAL. */
+    public static final AttributeKey<WindowsPrincipal> WINDOWS_PRINCIPAL = AttributeKey
+            .valueOf(NegotiateChannelHandler.class, "windowsPrincipal");
+
+    /** The Constant HANDSHAKE. */
+    static final AttributeKey<NegotiateHandshake> HANDSHAKE = AttributeKey.valueOf(NegotiateChannelHandler.class,
+            "handshake");
+
+    /** The Constant SUPPORTED_PROTOCOLS. */
+    private static final Set<String> SUPPORTED_PROTOCOLS = new LinkedHashSet<>(Arrays.asList("Negotiate", "NTLM"));
+
+    /** The auth. */
+    private final IWindowsAuthProvider auth;
+
+    /** The executor group. */
+    private final EventExecutorGroup executorGroup;
+
+    /** The protocols. */
+    private Set<String> protocols = NegotiateChannelHandler.SUPPORTED_PROTOCOLS;
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /**
+     * Instantiates a new negotiate channel handler.
+     *
+     * @param auth
+     *            the windows auth provider
+     * @param executorGroup
+     *            the executor group the provider calls run on, for example a bounded
+     *            {@link io.netty.util.concurrent.DefaultEventExecutorGroup}
+     */
+    public NegotiateChannelHandler(final IWindowsAuthProvider auth, final EventExecutorGroup executorGroup) {
+        this.auth = auth;
+        this.executorGroup = executorGroup;
+    }
+
+    /**
+     * Gets the principal authenticated on a channel.
+     *
+     * @param channel
+     *            the channel
+     * @return the windows principal, null if the channel is not authenticated
+     */
+    public static WindowsPrincipal getWindowsPrincipal(final Channel channel) {
+        return channel.attr(NegotiateChannelHandler.WINDOWS_PRINCIPAL).get();
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+        final NegotiateHandshake handshake = NegotiateChannelHandler.getHandshake(ctx.channel());
+        if (handshake.isAuthenticating()) {
+            handshake.hold(msg);
+            return;
+        }
+        if (handshake.isDiscarding() && !(msg instanceof HttpRequest)) {
+            // content of a rejected request
+            if (msg instanceof LastHttpContent) {
+                handshake.setDiscarding(false);
+            }
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        handshake.setDiscarding(false);
+        if (!(msg instanceof HttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final HttpRequest request = (HttpRequest) msg;
+        final String authorization = request.headers().get(HttpHeaderNames.AUTHORIZATION);
+        String securityPackage = null;
+        byte[] token = null;
+        if (authorization != null && authorization.indexOf(' ') > 0) {
+            securityPackage = authorization.substring(0, authorization.indexOf(' '));
+            if (this.protocols.contains(securityPackage)) {
+                try {
+                    token = Base64.getDecoder().decode(authorization.substring(securityPackage.length() + 1).trim());
+                } catch (final IllegalArgumentException e) {
+                    NegotiateChannelHandler.LOGGER.warn("invalid {} token: {}", securityPackage, e.getMessage());
+                    handshake.hold(msg);
+                    this.reject(ctx, handshake, request, this.getChallenges(), true);
+                    return;
+                }
+            }
+        }
+
+        final boolean ntlmType1 = token != null && NtlmMessage.isNtlmMessage(token)
+                && NtlmMessage.getMessageType(token) == 1;
+        if (NegotiateChannelHandler.getWindowsPrincipal(ctx.channel()) != null && !ntlmType1) {
+            // connection already authenticated
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        handshake.hold(msg);
+        if (token == null) {
+            NegotiateChannelHandler.LOGGER.debug("authorization required");
+            this.reject(ctx, handshake, request, this.getChallenges(), false);
+            return;
+        }
+        if (ntlmType1) {
+            // type 1 NTLM authentication message starts a new handshake
+            ctx.channel().attr(NegotiateChannelHandler.WINDOWS_PRINCIPAL).set(null);
+        }
+        this.authenticate(ctx, handshake, request, securityPackage, token, ntlmType1);
+    }
+
+    /**
+     * Runs a leg of the handshake on the executor group, holding the messages of the channel until it completes.
+     *
+     * @param ctx
+     *            the context
+     * @param handshake
+     *            the handshake
+     * @param request
+     *            the request
+     * @param securityPackage
+     *            the security package
+     * @param token
+     *            the token
+     * @param restart
+     *            whether the token starts a new handshake
+     */
+    // addListener returns the leg, whose failure onLeg handles
+    @SuppressWarnings("FutureReturnValueIgnored")
+    private void authenticate(final ChannelHandlerContext ctx, final NegotiateHandshake handshake,
+            final HttpRequest request, final String securityPackage, final byte[] token, final boolean restart) {
+        final String connectionId = handshake.getConnectionId();
+        NegotiateChannelHandler.LOGGER.debug("security package: {}, connection id: {}, {} byte(s)", securityPackage,
+                connectionId, Integer.valueOf(token.length));
+        final IWindowsSecurityContext abandoned = restart ? handshake.getContinueContext() : null;
+        if (restart) {
+            handshake.setContinueContext(null);
+        }
+
+        handshake.setAuthenticating(true);
+        ctx.channel().config().setAutoRead(false);
+        final Future<Leg> leg = this.executorGroup.next().submit(() -> {
+            if (restart) {
+                this.auth.resetSecurityToken(connectionId);
+                if (abandoned != null) {
+                    abandoned.dispose();
+                }
+            }
+            return this.runLeg(connectionId, token, securityPackage);
+        });
+        leg.addListener(done -> ctx.executor().execute(() -> this.onLeg(ctx, handshake, request, leg)));
+    }
+
+    /**
+     * Runs a leg of the handshake. Called on the executor group.
+     *
+     * @param connectionId
+     *            the connection id
+     * @param token
+     *            the token
+     * @param securityPackage
+     *            the security package
+     * @return the leg
+     */
+    private Leg runLeg(final String connectionId, final byte[] token, final String securityPackage) {
+        final IWindowsSecurityContext securityContext = this.auth.acceptSecurityToken(connectionId, token,
+                securityPackage);
+        NegotiateChannelHandler.LOGGER.debug("continue required: {}", Boolean.valueOf(securityContext.isContinue()));
+
+        final byte[] continueTokenBytes = securityContext.getToken();
+        final String continueToken = continueTokenBytes == null || continueTokenBytes.length == 0 ? null
+                : securityPackage + " " + Base64.getEncoder().encodeToString(continueTokenBytes);
+        if (securityContext.isContinue()) {
+            return new Leg(securityContext, continueToken, null);
+        }
+
+        final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+        try {
+            NegotiateChannelHandler.LOGGER.debug("logged in user: {} ({})", windowsIdentity.getFqn(),
+                    windowsIdentity.getSidString());
+            if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+                NegotiateChannelHandler.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+                return new Leg(null, continueToken, null);
+            }
+            final WindowsPrincipal windowsPrincipal = new WindowsPrincipal(windowsIdentity, this.principalFormat,
+                    this.roleFormat);
+            NegotiateChannelHandler.LOGGER.debug("roles: {}", windowsPrincipal.getRolesString());
+            return new Leg(null, continueToken, windowsPrincipal);
+        } finally {
+            windowsIdentity.dispose();
+            securityContext.dispose();
+        }
+    }
+
+    /**
+     * Completes a leg of the handshake. Called on the event loop.
+     *
+     * @param ctx
+     *            the context
+     * @param handshake
+     *            the handshake
+     * @param request
+     *            the request
+     * @param future
+     *            the leg
+     */
+    private void onLeg(final ChannelHandlerContext ctx, final NegotiateHandshake handshake,
+            final HttpRequest request, final Future<Leg> future) {
+        handshake.setAuthenticating(false);
+        final Leg leg = future.getNow();
+
+        if (!ctx.channel().isActive()) {
+            handshake.releaseHeldMessages();
+            if (leg != null && leg.continueContext != null) {
+                this.abandon(handshake.getConnectionId(), leg.continueContext);
+            }
+            return;
+        }
+        ctx.channel().config().setAutoRead(true);
+
+        if (leg == null) {
+            // the provider releases the handshake on errors
+            NegotiateChannelHandler.LOGGER.warn("error logging in user: {}", future.cause().getMessage());
+            NegotiateChannelHandler.LOGGER.trace("", future.cause());
+            handshake.setContinueContext(null);
+            this.reject(ctx, handshake, request, this.getChallenges(), true);
+            return;
+        }
+
+        if (leg.continueContext != null) {
+            handshake.setContinueContext(leg.continueContext);
+            this.reject(ctx, handshake, request,
+                    leg.token == null ? this.getChallenges() : Collections.singletonList(leg.token), false);
+            return;
+        }
+
+        handshake.setContinueContext(null);
+        if (leg.windowsPrincipal == null) {
+            this.reject(ctx, handshake, request, this.getChallenges(), true);
+            return;
+        }
+
+        NegotiateChannelHandler.LOGGER.info("successfully logged in user: {}", leg.windowsPrincipal.getName());
+        ctx.channel().attr(NegotiateChannelHandler.WINDOWS_PRINCIPAL).set(leg.windowsPrincipal);
+        handshake.setMutualToken(leg.token);
+        for (final Object message : handshake.takeHeldMessages()) {
+            ctx.fireChannelRead(message);
+        }
+    }
+
+    /**
+     * Answers a request with a 401 Unauthorized, dropping it and the rest of its content.
+     *
+     * @param ctx
+     *            the context
+     * @param handshake
+     *            the handshake
+     * @param request
+     *            the request
+     * @param challenges
+     *            the WWW-Authenticate headers
+     * @param close
+     *            whether to close the connection
+     */
+    private void reject(final ChannelHandlerContext ctx, final NegotiateHandshake handshake,
+            final HttpRequest request, final List<String> challenges, final boolean close) {
+        final HttpVersion version = request.protocolVersion();
+        final boolean keepAlive = !close && HttpUtil.isKeepAlive(request);
+        boolean complete = false;
+        for (final Object message : handshake.takeHeldMessages()) {
+            complete |= message instanceof LastHttpContent;
+            ReferenceCountUtil.release(message);
+        }
+        handshake.setDiscarding(!complete);
+
+        final FullHttpResponse response = new DefaultFullHttpResponse(version, HttpResponseStatus.UNAUTHORIZED);
+        for (final String challenge : challenges) {
+            response.headers().add(HttpHeaderNames.WWW_AUTHENTICATE, challenge);
+        }
+        HttpUtil.setContentLength(response, 0);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        final ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Gets the challenges advertising the protocols.
+     *
+     * @return the challenges
+     */
+    private List<String> getChallenges() {
+        return new ArrayList<>(this.protocols);
+    }
+
+    // write returns the caller's promise
+    @SuppressWarnings("FutureReturnValueIgnored")
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        if (msg instanceof HttpResponse) {
+            final NegotiateHandshake handshake = ctx.channel().attr(NegotiateChannelHandler.HANDSHAKE).get();
+            final String mutualToken = handshake == null ? null : handshake.takeMutualToken();
+            if (mutualToken != null) {
+                // mutual authentication
+                ((HttpResponse) msg).headers().add(HttpHeaderNames.WWW_AUTHENTICATE, mutualToken);
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        this.release(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) {
+        this.release(ctx.channel());
+    }
+
+    /**
+     * Releases the authentication state of a channel: held messages, principal and unfinished handshake.
+     *
+     * @param channel
+     *            the channel
+     */
+    private void release(final Channel channel) {
+        channel.attr(NegotiateChannelHandler.WINDOWS_PRINCIPAL).set(null);
+        final NegotiateHandshake handshake = channel.attr(NegotiateChannelHandler.HANDSHAKE).getAndSet(null);
+        if (handshake == null) {
+            return;
+        }
+        handshake.releaseHeldMessages();
+        final IWindowsSecurityContext continueContext = handshake.getContinueContext();
+        if (continueContext != null) {
+            handshake.setContinueContext(null);
+            this.abandon(handshake.getConnectionId(), continueContext);
+        }
+    }
+
+    /**
+     * Disposes an unfinished handshake on the executor group.
+     *
+     * @param connectionId
+     *            the connection id
+     * @param continueContext
+     *            the security context of its last leg
+     */
+    private void abandon(final String connectionId, final IWindowsSecurityContext continueContext) {
+        NegotiateChannelHandler.LOGGER.debug("disposing unfinished handshake: {}", connectionId);
+        try {
+            this.executorGroup.execute(() -> {
+                this.auth.resetSecurityToken(connectionId);
+                continueContext.dispose();
+            });
+        } catch (final RejectedExecutionException e) {
+            NegotiateChannelHandler.LOGGER.debug("executor group shut down, handshake left to the provider: {}",
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the handshake of a channel, creating it on first use.
+     *
+     * @param channel
+     *            the channel
+     * @return the handshake
+     */
+    private static NegotiateHandshake getHandshake(final Channel channel) {
+        NegotiateHandshake handshake = channel.attr(NegotiateChannelHandler.HANDSHAKE).get();
+        if (handshake == null) {
+            handshake = new NegotiateHandshake("netty:" + channel.id().asLongText());
+            channel.attr(NegotiateChannelHandler.HANDSHAKE).set(handshake);
+        }
+        return handshake;
+    }
+
+    /**
+     * Set the authentication protocols. Default is "Negotiate, NTLM".
+     *
+     * @param value
+     *            Authentication protocols
+     */
+    public void setProtocols(final String value) {
+        this.protocols = new LinkedHashSet<>();
+        final String[] protocolNames = value.split(",", -1);
+        for (String protocolName : protocolNames) {
+            protocolName = protocolName.trim();
+            if (!protocolName.isEmpty()) {
+                NegotiateChannelHandler.LOGGER.debug("init protocol: {}", protocolName);
+                if (NegotiateChannelHandler.SUPPORTED_PROTOCOLS.contains(protocolName)) {
+                    this.protocols.add(protocolName);
+                } else {
+                    NegotiateChannelHandler.LOGGER.error("unsupported protocol: {}", protocolName);
+                    throw new RuntimeException("Unsupported protocol: " + protocolName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the protocols.
+     *
+     * @return the protocols
+     */
+    public Set<String> getProtocols() {
+        return this.protocols;
+    }
+
+    /**
+     * Principal format.
+     *
+     * @return Principal format.
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Set the principal format.
+     *
+     * @param format
+     *            Principal format.
+     */
+    public void setPrincipalFormat(final String format) {
+        this.principalFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Role format.
+     *
+     * @return Role format.
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * Set the role format.
+     *
+     * @param format
+     *            Role format.
+     */
+    public void setRoleFormat(final String format) {
+        this.roleFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * True if Guest login permitted.
+     *
+     * @return True if Guest login permitted, false otherwise.
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Set whether Guest login is permitted. Default is true, if the Guest account is enabled, an invalid
+     * username/password results in a Guest login.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+    }
+
+    /**
+     * The outcome of a handshake leg.
+     */
+    private static final class Leg {
+
+        /** The security context of an unfinished handshake. */
+        final IWindowsSecurityContext continueContext;
+
+        /** The token to send back, prefixed by the security package. */
+        final String token;
+
+        /** The authenticated principal, null if the handshake continues or the login was refused. */
+        final WindowsPrincipal windowsPrincipal;
+
+        /**
+         * Instantiates a new leg.
+         *
+         * @param continueContext
+         *            the continue context
+         * @param token
+         *            the token
+         * @param windowsPrincipal
+         *            the windows principal
+         */
+        Leg(final IWindowsSecurityContext continueContext, final String token,
+                final WindowsPrincipal windowsPrincipal) {
+            this.continueContext = continueContext;
+            this.token = token;
+            this.windowsPrincipal = windowsPrincipal;
+        }
+
+    }
+
+}
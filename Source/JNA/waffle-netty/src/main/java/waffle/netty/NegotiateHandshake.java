@@ -0,0 +1,173 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.netty;
+
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * The handshake state of a channel. It is only accessed from the event loop of the channel.
+ */
+final class NegotiateHandshake {
+
+    /** The connection id. */
+    private final String connectionId;
+
+    /** The security context of the last leg of an unfinished handshake. */
+    private IWindowsSecurityContext continueContext;
+
+    /** The messages received while a leg is authenticated. */
+    private final Queue<Object> heldMessages = new ArrayDeque<>();
+
+    /** Whether a leg is being authenticated. */
+    private boolean authenticating;
+
+    /** Whether the content of a rejected request is being discarded. */
+    private boolean discarding;
+
+    /** The token to send with the next response, for mutual authentication. */
+    private String mutualToken;
+
+    /**
+     * Instantiates a new negotiate handshake.
+     *
+     * @param connectionId
+     *            the connection id
+     */
+    NegotiateHandshake(final String connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * Gets the connection id.
+     *
+     * @return the connection id
+     */
+    String getConnectionId() {
+        return this.connectionId;
+    }
+
+    /**
+     * Gets the security context of an unfinished handshake.
+     *
+     * @return the continue context, null if none
+     */
+    IWindowsSecurityContext getContinueContext() {
+        return this.continueContext;
+    }
+
+    /**
+     * Sets the security context of an unfinished handshake. The provider keeps its handle for the next leg, so the
+     * context is only disposed when the handshake is abandoned.
+     *
+     * @param value
+     *            the continue context, null when the handshake ends
+     */
+    void setContinueContext(final IWindowsSecurityContext value) {
+        this.continueContext = value;
+    }
+
+    /**
+     * Holds a message until the leg being authenticated completes.
+     *
+     * @param message
+     *            the message
+     */
+    void hold(final Object message) {
+        this.heldMessages.add(message);
+    }
+
+    /**
+     * Takes the held messages.
+     *
+     * @return the held messages, in order
+     */
+    Queue<Object> takeHeldMessages() {
+        final Queue<Object> messages = new ArrayDeque<>(this.heldMessages);
+        this.heldMessages.clear();
+        return messages;
+    }
+
+    /**
+     * Releases the held messages.
+     */
+    void releaseHeldMessages() {
+        Object message;
+        while ((message = this.heldMessages.poll()) != null) {
+            ReferenceCountUtil.release(message);
+        }
+    }
+
+    /**
+     * Checks if a leg is being authenticated.
+     *
+     * @return true, if authenticating
+     */
+    boolean isAuthenticating() {
+        return this.authenticating;
+    }
+
+    /**
+     * Sets whether a leg is being authenticated.
+     *
+     * @param value
+     *            true, if authenticating
+     */
+    void setAuthenticating(final boolean value) {
+        this.authenticating = value;
+    }
+
+    /**
+     * Checks if the content of a rejected request is being discarded.
+     *
+     * @return true, if discarding
+     */
+    boolean isDiscarding() {
+        return this.discarding;
+    }
+
+    /**
+     * Sets whether the content of a rejected request is being discarded.
+     *
+     * @param value
+     *            true, if discarding
+     */
+    void setDiscarding(final boolean value) {
+        this.discarding = value;
+    }
+
+    /**
+     * Takes the token to send with the next response.
+     *
+     * @return the mutual authentication token, null if none
+     */
+    String takeMutualToken() {
+        final String token = this.mutualToken;
+        this.mutualToken = null;
+        return token;
+    }
+
+    /**
+     * Sets the token to send with the next response.
+     *
+     * @param value
+     *            the mutual authentication token
+     */
+    void setMutualToken(final String value) {
+        this.mutualToken = value;
+    }
+
+}
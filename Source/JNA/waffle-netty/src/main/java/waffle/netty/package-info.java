@@ -0,0 +1,20 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+/**
+ * Waffle Netty Package.
+ *
+ * <p>
+ * A Netty {@link io.netty.channel.ChannelHandler} for Negotiate (Kerberos/NTLM) single sign-on, keeping the handshake
+ * and the authenticated principal on the channel.
+ * </p>
+ */
+package waffle.netty;
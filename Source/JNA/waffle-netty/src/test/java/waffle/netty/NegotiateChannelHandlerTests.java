@@ -0,0 +1,240 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.netty;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import waffle.mock.MockWindowsSecurityContext;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * The Class NegotiateChannelHandlerTests.
+ */
+public class NegotiateChannelHandlerTests {
+
+    /** The executor group. */
+    private EventExecutorGroup executorGroup;
+
+    /** The provider. */
+    private IWindowsAuthProvider provider;
+
+    /** The continue context. */
+    private IWindowsSecurityContext continueContext;
+
+    /** The thread of the last provider call. */
+    private final AtomicReference<String> thread = new AtomicReference<>();
+
+    /** The handler. */
+    private NegotiateChannelHandler handler;
+
+    /** The channel. */
+    private EmbeddedChannel channel;
+
+    /**
+     * Sets up a two-leg handshake.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.executorGroup = new DefaultEventExecutorGroup(1,
+                runnable -> new Thread(runnable, "waffle-sspi"));
+        this.continueContext = Mockito.mock(IWindowsSecurityContext.class);
+        Mockito.when(Boolean.valueOf(this.continueContext.isContinue())).thenReturn(Boolean.TRUE);
+        Mockito.when(this.continueContext.getToken()).thenReturn(new byte[] { 1, 2, 3 });
+        this.provider = Mockito.mock(IWindowsAuthProvider.class);
+        Mockito.when(this.provider.acceptSecurityToken(Mockito.anyString(), Mockito.any(), Mockito.eq("Negotiate")))
+                .then(invocation -> {
+                    this.thread.set(Thread.currentThread().getName());
+                    return this.continueContext;
+                }).then(invocation -> new MockWindowsSecurityContext(
+                        new String((byte[]) invocation.getArgument(1), StandardCharsets.UTF_8)));
+        this.handler = new NegotiateChannelHandler(this.provider, this.executorGroup);
+        this.channel = new EmbeddedChannel(this.handler);
+    }
+
+    /**
+     * Shuts the executor group down.
+     */
+    @AfterEach
+    public void tearDown() {
+        this.channel.finishAndReleaseAll();
+        Assertions.assertTrue(this.executorGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS).awaitUninterruptibly(5000));
+    }
+
+    /**
+     * Creates a request.
+     *
+     * @param authorization
+     *            the authorization header, null for none
+     * @return the request
+     */
+    private static FullHttpRequest request(final String authorization) {
+        final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        if (authorization != null) {
+            request.headers().set(HttpHeaderNames.AUTHORIZATION, authorization);
+        }
+        return request;
+    }
+
+    /**
+     * Creates a Negotiate authorization header.
+     *
+     * @param token
+     *            the token
+     * @return the authorization header
+     */
+    private static String negotiate(final String token) {
+        return "Negotiate " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs the tasks the executor group hands back to the event loop, until a message is written or passed on.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    private void await() throws InterruptedException {
+        for (int i = 0; i < 500 && this.channel.outboundMessages().isEmpty()
+                && this.channel.inboundMessages().isEmpty(); i++) {
+            Thread.sleep(10);
+            this.channel.runPendingTasks();
+        }
+    }
+
+    /**
+     * Test that requests without credentials are challenged and dropped.
+     */
+    @Test
+    public void testChallenge() {
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(null));
+        Assertions.assertNull(this.channel.readInbound());
+        final FullHttpResponse response = this.channel.readOutbound();
+        Assertions.assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        Assertions.assertEquals(2, response.headers().getAll(HttpHeaderNames.WWW_AUTHENTICATE).size());
+        Assertions.assertTrue(this.channel.isActive());
+        Mockito.verifyZeroInteractions(this.provider);
+    }
+
+    /**
+     * Test a two-leg handshake off the event loop, and the connection authenticated exactly once.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testHandshake() throws InterruptedException {
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("a")));
+        this.await();
+        Assertions.assertNull(this.channel.readInbound());
+        final FullHttpResponse challenge = this.channel.readOutbound();
+        Assertions.assertEquals(HttpResponseStatus.UNAUTHORIZED, challenge.status());
+        Assertions.assertEquals("Negotiate AQID", challenge.headers().get(HttpHeaderNames.WWW_AUTHENTICATE));
+        Assertions.assertEquals("waffle-sspi", this.thread.get());
+
+        this.channel
+                .writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("user")));
+        this.await();
+        final FullHttpRequest authenticated = this.channel.readInbound();
+        Assertions.assertNotNull(authenticated);
+        authenticated.release();
+        Assertions.assertEquals("user", NegotiateChannelHandler.getWindowsPrincipal(this.channel).getName());
+
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(null));
+        final FullHttpRequest reused = this.channel.readInbound();
+        Assertions.assertNotNull(reused);
+        reused.release();
+        Mockito.verify(this.provider, Mockito.times(2)).acceptSecurityToken(Mockito.anyString(), Mockito.any(),
+                Mockito.anyString());
+        Mockito.verify(this.continueContext, Mockito.never()).dispose();
+    }
+
+    /**
+     * Test that an unfinished handshake is disposed when the channel becomes inactive.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testUnfinishedHandshakeDisposed() throws InterruptedException {
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("a")));
+        this.await();
+        ((FullHttpResponse) this.channel.readOutbound()).release();
+        Assertions.assertTrue(this.channel.close().awaitUninterruptibly(5000));
+        Mockito.verify(this.continueContext, Mockito.timeout(5000)).dispose();
+        Mockito.verify(this.provider, Mockito.timeout(5000)).resetSecurityToken(Mockito.startsWith("netty:"));
+    }
+
+    /**
+     * Test that guests are rejected and the connection closed when guest login is disabled.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testGuestDisabled() throws InterruptedException {
+        this.handler.setAllowGuestLogin(false);
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("a")));
+        this.await();
+        ((FullHttpResponse) this.channel.readOutbound()).release();
+        this.channel
+                .writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("Guest")));
+        this.await();
+        Assertions.assertNull(this.channel.readInbound());
+        final FullHttpResponse response = this.channel.readOutbound();
+        Assertions.assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+        Assertions.assertFalse(this.channel.isOpen());
+        Assertions.assertNull(NegotiateChannelHandler.getWindowsPrincipal(this.channel));
+    }
+
+    /**
+     * Test that the final token of a handshake is sent with the response of the authenticated request.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     */
+    @Test
+    public void testMutualToken() throws InterruptedException {
+        final IWindowsSecurityContext securityContext = Mockito.spy(new MockWindowsSecurityContext("user"));
+        Mockito.when(securityContext.getToken()).thenReturn(new byte[] { 4, 5, 6 });
+        Mockito.when(this.provider.acceptSecurityToken(Mockito.anyString(), Mockito.any(), Mockito.eq("Negotiate")))
+                .thenReturn(securityContext);
+        this.channel.writeInbound(NegotiateChannelHandlerTests.request(NegotiateChannelHandlerTests.negotiate("a")));
+        this.await();
+        ((FullHttpRequest) this.channel.readInbound()).release();
+        this.channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        final FullHttpResponse response = this.channel.readOutbound();
+        Assertions.assertEquals("Negotiate BAUG", response.headers().get(HttpHeaderNames.WWW_AUTHENTICATE));
+        Mockito.verify(securityContext).dispose();
+    }
+
+}
@@ -11,6 +11,13 @@
  */
 package waffle.shiro;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
@@ -21,22 +28,38 @@ import org.apache.shiro.authc.credential.HashingPasswordService;
 import org.apache.shiro.authc.credential.PasswordMatcher;
 import org.apache.shiro.authc.credential.PasswordService;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.codec.Hex;
 import org.apache.shiro.crypto.hash.Hash;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.util.ByteSource;
+import org.apache.shiro.util.Destroyable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
 
 /**
  * A {@link org.apache.shiro.realm.Realm} that authenticates with Active Directory using WAFFLE. Authorization is left
  * for subclasses to define by implementing the {@link #buildAuthorizationInfo} method.
+ *
+ * When a {@link org.apache.shiro.cache.CacheManager} is set, such as {@link waffle.shiro.cache.CaffeineCacheManager},
+ * authorization info is cached by the SID of the user. Authentication caching is off, as for any Shiro realm, unless
+ * <code>authenticationCachingEnabled</code> is set, in which case authentication info is cached by a salted digest of
+ * the username and password that logged on. A cached authentication info proves the credentials of a token with the
+ * same digest, which skips both the logon and the credentials matcher, including the hashing of a
+ * {@link HashingPasswordService}, until it expires from the cache: a changed or revoked password keeps working for up
+ * to the time to live of the cache manager.
+ *
+ * The realm shares its provider with the other integrations of the process through the
+ * {@link WindowsAuthProviderRegistry} unless <code>sharedProvider</code> is false, and releases it when the security
+ * manager destroys its realms.
  */
-public abstract class AbstractWaffleRealm extends AuthorizingRealm {
+public abstract class AbstractWaffleRealm extends AuthorizingRealm implements Destroyable {
 
     /** The Constant LOGGER. */
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractWaffleRealm.class);
@@ -44,8 +67,25 @@ public abstract class AbstractWaffleRealm extends AuthorizingRealm {
     /** The Constant REALM_NAME. */
     private static final String REALM_NAME = "WAFFLE";
 
-    /** The provider. */
-    private IWindowsAuthProvider provider = new WindowsAuthProviderImpl();
+    /** The provider, acquired on first use. */
+    private IWindowsAuthProvider provider;
+
+    /** Whether the provider was acquired from the registry, to release it when the realm is destroyed. */
+    private boolean providerAcquired;
+
+    /** Whether the provider is shared with the other integrations of the process. */
+    private boolean sharedProvider = true;
+
+    /** The credential salt, random for each realm so that credential keys cannot be precomputed. */
+    private final byte[] credentialSalt = new byte[16];
+
+    /**
+     * Instantiates a new waffle realm.
+     */
+    protected AbstractWaffleRealm() {
+        super();
+        new SecureRandom().nextBytes(this.credentialSalt);
+    }
 
     @Override
     protected final AuthenticationInfo doGetAuthenticationInfo(final AuthenticationToken authToken) {
@@ -56,13 +96,19 @@ public abstract class AbstractWaffleRealm extends AuthorizingRealm {
             IWindowsIdentity identity = null;
             try {
                 AbstractWaffleRealm.LOGGER.debug("Attempting login for user {}", username);
-                identity = this.provider.logonUser(username, new String(token.getPassword()));
+                identity = this.getProvider().logonUser(username, new String(token.getPassword()));
                 if (identity.isGuest()) {
                     AbstractWaffleRealm.LOGGER.debug("Guest identity for user {}; denying access", username);
                     throw new AuthenticationException("Guest identities are not allowed access");
                 }
                 final Object principal = new WaffleFqnPrincipal(identity);
-                authenticationInfo = this.buildAuthenticationInfo(token, principal);
+                if (this.isAuthenticationCacheAvailable()) {
+                    // the logon verified the credentials, keep their digest rather than the password or its hash
+                    authenticationInfo = new SimpleAuthenticationInfo(principal, this.getCredentialKey(token),
+                            AbstractWaffleRealm.REALM_NAME);
+                } else {
+                    authenticationInfo = this.buildAuthenticationInfo(token, principal);
+                }
                 AbstractWaffleRealm.LOGGER.debug("Successful login for user {}", username);
             } catch (final RuntimeException e) {
                 AbstractWaffleRealm.LOGGER.debug("Failed login for user {}: {}", username, e.getMessage());
@@ -100,6 +146,73 @@ public abstract class AbstractWaffleRealm extends AuthorizingRealm {
         return authenticationInfo;
     }
 
+    @Override
+    protected void assertCredentialsMatch(final AuthenticationToken token, final AuthenticationInfo info) {
+        if (token instanceof UsernamePasswordToken && info.getCredentials() instanceof String
+                && info.getCredentials().equals(this.getCredentialKey((UsernamePasswordToken) token))) {
+            AbstractWaffleRealm.LOGGER.debug("Credentials of user {} verified by logon",
+                    ((UsernamePasswordToken) token).getUsername());
+            return;
+        }
+        super.assertCredentialsMatch(token, info);
+    }
+
+    @Override
+    protected Object getAuthenticationCacheKey(final AuthenticationToken token) {
+        if (token instanceof UsernamePasswordToken) {
+            return this.getCredentialKey((UsernamePasswordToken) token);
+        }
+        return super.getAuthenticationCacheKey(token);
+    }
+
+    @Override
+    protected Object getAuthorizationCacheKey(final PrincipalCollection principals) {
+        final WaffleFqnPrincipal principal = principals.oneByType(WaffleFqnPrincipal.class);
+        if (principal != null && principal.getSid() != null) {
+            return principal.getSid();
+        }
+        return super.getAuthorizationCacheKey(principals);
+    }
+
+    /**
+     * Discards the cached authentication and authorization info of a user, for example after a change of its groups or
+     * password.
+     *
+     * @param sid
+     *            the string representation of the SID of the user
+     */
+    public void clearCachedInfo(final String sid) {
+        final Cache<Object, AuthorizationInfo> authorizationCache = this.getAuthorizationCache();
+        if (authorizationCache != null) {
+            authorizationCache.remove(sid);
+        }
+        final Cache<Object, AuthenticationInfo> authenticationCache = this.getAuthenticationCache();
+        if (authenticationCache != null) {
+            for (final Object key : authenticationCache.keys()) {
+                final AuthenticationInfo info = authenticationCache.get(key);
+                final WaffleFqnPrincipal principal = info == null ? null
+                        : info.getPrincipals().oneByType(WaffleFqnPrincipal.class);
+                if (principal != null && sid.equals(principal.getSid())) {
+                    authenticationCache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all cached authentication and authorization info.
+     */
+    public void clearAllCachedInfo() {
+        final Cache<Object, AuthorizationInfo> authorizationCache = this.getAuthorizationCache();
+        if (authorizationCache != null) {
+            authorizationCache.clear();
+        }
+        final Cache<Object, AuthenticationInfo> authenticationCache = this.getAuthenticationCache();
+        if (authenticationCache != null) {
+            authenticationCache.clear();
+        }
+    }
+
     @Override
     protected final AuthorizationInfo doGetAuthorizationInfo(final PrincipalCollection principals) {
         final WaffleFqnPrincipal principal = principals.oneByType(WaffleFqnPrincipal.class);
@@ -122,10 +235,95 @@ public abstract class AbstractWaffleRealm extends AuthorizingRealm {
      * @param value
      *            the windows authorization provider
      */
-    void setProvider(final IWindowsAuthProvider value) {
+    synchronized void setProvider(final IWindowsAuthProvider value) {
+        this.destroy();
         this.provider = value;
     }
 
+    /**
+     * Gets the provider, acquiring it on first use.
+     *
+     * @return the provider
+     */
+    private synchronized IWindowsAuthProvider getProvider() {
+        if (this.provider == null) {
+            this.providerAcquired = this.sharedProvider;
+            this.provider = this.sharedProvider ? WindowsAuthProviderRegistry.acquire() : new WindowsAuthProviderImpl();
+        }
+        return this.provider;
+    }
+
+    /**
+     * Checks whether the provider is shared with the other integrations of the process.
+     *
+     * @return true, if shared
+     */
+    public boolean isSharedProvider() {
+        return this.sharedProvider;
+    }
+
+    /**
+     * Sets whether the provider is shared with the other integrations of the process. Default is true.
+     *
+     * @param value
+     *            true to share the provider
+     */
+    public void setSharedProvider(final boolean value) {
+        this.sharedProvider = value;
+    }
+
+    /**
+     * Releases the shared provider.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (this.providerAcquired) {
+            WindowsAuthProviderRegistry.release(this.provider);
+            this.provider = null;
+            this.providerAcquired = false;
+        }
+    }
+
+    /**
+     * Checks if authentication info is cached.
+     *
+     * @return true, if authentication caching is enabled and a cache or cache manager is set
+     */
+    private boolean isAuthenticationCacheAvailable() {
+        return this.isAuthenticationCachingEnabled()
+                && (this.getAuthenticationCache() != null || this.getCacheManager() != null);
+    }
+
+    /**
+     * Gets the credential key of a token, a salted digest of its username and password.
+     *
+     * @param token
+     *            the token
+     * @return the credential key
+     */
+    private String getCredentialKey(final UsernamePasswordToken token) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(this.credentialSalt);
+            if (token.getUsername() != null) {
+                digest.update(token.getUsername().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+            if (token.getPassword() != null) {
+                final ByteBuffer password = StandardCharsets.UTF_8.encode(CharBuffer.wrap(token.getPassword()));
+                digest.update(password);
+                // do not leave the encoded password behind
+                password.clear();
+                while (password.hasRemaining()) {
+                    password.put((byte) 0);
+                }
+            }
+            return Hex.encodeToString(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Gets the hash service.
      *
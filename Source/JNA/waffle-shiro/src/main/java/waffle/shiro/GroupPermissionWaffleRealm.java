@@ -0,0 +1,320 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.apache.shiro.authz.permission.WildcardPermissionResolver;
+import org.apache.shiro.subject.PrincipalCollection;
+
+/**
+ * A {@link org.apache.shiro.realm.Realm} that authenticates with Active Directory using WAFFLE and grants permissions
+ * to users based on rules on their groups, in addition to the roles of a {@link GroupMappingWaffleRealm}.
+ *
+ * A rule maps a group to permissions in {@link org.apache.shiro.authz.permission.WildcardPermission} syntax, separated
+ * by spaces. Group names are case insensitive and may contain <code>*</code> wildcards. A group qualified with a
+ * domain, as in <code>EXAMPLE\Domain Admins</code>, only matches the groups of that domain, an unqualified one matches
+ * the groups of any domain. For example, in <code>shiro.ini</code>:
+ *
+ * <pre>
+ * waffleRealm = waffle.shiro.GroupPermissionWaffleRealm
+ * waffleRealm.groupPermissionsMap = "Domain Admins":"*", "App-*":"app:read reports:*:view"
+ * </pre>
+ *
+ * The rules are compiled when set. The users whose groups match the same rules and roles share one immutable
+ * {@link PermissionIndex}, so that a permission check is a walk of a trie as deep as the permission rather than a scan
+ * of every granted permission. Checks go through the index unless a custom permission resolver or a role permission
+ * resolver is set.
+ */
+public class GroupPermissionWaffleRealm extends GroupMappingWaffleRealm {
+
+    /** The Constant DEFAULT_INDEX_CACHE_SIZE. */
+    public static final int DEFAULT_INDEX_CACHE_SIZE = 1000;
+
+    /** The Constant DOMAIN_SEPARATOR. */
+    private static final char DOMAIN_SEPARATOR = '\\';
+
+    /** The Constant WILDCARD. */
+    private static final String WILDCARD = "*";
+
+    /** The rules. */
+    private volatile Rules rules = new Rules(Collections.<String, String> emptyMap());
+
+    /** The index cache size. */
+    private int indexCacheSize = GroupPermissionWaffleRealm.DEFAULT_INDEX_CACHE_SIZE;
+
+    /** The permission indexes, by matched rules and roles. */
+    private volatile Cache<List<Object>, PermissionIndex> indexes = this.createIndexes();
+
+    /**
+     * Sets the rules granting permissions to groups, replacing the previous ones. If not set, no users get
+     * permissions.
+     *
+     * @param value
+     *            the permissions, separated by spaces, by group name
+     */
+    public void setGroupPermissionsMap(final Map<String, String> value) {
+        this.rules = new Rules(value == null ? Collections.<String, String> emptyMap() : value);
+        this.indexes = this.createIndexes();
+    }
+
+    @Override
+    public void setGroupRolesMap(final Map<String, String> value) {
+        super.setGroupRolesMap(value);
+        this.indexes = this.createIndexes();
+    }
+
+    /**
+     * Gets the maximum number of distinct permission indexes kept.
+     *
+     * @return the index cache size
+     */
+    public int getIndexCacheSize() {
+        return this.indexCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of distinct permission indexes kept, one for each combination of matched rules and roles.
+     *
+     * @param value
+     *            the new index cache size
+     */
+    public void setIndexCacheSize(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid index cache size: " + value);
+        }
+        this.indexCacheSize = value;
+        this.indexes = this.createIndexes();
+    }
+
+    /**
+     * Builds a {@link PermissionIndex} based on the user's groups, shared with the users matching the same rules and
+     * roles.
+     *
+     * @param principal
+     *            the principal of Subject that is being authorized
+     * @return the AuthorizationInfo for the given Subject principal
+     */
+    @Override
+    protected AuthorizationInfo buildAuthorizationInfo(final WaffleFqnPrincipal principal) {
+        final Set<String> groupNames = principal.getGroupFqns();
+        final Collection<String> roleNames = this.getRoleNamesForGroups(groupNames);
+        final Rules currentRules = this.rules;
+        final BitSet matched = currentRules.match(groupNames);
+        return this.indexes.get(Arrays.asList(matched, roleNames),
+                key -> new PermissionIndex(roleNames, currentRules.getPermissions(matched)));
+    }
+
+    @Override
+    public boolean isPermitted(final PrincipalCollection principals, final String permission) {
+        final AuthorizationInfo info = this.getAuthorizationInfo(principals);
+        if (this.isIndexed(info)) {
+            return ((PermissionIndex) info).implies(permission);
+        }
+        return this.isPermitted(this.getPermissionResolver().resolvePermission(permission), info);
+    }
+
+    @Override
+    public boolean[] isPermitted(final PrincipalCollection principals, final String... permissions) {
+        final AuthorizationInfo info = this.getAuthorizationInfo(principals);
+        final boolean[] result = new boolean[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            result[i] = this.isIndexed(info) ? ((PermissionIndex) info).implies(permissions[i])
+                    : this.isPermitted(this.getPermissionResolver().resolvePermission(permissions[i]), info);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isPermittedAll(final PrincipalCollection principals, final String... permissions) {
+        final AuthorizationInfo info = this.getAuthorizationInfo(principals);
+        for (final String permission : permissions) {
+            final boolean permitted = this.isIndexed(info) ? ((PermissionIndex) info).implies(permission)
+                    : this.isPermitted(this.getPermissionResolver().resolvePermission(permission), info);
+            if (!permitted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void checkPermission(final PrincipalCollection principals, final String permission) {
+        if (!this.isPermitted(principals, permission)) {
+            throw new UnauthorizedException("User is not permitted [" + permission + "]");
+        }
+    }
+
+    @Override
+    protected boolean isPermitted(final Permission permission, final AuthorizationInfo info) {
+        if (this.isIndexed(info)) {
+            return ((PermissionIndex) info).implies(permission);
+        }
+        return super.isPermitted(permission, info);
+    }
+
+    /**
+     * Checks whether permissions of an authorization info are checked through its index.
+     *
+     * @param info
+     *            the authorization info
+     * @return true, if it is a permission index and permissions resolve to plain wildcard permissions
+     */
+    private boolean isIndexed(final AuthorizationInfo info) {
+        return info instanceof PermissionIndex && this.getRolePermissionResolver() == null
+                && this.getPermissionResolver() != null
+                && this.getPermissionResolver().getClass() == WildcardPermissionResolver.class;
+    }
+
+    /**
+     * Creates the permission index cache.
+     *
+     * @return the cache
+     */
+    private Cache<List<Object>, PermissionIndex> createIndexes() {
+        return Caffeine.newBuilder().maximumSize(this.indexCacheSize).build();
+    }
+
+    /**
+     * The compiled rules.
+     */
+    private static final class Rules {
+
+        /** The permissions of each rule. */
+        private final List<String[]> permissions = new ArrayList<>();
+
+        /** The rules without wildcards, by lower case group name. */
+        private final Map<String, BitSet> exact = new HashMap<>();
+
+        /** The group patterns of the rules with wildcards. */
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        /** The rule of each pattern. */
+        private final List<Integer> patternRules = new ArrayList<>();
+
+        /** Whether each pattern is qualified with a domain. */
+        private final List<Boolean> patternQualified = new ArrayList<>();
+
+        /**
+         * Compiles rules.
+         *
+         * @param groupPermissions
+         *            the permissions, separated by spaces, by group name
+         */
+        Rules(final Map<String, String> groupPermissions) {
+            for (final Map.Entry<String, String> entry : groupPermissions.entrySet()) {
+                final String group = entry.getKey().trim().toLowerCase(Locale.ENGLISH);
+                final String value = entry.getValue() == null ? "" : entry.getValue().trim();
+                final int rule = this.permissions.size();
+                final String[] rulePermissions = value.isEmpty() ? new String[0] : value.split("\\s+");
+                for (final String permission : rulePermissions) {
+                    // fail on invalid permissions now rather than on the first authorization
+                    new WildcardPermission(permission);
+                }
+                this.permissions.add(rulePermissions);
+                if (group.contains(GroupPermissionWaffleRealm.WILDCARD)) {
+                    final String[] literals = group.split(Pattern.quote(GroupPermissionWaffleRealm.WILDCARD), -1);
+                    final StringBuilder regex = new StringBuilder();
+                    for (int i = 0; i < literals.length; i++) {
+                        if (i > 0) {
+                            regex.append(".*");
+                        }
+                        if (!literals[i].isEmpty()) {
+                            regex.append(Pattern.quote(literals[i]));
+                        }
+                    }
+                    this.patterns.add(Pattern.compile(regex.toString(), Pattern.DOTALL));
+                    this.patternRules.add(Integer.valueOf(rule));
+                    this.patternQualified.add(
+                            Boolean.valueOf(group.indexOf(GroupPermissionWaffleRealm.DOMAIN_SEPARATOR) >= 0));
+                } else {
+                    this.exact.computeIfAbsent(group, key -> new BitSet()).set(rule);
+                }
+            }
+        }
+
+        /**
+         * Matches groups against the rules.
+         *
+         * @param groupNames
+         *            the fully qualified group names
+         * @return the matched rules
+         */
+        BitSet match(final Collection<String> groupNames) {
+            final BitSet matched = new BitSet();
+            for (final String groupName : groupNames) {
+                final String group = groupName.toLowerCase(Locale.ENGLISH);
+                final String name = group.substring(group.lastIndexOf(GroupPermissionWaffleRealm.DOMAIN_SEPARATOR) + 1);
+                this.matchExact(group, matched);
+                if (!name.equals(group)) {
+                    this.matchExact(name, matched);
+                }
+                for (int i = 0; i < this.patterns.size(); i++) {
+                    final String candidate = this.patternQualified.get(i).booleanValue() ? group : name;
+                    if (this.patterns.get(i).matcher(candidate).matches()) {
+                        matched.set(this.patternRules.get(i).intValue());
+                    }
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * Adds the rules of a group name without wildcards.
+         *
+         * @param group
+         *            the lower case group name
+         * @param matched
+         *            the matched rules
+         */
+        private void matchExact(final String group, final BitSet matched) {
+            final BitSet rules = this.exact.get(group);
+            if (rules != null) {
+                matched.or(rules);
+            }
+        }
+
+        /**
+         * Gets the permissions of rules.
+         *
+         * @param matched
+         *            the matched rules
+         * @return the permissions
+         */
+        Set<String> getPermissions(final BitSet matched) {
+            final Set<String> result = new LinkedHashSet<>();
+            for (int rule = matched.nextSetBit(0); rule >= 0; rule = matched.nextSetBit(rule + 1)) {
+                result.addAll(Arrays.asList(this.permissions.get(rule)));
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+/**
+ * An immutable {@link AuthorizationInfo} whose string permissions are compiled into a trie of their parts, following
+ * the case insensitive {@link WildcardPermission} syntax.
+ *
+ * The trie is made deterministic when it is built: the subtree of a wildcard part is merged into each of its literal
+ * siblings, so that checking a permission follows a single path and takes as many steps as the permission has parts,
+ * whatever the number of permissions granted. Checked permissions with several subparts in a part, such as
+ * <code>printer:print,query</code>, must be implied by a single granted permission and are checked against each one.
+ */
+public final class PermissionIndex implements AuthorizationInfo {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The Constant WILDCARD. */
+    private static final String WILDCARD = "*";
+
+    /** The Constant PART_DIVIDER. */
+    private static final String PART_DIVIDER = ":";
+
+    /** The Constant SUBPART_DIVIDER. */
+    private static final String SUBPART_DIVIDER = ",";
+
+    /** The roles. */
+    private final Set<String> roles;
+
+    /** The string permissions. */
+    private final Set<String> stringPermissions;
+
+    /** The permissions, for checked permissions with several subparts in a part. */
+    private final List<WildcardPermission> permissions;
+
+    /** The root of the trie. */
+    private final Node root = new Node();
+
+    /**
+     * Instantiates a new permission index.
+     *
+     * @param roles
+     *            the role names
+     * @param stringPermissions
+     *            the permissions, in {@link WildcardPermission} syntax
+     */
+    public PermissionIndex(final Collection<String> roles, final Collection<String> stringPermissions) {
+        this.roles = Collections.unmodifiableSet(new LinkedHashSet<>(roles));
+        this.stringPermissions = Collections.unmodifiableSet(new LinkedHashSet<>(stringPermissions));
+        final List<WildcardPermission> wildcardPermissions = new ArrayList<>();
+        for (final String permission : this.stringPermissions) {
+            wildcardPermissions.add(new WildcardPermission(permission));
+            final String[] parts = PermissionIndex.split(permission.trim(), PermissionIndex.PART_DIVIDER);
+            final String[][] subparts = new String[parts.length][];
+            for (int i = 0; i < parts.length; i++) {
+                subparts[i] = PermissionIndex.split(parts[i], PermissionIndex.SUBPART_DIVIDER);
+            }
+            this.root.insert(subparts, 0);
+        }
+        this.permissions = Collections.unmodifiableList(wildcardPermissions);
+        this.root.compile();
+    }
+
+    @Override
+    public Collection<String> getRoles() {
+        return this.roles;
+    }
+
+    @Override
+    public Collection<String> getStringPermissions() {
+        return this.stringPermissions;
+    }
+
+    @Override
+    public Collection<Permission> getObjectPermissions() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Checks whether the granted permissions imply a permission.
+     *
+     * @param permission
+     *            the permission, in {@link WildcardPermission} syntax
+     * @return true, if implied
+     */
+    public boolean implies(final String permission) {
+        if (permission.contains(PermissionIndex.SUBPART_DIVIDER)) {
+            return this.impliesAny(new WildcardPermission(permission));
+        }
+        final String[] parts = PermissionIndex.split(permission.trim(), PermissionIndex.PART_DIVIDER);
+        Node node = this.root;
+        for (final String part : parts) {
+            if (node.terminal) {
+                return true;
+            }
+            Node next = node.children.get(part);
+            if (next == null && !PermissionIndex.WILDCARD.equals(part)) {
+                next = node.children.get(PermissionIndex.WILDCARD);
+            }
+            if (next == null) {
+                return false;
+            }
+            node = next;
+        }
+        // a longer granted permission implies a shorter one when all of its remaining parts are wildcards
+        while (!node.terminal) {
+            node = node.children.get(PermissionIndex.WILDCARD);
+            if (node == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the granted permissions imply a permission.
+     *
+     * @param permission
+     *            the permission
+     * @return true, if implied
+     */
+    public boolean implies(final Permission permission) {
+        if (permission instanceof WildcardPermission) {
+            return this.implies(permission.toString());
+        }
+        return this.impliesAny(permission);
+    }
+
+    /**
+     * Checks each granted permission in turn.
+     *
+     * @param permission
+     *            the permission
+     * @return true, if a granted permission implies it
+     */
+    private boolean impliesAny(final Permission permission) {
+        for (final WildcardPermission granted : this.permissions) {
+            if (granted.implies(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a permission or part and lower cases its tokens, the way {@link WildcardPermission} does.
+     *
+     * @param value
+     *            the trimmed permission, or a part
+     * @param divider
+     *            the divider
+     * @return the tokens
+     */
+    private static String[] split(final String value, final String divider) {
+        final String[] tokens = value.split(divider);
+        if (tokens.length == 0 || (PermissionIndex.PART_DIVIDER.equals(divider) && value.isEmpty())) {
+            throw new IllegalArgumentException("Invalid permission: " + value);
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokens[i].toLowerCase(Locale.ENGLISH);
+        }
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionIndex [roles=" + this.roles + ", permissions=" + this.stringPermissions + "]";
+    }
+
+    /**
+     * A node of the trie, a part of the granted permissions.
+     */
+    private static final class Node implements Serializable {
+
+        /** The Constant serialVersionUID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The children, by subpart. */
+        private final Map<String, Node> children = new HashMap<>();
+
+        /** Whether a granted permission ends here, which implies all permissions below. */
+        private boolean terminal;
+
+        /**
+         * Inserts the subparts of a granted permission, one path for each combination of subparts.
+         *
+         * @param subparts
+         *            the subparts of each part
+         * @param index
+         *            the index of the part at this node
+         */
+        void insert(final String[][] subparts, final int index) {
+            if (this.terminal) {
+                return;
+            }
+            if (index == subparts.length) {
+                this.terminal = true;
+                return;
+            }
+            for (final String subpart : subparts[index]) {
+                this.children.computeIfAbsent(subpart, key -> new Node()).insert(subparts, index + 1);
+            }
+        }
+
+        /**
+         * Merges the wildcard child into its literal siblings, recursively, and drops what a terminal node implies.
+         */
+        void compile() {
+            if (this.terminal) {
+                this.children.clear();
+                return;
+            }
+            final Node wildcard = this.children.get(PermissionIndex.WILDCARD);
+            if (wildcard != null) {
+                for (final Node child : this.children.values()) {
+                    if (child != wildcard) {
+                        child.merge(wildcard);
+                    }
+                }
+            }
+            for (final Node child : this.children.values()) {
+                child.compile();
+            }
+        }
+
+        /**
+         * Merges a copy of another node into this one.
+         *
+         * @param other
+         *            the other node
+         */
+        private void merge(final Node other) {
+            this.terminal |= other.terminal;
+            for (final Map.Entry<String, Node> entry : other.children.entrySet()) {
+                this.children.computeIfAbsent(entry.getKey(), key -> new Node()).merge(entry.getValue());
+            }
+        }
+    }
+
+}
@@ -30,6 +30,9 @@ public class WaffleFqnPrincipal implements Serializable {
     /** The fqn. */
     private final String fqn;
 
+    /** The sid. */
+    private final String sid;
+
     /** The group fqns. */
     private final Set<String> groupFqns = new HashSet<>();
 
@@ -41,6 +44,7 @@ public class WaffleFqnPrincipal implements Serializable {
      */
     WaffleFqnPrincipal(final IWindowsIdentity identity) {
         this.fqn = identity.getFqn();
+        this.sid = identity.getSidString();
         for (final IWindowsAccount group : identity.getGroups()) {
             this.groupFqns.add(group.getFqn());
         }
@@ -55,6 +59,15 @@ public class WaffleFqnPrincipal implements Serializable {
         return this.fqn;
     }
 
+    /**
+     * Gets the sid.
+     *
+     * @return the string representation of the SID of the user, null for a principal serialized without one
+     */
+    public String getSid() {
+        return this.sid;
+    }
+
     /**
      * Gets the group fqns.
      *
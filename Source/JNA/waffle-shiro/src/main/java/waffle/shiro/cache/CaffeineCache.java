@@ -0,0 +1,99 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.shiro.cache.Cache;
+
+/**
+ * A Shiro {@link Cache} backed by a Caffeine cache.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class CaffeineCache<K, V> implements Cache<K, V> {
+
+    /** The name. */
+    private final String name;
+
+    /** The cache. */
+    private final com.github.benmanes.caffeine.cache.Cache<K, V> cache;
+
+    /**
+     * Instantiates a new caffeine cache.
+     *
+     * @param name
+     *            the name
+     * @param cache
+     *            the backing cache
+     */
+    public CaffeineCache(final String name, final com.github.benmanes.caffeine.cache.Cache<K, V> cache) {
+        this.name = name;
+        this.cache = cache;
+    }
+
+    @Override
+    public V get(final K key) {
+        return key == null ? null : this.cache.getIfPresent(key);
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        return this.cache.asMap().put(key, value);
+    }
+
+    @Override
+    public V remove(final K key) {
+        return this.cache.asMap().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        this.cache.invalidateAll();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, this.cache.estimatedSize());
+    }
+
+    @Override
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(new HashSet<>(this.cache.asMap().keySet()));
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.unmodifiableList(new ArrayList<>(this.cache.asMap().values()));
+    }
+
+    /**
+     * Gets the name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String toString() {
+        return "CaffeineCache [" + this.name + "]";
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.shiro.cache.AbstractCacheManager;
+import org.apache.shiro.cache.Cache;
+
+/**
+ * A Shiro {@link org.apache.shiro.cache.CacheManager} creating bounded Caffeine caches whose entries expire a fixed
+ * time after they were written, so that group membership and password changes are picked up. Realms cache
+ * authentication info only when their <code>authenticationCachingEnabled</code> is set, a changed or revoked password
+ * then keeps working for up to the time to live. For example, in <code>shiro.ini</code>:
+ *
+ * <pre>
+ * cacheManager = waffle.shiro.cache.CaffeineCacheManager
+ * cacheManager.timeToLive = 300
+ * securityManager.cacheManager = $cacheManager
+ * waffleRealm.authenticationCachingEnabled = true
+ * </pre>
+ */
+public class CaffeineCacheManager extends AbstractCacheManager {
+
+    /** The Constant DEFAULT_TIME_TO_LIVE, in seconds. */
+    public static final int DEFAULT_TIME_TO_LIVE = 300;
+
+    /** The Constant DEFAULT_MAXIMUM_SIZE. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** The time to live, in seconds. */
+    private int timeToLive = CaffeineCacheManager.DEFAULT_TIME_TO_LIVE;
+
+    /** The maximum size. */
+    private int maximumSize = CaffeineCacheManager.DEFAULT_MAXIMUM_SIZE;
+
+    @Override
+    protected Cache<Object, Object> createCache(final String name) {
+        return new CaffeineCache<>(name, Caffeine.newBuilder()
+                .expireAfterWrite(this.timeToLive, TimeUnit.SECONDS).maximumSize(this.maximumSize).build());
+    }
+
+    /**
+     * Gets how long, in seconds, an entry is cached.
+     *
+     * @return the time to live
+     */
+    public int getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /**
+     * Sets how long, in seconds, an entry is cached. Only applies to caches created afterwards.
+     *
+     * @param value
+     *            the new time to live
+     */
+    public void setTimeToLive(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid time to live: " + value);
+        }
+        this.timeToLive = value;
+    }
+
+    /**
+     * Gets the maximum number of entries of each cache.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of entries of each cache. Only applies to caches created afterwards.
+     *
+     * @param value
+     *            the new maximum size
+     */
+    public void setMaximumSize(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid maximum size: " + value);
+        }
+        this.maximumSize = value;
+    }
+}
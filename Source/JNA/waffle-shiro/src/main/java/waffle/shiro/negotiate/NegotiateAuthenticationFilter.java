@@ -42,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import waffle.util.AuthorizationHeader;
+import waffle.util.ChallengeResponseWriter;
 import waffle.util.NtlmServletRequest;
 
 /**
@@ -71,6 +72,9 @@ public class NegotiateAuthenticationFilter extends AuthenticatingFilter {
     /** The remember me param. */
     private String rememberMeParam = FormAuthenticationFilter.DEFAULT_REMEMBER_ME_PARAM;
 
+    /** The challenge writer. */
+    private final ChallengeResponseWriter challengeWriter = new ChallengeResponseWriter();
+
     /**
      * Instantiates a new negotiate authentication filter.
      */
@@ -103,6 +107,26 @@ public class NegotiateAuthenticationFilter extends AuthenticatingFilter {
         this.rememberMeParam = value;
     }
 
+    /**
+     * Checks if is lightweight challenge.
+     *
+     * @return true if challenges are committed with an empty body
+     */
+    public boolean isLightweightChallenge() {
+        return this.challengeWriter.isLightweight();
+    }
+
+    /**
+     * Sets whether handshake challenges are committed immediately with an empty body and an explicit content length,
+     * keeping the connection alive for the next leg.
+     *
+     * @param value
+     *            true to enable lightweight challenges
+     */
+    public void setLightweightChallenge(final boolean value) {
+        this.challengeWriter.setLightweight(value);
+    }
+
     @Override
     protected boolean isRememberMe(final ServletRequest request) {
         return WebUtils.isTrue(request, this.getRememberMeParam());
@@ -289,6 +313,14 @@ public class NegotiateAuthenticationFilter extends AuthenticatingFilter {
     private void sendChallenge(final List<String> protocols, final ServletResponse response, final byte[] out) {
         final HttpServletResponse httpResponse = WebUtils.toHttp(response);
         this.sendAuthenticateHeader(protocols, out, httpResponse);
+        if (this.challengeWriter.isLightweight()) {
+            try {
+                this.challengeWriter.sendChallenge(httpResponse);
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         httpResponse.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
     }
 
@@ -30,6 +30,7 @@ import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.realm.AuthenticatingRealm;
+import org.apache.shiro.util.Destroyable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,26 +39,30 @@ import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.IWindowsSecurityContext;
 import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
 
 /**
  * The Class NegotiateAuthenticationRealm.
+ *
+ * The realm shares its provider, and the pending handshakes it keeps, with the other integrations of the process
+ * through the {@link WindowsAuthProviderRegistry} unless <code>sharedProvider</code> is false, and releases it when
+ * the security manager destroys its realms.
  */
-public class NegotiateAuthenticationRealm extends AuthenticatingRealm {
+public class NegotiateAuthenticationRealm extends AuthenticatingRealm implements Destroyable {
 
     /**
      * This class's private logger.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateAuthenticationRealm.class);
 
-    /** The windows auth provider. */
-    private final IWindowsAuthProvider windowsAuthProvider;
+    /** The windows auth provider, acquired on first use. */
+    private volatile IWindowsAuthProvider windowsAuthProvider;
 
-    /**
-     * Instantiates a new negotiate authentication realm.
-     */
-    public NegotiateAuthenticationRealm() {
-        this.windowsAuthProvider = new WindowsAuthProviderImpl();
-    }
+    /** Whether the provider is shared with the other integrations of the process. */
+    private boolean sharedProvider = true;
+
+    /** The continue contexts timeout, in seconds. */
+    private int continueContextsTimeout = WindowsAuthProviderImpl.CONTINUE_CONTEXT_TIMEOUT;
 
     @Override
     public boolean supports(final AuthenticationToken token) {
@@ -72,12 +77,12 @@ public class NegotiateAuthenticationRealm extends AuthenticatingRealm {
 
         if (token.isNtlmPost()) {
             // type 2 NTLM authentication message received
-            this.windowsAuthProvider.resetSecurityToken(token.getConnectionId());
+            this.getWindowsAuthProvider().resetSecurityToken(token.getConnectionId());
         }
 
         final IWindowsSecurityContext securityContext;
         try {
-            securityContext = this.windowsAuthProvider.acceptSecurityToken(token.getConnectionId(), inToken,
+            securityContext = this.getWindowsAuthProvider().acceptSecurityToken(token.getConnectionId(), inToken,
                     token.getSecurityPackage());
         } catch (final Exception e) {
             NegotiateAuthenticationRealm.LOGGER.warn("error logging in user: {}", e.getMessage());
@@ -112,4 +117,84 @@ public class NegotiateAuthenticationRealm extends AuthenticatingRealm {
 
         return token.createInfo();
     }
+
+    /**
+     * Gets the windows auth provider, acquiring it on first use. Only the first call locks, the handshake legs after it
+     * read the volatile field.
+     *
+     * @return the windows auth provider
+     */
+    private IWindowsAuthProvider getWindowsAuthProvider() {
+        IWindowsAuthProvider provider = this.windowsAuthProvider;
+        if (provider == null) {
+            synchronized (this) {
+                provider = this.windowsAuthProvider;
+                if (provider == null) {
+                    provider = this.sharedProvider
+                            ? WindowsAuthProviderRegistry.acquire(this.continueContextsTimeout)
+                            : new WindowsAuthProviderImpl(this.continueContextsTimeout);
+                    this.windowsAuthProvider = provider;
+                }
+            }
+        }
+        return provider;
+    }
+
+    /**
+     * Checks whether the provider is shared with the other integrations of the process.
+     *
+     * @return true, if shared
+     */
+    public boolean isSharedProvider() {
+        return this.sharedProvider;
+    }
+
+    /**
+     * Sets whether the provider is shared with the other integrations of the process. Default is true.
+     *
+     * @param value
+     *            true to share the provider
+     */
+    public void setSharedProvider(final boolean value) {
+        this.sharedProvider = value;
+    }
+
+    /**
+     * Gets the continue contexts timeout.
+     *
+     * @return the seconds a pending handshake is kept between its legs
+     */
+    public int getContinueContextsTimeout() {
+        return this.continueContextsTimeout;
+    }
+
+    /**
+     * Sets the continue contexts timeout. Realms with the same timeout share a provider. Default is 30.
+     *
+     * @param value
+     *            the seconds a pending handshake is kept between its legs
+     */
+    public void setContinueContextsTimeout(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid continue contexts timeout: " + value);
+        }
+        this.continueContextsTimeout = value;
+    }
+
+    /**
+     * Releases the shared provider, or disposes the pending handshakes of a provider of its own.
+     */
+    @Override
+    public synchronized void destroy() {
+        final IWindowsAuthProvider provider = this.windowsAuthProvider;
+        if (provider == null) {
+            return;
+        }
+        this.windowsAuthProvider = null;
+        if (WindowsAuthProviderRegistry.getReferenceCount(provider) > 0) {
+            WindowsAuthProviderRegistry.release(provider);
+        } else if (provider instanceof WindowsAuthProviderImpl) {
+            ((WindowsAuthProviderImpl) provider).dispose();
+        }
+    }
 }
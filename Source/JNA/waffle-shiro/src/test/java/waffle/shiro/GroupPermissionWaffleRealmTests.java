@@ -0,0 +1,116 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authz.UnauthorizedException;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.windows.auth.IWindowsIdentity;
+
+/**
+ * The Class GroupPermissionWaffleRealmTests.
+ */
+public class GroupPermissionWaffleRealmTests {
+
+    /** The realm. */
+    private GroupPermissionWaffleRealm realm;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.realm = new GroupPermissionWaffleRealm();
+        this.realm.setProvider(new MockWindowsAuthProvider() {
+            @Override
+            public IWindowsIdentity logonUser(final String username, final String password) {
+                final List<String> groups = "alice".equals(username)
+                        ? Arrays.asList("EXAMPLE\\Domain Admins", "EXAMPLE\\App-Sales", "Everyone")
+                        : Arrays.asList("OTHER\\Domain Admins", "OTHER\\App-Sales", "Everyone");
+                return new MockWindowsIdentity(username, groups);
+            }
+        });
+        final Map<String, String> rules = new HashMap<>();
+        rules.put("example\\domain admins", "admin:*");
+        rules.put("App-*", "app:read reports:*:view");
+        rules.put("*\\App-Sales", "sales:*");
+        rules.put("Everyone", "home");
+        this.realm.setGroupPermissionsMap(rules);
+        this.realm.setGroupRolesMap(Collections.singletonMap("Everyone", "users"));
+    }
+
+    /**
+     * Test permissions granted by domain qualified and wildcard group rules.
+     */
+    @Test
+    public void testGroupRules() {
+        final PrincipalCollection alice = this.login("alice");
+        Assertions.assertTrue(this.realm.isPermitted(alice, "admin:users:delete"));
+        Assertions.assertTrue(this.realm.isPermitted(alice, "reports:monthly:view"));
+        Assertions.assertTrue(this.realm.isPermitted(alice, new WildcardPermission("sales:orders")));
+        Assertions.assertTrue(this.realm.isPermittedAll(alice, "home:page", "app:read"));
+        Assertions.assertFalse(this.realm.isPermittedAll(alice, "home:page", "app:write"));
+        Assertions.assertTrue(this.realm.hasRole(alice, "users"));
+
+        final PrincipalCollection bob = this.login("bob");
+        Assertions.assertArrayEquals(new boolean[] { false, true, true },
+                this.realm.isPermitted(bob, "admin:users", "app:read", "sales"));
+        Assertions.assertThrows(UnauthorizedException.class, () -> this.realm.checkPermission(bob, "admin"));
+    }
+
+    /**
+     * Test that users matching the same rules share their index.
+     */
+    @Test
+    public void testSharedIndex() {
+        final Object carol = this.realm.buildAuthorizationInfo(this.login("carol").oneByType(WaffleFqnPrincipal.class));
+        final Object bob = this.realm.buildAuthorizationInfo(this.login("bob").oneByType(WaffleFqnPrincipal.class));
+        final Object alice = this.realm.buildAuthorizationInfo(this.login("alice").oneByType(WaffleFqnPrincipal.class));
+        Assertions.assertTrue(carol instanceof PermissionIndex);
+        Assertions.assertSame(carol, bob);
+        Assertions.assertNotSame(alice, bob);
+    }
+
+    /**
+     * Test that invalid permissions are rejected when the rules are set.
+     */
+    @Test
+    public void testInvalidRule() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> this.realm.setGroupPermissionsMap(Collections.singletonMap("Everyone", "home:,")));
+    }
+
+    /**
+     * Logs a user on.
+     *
+     * @param username
+     *            the username
+     * @return the principals
+     */
+    private PrincipalCollection login(final String username) {
+        return this.realm.getAuthenticationInfo(new UsernamePasswordToken(username, "secret")).getPrincipals();
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Class PermissionIndexTests.
+ */
+public class PermissionIndexTests {
+
+    /** The granted permissions. */
+    private static final List<String> GRANTED = Arrays.asList("printer:print,query:lp7200", "document:*:read",
+            "Document:Invoice:Write", "report:*", "admin:*:*", "*:audit", "scanner");
+
+    /** The checked permissions. */
+    private static final List<String> CHECKED = Arrays.asList("printer", "printer:print", "printer:print:lp7200",
+            "printer:query:lp7200", "printer:print,query:lp7200", "printer:manage:lp7200", "printer:print:lp7200:a4",
+            "document:invoice:read", "DOCUMENT:INVOICE:WRITE", "document:invoice:write", "document:*:read",
+            "document:*", "document:invoice", "report", "report:monthly:view", "admin", "admin:users",
+            "admin:users:delete:now", "*", "*:*", "anything:audit", "anything:audit:more", "anything:other", "audit",
+            "scanner:scan", "scanner:*,scan", "unknown", " Printer:print ", "printer::lp7200", "printer: print");
+
+    /**
+     * Test that the index implies the same permissions as the granted wildcard permissions do.
+     */
+    @Test
+    public void testSameAsWildcardPermissions() {
+        final PermissionIndex index = new PermissionIndex(Collections.singleton("role"),
+                PermissionIndexTests.GRANTED);
+        for (final String checked : PermissionIndexTests.CHECKED) {
+            final WildcardPermission permission = new WildcardPermission(checked);
+            boolean expected = false;
+            for (final String granted : PermissionIndexTests.GRANTED) {
+                expected |= new WildcardPermission(granted).implies(permission);
+            }
+            Assertions.assertEquals(Boolean.valueOf(expected), Boolean.valueOf(index.implies(checked)), checked);
+            Assertions.assertEquals(Boolean.valueOf(expected), Boolean.valueOf(index.implies(permission)), checked);
+        }
+        Assertions.assertEquals(Collections.singleton("role"), index.getRoles());
+        Assertions.assertEquals(PermissionIndexTests.GRANTED.size(), index.getStringPermissions().size());
+    }
+
+    /**
+     * Test that permissions spread over several granted ones are not implied, as with wildcard permissions.
+     */
+    @Test
+    public void testSubpartsOfSeveralPermissions() {
+        final PermissionIndex index = new PermissionIndex(Collections.<String> emptySet(),
+                Arrays.asList("printer:print", "printer:query"));
+        Assertions.assertTrue(index.implies("printer:query"));
+        Assertions.assertFalse(index.implies("printer:print,query"));
+        Assertions.assertFalse(new PermissionIndex(Collections.<String> emptySet(), Collections.<String> emptySet())
+                .implies("printer"));
+    }
+
+    /**
+     * Test invalid permissions.
+     */
+    @Test
+    public void testInvalid() {
+        final PermissionIndex index = new PermissionIndex(Collections.<String> emptySet(),
+                Collections.singleton("printer"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> index.implies(" "));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> index.implies(":::"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PermissionIndex(Collections.<String> emptySet(), Collections.singleton("a:,")));
+    }
+
+}
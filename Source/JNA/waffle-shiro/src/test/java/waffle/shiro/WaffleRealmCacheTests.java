@@ -0,0 +1,153 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.shiro;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.authc.credential.DefaultPasswordService;
+import org.apache.shiro.authc.credential.PasswordMatcher;
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.crypto.hash.Hash;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.shiro.cache.CaffeineCacheManager;
+import waffle.windows.auth.IWindowsIdentity;
+
+/**
+ * The Class WaffleRealmCacheTests.
+ */
+public class WaffleRealmCacheTests {
+
+    /** The logons. */
+    private final AtomicInteger logons = new AtomicInteger();
+
+    /** The groups built into authorization info. */
+    private final AtomicInteger authorizations = new AtomicInteger();
+
+    /** The realm. */
+    private GroupMappingWaffleRealm realm;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.realm = new GroupMappingWaffleRealm() {
+            @Override
+            protected AuthorizationInfo buildAuthorizationInfo(final WaffleFqnPrincipal principal) {
+                WaffleRealmCacheTests.this.authorizations.incrementAndGet();
+                return super.buildAuthorizationInfo(principal);
+            }
+        };
+        this.realm.setProvider(new MockWindowsAuthProvider() {
+            @Override
+            public IWindowsIdentity logonUser(final String username, final String password) {
+                WaffleRealmCacheTests.this.logons.incrementAndGet();
+                if (!"secret".equals(password)) {
+                    throw new RuntimeException("Mock error: " + username);
+                }
+                return new MockWindowsIdentity(username, Arrays.asList("Users", "Everyone"));
+            }
+        });
+        this.realm.setGroupRolesMap(Collections.singletonMap("Users", "ShiroUsers"));
+        // a slow hash that cached logons must not compute
+        this.realm.setCredentialsMatcher(new PasswordMatcher());
+        this.realm.setCacheManager(new CaffeineCacheManager());
+        this.realm.setAuthenticationCachingEnabled(true);
+    }
+
+    /**
+     * Test that authentication caching is off unless enabled, as for any Shiro realm.
+     */
+    @Test
+    public void testAuthenticationCacheDisabled() {
+        this.realm.setAuthenticationCachingEnabled(false);
+        this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret"));
+        this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret"));
+        Assertions.assertEquals(2, this.logons.get());
+        Assertions.assertFalse(new GroupMappingWaffleRealm().isAuthenticationCachingEnabled());
+    }
+
+    /**
+     * Test that a cached logon proves the same credentials only, without a logon nor hashing.
+     */
+    @Test
+    public void testAuthenticationCache() {
+        final AuthenticationInfo info = this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret"));
+        Assertions.assertFalse(info.getCredentials() instanceof char[]);
+        Assertions.assertSame(info, this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret")));
+        Assertions.assertEquals(1, this.logons.get());
+
+        Assertions.assertThrows(AuthenticationException.class,
+                () -> this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "wrong")));
+        Assertions.assertThrows(AuthenticationException.class,
+                () -> this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "wrong")));
+        Assertions.assertEquals(3, this.logons.get());
+        Assertions.assertEquals(1, this.realm.getAuthenticationCache().size());
+    }
+
+    /**
+     * Test that authorization info is cached by SID, and the targeted invalidation.
+     */
+    @Test
+    public void testAuthorizationCache() {
+        final PrincipalCollection principals = this.realm
+                .getAuthenticationInfo(new UsernamePasswordToken("alice", "secret")).getPrincipals();
+        Assertions.assertTrue(this.realm.hasRole(principals, "ShiroUsers"));
+        Assertions.assertTrue(this.realm.hasRole(principals, "ShiroUsers"));
+        Assertions.assertEquals(1, this.authorizations.get());
+
+        final String sid = principals.oneByType(WaffleFqnPrincipal.class).getSid();
+        final Cache<Object, ?> authorizationCache = this.realm.getAuthorizationCache();
+        Assertions.assertEquals(Collections.singleton(sid), authorizationCache.keys());
+
+        this.realm.getAuthenticationInfo(new UsernamePasswordToken("bob", "secret"));
+        this.realm.clearCachedInfo(sid);
+        Assertions.assertEquals(0, authorizationCache.size());
+        Assertions.assertEquals(1, this.realm.getAuthenticationCache().size());
+        this.realm.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret"));
+        Assertions.assertEquals(3, this.logons.get());
+
+        this.realm.clearAllCachedInfo();
+        Assertions.assertEquals(0, this.realm.getAuthenticationCache().size());
+    }
+
+    /**
+     * Test that the configured hashing still applies without a cache.
+     */
+    @Test
+    public void testWithoutCache() {
+        final GroupMappingWaffleRealm uncached = new GroupMappingWaffleRealm();
+        uncached.setProvider(new MockWindowsAuthProvider() {
+            @Override
+            public IWindowsIdentity logonUser(final String username, final String password) {
+                return new MockWindowsIdentity(username, Collections.emptyList());
+            }
+        });
+        uncached.setCredentialsMatcher(new PasswordMatcher());
+        final AuthenticationInfo info = uncached.getAuthenticationInfo(new UsernamePasswordToken("alice", "secret"));
+        Assertions.assertTrue(new DefaultPasswordService().passwordsMatch("secret",
+                (Hash) info.getCredentials()));
+    }
+
+}
@@ -12,6 +12,7 @@
 package waffle.spring.boot;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -34,6 +35,9 @@ public class WaffleProperties {
     /** Configuration properties for single-sign-on. */
     private SingleSignOnProperties sso;
 
+    /** Configuration properties for the warm-up. */
+    private WarmUpProperties warmUp;
+
     /**
      * Gets the principal format.
      *
@@ -110,6 +114,25 @@ public class WaffleProperties {
         this.sso = sso;
     }
 
+    /**
+     * Gets the warm up.
+     *
+     * @return the warm up
+     */
+    public WarmUpProperties getWarmUp() {
+        return this.warmUp;
+    }
+
+    /**
+     * Sets the warm up.
+     *
+     * @param warmUp
+     *            the new warm up
+     */
+    public void setWarmUp(final WarmUpProperties warmUp) {
+        this.warmUp = warmUp;
+    }
+
     /**
      * The Class SingleSignOnProperties.
      */
@@ -204,4 +227,55 @@ public class WaffleProperties {
         }
 
     }
+
+    /**
+     * The Class WarmUpProperties.
+     */
+    public static class WarmUpProperties {
+
+        /** Enable or disable warming up the native authentication stack on start. */
+        private boolean enabled = false;
+
+        /** List of groups to resolve during the warm-up. */
+        private List<String> groups = Collections.emptyList();
+
+        /**
+         * Checks if is enabled.
+         *
+         * @return true, if is enabled
+         */
+        public boolean isEnabled() {
+            return this.enabled;
+        }
+
+        /**
+         * Sets the enabled.
+         *
+         * @param enabled
+         *            the new enabled
+         */
+        public void setEnabled(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the groups.
+         *
+         * @return the groups
+         */
+        public List<String> getGroups() {
+            return this.groups;
+        }
+
+        /**
+         * Sets the groups.
+         *
+         * @param groups
+         *            the new groups
+         */
+        public void setGroups(final List<String> groups) {
+            this.groups = groups;
+        }
+
+    }
 }
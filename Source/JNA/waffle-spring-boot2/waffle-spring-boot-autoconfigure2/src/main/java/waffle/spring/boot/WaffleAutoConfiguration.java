@@ -32,6 +32,7 @@ import waffle.spring.NegotiateSecurityFilter;
 import waffle.spring.NegotiateSecurityFilterEntryPoint;
 import waffle.spring.WindowsAuthenticationProvider;
 import waffle.spring.WindowsAuthenticationToken;
+import waffle.util.WarmUp;
 import waffle.windows.auth.impl.WindowsAuthProviderImpl;
 
 /**
@@ -65,6 +66,26 @@ public class WaffleAutoConfiguration {
         return new WindowsAuthProviderImpl();
     }
 
+    /**
+     * The {@link WarmUp} of the native authentication stack, started in the background when the context starts. Its
+     * readiness can be checked with {@link WarmUp#isReady()}. Instantiated only when warm-up is enabled.
+     *
+     * @param windowsAuthProvider
+     *            the windows auth provider
+     * @return the warm up
+     */
+    @Bean(initMethod = "start")
+    @ConditionalOnProperty("waffle.warm-up.enabled")
+    @ConditionalOnMissingBean
+    public WarmUp waffleWarmUp(final WindowsAuthProviderImpl windowsAuthProvider) {
+        final WarmUp bean = new WarmUp(windowsAuthProvider);
+        if (this.properties.getSso() != null) {
+            bean.setSecurityPackages(this.properties.getSso().getProtocols());
+        }
+        bean.setGroups(this.properties.getWarmUp().getGroups());
+        return bean;
+    }
+
     /**
      * The default {@link GrantedAuthority} that is applied to all users. Default can be overridden by defining a bean
      * of type {@link GrantedAuthority} with name "defaultGrantedAuthority".
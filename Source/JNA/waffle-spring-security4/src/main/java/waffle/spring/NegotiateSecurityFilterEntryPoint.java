@@ -23,6 +23,7 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.AuthenticationEntryPoint;
 
 import waffle.servlet.spi.SecurityFilterProviderCollection;
+import waffle.util.ChallengeResponseWriter;
 
 /**
  * Sends back a request for a Negotiate Authentication to the browser.
@@ -37,6 +38,9 @@ public class NegotiateSecurityFilterEntryPoint implements AuthenticationEntryPoi
     /** The provider. */
     private SecurityFilterProviderCollection provider;
 
+    /** The challenge writer. */
+    private final ChallengeResponseWriter challengeWriter = new ChallengeResponseWriter();
+
     /**
      * Instantiates a new negotiate security filter entry point.
      */
@@ -54,9 +58,15 @@ public class NegotiateSecurityFilterEntryPoint implements AuthenticationEntryPoi
             throw new ServletException("Missing NegotiateEntryPoint.Provider");
         }
 
+        if (this.challengeWriter.isLightweight()) {
+            this.provider.sendUnauthorized(request, response);
+            this.challengeWriter.sendChallenge(response);
+            return;
+        }
+
         response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
         response.setHeader("Connection", "keep-alive");
-        this.provider.sendUnauthorized(response);
+        this.provider.sendUnauthorized(request, response);
         response.flushBuffer();
     }
 
@@ -78,4 +88,24 @@ public class NegotiateSecurityFilterEntryPoint implements AuthenticationEntryPoi
     public void setProvider(final SecurityFilterProviderCollection value) {
         this.provider = value;
     }
+
+    /**
+     * Checks if is lightweight challenge.
+     *
+     * @return true if the challenge is written with an explicit empty body
+     */
+    public boolean isLightweightChallenge() {
+        return this.challengeWriter.isLightweight();
+    }
+
+    /**
+     * Sets the lightweight challenge. When enabled the challenge is committed with an empty body and an explicit
+     * content length so the connection stays alive for the next handshake leg.
+     *
+     * @param value
+     *            the new lightweight challenge
+     */
+    public void setLightweightChallenge(final boolean value) {
+        this.challengeWriter.setLightweight(value);
+    }
 }
@@ -202,7 +202,7 @@ public class DelegatingNegotiateSecurityFilter extends NegotiateSecurityFilter {
                 DelegatingNegotiateSecurityFilter.LOGGER.trace("", e);
             }
         }
-        super.sendUnauthorized(response, true);
+        super.sendUnauthorized(request, response, true);
     }
 
     /**
@@ -232,7 +232,7 @@ public class DelegatingNegotiateSecurityFilter extends NegotiateSecurityFilter {
             }
         }
         // fallback
-        this.sendUnauthorized(response, true);
+        this.sendUnauthorized(request, response, true);
     }
 
     /**
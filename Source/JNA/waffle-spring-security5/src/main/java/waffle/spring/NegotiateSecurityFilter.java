@@ -102,13 +102,13 @@ public class NegotiateSecurityFilter extends GenericFilterBean {
             } catch (final IOException e) {
                 NegotiateSecurityFilter.LOGGER.warn("error logging in user: {}", e.getMessage());
                 NegotiateSecurityFilter.LOGGER.trace("", e);
-                this.sendUnauthorized(response, true);
+                this.sendUnauthorized(request, response, true);
                 return;
             }
 
             if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
                 NegotiateSecurityFilter.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
-                this.sendUnauthorized(response, true);
+                this.sendUnauthorized(request, response, true);
                 return;
             }
 
@@ -187,8 +187,27 @@ public class NegotiateSecurityFilter extends GenericFilterBean {
      *            Close connection.
      */
     protected void sendUnauthorized(final HttpServletResponse response, final boolean close) {
+        this.sendUnauthorized(null, response, close);
+    }
+
+    /**
+     * Send a 401 Unauthorized along with protocol authentication headers adapted to the request.
+     *
+     * @param request
+     *            HTTP Request, null to advertise all configured protocols
+     * @param response
+     *            HTTP Response
+     * @param close
+     *            Close connection.
+     */
+    protected void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response,
+            final boolean close) {
         try {
-            this.provider.sendUnauthorized(response);
+            if (request == null) {
+                this.provider.sendUnauthorized(response);
+            } else {
+                this.provider.sendUnauthorized(request, response);
+            }
             if (close) {
                 response.setHeader("Connection", "close");
             } else {
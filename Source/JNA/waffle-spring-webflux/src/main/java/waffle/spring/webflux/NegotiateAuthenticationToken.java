@@ -0,0 +1,112 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import java.util.Collections;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+
+/**
+ * An unauthenticated Negotiate or NTLM token received from a client, as converted from the
+ * <code>Authorization</code> header of a request.
+ */
+public class NegotiateAuthenticationToken extends AbstractAuthenticationToken {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The security package. */
+    private final String securityPackage;
+
+    /** The token. */
+    private final byte[] token;
+
+    /** The connection id. */
+    private final String connectionId;
+
+    /** The final token of a completed handshake, sent back for mutual authentication. */
+    private volatile byte[] responseToken;
+
+    /**
+     * Instantiates a new negotiate authentication token.
+     *
+     * @param securityPackage
+     *            the security package, Negotiate or NTLM
+     * @param token
+     *            the token
+     * @param connectionId
+     *            the id of the connection the handshake runs on
+     */
+    public NegotiateAuthenticationToken(final String securityPackage, final byte[] token, final String connectionId) {
+        super(Collections.emptyList());
+        this.securityPackage = securityPackage;
+        this.token = token;
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * Gets the security package.
+     *
+     * @return the security package
+     */
+    public String getSecurityPackage() {
+        return this.securityPackage;
+    }
+
+    /**
+     * Gets the token.
+     *
+     * @return the token
+     */
+    public byte[] getToken() {
+        return this.token;
+    }
+
+    /**
+     * Gets the connection id.
+     *
+     * @return the connection id
+     */
+    public String getConnectionId() {
+        return this.connectionId;
+    }
+
+    /**
+     * Gets the final token of a completed handshake.
+     *
+     * @return the response token, null if none
+     */
+    public byte[] getResponseToken() {
+        return this.responseToken;
+    }
+
+    /**
+     * Sets the final token of a completed handshake.
+     *
+     * @param value
+     *            the response token
+     */
+    public void setResponseToken(final byte[] value) {
+        this.responseToken = value;
+    }
+
+    @Override
+    public Object getCredentials() {
+        return this.token;
+    }
+
+    @Override
+    public Object getPrincipal() {
+        return this.connectionId;
+    }
+
+}
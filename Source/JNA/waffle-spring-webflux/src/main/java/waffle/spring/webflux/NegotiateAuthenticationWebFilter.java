@@ -0,0 +1,154 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import java.util.Base64;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.server.ServerAuthenticationEntryPoint;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.context.ServerSecurityContextRepository;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A reactive Negotiate, NTLM and Basic authentication filter.
+ *
+ * Requests carrying credentials are authenticated by the {@link ReactiveAuthenticationManager}, typically a
+ * {@link NegotiateReactiveAuthenticationManager}; the resulting {@link waffle.spring.WindowsAuthenticationToken} is
+ * put in the {@link ReactiveSecurityContextHolder} of the rest of the chain. Intermediate handshake legs and failures
+ * are answered by the entry point. Requests without credentials pass through unauthenticated, for the authorization
+ * rules of the chain to challenge them.
+ */
+public class NegotiateAuthenticationWebFilter implements WebFilter {
+
+    /** The authentication manager. */
+    private final ReactiveAuthenticationManager authenticationManager;
+
+    /** The authentication converter. */
+    private ServerAuthenticationConverter authenticationConverter = new NegotiateServerAuthenticationConverter();
+
+    /** The authentication entry point. */
+    private ServerAuthenticationEntryPoint authenticationEntryPoint = new NegotiateServerAuthenticationEntryPoint();
+
+    /** The security context repository. */
+    private ServerSecurityContextRepository securityContextRepository = NoOpServerSecurityContextRepository
+            .getInstance();
+
+    /**
+     * Instantiates a new negotiate authentication web filter.
+     *
+     * @param authenticationManager
+     *            the authentication manager
+     */
+    public NegotiateAuthenticationWebFilter(final ReactiveAuthenticationManager authenticationManager) {
+        this.authenticationManager = authenticationManager;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        return this.authenticationConverter.convert(exchange)
+                .switchIfEmpty(Mono.defer(() -> chain.filter(exchange).then(Mono.empty())))
+                .flatMap(token -> this.authenticate(exchange, chain, token));
+    }
+
+    /**
+     * Authenticates the credentials of a request.
+     *
+     * @param exchange
+     *            the exchange
+     * @param chain
+     *            the chain
+     * @param token
+     *            the converted credentials
+     * @return completion of the request
+     */
+    private Mono<Void> authenticate(final ServerWebExchange exchange, final WebFilterChain chain,
+            final Authentication token) {
+        return this.authenticationManager.authenticate(token)
+                .switchIfEmpty(Mono.defer(() -> Mono
+                        .error(new BadCredentialsException("Unsupported authentication: " + token.getClass()))))
+                .flatMap(authentication -> this.onAuthenticationSuccess(exchange, chain, token, authentication))
+                .onErrorResume(AuthenticationException.class,
+                        e -> this.authenticationEntryPoint.commence(exchange, e));
+    }
+
+    /**
+     * Continues the chain with an authenticated security context.
+     *
+     * @param exchange
+     *            the exchange
+     * @param chain
+     *            the chain
+     * @param token
+     *            the converted credentials
+     * @param authentication
+     *            the authentication
+     * @return completion of the request
+     */
+    private Mono<Void> onAuthenticationSuccess(final ServerWebExchange exchange, final WebFilterChain chain,
+            final Authentication token, final Authentication authentication) {
+        if (token instanceof NegotiateAuthenticationToken) {
+            final NegotiateAuthenticationToken negotiateToken = (NegotiateAuthenticationToken) token;
+            final byte[] responseToken = negotiateToken.getResponseToken();
+            if (responseToken != null) {
+                // mutual authentication
+                exchange.getResponse().getHeaders().add(HttpHeaders.WWW_AUTHENTICATE,
+                        negotiateToken.getSecurityPackage() + " " + Base64.getEncoder().encodeToString(responseToken));
+            }
+        }
+        final SecurityContextImpl securityContext = new SecurityContextImpl(authentication);
+        return this.securityContextRepository.save(exchange, securityContext).then(chain.filter(exchange))
+                .subscriberContext(ReactiveSecurityContextHolder.withSecurityContext(Mono.just(securityContext)));
+    }
+
+    /**
+     * Sets the authentication converter.
+     *
+     * @param value
+     *            the new authentication converter
+     */
+    public void setAuthenticationConverter(final ServerAuthenticationConverter value) {
+        this.authenticationConverter = value;
+    }
+
+    /**
+     * Sets the authentication entry point answering intermediate handshake legs and failures.
+     *
+     * @param value
+     *            the new authentication entry point
+     */
+    public void setAuthenticationEntryPoint(final ServerAuthenticationEntryPoint value) {
+        this.authenticationEntryPoint = value;
+    }
+
+    /**
+     * Sets the security context repository. Default is stateless.
+     *
+     * @param value
+     *            the new security context repository
+     */
+    public void setSecurityContextRepository(final ServerSecurityContextRepository value) {
+        this.securityContextRepository = value;
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Signals that a Negotiate or NTLM handshake needs another leg. The continue token must be sent to the client in a
+ * <code>401</code> challenge.
+ */
+public class NegotiateContinueException extends AuthenticationException {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The security package. */
+    private final String securityPackage;
+
+    /** The continue token. */
+    private final byte[] continueToken;
+
+    /**
+     * Instantiates a new negotiate continue exception.
+     *
+     * @param securityPackage
+     *            the security package
+     * @param continueToken
+     *            the continue token
+     */
+    public NegotiateContinueException(final String securityPackage, final byte[] continueToken) {
+        super("continue required");
+        this.securityPackage = securityPackage;
+        this.continueToken = continueToken;
+    }
+
+    /**
+     * Gets the security package.
+     *
+     * @return the security package
+     */
+    public String getSecurityPackage() {
+        return this.securityPackage;
+    }
+
+    /**
+     * Gets the continue token.
+     *
+     * @return the continue token
+     */
+    public byte[] getContinueToken() {
+        return this.continueToken;
+    }
+
+}
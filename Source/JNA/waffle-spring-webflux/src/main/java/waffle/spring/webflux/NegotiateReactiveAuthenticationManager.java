@@ -0,0 +1,330 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import com.sun.jna.platform.win32.Win32Exception;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.spring.GrantedAuthorityFactory;
+import waffle.spring.GuestLoginDisabledAuthenticationException;
+import waffle.spring.WindowsAuthenticationToken;
+import waffle.util.NtlmMessage;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.PrincipalFormat;
+
+/**
+ * A reactive authentication manager running Negotiate, NTLM and Basic logons.
+ *
+ * The native calls of the windows auth provider block, so they run on a bounded {@link Scheduler} and never on the
+ * thread subscribing, typically a Netty event loop. A handshake that needs another leg fails with a
+ * {@link NegotiateContinueException} carrying the continue token; a completed one yields a
+ * {@link WindowsAuthenticationToken}.
+ */
+public class NegotiateReactiveAuthenticationManager implements ReactiveAuthenticationManager {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateReactiveAuthenticationManager.class);
+
+    /** The Constant DEFAULT_POOL_SIZE. */
+    public static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    /** The auth provider. */
+    private final IWindowsAuthProvider authProvider;
+
+    /** The scheduler. */
+    private Scheduler scheduler;
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /** The granted authority factory. */
+    private GrantedAuthorityFactory grantedAuthorityFactory = WindowsAuthenticationToken.DEFAULT_GRANTED_AUTHORITY_FACTORY;
+
+    /** The default granted authority. */
+    private GrantedAuthority defaultGrantedAuthority = WindowsAuthenticationToken.DEFAULT_GRANTED_AUTHORITY;
+
+    /**
+     * Instantiates a new negotiate reactive authentication manager, running native calls on a dedicated scheduler of
+     * {@link #DEFAULT_POOL_SIZE} daemon threads.
+     *
+     * @param authProvider
+     *            the auth provider
+     */
+    public NegotiateReactiveAuthenticationManager(final IWindowsAuthProvider authProvider) {
+        this(authProvider,
+                Schedulers.newParallel("waffle-sspi", NegotiateReactiveAuthenticationManager.DEFAULT_POOL_SIZE, true));
+    }
+
+    /**
+     * Instantiates a new negotiate reactive authentication manager.
+     *
+     * @param authProvider
+     *            the auth provider
+     * @param scheduler
+     *            the bounded scheduler native calls run on
+     */
+    public NegotiateReactiveAuthenticationManager(final IWindowsAuthProvider authProvider,
+            final Scheduler scheduler) {
+        this.authProvider = authProvider;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Mono<Authentication> authenticate(final Authentication authentication) {
+        if (authentication instanceof NegotiateAuthenticationToken) {
+            return Mono.fromCallable(() -> this.negotiate((NegotiateAuthenticationToken) authentication))
+                    .subscribeOn(this.scheduler);
+        }
+        if (authentication instanceof UsernamePasswordAuthenticationToken) {
+            return Mono.fromCallable(() -> this.logon(authentication.getName(),
+                    String.valueOf(authentication.getCredentials()))).subscribeOn(this.scheduler);
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * Runs a leg of a Negotiate or NTLM handshake.
+     *
+     * @param token
+     *            the token
+     * @return the authentication
+     */
+    private Authentication negotiate(final NegotiateAuthenticationToken token) {
+        final String connectionId = token.getConnectionId();
+        final byte[] tokenBytes = token.getToken();
+        NegotiateReactiveAuthenticationManager.LOGGER.debug("security package: {}, connection id: {}, {} byte(s)",
+                token.getSecurityPackage(), connectionId, Integer.valueOf(tokenBytes.length));
+
+        if (NtlmMessage.isNtlmMessage(tokenBytes) && NtlmMessage.getMessageType(tokenBytes) == 1) {
+            // type 1 NTLM authentication message starts a new handshake
+            this.authProvider.resetSecurityToken(connectionId);
+        }
+
+        final IWindowsSecurityContext securityContext;
+        try {
+            securityContext = this.authProvider.acceptSecurityToken(connectionId, tokenBytes,
+                    token.getSecurityPackage());
+        } catch (final Win32Exception e) {
+            NegotiateReactiveAuthenticationManager.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateReactiveAuthenticationManager.LOGGER.trace("", e);
+            throw new BadCredentialsException(e.getMessage(), e);
+        }
+        NegotiateReactiveAuthenticationManager.LOGGER.debug("continue required: {}",
+                Boolean.valueOf(securityContext.isContinue()));
+
+        if (securityContext.isContinue()) {
+            // the provider keeps the context for the next leg
+            throw new NegotiateContinueException(token.getSecurityPackage(), securityContext.getToken());
+        }
+
+        final byte[] responseToken = securityContext.getToken();
+        if (responseToken != null && responseToken.length > 0) {
+            token.setResponseToken(responseToken);
+        }
+
+        final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+        try {
+            return this.createToken(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+            securityContext.dispose();
+        }
+    }
+
+    /**
+     * Logs a user on with a username and password.
+     *
+     * @param username
+     *            the username
+     * @param password
+     *            the password
+     * @return the authentication
+     */
+    private Authentication logon(final String username, final String password) {
+        final IWindowsIdentity windowsIdentity;
+        try {
+            windowsIdentity = this.authProvider.logonUser(username, password);
+        } catch (final Win32Exception e) {
+            NegotiateReactiveAuthenticationManager.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateReactiveAuthenticationManager.LOGGER.trace("", e);
+            throw new BadCredentialsException(e.getMessage(), e);
+        }
+        try {
+            return this.createToken(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+        }
+    }
+
+    /**
+     * Creates the authentication token of a logged on windows identity.
+     *
+     * @param windowsIdentity
+     *            the windows identity
+     * @return the windows authentication token
+     */
+    private WindowsAuthenticationToken createToken(final IWindowsIdentity windowsIdentity) {
+        NegotiateReactiveAuthenticationManager.LOGGER.debug("logged in user: {} ({})", windowsIdentity.getFqn(),
+                windowsIdentity.getSidString());
+
+        if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+            NegotiateReactiveAuthenticationManager.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+            throw new GuestLoginDisabledAuthenticationException(windowsIdentity.getFqn());
+        }
+
+        final WindowsPrincipal windowsPrincipal = new WindowsPrincipal(windowsIdentity, this.principalFormat,
+                this.roleFormat);
+        NegotiateReactiveAuthenticationManager.LOGGER.debug("roles: {}", windowsPrincipal.getRolesString());
+
+        NegotiateReactiveAuthenticationManager.LOGGER.info("successfully logged in user: {}",
+                windowsIdentity.getFqn());
+        return new WindowsAuthenticationToken(windowsPrincipal, this.grantedAuthorityFactory,
+                this.defaultGrantedAuthority);
+    }
+
+    /**
+     * Gets the scheduler.
+     *
+     * @return the scheduler
+     */
+    public Scheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Sets the scheduler native calls run on. It should be bounded, since each of its threads may block.
+     *
+     * @param value
+     *            the new scheduler
+     */
+    public void setScheduler(final Scheduler value) {
+        this.scheduler = value;
+    }
+
+    /**
+     * Gets the principal format.
+     *
+     * @return the principal format
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Sets the principal format.
+     *
+     * @param value
+     *            the new principal format
+     */
+    public void setPrincipalFormat(final String value) {
+        this.principalFormat = PrincipalFormat.valueOf(value.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Gets the role format.
+     *
+     * @return the role format
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * Sets the role format.
+     *
+     * @param value
+     *            the new role format
+     */
+    public void setRoleFormat(final String value) {
+        this.roleFormat = PrincipalFormat.valueOf(value.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Checks if is allow guest login.
+     *
+     * @return true, if is allow guest login
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Sets the allow guest login.
+     *
+     * @param value
+     *            the new allow guest login
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+    }
+
+    /**
+     * Gets the granted authority factory.
+     *
+     * @return the granted authority factory
+     */
+    public GrantedAuthorityFactory getGrantedAuthorityFactory() {
+        return this.grantedAuthorityFactory;
+    }
+
+    /**
+     * Sets the granted authority factory.
+     *
+     * @param value
+     *            the new granted authority factory
+     */
+    public void setGrantedAuthorityFactory(final GrantedAuthorityFactory value) {
+        this.grantedAuthorityFactory = value;
+    }
+
+    /**
+     * Gets the default granted authority.
+     *
+     * @return the default granted authority
+     */
+    public GrantedAuthority getDefaultGrantedAuthority() {
+        return this.defaultGrantedAuthority;
+    }
+
+    /**
+     * Sets the default granted authority.
+     *
+     * @param value
+     *            the new default granted authority
+     */
+    public void setDefaultGrantedAuthority(final GrantedAuthority value) {
+        this.defaultGrantedAuthority = value;
+    }
+
+}
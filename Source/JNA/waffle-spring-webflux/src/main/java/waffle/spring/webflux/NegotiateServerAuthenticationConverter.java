@@ -0,0 +1,113 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import java.net.InetSocketAddress;
+import java.util.Base64;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.security.web.server.authentication.ServerHttpBasicAuthenticationConverter;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Converts the <code>Authorization</code> header of a request into a {@link NegotiateAuthenticationToken} for
+ * Negotiate and NTLM, or into a username/password token for Basic when enabled. Requests without a supported header
+ * convert to an empty result.
+ */
+public class NegotiateServerAuthenticationConverter implements ServerAuthenticationConverter {
+
+    /** The Constant NEGOTIATE. */
+    private static final String NEGOTIATE = "Negotiate";
+
+    /** The Constant NTLM. */
+    private static final String NTLM = "NTLM";
+
+    /** The basic converter. */
+    private final ServerHttpBasicAuthenticationConverter basicConverter = new ServerHttpBasicAuthenticationConverter();
+
+    /** The basic enabled. */
+    private boolean basicEnabled;
+
+    @Override
+    public Mono<Authentication> convert(final ServerWebExchange exchange) {
+        final ServerHttpRequest request = exchange.getRequest();
+        final String header = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (header == null || header.isEmpty()) {
+            return Mono.empty();
+        }
+        final int space = header.indexOf(' ');
+        final String securityPackage = space < 0 ? header : header.substring(0, space);
+        if (NegotiateServerAuthenticationConverter.NEGOTIATE.equalsIgnoreCase(securityPackage)
+                || NegotiateServerAuthenticationConverter.NTLM.equalsIgnoreCase(securityPackage)) {
+            final String token = space < 0 ? "" : header.substring(space + 1).trim();
+            if (token.isEmpty()) {
+                return Mono.empty();
+            }
+            final byte[] tokenBytes;
+            try {
+                tokenBytes = Base64.getDecoder().decode(token);
+            } catch (final IllegalArgumentException e) {
+                return Mono.empty();
+            }
+            return Mono.just(new NegotiateAuthenticationToken(
+                    NegotiateServerAuthenticationConverter.NEGOTIATE.equalsIgnoreCase(securityPackage)
+                            ? NegotiateServerAuthenticationConverter.NEGOTIATE
+                            : NegotiateServerAuthenticationConverter.NTLM,
+                    tokenBytes, NegotiateServerAuthenticationConverter.getConnectionId(request)));
+        }
+        if (this.basicEnabled) {
+            return this.basicConverter.convert(exchange);
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * Returns the id of the connection a request was received on, the remote address and port of the client. When
+     * the remote address is unknown the request id is used, so that a handshake is never shared between clients.
+     *
+     * @param request
+     *            the request
+     * @return the connection id
+     */
+    public static String getConnectionId(final ServerHttpRequest request) {
+        final InetSocketAddress remoteAddress = request.getRemoteAddress();
+        if (remoteAddress == null) {
+            return "request:" + request.getId();
+        }
+        return String.join(":", remoteAddress.getHostString(), String.valueOf(remoteAddress.getPort()));
+    }
+
+    /**
+     * Checks if Basic authentication is enabled.
+     *
+     * @return true, if is basic enabled
+     */
+    public boolean isBasicEnabled() {
+        return this.basicEnabled;
+    }
+
+    /**
+     * Sets whether Basic authentication is enabled. Default is false.
+     *
+     * @param value
+     *            the new basic enabled
+     */
+    public void setBasicEnabled(final boolean value) {
+        this.basicEnabled = value;
+    }
+
+}
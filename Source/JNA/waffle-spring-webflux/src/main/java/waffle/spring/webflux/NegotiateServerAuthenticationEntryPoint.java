@@ -0,0 +1,122 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.server.ServerAuthenticationEntryPoint;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends <code>401</code> challenges: the continue token of a {@link NegotiateContinueException} on a kept-alive
+ * connection, or the supported protocols otherwise. Use it both as the entry point of the security chain and for
+ * failed authentications.
+ */
+public class NegotiateServerAuthenticationEntryPoint implements ServerAuthenticationEntryPoint {
+
+    /** The protocols. */
+    private List<String> protocols = Arrays.asList("Negotiate", "NTLM");
+
+    /** The basic enabled. */
+    private boolean basicEnabled;
+
+    /** The realm. */
+    private String realm = "BasicSecurityFilterProvider";
+
+    @Override
+    public Mono<Void> commence(final ServerWebExchange exchange, final AuthenticationException e) {
+        final ServerHttpResponse response = exchange.getResponse();
+        final HttpHeaders headers = response.getHeaders();
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        if (e instanceof NegotiateContinueException) {
+            final NegotiateContinueException continueException = (NegotiateContinueException) e;
+            headers.add(HttpHeaders.WWW_AUTHENTICATE, continueException.getSecurityPackage() + " "
+                    + Base64.getEncoder().encodeToString(continueException.getContinueToken()));
+            headers.set(HttpHeaders.CONNECTION, "keep-alive");
+        } else {
+            for (final String protocol : this.protocols) {
+                headers.add(HttpHeaders.WWW_AUTHENTICATE, protocol);
+            }
+            if (this.basicEnabled) {
+                headers.add(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"" + this.realm + "\"");
+            }
+        }
+        headers.setContentLength(0);
+        return response.setComplete();
+    }
+
+    /**
+     * Gets the protocols.
+     *
+     * @return the protocols
+     */
+    public List<String> getProtocols() {
+        return this.protocols;
+    }
+
+    /**
+     * Sets the protocols advertised. Default is Negotiate and NTLM.
+     *
+     * @param value
+     *            the new protocols
+     */
+    public void setProtocols(final List<String> value) {
+        this.protocols = value;
+    }
+
+    /**
+     * Checks if Basic authentication is advertised.
+     *
+     * @return true, if is basic enabled
+     */
+    public boolean isBasicEnabled() {
+        return this.basicEnabled;
+    }
+
+    /**
+     * Sets whether Basic authentication is advertised. Default is false.
+     *
+     * @param value
+     *            the new basic enabled
+     */
+    public void setBasicEnabled(final boolean value) {
+        this.basicEnabled = value;
+    }
+
+    /**
+     * Gets the realm.
+     *
+     * @return the realm
+     */
+    public String getRealm() {
+        return this.realm;
+    }
+
+    /**
+     * Sets the Basic realm.
+     *
+     * @param value
+     *            the new realm
+     */
+    public void setRealm(final String value) {
+        this.realm = value;
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.spring.webflux;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.WebFilterChain;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.spring.WindowsAuthenticationToken;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * The Class NegotiateAuthenticationWebFilterTests.
+ */
+public class NegotiateAuthenticationWebFilterTests {
+
+    /** The authentication seen by the chain. */
+    private final AtomicReference<Authentication> authentication = new AtomicReference<>();
+
+    /** The thread the chain ran on. */
+    private final AtomicReference<String> thread = new AtomicReference<>();
+
+    /** The chain. */
+    private final WebFilterChain chain = exchange -> {
+        this.thread.set(Thread.currentThread().getName());
+        return ReactiveSecurityContextHolder.getContext()
+                .doOnNext(context -> this.authentication.set(context.getAuthentication())).then();
+    };
+
+    /**
+     * Creates an exchange.
+     *
+     * @param authorization
+     *            the authorization header, null for none
+     * @return the exchange
+     */
+    private static MockServerWebExchange exchange(final String authorization) {
+        final MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/")
+                .remoteAddress(new InetSocketAddress("127.0.0.1", 1234));
+        if (authorization != null) {
+            request.header(HttpHeaders.AUTHORIZATION, authorization);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    /**
+     * Test that requests without credentials pass through unauthenticated.
+     */
+    @Test
+    public void testNoCredentials() {
+        final NegotiateAuthenticationWebFilter filter = new NegotiateAuthenticationWebFilter(
+                new NegotiateReactiveAuthenticationManager(new MockWindowsAuthProvider()));
+        final MockServerWebExchange exchange = NegotiateAuthenticationWebFilterTests.exchange(null);
+        filter.filter(exchange, this.chain).block();
+        Assertions.assertNotNull(this.thread.get());
+        Assertions.assertNull(this.authentication.get());
+        Assertions.assertNull(exchange.getResponse().getStatusCode());
+    }
+
+    /**
+     * Test a completed handshake, authenticated off the subscribing thread.
+     */
+    @Test
+    public void testNegotiate() {
+        final NegotiateAuthenticationWebFilter filter = new NegotiateAuthenticationWebFilter(
+                new NegotiateReactiveAuthenticationManager(new MockWindowsAuthProvider()));
+        final MockServerWebExchange exchange = NegotiateAuthenticationWebFilterTests.exchange(
+                "Negotiate " + Base64.getEncoder().encodeToString("user".getBytes(StandardCharsets.UTF_8)));
+        filter.filter(exchange, this.chain).block();
+        Assertions.assertTrue(this.authentication.get() instanceof WindowsAuthenticationToken);
+        Assertions.assertEquals("user", this.authentication.get().getName());
+        Assertions.assertTrue(this.thread.get().startsWith("waffle-sspi"));
+    }
+
+    /**
+     * Test that an intermediate leg is answered with the continue token, keeping the context for the next leg.
+     */
+    @Test
+    public void testContinue() {
+        final IWindowsSecurityContext securityContext = Mockito.mock(IWindowsSecurityContext.class);
+        Mockito.when(Boolean.valueOf(securityContext.isContinue())).thenReturn(Boolean.TRUE);
+        Mockito.when(securityContext.getToken()).thenReturn(new byte[] { 1, 2, 3 });
+        final IWindowsAuthProvider provider = Mockito.mock(IWindowsAuthProvider.class);
+        Mockito.when(provider.acceptSecurityToken(Mockito.eq("127.0.0.1:1234"), Mockito.any(), Mockito.eq("NTLM")))
+                .thenReturn(securityContext);
+
+        final NegotiateAuthenticationWebFilter filter = new NegotiateAuthenticationWebFilter(
+                new NegotiateReactiveAuthenticationManager(provider));
+        final MockServerWebExchange exchange = NegotiateAuthenticationWebFilterTests
+                .exchange("NTLM " + Base64.getEncoder().encodeToString(new byte[] { 4, 5, 6 }));
+        filter.filter(exchange, this.chain).block();
+        Assertions.assertNull(this.thread.get());
+        Assertions.assertEquals(HttpStatus.UNAUTHORIZED, exchange.getResponse().getStatusCode());
+        Assertions.assertEquals("NTLM " + Base64.getEncoder().encodeToString(new byte[] { 1, 2, 3 }),
+                exchange.getResponse().getHeaders().getFirst(HttpHeaders.WWW_AUTHENTICATE));
+        Mockito.verify(securityContext, Mockito.never()).dispose();
+    }
+
+    /**
+     * Test that guests are challenged when guest login is disabled.
+     */
+    @Test
+    public void testGuestDisabled() {
+        final NegotiateReactiveAuthenticationManager manager = new NegotiateReactiveAuthenticationManager(
+                new MockWindowsAuthProvider());
+        manager.setAllowGuestLogin(false);
+        final NegotiateServerAuthenticationEntryPoint entryPoint = new NegotiateServerAuthenticationEntryPoint();
+        entryPoint.setBasicEnabled(true);
+        final NegotiateAuthenticationWebFilter filter = new NegotiateAuthenticationWebFilter(manager);
+        filter.setAuthenticationEntryPoint(entryPoint);
+        final MockServerWebExchange exchange = NegotiateAuthenticationWebFilterTests.exchange(
+                "Negotiate " + Base64.getEncoder().encodeToString("Guest".getBytes(StandardCharsets.UTF_8)));
+        filter.filter(exchange, this.chain).block();
+        Assertions.assertNull(this.thread.get());
+        Assertions.assertEquals(HttpStatus.UNAUTHORIZED, exchange.getResponse().getStatusCode());
+        Assertions.assertEquals(3, exchange.getResponse().getHeaders().get(HttpHeaders.WWW_AUTHENTICATE).size());
+    }
+
+}
@@ -0,0 +1,299 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.kerberos;
+
+import com.sun.jna.platform.win32.Win32Exception;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.security.auth.Subject;
+import javax.servlet.ServletException;
+
+import org.apache.kerby.kerberos.kerb.client.JaasKrbUtil;
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.http.SimpleFilterChain;
+import waffle.mock.http.SimpleHttpRequest;
+import waffle.mock.http.SimpleHttpResponse;
+import waffle.servlet.NegotiateSecurityFilter;
+import waffle.util.SecurityIdentifiers;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * Kerberos auth provider tests, against an embedded KDC.
+ */
+public class KerberosAuthProviderTests {
+
+    /** The Constant REALM. */
+    private static final String REALM = "EXAMPLE.COM";
+
+    /** The kdc. */
+    private static SimpleKdcServer kdc;
+
+    /** The client subject. */
+    private static Subject client;
+
+    /** The provider. */
+    private static KerberosAuthProvider provider;
+
+    /**
+     * Starts the KDC and logs the service and the client in.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @BeforeAll
+    public static void setUp() throws Exception {
+        final File workDir = Files.createTempDirectory("waffle-kdc").toFile();
+        KerberosAuthProviderTests.kdc = new SimpleKdcServer();
+        KerberosAuthProviderTests.kdc.setWorkDir(workDir);
+        KerberosAuthProviderTests.kdc.setKdcHost("localhost");
+        KerberosAuthProviderTests.kdc.setKdcRealm(KerberosAuthProviderTests.REALM);
+        KerberosAuthProviderTests.kdc.setAllowUdp(false);
+        try (ServerSocket socket = new ServerSocket(0)) {
+            KerberosAuthProviderTests.kdc.setKdcTcpPort(socket.getLocalPort());
+        }
+        KerberosAuthProviderTests.kdc.init();
+        KerberosAuthProviderTests.kdc.start();
+        System.setProperty("java.security.krb5.conf", new File(workDir, "krb5.conf").getAbsolutePath());
+
+        final File serviceKeytab = new File(workDir, "service.keytab");
+        final File clientKeytab = new File(workDir, "client.keytab");
+        KerberosAuthProviderTests.kdc.createAndExportPrincipals(serviceKeytab,
+                "HTTP/localhost@" + KerberosAuthProviderTests.REALM);
+        KerberosAuthProviderTests.kdc.createAndExportPrincipals(clientKeytab,
+                "alice@" + KerberosAuthProviderTests.REALM);
+
+        KerberosAuthProviderTests.provider = new KerberosAuthProvider(
+                "HTTP/localhost@" + KerberosAuthProviderTests.REALM, serviceKeytab.getAbsolutePath());
+        KerberosAuthProviderTests.client = JaasKrbUtil.loginUsingKeytab("alice@" + KerberosAuthProviderTests.REALM,
+                clientKeytab);
+    }
+
+    /**
+     * Stops the KDC.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @AfterAll
+    public static void tearDown() throws Exception {
+        KerberosAuthProviderTests.kdc.stop();
+    }
+
+    /**
+     * Creates the SPNEGO token of the client for the service.
+     *
+     * @return the token
+     * @throws Exception
+     *             the exception
+     */
+    private static byte[] initiate() throws Exception {
+        return Subject.doAs(KerberosAuthProviderTests.client, (PrivilegedExceptionAction<byte[]>) () -> {
+            final GSSManager manager = GSSManager.getInstance();
+            final GSSContext context = manager.createContext(
+                    manager.createName("HTTP@localhost", GSSName.NT_HOSTBASED_SERVICE), new Oid("1.3.6.1.5.5.2"),
+                    null, GSSContext.DEFAULT_LIFETIME);
+            try {
+                return context.initSecContext(new byte[0], 0, 0);
+            } finally {
+                context.dispose();
+            }
+        });
+    }
+
+    /**
+     * Reads a DER element.
+     *
+     * @param buffer
+     *            the buffer, positioned on the element
+     * @return a view of the element contents
+     */
+    private static ByteBuffer readDer(final ByteBuffer buffer) {
+        buffer.get();
+        int length = buffer.get() & 0xff;
+        if (length > 0x80) {
+            int octets = length & 0x7f;
+            length = 0;
+            while (octets-- > 0) {
+                length = (length << 8) | (buffer.get() & 0xff);
+            }
+        }
+        final ByteBuffer contents = buffer.slice();
+        contents.limit(length);
+        buffer.position(buffer.position() + length);
+        return contents;
+    }
+
+    /**
+     * Extracts the Kerberos token wrapped in a SPNEGO token.
+     *
+     * @param spnego
+     *            the SPNEGO token
+     * @return the Kerberos token
+     */
+    private static byte[] unwrap(final byte[] spnego) {
+        // [APPLICATION 0] { mech OID, [0] NegTokenInit { [0] mechTypes, ..., [2] mechToken OCTET STRING } }
+        final ByteBuffer token = KerberosAuthProviderTests.readDer(ByteBuffer.wrap(spnego));
+        KerberosAuthProviderTests.readDer(token);
+        final ByteBuffer negTokenInit = KerberosAuthProviderTests
+                .readDer(KerberosAuthProviderTests.readDer(token));
+        while ((negTokenInit.get(negTokenInit.position()) & 0xff) != 0xa2) {
+            KerberosAuthProviderTests.readDer(negTokenInit);
+        }
+        final ByteBuffer mechToken = KerberosAuthProviderTests
+                .readDer(KerberosAuthProviderTests.readDer(negTokenInit));
+        final byte[] kerberos = new byte[mechToken.remaining()];
+        mechToken.get(kerberos);
+        return kerberos;
+    }
+
+    /**
+     * Test that a SPNEGO token is accepted in a single leg and mapped to an identity.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testAcceptSecurityToken() throws Exception {
+        final IWindowsSecurityContext context = KerberosAuthProviderTests.provider.acceptSecurityToken("connection",
+                KerberosAuthProviderTests.initiate(), "Negotiate");
+        try {
+            Assertions.assertFalse(context.isContinue());
+            Assertions.assertEquals("alice@" + KerberosAuthProviderTests.REALM, context.getPrincipalName());
+            final IWindowsIdentity identity = context.getIdentity();
+            Assertions.assertEquals(KerberosAuthProviderTests.REALM + "\\alice", identity.getFqn());
+            // the embedded KDC issues tickets without PAC
+            Assertions.assertEquals(SecurityIdentifiers.NULL_SID, identity.getSidString());
+            Assertions.assertEquals(0, identity.getGroups().length);
+            Assertions.assertFalse(identity.isGuest());
+        } finally {
+            context.dispose();
+        }
+    }
+
+    /**
+     * Test that replayed and invalid tokens are rejected like by the native provider.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testRejected() throws Exception {
+        final byte[] token = KerberosAuthProviderTests.initiate();
+        KerberosAuthProviderTests.provider.acceptSecurityToken("first", token, "Negotiate").dispose();
+        Assertions.assertThrows(Win32Exception.class,
+                () -> KerberosAuthProviderTests.provider.acceptSecurityToken("second", token, "Negotiate"));
+        Assertions.assertThrows(Win32Exception.class, () -> KerberosAuthProviderTests.provider
+                .acceptSecurityToken("third", new byte[] { 'N', 'T', 'L', 'M', 'S', 'S', 'P', 0, 1 }, "NTLM"));
+    }
+
+    /**
+     * Test that the ticket of a SPNEGO token is rejected when replayed in a raw Kerberos token.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testRewrappedReplay() throws Exception {
+        final byte[] token = KerberosAuthProviderTests.initiate();
+        KerberosAuthProviderTests.provider.acceptSecurityToken("first", token, "Negotiate").dispose();
+        final byte[] kerberos = KerberosAuthProviderTests.unwrap(token);
+        Assertions.assertEquals(0x60, kerberos[0] & 0xff);
+        Assertions.assertThrows(Win32Exception.class,
+                () -> KerberosAuthProviderTests.provider.acceptSecurityToken("second", kerberos, "Kerberos"));
+    }
+
+    /**
+     * Test that the PAC is found in AD-IF-RELEVANT elements, and that truncated and oversized lengths are rejected like
+     * logon failures.
+     */
+    @Test
+    public void testMalformedAuthorizationData() {
+        // AD-IF-RELEVANT { { ad-type 128, ad-data 0xff } }
+        final byte[] data = { 0x30, 0x0d, 0x30, 0x0b, (byte) 0xa0, 0x04, 0x02, 0x02, 0x00, (byte) 0x80, (byte) 0xa1,
+                0x03, 0x04, 0x01, (byte) 0xff };
+        final ByteBuffer pac = KerberosAuthProvider.findPac(1, ByteBuffer.wrap(data), 0);
+        Assertions.assertEquals(1, pac.remaining());
+        Assertions.assertEquals((byte) 0xff, pac.get());
+
+        Assertions.assertThrows(KerberosException.class,
+                () -> KerberosAuthProvider.findPac(1, ByteBuffer.wrap(Arrays.copyOf(data, 10)), 0));
+        Assertions.assertThrows(KerberosException.class,
+                () -> KerberosAuthProvider.findPac(1, ByteBuffer.wrap(Arrays.copyOf(data, 1)), 0));
+        for (final int length : new int[] { 0x7f, 0x80, 0x81, 0x84, 0xff }) {
+            final byte[] oversized = data.clone();
+            oversized[3] = (byte) length;
+            Assertions.assertThrows(KerberosException.class,
+                    () -> KerberosAuthProvider.findPac(1, ByteBuffer.wrap(oversized), 0));
+        }
+        final byte[] adType = data.clone();
+        adType[7] = 0x00;
+        Assertions.assertThrows(KerberosException.class,
+                () -> KerberosAuthProvider.findPac(1, ByteBuffer.wrap(adType), 0));
+    }
+
+    /**
+     * Test that the calls needing the Windows API fail like logon failures.
+     */
+    @Test
+    public void testWindowsApiRequired() {
+        Assertions.assertThrows(Win32Exception.class,
+                () -> KerberosAuthProviderTests.provider.logonUser("alice", "password"));
+        Assertions.assertThrows(Win32Exception.class,
+                () -> KerberosAuthProviderTests.provider.lookupAccount("alice"));
+        Assertions.assertThrows(Win32Exception.class, () -> KerberosAuthProviderTests.provider.getDomains());
+    }
+
+    /**
+     * Test that the security filter authenticates with the provider outside of Windows.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testSecurityFilter() throws Exception {
+        final NegotiateSecurityFilter filter = new NegotiateSecurityFilter();
+        filter.setAuth(KerberosAuthProviderTests.provider);
+        filter.init(null);
+        try {
+            final SimpleHttpRequest request = new SimpleHttpRequest();
+            request.setMethod("GET");
+            request.addHeader("Authorization",
+                    "Negotiate " + Base64.getEncoder().encodeToString(KerberosAuthProviderTests.initiate()));
+            final SimpleFilterChain chain = new SimpleFilterChain();
+            filter.doFilter(request, new SimpleHttpResponse(), chain);
+            Assertions.assertNotNull(chain.getRequest());
+            Assertions.assertEquals(KerberosAuthProviderTests.REALM + "\\alice",
+                    ((javax.servlet.http.HttpServletRequest) chain.getRequest()).getUserPrincipal().getName());
+        } finally {
+            filter.destroy();
+        }
+    }
+
+}
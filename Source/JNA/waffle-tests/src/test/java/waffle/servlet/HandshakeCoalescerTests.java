@@ -0,0 +1,206 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.servlet;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import waffle.mock.MockWindowsIdentity;
+import waffle.mock.http.SimpleHttpRequest;
+
+/**
+ * The Class HandshakeCoalescerTests.
+ */
+public class HandshakeCoalescerTests {
+
+    /** The coalescer. */
+    private HandshakeCoalescer coalescer;
+
+    /** The executor. */
+    private ExecutorService executor;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.coalescer = new HandshakeCoalescer();
+        this.coalescer.setEnabled(true);
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Tear down.
+     */
+    @AfterEach
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Creates a request with a session cookie.
+     *
+     * @param sessionId
+     *            the session id
+     * @return the http servlet request
+     */
+    private static HttpServletRequest newRequest(final String sessionId) {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getRequestedSessionId()).thenReturn(sessionId);
+        Mockito.when(Boolean.valueOf(request.isRequestedSessionIdValid())).thenReturn(Boolean.TRUE);
+        return request;
+    }
+
+    /**
+     * Test that parked requests are attached to the principal of the leading handshake.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     * @throws ExecutionException
+     *             the execution exception
+     */
+    @Test
+    public void testAttach() throws InterruptedException, ExecutionException {
+        final HttpServletRequest request = HandshakeCoalescerTests.newRequest("session1");
+        Assertions.assertNull(this.coalescer.await(request));
+
+        final Future<WindowsPrincipal> parked = this.executor
+                .submit(() -> this.coalescer.await(HandshakeCoalescerTests.newRequest("session1")));
+        final WindowsPrincipal principal = new WindowsPrincipal(new MockWindowsIdentity("user", new ArrayList<>()));
+        while (this.coalescer.getParkedRequests() == 0) {
+            Thread.sleep(10);
+        }
+        this.coalescer.complete(request, principal);
+        Assertions.assertSame(principal, parked.get());
+
+        // the completed handshake is forgotten, a later request of the same client leads a new one
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session1")));
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session2")));
+        Assertions.assertEquals(3, this.coalescer.getLedHandshakes());
+        Assertions.assertEquals(1, this.coalescer.getAttachedRequests());
+    }
+
+    /**
+     * Test that parked requests are challenged after a failed handshake.
+     *
+     * @throws InterruptedException
+     *             the interrupted exception
+     * @throws ExecutionException
+     *             the execution exception
+     */
+    @Test
+    public void testFail() throws InterruptedException, ExecutionException {
+        final HttpServletRequest request = HandshakeCoalescerTests.newRequest("session1");
+        Assertions.assertNull(this.coalescer.await(request));
+
+        final Future<WindowsPrincipal> parked = this.executor
+                .submit(() -> this.coalescer.await(HandshakeCoalescerTests.newRequest("session1")));
+        while (this.coalescer.getParkedRequests() == 0) {
+            Thread.sleep(10);
+        }
+        this.coalescer.fail(request);
+        Assertions.assertNull(parked.get());
+        Assertions.assertEquals(1, this.coalescer.getReleasedRequests());
+
+        // the next request leads a new handshake
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertEquals(2, this.coalescer.getLedHandshakes());
+    }
+
+    /**
+     * Test that parked requests are challenged after the timeout.
+     */
+    @Test
+    public void testTimeout() {
+        this.coalescer.setTimeout(1000);
+        final HttpServletRequest request = HandshakeCoalescerTests.newRequest("session1");
+        final long start = System.nanoTime();
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+        Assertions.assertEquals(1, this.coalescer.getParkedRequests());
+
+        this.coalescer.setMaxParkedPercent(0);
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session2")));
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session2")));
+        Assertions.assertEquals(1, this.coalescer.getParkedRequests());
+
+        this.coalescer.setMaxParkedPercent(HandshakeCoalescer.DEFAULT_MAX_PARKED_PERCENT);
+        this.coalescer.setMaxParkedPerClient(0);
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session3")));
+        Assertions.assertNull(this.coalescer.await(HandshakeCoalescerTests.newRequest("session3")));
+        Assertions.assertEquals(1, this.coalescer.getParkedRequests());
+    }
+
+    /**
+     * Test the defaults hold few container threads for a short while.
+     */
+    @Test
+    public void testDefaults() {
+        Assertions.assertTrue(this.coalescer.getTimeout() < 1000);
+        Assertions.assertEquals(20, this.coalescer.getMaxParked());
+        this.coalescer.setContainerThreads(400);
+        Assertions.assertEquals(40, this.coalescer.getMaxParked());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> this.coalescer.setMaxParkedPercent(101));
+    }
+
+    /**
+     * Test that repeated requests of a client are parked only until the deadline of the handshake they wait for.
+     */
+    @Test
+    public void testDeadline() {
+        this.coalescer.setTimeout(1000);
+        final HttpServletRequest request = HandshakeCoalescerTests.newRequest("session1");
+        final long start = System.nanoTime();
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertNull(this.coalescer.await(request));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        Assertions.assertEquals(1, this.coalescer.getParkedRequests());
+        Assertions.assertEquals(2, this.coalescer.getLedHandshakes());
+    }
+
+    /**
+     * Test client keys.
+     */
+    @Test
+    public void testClientKey() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("User-Agent", "Browser/1.0");
+        Assertions.assertNull(this.coalescer.getClientKey(request));
+        this.coalescer.setKeyByAddress(true);
+        Assertions.assertEquals("address:10.0.0.1|Browser/1.0", this.coalescer.getClientKey(request));
+        Assertions.assertEquals("session:session1",
+                this.coalescer.getClientKey(HandshakeCoalescerTests.newRequest("session1")));
+
+        // a session id the container did not validate is not trusted
+        final HttpServletRequest invalid = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(invalid.getRequestedSessionId()).thenReturn("session1");
+        Assertions.assertNull(this.coalescer.getClientKey(invalid));
+        this.coalescer.setEnabled(false);
+        Assertions.assertNull(this.coalescer.getClientKey(HandshakeCoalescerTests.newRequest("session1")));
+    }
+
+}
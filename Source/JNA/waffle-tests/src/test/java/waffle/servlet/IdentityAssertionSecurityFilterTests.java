@@ -0,0 +1,284 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.http.SimpleFilterChain;
+import waffle.mock.http.SimpleFilterConfig;
+import waffle.mock.http.SimpleHttpRequest;
+import waffle.mock.http.SimpleHttpResponse;
+import waffle.servlet.spi.IdentityAssertionSecurityFilterProvider;
+import waffle.util.IdentityAssertion;
+import waffle.util.IdentityAssertionVerifier;
+import waffle.windows.auth.IWindowsAccount;
+
+/**
+ * Identity assertion security filter tests.
+ */
+public class IdentityAssertionSecurityFilterTests {
+
+    /** The Constant HMAC_KEY. */
+    private static final byte[] HMAC_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** The Constant USER_SID. */
+    private static final String USER_SID = "S-1-5-21-1-2-3-1001";
+
+    /** The filter. */
+    private NegotiateSecurityFilter filter;
+
+    /**
+     * Sets the up.
+     *
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @BeforeEach
+    public void setUp() throws ServletException {
+        final String provider = IdentityAssertionSecurityFilterProvider.class.getName();
+        final SimpleFilterConfig filterConfig = new SimpleFilterConfig();
+        filterConfig.setParameter("securityFilterProviders",
+                provider + " waffle.servlet.spi.NegotiateSecurityFilterProvider");
+        filterConfig.setParameter(provider + "/hmacKey",
+                Base64.getEncoder().encodeToString(IdentityAssertionSecurityFilterTests.HMAC_KEY));
+        filterConfig.setParameter(provider + "/trustedAddresses", "10.0.0.0/8, ::1");
+        this.filter = new NegotiateSecurityFilter();
+        this.filter.setAuth(new MockWindowsAuthProvider());
+        this.filter.init(filterConfig);
+    }
+
+    /**
+     * Tear down.
+     */
+    @AfterEach
+    public void tearDown() {
+        this.filter.destroy();
+    }
+
+    /**
+     * Creates an assertion of the test user, a member of the given groups.
+     *
+     * @param timestamp
+     *            the timestamp in seconds
+     * @param groups
+     *            the groups
+     * @return the identity assertion
+     */
+    private static IdentityAssertion assertion(final long timestamp, final IWindowsAccount... groups) {
+        return new IdentityAssertion(timestamp, UUID.randomUUID().toString(),
+                IdentityAssertionSecurityFilterTests.USER_SID, "DOMAIN\\user", groups);
+    }
+
+    /**
+     * Gets the current time in seconds.
+     *
+     * @return the current time in seconds
+     */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    /**
+     * Signs an assertion with the shared HMAC key.
+     *
+     * @param assertion
+     *            the assertion
+     * @return the header value
+     * @throws GeneralSecurityException
+     *             the general security exception
+     */
+    private static String sign(final IdentityAssertion assertion) throws GeneralSecurityException {
+        final String payload = assertion.encode();
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(IdentityAssertionSecurityFilterTests.HMAC_KEY, "HmacSHA256"));
+        return payload + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Filters a request carrying an assertion.
+     *
+     * @param remoteAddr
+     *            the remote address
+     * @param header
+     *            the assertion header value
+     * @param chain
+     *            the chain
+     * @return the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    private SimpleHttpResponse filter(final String remoteAddr, final String header, final SimpleFilterChain chain)
+            throws IOException, ServletException {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setMethod("GET");
+        request.setRemoteAddr(remoteAddr);
+        request.addHeader(IdentityAssertionSecurityFilterProvider.DEFAULT_HEADER_NAME, header);
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        this.filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    /**
+     * Test that a signed assertion authenticates its user and groups.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testAssertion() throws Exception {
+        final SimpleFilterChain chain = new SimpleFilterChain();
+        this.filter("10.1.2.3",
+                IdentityAssertionSecurityFilterTests.sign(IdentityAssertionSecurityFilterTests.assertion(
+                        IdentityAssertionSecurityFilterTests.now(),
+                        new IdentityAssertion.Account("S-1-5-21-1-2-3-513", "DOMAIN\\Domain Users"))),
+                chain);
+        Assertions.assertNotNull(chain.getRequest());
+        final WindowsPrincipal principal = (WindowsPrincipal) ((NegotiateRequestWrapper) chain.getRequest())
+                .getUserPrincipal();
+        Assertions.assertEquals("DOMAIN\\user", principal.getName());
+        Assertions.assertEquals(IdentityAssertionSecurityFilterTests.USER_SID, principal.getSidString());
+        Assertions.assertTrue(principal.hasRole("DOMAIN\\Domain Users"));
+        Assertions.assertArrayEquals(new byte[] { 1, 2, 0, 0, 0, 0, 0, 5, 32, 0, 0, 0, 32, 2, 0, 0 },
+                new IdentityAssertion(0, null, "S-1-5-32-544", null, new IWindowsAccount[0]).getSid());
+    }
+
+    /**
+     * Test that an assertion is only accepted once.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testReplay() throws Exception {
+        final String header = IdentityAssertionSecurityFilterTests
+                .sign(IdentityAssertionSecurityFilterTests.assertion(IdentityAssertionSecurityFilterTests.now()));
+        final SimpleFilterChain first = new SimpleFilterChain();
+        this.filter("10.1.2.3", header, first);
+        Assertions.assertNotNull(first.getRequest());
+        final SimpleFilterChain chain = new SimpleFilterChain();
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED,
+                this.filter("10.1.2.3", header, chain).getStatus());
+        Assertions.assertNull(chain.getRequest());
+    }
+
+    /**
+     * Test that assertions are rejected once the nonces within the freshness window reached the maximum, rather than
+     * evicting a nonce that could then be replayed.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testNonceCapacity() throws Exception {
+        final IdentityAssertionVerifier verifier = new IdentityAssertionVerifier();
+        verifier.setHmacKey(IdentityAssertionSecurityFilterTests.HMAC_KEY);
+        verifier.setMaximumNonces(2);
+        final String first = IdentityAssertionSecurityFilterTests
+                .sign(IdentityAssertionSecurityFilterTests.assertion(IdentityAssertionSecurityFilterTests.now()));
+        Assertions.assertNotNull(verifier.verify(first));
+        Assertions.assertNotNull(verifier.verify(IdentityAssertionSecurityFilterTests
+                .sign(IdentityAssertionSecurityFilterTests.assertion(IdentityAssertionSecurityFilterTests.now()))));
+        final String third = IdentityAssertionSecurityFilterTests
+                .sign(IdentityAssertionSecurityFilterTests.assertion(IdentityAssertionSecurityFilterTests.now()));
+        Assertions.assertThrows(GeneralSecurityException.class, () -> verifier.verify(third));
+        Assertions.assertThrows(GeneralSecurityException.class, () -> verifier.verify(first));
+    }
+
+    /**
+     * Test that stale, tampered and untrusted assertions are rejected.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testRejected() throws Exception {
+        final SimpleFilterChain chain = new SimpleFilterChain();
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED,
+                this.filter("10.1.2.3", IdentityAssertionSecurityFilterTests.sign(IdentityAssertionSecurityFilterTests
+                        .assertion(IdentityAssertionSecurityFilterTests.now() - 3600)), chain).getStatus());
+        final String header = IdentityAssertionSecurityFilterTests
+                .sign(IdentityAssertionSecurityFilterTests.assertion(IdentityAssertionSecurityFilterTests.now()));
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED,
+                this.filter("192.168.1.1", header, chain).getStatus());
+        final String tampered = IdentityAssertionSecurityFilterTests
+                .assertion(IdentityAssertionSecurityFilterTests.now()).encode()
+                + header.substring(header.lastIndexOf('.'));
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED,
+                this.filter("10.1.2.3", tampered, chain).getStatus());
+        Assertions.assertNull(chain.getRequest());
+    }
+
+    /**
+     * Test an assertion signed with the private key of the front-end, and the guest check.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testPublicKey() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final IdentityAssertionSecurityFilterProvider provider = new IdentityAssertionSecurityFilterProvider(null);
+        provider.initParameter("publicKey", Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+        provider.initParameter("signatureAlgorithm", "SHA256withECDSA");
+
+        final String payload = IdentityAssertionSecurityFilterTests
+                .assertion(IdentityAssertionSecurityFilterTests.now(),
+                        new IdentityAssertion.Account("S-1-5-32-546", "BUILTIN\\Guests"))
+                .encode();
+        final Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(payload.getBytes(StandardCharsets.US_ASCII));
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.addHeader(IdentityAssertionSecurityFilterProvider.DEFAULT_HEADER_NAME,
+                payload + "." + Base64.getUrlEncoder().encodeToString(signature.sign()));
+        Assertions.assertTrue(provider.isAuthenticationRequest(request));
+        Assertions.assertTrue(provider.doFilter(request, new SimpleHttpResponse()).isGuest());
+    }
+
+    /**
+     * Test the filter refuses to impersonate asserted identities.
+     */
+    @Test
+    public void testImpersonateRejected() {
+        final SimpleFilterConfig filterConfig = new SimpleFilterConfig();
+        filterConfig.setParameter("securityFilterProviders", IdentityAssertionSecurityFilterProvider.class.getName());
+        filterConfig.setParameter("impersonate", "true");
+        final NegotiateSecurityFilter impersonating = new NegotiateSecurityFilter();
+        impersonating.setAuth(new MockWindowsAuthProvider());
+        Assertions.assertThrows(ServletException.class, () -> impersonating.init(filterConfig));
+    }
+
+}
@@ -82,6 +82,18 @@ public class WaffleInfoServletTests {
         Assertions.assertEquals("hello", child.getNodeName());
     }
 
+    /**
+     * Test accepts json.
+     */
+    @Test
+    public void testAcceptsJson() {
+        Assertions.assertFalse(WaffleInfoServlet.acceptsJson(null));
+        Assertions.assertFalse(WaffleInfoServlet.acceptsJson("*/*"));
+        Assertions.assertFalse(WaffleInfoServlet.acceptsJson("application/xml, application/json"));
+        Assertions.assertTrue(WaffleInfoServlet.acceptsJson("application/json"));
+        Assertions.assertTrue(WaffleInfoServlet.acceptsJson("Application/JSON;q=1, application/xml;q=0.5"));
+    }
+
     /**
      * Load xml from string.
      *
@@ -0,0 +1,156 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.http.SimpleHttpRequest;
+
+/**
+ * The Class AdaptiveChallengePolicyTests.
+ */
+public class AdaptiveChallengePolicyTests {
+
+    /** The Constant PROTOCOLS. */
+    private static final List<String> PROTOCOLS = Arrays.asList("Negotiate", "NTLM");
+
+    /** The Constant NTLM_TYPE1. */
+    private static final byte[] NTLM_TYPE1 = Base64.getDecoder()
+            .decode("TlRMTVNTUAABAAAABzIAAAYABgArAAAACwALACAAAABXT1JLU1RBVElPTkRPTUFJTg==");
+
+    /** The Constant KERBEROS, a SPNEGO NegTokenInit offering Kerberos. */
+    private static final byte[] KERBEROS = { 0x60, 0x1b, 0x06, 0x06, 0x2b, 0x06, 0x01, 0x05, 0x05, 0x02, (byte) 0xa0,
+            0x11, 0x30, 0x0f, (byte) 0xa0, 0x0d, 0x30, 0x0b, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86,
+            (byte) 0xf7, 0x12, 0x01, 0x02, 0x02 };
+
+    /** The policy. */
+    private AdaptiveChallengePolicy policy;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.policy = new AdaptiveChallengePolicy();
+        this.policy.setEnabled(true);
+        this.policy.setRejectNtlmInNegotiate(true);
+    }
+
+    /**
+     * Creates a request.
+     *
+     * @param remoteAddr
+     *            the remote addr
+     * @return the simple http request
+     */
+    private static SimpleHttpRequest newRequest(final String remoteAddr) {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setRemoteAddr(remoteAddr);
+        request.setRequestURI("/app/index.html");
+        request.addHeader("User-Agent", "Browser/1.0");
+        return request;
+    }
+
+    /**
+     * Test that a Kerberos client on the same network is advertised Negotiate only.
+     */
+    @Test
+    public void testNegotiateOnlyAfterKerberos() {
+        Assertions.assertEquals(AdaptiveChallengePolicyTests.PROTOCOLS,
+                this.policy.getProtocols(AdaptiveChallengePolicyTests.newRequest("10.0.0.1"),
+                        AdaptiveChallengePolicyTests.PROTOCOLS));
+
+        this.policy.recordSuccess(AdaptiveChallengePolicyTests.newRequest("10.0.0.1"), "Negotiate",
+                AdaptiveChallengePolicyTests.KERBEROS);
+
+        final Collection<String> protocols = this.policy.getProtocols(
+                AdaptiveChallengePolicyTests.newRequest("10.0.0.200"), AdaptiveChallengePolicyTests.PROTOCOLS);
+        Assertions.assertEquals(Arrays.asList("Negotiate"), protocols);
+        Assertions.assertEquals(AdaptiveChallengePolicyTests.PROTOCOLS,
+                this.policy.getProtocols(AdaptiveChallengePolicyTests.newRequest("10.0.1.1"),
+                        AdaptiveChallengePolicyTests.PROTOCOLS));
+        Assertions.assertEquals(1, this.policy.getKerberosLogins());
+        Assertions.assertEquals(1, this.policy.getNegotiateOnlyChallenges());
+        Assertions.assertEquals(2, this.policy.getDefaultChallenges());
+    }
+
+    /**
+     * Test that NTLM in Negotiate is rejected once, then the client is forgotten.
+     */
+    @Test
+    public void testRejectNtlmInNegotiateOnce() {
+        final SimpleHttpRequest request = AdaptiveChallengePolicyTests.newRequest("10.0.0.1");
+        Assertions.assertFalse(this.policy.isRejected(request, "Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+
+        this.policy.recordSuccess(request, "Negotiate", AdaptiveChallengePolicyTests.KERBEROS);
+        Assertions.assertFalse(this.policy.isRejected(request, "NTLM", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+        Assertions.assertTrue(this.policy.isRejected(request, "Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+        Assertions.assertFalse(this.policy.isRejected(request, "Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+        Assertions.assertEquals(1, this.policy.getNtlmRejections());
+        Assertions.assertEquals(AdaptiveChallengePolicyTests.PROTOCOLS,
+                this.policy.getProtocols(request, AdaptiveChallengePolicyTests.PROTOCOLS));
+    }
+
+    /**
+     * Test that NTLM logins are not recorded as Kerberos.
+     */
+    @Test
+    public void testNtlmIsNotKerberos() {
+        Assertions.assertTrue(
+                AdaptiveChallengePolicy.isNtlmInNegotiate("Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+        Assertions
+                .assertFalse(AdaptiveChallengePolicy.isKerberos("Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1));
+        Assertions.assertFalse(AdaptiveChallengePolicy.isKerberos("NTLM", AdaptiveChallengePolicyTests.KERBEROS));
+        Assertions.assertTrue(AdaptiveChallengePolicy.isKerberos("Negotiate", AdaptiveChallengePolicyTests.KERBEROS));
+        Assertions.assertFalse(AdaptiveChallengePolicy.isKerberos("Negotiate", new byte[] { 1, 2, 3, 4 }));
+
+        final SimpleHttpRequest request = AdaptiveChallengePolicyTests.newRequest("10.0.0.1");
+        this.policy.recordSuccess(request, "Negotiate", AdaptiveChallengePolicyTests.NTLM_TYPE1);
+        Assertions.assertFalse(this.policy.isKerberosClient(request));
+        Assertions.assertEquals(1, this.policy.getNtlmLogins());
+    }
+
+    /**
+     * Test that the policy can be switched per path and off entirely.
+     */
+    @Test
+    public void testPaths() {
+        final SimpleHttpRequest request = AdaptiveChallengePolicyTests.newRequest("10.0.0.1");
+        this.policy.setPaths(new String[] { "/api/.*" });
+        Assertions.assertFalse(this.policy.isApplicable(request));
+        request.setRequestURI("/api/users");
+        Assertions.assertTrue(this.policy.isApplicable(request));
+        this.policy.setEnabled(false);
+        Assertions.assertFalse(this.policy.isApplicable(request));
+    }
+
+    /**
+     * Test client keys.
+     */
+    @Test
+    public void testClientKey() {
+        final SimpleHttpRequest request = AdaptiveChallengePolicyTests.newRequest("192.168.17.33");
+        Assertions.assertEquals("192.168.17.0/24|Browser/1.0", this.policy.getClientKey(request));
+        this.policy.setKeyByUserAgent(false);
+        this.policy.setNetworkPrefix(16);
+        Assertions.assertEquals("192.168.0.0/16", this.policy.getClientKey(request));
+        request.setRemoteAddr("fe80::1:2:3:4");
+        Assertions.assertEquals("fe80:0:0:0:0:0:0:0/64", this.policy.getClientKey(request));
+    }
+}
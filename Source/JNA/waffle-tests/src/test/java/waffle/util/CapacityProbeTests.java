@@ -0,0 +1,154 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.windows.auth.IWindowsAccount;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * The Class CapacityProbeTests.
+ */
+public class CapacityProbeTests {
+
+    /**
+     * Gets the operations of a workload from a report.
+     *
+     * @param json
+     *            the report
+     * @param workload
+     *            the workload name
+     * @return the operations, -1 when the workload is missing
+     */
+    private static long getOperations(final String json, final String workload) {
+        final Matcher matcher = Pattern.compile("\"name\":\"" + workload + "\",\"operations\":(\\d+)").matcher(json);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Test run with a simulated provider.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testRun() throws IOException {
+        final CapacityProbe probe = new CapacityProbe(new MockWindowsAuthProvider());
+        probe.setThreads(2);
+        probe.setDuration(1);
+        probe.setGroups(true);
+        probe.setLookups(Arrays.asList("Administrator"));
+
+        final StringWriter out = new StringWriter();
+        probe.run(WaffleInfoWriter.json(out));
+        final String json = out.toString();
+
+        Assertions.assertTrue(json.startsWith("{\"provider\":\"" + MockWindowsAuthProvider.class.getName() + "\""),
+                json);
+        Assertions.assertTrue(json.contains("\"threads\":2,"), json);
+        final long handshakes = CapacityProbeTests.getOperations(json, "handshake");
+        Assertions.assertTrue(handshakes > 0, json);
+        Assertions.assertEquals(handshakes, CapacityProbeTests.getOperations(json, "groups"), json);
+        Assertions.assertTrue(CapacityProbeTests.getOperations(json, "lookup") > 0, json);
+        Assertions.assertTrue(json.contains("\"errors\":0,"), json);
+        Assertions.assertTrue(json.contains("\"p99\":"), json);
+        Assertions.assertTrue(json.contains("\"memory\":{\"committedVirtualDelta\":"), json);
+    }
+
+    /**
+     * Test errors are counted by code.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testErrors() throws IOException {
+        final CapacityProbe probe = new CapacityProbe(new MockWindowsAuthProvider() {
+            @Override
+            public IWindowsSecurityContext acceptSecurityToken(final String connectionId, final byte[] token,
+                    final String securityPackage) {
+                throw new IllegalStateException("Mock error");
+            }
+
+            @Override
+            public IWindowsAccount lookupAccount(final String username) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        probe.setThreads(1);
+        probe.setDuration(1);
+
+        final StringWriter out = new StringWriter();
+        probe.run(WaffleInfoWriter.json(out));
+        final String json = out.toString();
+
+        Assertions.assertEquals(0, CapacityProbeTests.getOperations(json, "handshake"), json);
+        Assertions.assertEquals(-1, CapacityProbeTests.getOperations(json, "groups"), json);
+        Assertions.assertEquals(-1, CapacityProbeTests.getOperations(json, "lookup"), json);
+        Assertions.assertTrue(json.contains("\"latencyNanos\":{}"), json);
+        Assertions.assertTrue(json.contains("\"errorCodes\":[{\"code\":\"java.lang.IllegalStateException\",\"count\":"),
+                json);
+    }
+
+    /**
+     * Test the latency histogram buckets cover all values, in order, within 1/32 of the value.
+     */
+    @Test
+    public void testBuckets() {
+        Assertions.assertEquals(0, CapacityProbe.getBucket(-1));
+        Assertions.assertEquals(63, CapacityProbe.getBucket(63));
+        Assertions.assertEquals(Long.MAX_VALUE, CapacityProbe.getBucketValue(CapacityProbe.BUCKETS - 1));
+        long lowest = 0;
+        for (int bucket = 0; bucket < CapacityProbe.BUCKETS; bucket++) {
+            final long highest = CapacityProbe.getBucketValue(bucket);
+            Assertions.assertEquals(bucket, CapacityProbe.getBucket(lowest));
+            Assertions.assertEquals(bucket, CapacityProbe.getBucket(highest));
+            Assertions.assertTrue(highest - lowest <= lowest / 32, Long.toString(lowest));
+            lowest = highest + 1;
+        }
+    }
+
+    /**
+     * Test the command line options.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testBench() throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        options.put("-provider", MockWindowsAuthProvider.class.getName());
+        options.put("-threads", "1");
+        options.put("-duration", "1");
+        options.put("-user", "Guest");
+        final String json = WaffleInfo.bench(options, Collections.<String> emptyList());
+        Assertions.assertTrue(json.contains("\"threads\":1,"), json);
+        Assertions.assertTrue(CapacityProbeTests.getOperations(json, "handshake") > 0, json);
+
+        options.put("-provider", String.class.getName());
+        Assertions.assertThrows(RuntimeException.class,
+                () -> WaffleInfo.bench(options, Collections.<String> emptyList()));
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import waffle.mock.http.SimpleHttpResponse;
+
+/**
+ * The Class ChallengeResponseWriterTests.
+ */
+public class ChallengeResponseWriterTests {
+
+    /**
+     * Test that the default challenge goes through the container error page.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testDefaultChallenge() throws IOException {
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        final ChallengeResponseWriter writer = new ChallengeResponseWriter();
+        Assertions.assertFalse(writer.isLightweight());
+        writer.sendChallenge(response);
+        final InOrder inOrder = Mockito.inOrder(response);
+        inOrder.verify(response).setHeader("Connection", "keep-alive");
+        inOrder.verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+        inOrder.verify(response).flushBuffer();
+        Mockito.verify(response, Mockito.never()).setStatus(Mockito.anyInt());
+    }
+
+    /**
+     * Test that a lightweight challenge sets the status directly with an empty body.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testLightweightChallenge() throws IOException {
+        final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        final ChallengeResponseWriter writer = new ChallengeResponseWriter();
+        writer.setLightweight(true);
+        writer.sendChallenge(response);
+        final InOrder inOrder = Mockito.inOrder(response);
+        inOrder.verify(response).setHeader("Connection", "keep-alive");
+        inOrder.verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        inOrder.verify(response).setContentLength(0);
+        inOrder.verify(response).flushBuffer();
+        Mockito.verify(response, Mockito.never()).sendError(Mockito.anyInt());
+    }
+
+    /**
+     * Test that a challenge can close the connection.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testCloseChallenge() throws IOException {
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        final ChallengeResponseWriter writer = new ChallengeResponseWriter();
+        writer.setLightweight(true);
+        writer.sendChallenge(response, Arrays.asList("Negotiate"), true);
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        Assertions.assertEquals("close", response.getHeader("Connection"));
+    }
+
+    /**
+     * Test that protocols are added as authentication headers.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testProtocols() throws IOException {
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        final ChallengeResponseWriter writer = new ChallengeResponseWriter();
+        writer.setLightweight(true);
+        writer.sendChallenge(response, Arrays.asList("Negotiate", "NTLM"));
+        Assertions.assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        Assertions.assertArrayEquals(new String[] { "Negotiate", "NTLM" },
+                response.getHeaderValues(ChallengeResponseWriter.WWW_AUTHENTICATE));
+        Assertions.assertEquals("keep-alive", response.getHeader("Connection"));
+        Assertions.assertEquals("", response.getOutputText());
+    }
+
+}
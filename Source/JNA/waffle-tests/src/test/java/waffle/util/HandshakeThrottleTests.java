@@ -0,0 +1,243 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.http.SimpleHttpRequest;
+import waffle.mock.http.SimpleHttpResponse;
+import waffle.servlet.spi.SecurityFilterProvider;
+import waffle.servlet.spi.SecurityFilterProviderCollection;
+import waffle.windows.auth.IWindowsIdentity;
+
+/**
+ * The Class HandshakeThrottleTests.
+ */
+public class HandshakeThrottleTests {
+
+    /** The Constant NTLM_TYPE1. */
+    private static final String NTLM_TYPE1 = "TlRMTVNTUAABAAAABzIAAAYABgArAAAACwALACAAAABXT1JLU1RBVElPTkRPTUFJTg==";
+
+    /** The time, in nanoseconds. */
+    private final AtomicLong time = new AtomicLong();
+
+    /** The throttle. */
+    private HandshakeThrottle throttle;
+
+    /**
+     * Sets the up.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.throttle = new HandshakeThrottle(this.time::get);
+        this.throttle.setEnabled(true);
+        this.throttle.setClientLimit(3, 6);
+        this.throttle.setAccountLimit(2, 1);
+    }
+
+    /**
+     * Test that a client is throttled once its burst of failures is spent, and allowed again as its bucket refills.
+     */
+    @Test
+    public void testClientBurstAndRefill() {
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", null));
+            this.throttle.recordFailure("10.0.0.1", null);
+        }
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", null));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.2", null));
+
+        // one failure every ten seconds
+        this.time.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", null));
+        this.time.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", null));
+        this.throttle.recordFailure("10.0.0.1", null);
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", null));
+
+        Assertions.assertEquals(4, this.throttle.getFailures());
+        Assertions.assertEquals(3, this.throttle.getThrottledRequests());
+        Assertions.assertEquals(10, this.throttle.getRetryAfter());
+    }
+
+    /**
+     * Test that an account is throttled for the client address failing with it, ignoring case, and never for the other
+     * client addresses.
+     */
+    @Test
+    public void testAccount() {
+        this.throttle.recordFailure("10.0.0.1", "EXAMPLE\\alice");
+        this.throttle.recordFailure("10.0.0.1", "example\\Alice");
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", "Example\\Alice"));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\bob"));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", null));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.2", "EXAMPLE\\alice"));
+
+        this.time.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\alice"));
+    }
+
+    /**
+     * Test that failures of many clients with an account never throttle the account for another client.
+     */
+    @Test
+    public void testAccountFailuresOfOtherClients() {
+        for (int i = 0; i < 10; i++) {
+            this.throttle.recordFailure("10.0.1." + i, "EXAMPLE\\alice");
+        }
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\alice"));
+    }
+
+    /**
+     * Test that an account is throttled whatever the form of its domain.
+     */
+    @Test
+    public void testAccountDomainForms() {
+        this.throttle.recordFailure("10.0.0.1", "alice");
+        this.throttle.recordFailure("10.0.0.1", "example.com\\alice");
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\alice"));
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", "\\alice"));
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", "Alice@example.com"));
+        Assertions.assertTrue(this.throttle.isThrottled("10.0.0.1", "OTHER\\alice@example.com"));
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\alice2"));
+    }
+
+    /**
+     * Test that nothing is throttled nor recorded when disabled.
+     */
+    @Test
+    public void testDisabled() {
+        this.throttle.setEnabled(false);
+        for (int i = 0; i < 10; i++) {
+            this.throttle.recordFailure("10.0.0.1", "EXAMPLE\\alice");
+        }
+        Assertions.assertFalse(this.throttle.isThrottled("10.0.0.1", "EXAMPLE\\alice"));
+        Assertions.assertEquals(0, this.throttle.getFailures());
+    }
+
+    /**
+     * Test the accounts read from authorization headers.
+     */
+    @Test
+    public void testGetAccount() {
+        final SimpleHttpRequest basic = new SimpleHttpRequest();
+        basic.addHeader("Authorization", "Basic "
+                + Base64.getEncoder().encodeToString("EXAMPLE\\alice:secret:1".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals("EXAMPLE\\alice", HandshakeThrottle.getAccount(new AuthorizationHeader(basic)));
+
+        final SimpleHttpRequest ntlm = new SimpleHttpRequest();
+        ntlm.addHeader("Authorization", "NTLM " + HandshakeThrottleTests.NTLM_TYPE1);
+        Assertions.assertNull(HandshakeThrottle.getAccount(new AuthorizationHeader(ntlm)));
+
+        final SimpleHttpRequest invalid = new SimpleHttpRequest();
+        invalid.addHeader("Authorization", "Negotiate !!");
+        Assertions.assertNull(HandshakeThrottle.getAccount(new AuthorizationHeader(invalid)));
+        Assertions.assertNull(HandshakeThrottle.getAccount(new AuthorizationHeader(new SimpleHttpRequest())));
+    }
+
+    /**
+     * Test that the provider collection refuses throttled clients with 429 without calling the provider.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testProviderCollection() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        final SecurityFilterProviderCollection providers = new SecurityFilterProviderCollection(
+                new SecurityFilterProvider[] { new FailingProvider(calls) });
+        providers.setThrottle(this.throttle);
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertThrows(IOException.class,
+                    () -> providers.doFilter(HandshakeThrottleTests.newRequest(), new SimpleHttpResponse()));
+        }
+        final SimpleHttpResponse response = new SimpleHttpResponse();
+        Assertions.assertNull(providers.doFilter(HandshakeThrottleTests.newRequest(), response));
+        Assertions.assertEquals(HandshakeThrottle.SC_TOO_MANY_REQUESTS, response.getStatus());
+        Assertions.assertEquals("10", response.getHeader("Retry-After"));
+        Assertions.assertEquals("close", response.getHeader("Connection"));
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    /**
+     * Creates a request with an NTLM type 1 token.
+     *
+     * @return the simple http request
+     */
+    private static SimpleHttpRequest newRequest() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("Authorization", "NTLM " + HandshakeThrottleTests.NTLM_TYPE1);
+        return request;
+    }
+
+    /**
+     * A provider failing every handshake as the security package does.
+     */
+    private static final class FailingProvider implements SecurityFilterProvider {
+
+        /** The calls. */
+        private final AtomicInteger calls;
+
+        /**
+         * Instantiates a new failing provider.
+         *
+         * @param calls
+         *            the calls
+         */
+        FailingProvider(final AtomicInteger calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public void sendUnauthorized(final HttpServletResponse response) {
+            // no challenge
+        }
+
+        @Override
+        public boolean isPrincipalException(final HttpServletRequest request) {
+            return false;
+        }
+
+        @Override
+        public IWindowsIdentity doFilter(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            this.calls.incrementAndGet();
+            throw new IOException("The logon attempt failed");
+        }
+
+        @Override
+        public boolean isSecurityPackageSupported(final String securityPackage) {
+            return true;
+        }
+
+        @Override
+        public void initParameter(final String parameterName, final String parameterValue) {
+            // no parameters
+        }
+
+    }
+
+}
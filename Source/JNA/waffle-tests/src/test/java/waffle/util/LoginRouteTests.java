@@ -0,0 +1,77 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.http.SimpleHttpRequest;
+
+/**
+ * The Class LoginRouteTests.
+ */
+public class LoginRouteTests {
+
+    /**
+     * Test routes read from the query string.
+     */
+    @Test
+    public void testQueryString() {
+        Assertions.assertEquals(LoginRoute.SECURITY_CHECK, LoginRoute.of("/app/index.jsp", "j_security_check"));
+        Assertions.assertEquals(LoginRoute.NEGOTIATE_CHECK, LoginRoute.of("/app/index.jsp", "a=1&j_negotiate_check="));
+        Assertions.assertEquals(LoginRoute.NEGOTIATE_CHECK,
+                LoginRoute.of(null, "j_security_check&j_negotiate_check"));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of("/app/index.jsp", "a=j_security_check"));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of("/app/index.jsp", "j_security_checked&&"));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of("/app/index.jsp", ""));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of(null, null));
+    }
+
+    /**
+     * Test routes read from the last path segment.
+     */
+    @Test
+    public void testUri() {
+        Assertions.assertEquals(LoginRoute.SECURITY_CHECK, LoginRoute.of("/app/j_security_check", null));
+        Assertions.assertEquals(LoginRoute.SECURITY_CHECK,
+                LoginRoute.of("/app/j_security_check;jsessionid=1234", "a=1"));
+        Assertions.assertEquals(LoginRoute.NEGOTIATE_CHECK, LoginRoute.of("j_negotiate_check", null));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of("/j_security_check/index.jsp", null));
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of("/app/", null));
+    }
+
+    /**
+     * Test that the body is only read when routing on form fields.
+     */
+    @Test
+    public void testFormFields() {
+        final AtomicInteger reads = new AtomicInteger();
+        final SimpleHttpRequest request = new SimpleHttpRequest() {
+            @Override
+            public String getParameter(final String parameterName) {
+                reads.incrementAndGet();
+                return super.getParameter(parameterName);
+            }
+        };
+        request.setMethod("POST");
+        request.setRequestURI("/app/index.jsp");
+        request.addParameter("j_security_check", "");
+
+        Assertions.assertEquals(LoginRoute.NONE, LoginRoute.of(request, false));
+        Assertions.assertEquals(0, reads.get());
+        Assertions.assertEquals(LoginRoute.SECURITY_CHECK, LoginRoute.of(request, true));
+        Assertions.assertEquals(2, reads.get());
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.http.SimpleHttpRequest;
+
+/**
+ * The Class RequestBodyCheckTests.
+ */
+public class RequestBodyCheckTests {
+
+    /**
+     * Test requests without a body.
+     */
+    @Test
+    public void testNoBody() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setMethod("GET");
+        Assertions.assertFalse(RequestBodyCheck.hasBody(request));
+        Assertions.assertTrue(RequestBodyCheck.isDrainable(request));
+
+        request.setMethod("POST");
+        request.setContentLength(0);
+        request.addHeader("Expect", "100-continue");
+        Assertions.assertTrue(RequestBodyCheck.isExpectContinue(request));
+        Assertions.assertFalse(RequestBodyCheck.hasBody(request));
+        Assertions.assertTrue(RequestBodyCheck.isDrainable(request));
+    }
+
+    /**
+     * Test requests with a body.
+     */
+    @Test
+    public void testBody() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setMethod("POST");
+        request.setContentLength(1024);
+        Assertions.assertTrue(RequestBodyCheck.hasBody(request));
+        Assertions.assertFalse(RequestBodyCheck.isExpectContinue(request));
+        Assertions.assertTrue(RequestBodyCheck.isDrainable(request));
+
+        request.setContentLength(RequestBodyCheck.MAX_DRAIN_SIZE + 1);
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(request));
+    }
+
+    /**
+     * Test that bodies announced with 100-continue or chunked are not drained.
+     */
+    @Test
+    public void testNotDrainable() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setMethod("POST");
+        request.setContentLength(1024);
+        request.addHeader("Expect", "100-Continue");
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(request));
+
+        final SimpleHttpRequest chunked = new SimpleHttpRequest();
+        chunked.addHeader("Expect", "100-continue");
+        chunked.setMethod("POST");
+        chunked.addHeader("Transfer-Encoding", "chunked");
+        Assertions.assertTrue(RequestBodyCheck.hasBody(chunked));
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(chunked));
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(chunked, true));
+    }
+
+    /**
+     * Test that a body announced with 100-continue is drained once the container acknowledged it, as Tomcat does before
+     * the filter chain runs, when it is small enough.
+     */
+    @Test
+    public void testExpectContinueAcknowledged() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setMethod("PUT");
+        request.setContentLength(1024);
+        request.addHeader("Expect", "100-continue");
+        Assertions.assertTrue(RequestBodyCheck.isExpectContinue(request));
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(request, false));
+        Assertions.assertTrue(RequestBodyCheck.isDrainable(request, true));
+
+        request.setContentLength(RequestBodyCheck.MAX_DRAIN_SIZE + 1);
+        Assertions.assertFalse(RequestBodyCheck.isDrainable(request, true));
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * The Class WaffleInfoWriterTests.
+ */
+public class WaffleInfoWriterTests {
+
+    /**
+     * Writes a sample document.
+     *
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private static void writeSample(final WaffleInfoWriter writer) throws IOException {
+        writer.startDocument("waffle");
+        writer.attribute("version", "1.0");
+        writer.attribute("jna", null);
+        writer.startObject("request");
+        writer.value("AuthType", null);
+        writer.value("quote", "a \"b\"\\c\n");
+        writer.number("count", Integer.valueOf(3));
+        writer.end();
+        writer.startArray("groups", true);
+        writer.value("group", "Everyone");
+        writer.value("group", "Users");
+        writer.end();
+        writer.startArray("lookups", false);
+        writer.startObject("lookup");
+        writer.attribute("name", "Administrator");
+        writer.value("SID", "S-1-5-32-544");
+        writer.end();
+        writer.end();
+        writer.endDocument();
+    }
+
+    /**
+     * Test xml.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ParserConfigurationException
+     *             the parser configuration exception
+     * @throws SAXException
+     *             the SAX exception
+     */
+    @Test
+    public void testXml() throws IOException, ParserConfigurationException, SAXException {
+        final StringWriter out = new StringWriter();
+        final WaffleInfoWriter writer = WaffleInfoWriter.xml(out);
+        Assertions.assertEquals("application/xml", writer.getContentType());
+        WaffleInfoWriterTests.writeSample(writer);
+
+        final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(out.toString())));
+        final Element root = doc.getDocumentElement();
+        Assertions.assertEquals("waffle", root.getNodeName());
+        Assertions.assertEquals("1.0", root.getAttribute("version"));
+        Assertions.assertFalse(root.hasAttribute("jna"));
+
+        // indented, the first child is whitespace
+        Assertions.assertEquals("request", root.getFirstChild().getNextSibling().getNodeName());
+        Assertions.assertEquals("a \"b\"\\c\n", doc.getElementsByTagName("quote").item(0).getTextContent());
+        Assertions.assertEquals("3", doc.getElementsByTagName("count").item(0).getTextContent());
+        Assertions.assertEquals(2, ((Element) doc.getElementsByTagName("groups").item(0))
+                .getElementsByTagName("group").getLength());
+        Assertions.assertEquals(0, doc.getElementsByTagName("lookups").getLength());
+        final Element lookup = (Element) doc.getElementsByTagName("lookup").item(0);
+        Assertions.assertEquals(root, lookup.getParentNode());
+        Assertions.assertEquals("Administrator", lookup.getAttribute("name"));
+        Assertions.assertEquals("S-1-5-32-544", lookup.getElementsByTagName("SID").item(0).getTextContent());
+    }
+
+    /**
+     * Test json.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testJson() throws IOException {
+        final StringWriter out = new StringWriter();
+        final WaffleInfoWriter writer = WaffleInfoWriter.json(out);
+        Assertions.assertEquals("application/json", writer.getContentType());
+        WaffleInfoWriterTests.writeSample(writer);
+
+        Assertions.assertEquals("{\"version\":\"1.0\","
+                + "\"request\":{\"AuthType\":null,\"quote\":\"a \\\"b\\\"\\\\c\\u000a\",\"count\":3},"
+                + "\"groups\":[\"Everyone\",\"Users\"],"
+                + "\"lookups\":[{\"name\":\"Administrator\",\"SID\":\"S-1-5-32-544\"}]}\n", out.toString());
+    }
+
+}
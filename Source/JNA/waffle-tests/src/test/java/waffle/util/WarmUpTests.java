@@ -0,0 +1,121 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.util;
+
+import com.sun.jna.Platform;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import waffle.mock.http.SimpleHttpRequest;
+import waffle.mock.http.SimpleHttpResponse;
+import waffle.windows.auth.IWindowsAuthProvider;
+
+/**
+ * The Class WarmUpTests.
+ */
+public class WarmUpTests {
+
+    /**
+     * Test readiness request matching.
+     */
+    @Test
+    public void testIsReadinessRequest() {
+        final SimpleHttpRequest request = new SimpleHttpRequest();
+        request.setRequestURI("/ready");
+        Assertions.assertTrue(WarmUp.isReadinessRequest(request, "/ready"));
+        Assertions.assertFalse(WarmUp.isReadinessRequest(request, null));
+        Assertions.assertFalse(WarmUp.isReadinessRequest(request, "/health"));
+
+        request.setRequestURI("/ready/more");
+        Assertions.assertFalse(WarmUp.isReadinessRequest(request, "/ready"));
+    }
+
+    /**
+     * Test readiness responses.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testSendReadiness() throws IOException {
+        final SimpleHttpResponse warming = new SimpleHttpResponse();
+        WarmUp.sendReadiness(warming, false);
+        Assertions.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, warming.getStatus());
+        Assertions.assertEquals("no-store", warming.getHeader("Cache-Control"));
+        Assertions.assertEquals("not ready", warming.getOutputText());
+
+        final SimpleHttpResponse ready = new SimpleHttpResponse();
+        WarmUp.sendReadiness(ready, true);
+        Assertions.assertEquals(HttpServletResponse.SC_OK, ready.getStatus());
+        Assertions.assertEquals("ready", ready.getOutputText());
+    }
+
+    /**
+     * Test that the warm-up is ready once it succeeded.
+     */
+    @Test
+    public void testReadyAfterRun() {
+        // the native libraries are loaded
+        Assumptions.assumeTrue(Platform.isWindows());
+        final IWindowsAuthProvider auth = Mockito.mock(IWindowsAuthProvider.class);
+        final WarmUp warmUp = new WarmUp(auth);
+        warmUp.setSecurityPackages(Collections.emptyList());
+        warmUp.setGroups("Everyone, Users");
+        Assertions.assertEquals(2, warmUp.getGroups().size());
+        Assertions.assertFalse(warmUp.isReady());
+        warmUp.run();
+        Assertions.assertTrue(warmUp.isReady(), String.valueOf(warmUp.getFailure()));
+        Assertions.assertNull(warmUp.getFailure());
+        Assertions.assertTrue(warmUp.getElapsed() >= 0);
+        Mockito.verify(auth).lookupAccount("Users");
+    }
+
+    /**
+     * Test that a failed warm-up is not ready, whatever the error.
+     */
+    @Test
+    public void testNotReadyAfterFailure() {
+        final IWindowsAuthProvider auth = Mockito.mock(IWindowsAuthProvider.class);
+        Mockito.when(auth.lookupAccount("Users")).thenThrow(new IllegalStateException("Mock error"));
+        final WarmUp warmUp = new WarmUp(auth);
+        warmUp.setSecurityPackages(Collections.emptyList());
+        warmUp.setGroups("Users");
+        warmUp.run();
+        Assertions.assertFalse(warmUp.isReady());
+        Assertions.assertNotNull(warmUp.getFailure());
+    }
+
+    /**
+     * Test that a stopped warm-up skips its remaining steps and is not ready.
+     */
+    @Test
+    public void testStop() {
+        final IWindowsAuthProvider auth = Mockito.mock(IWindowsAuthProvider.class);
+        final WarmUp warmUp = new WarmUp(auth);
+        warmUp.setSecurityPackages(Collections.emptyList());
+        warmUp.setGroups("Users");
+        warmUp.stop();
+        warmUp.run();
+        Assertions.assertFalse(warmUp.isReady());
+        Assertions.assertNull(warmUp.getFailure());
+        Mockito.verifyZeroInteractions(auth);
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.windows.auth;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+import waffle.windows.auth.impl.WindowsAuthProviderRegistry;
+
+/**
+ * The Class WindowsAuthProviderRegistryTests.
+ */
+public class WindowsAuthProviderRegistryTests {
+
+    /**
+     * Tear down.
+     */
+    @AfterEach
+    public void tearDown() {
+        WindowsAuthProviderRegistry.shutdown();
+    }
+
+    /**
+     * Test that providers are shared by configuration and disposed with their last reference.
+     */
+    @Test
+    public void testReferenceCounting() {
+        final WindowsAuthProviderImpl provider = WindowsAuthProviderRegistry.acquire();
+        Assertions.assertSame(provider,
+                WindowsAuthProviderRegistry.acquire(WindowsAuthProviderImpl.CONTINUE_CONTEXT_TIMEOUT));
+        Assertions.assertNotSame(provider, WindowsAuthProviderRegistry.acquire(10));
+        Assertions.assertEquals(2, WindowsAuthProviderRegistry.getReferenceCount(provider));
+
+        WindowsAuthProviderRegistry.release(provider);
+        Assertions.assertSame(provider, WindowsAuthProviderRegistry.acquire());
+        WindowsAuthProviderRegistry.release(provider);
+        WindowsAuthProviderRegistry.release(provider);
+        Assertions.assertEquals(0, WindowsAuthProviderRegistry.getReferenceCount(provider));
+        WindowsAuthProviderRegistry.release(provider);
+        Assertions.assertNotSame(provider, WindowsAuthProviderRegistry.acquire());
+
+        final IWindowsAuthProvider own = new MockWindowsAuthProvider();
+        WindowsAuthProviderRegistry.release(own);
+        Assertions.assertEquals(0, WindowsAuthProviderRegistry.getReferenceCount(own));
+    }
+
+    /**
+     * Test that a pinned provider outlives its references until shut down.
+     */
+    @Test
+    public void testPin() {
+        final WindowsAuthProviderImpl provider = WindowsAuthProviderRegistry.acquire();
+        Assertions.assertSame(provider, WindowsAuthProviderRegistry.pin());
+        WindowsAuthProviderRegistry.release(provider);
+        Assertions.assertSame(provider, WindowsAuthProviderRegistry.acquire());
+
+        WindowsAuthProviderRegistry.shutdown();
+        Assertions.assertEquals(0, WindowsAuthProviderRegistry.getReferenceCount(provider));
+        Assertions.assertNotSame(provider, WindowsAuthProviderRegistry.pin());
+    }
+
+}
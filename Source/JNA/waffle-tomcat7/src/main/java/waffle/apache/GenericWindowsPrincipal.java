@@ -12,9 +12,12 @@
 package waffle.apache;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.catalina.realm.GenericPrincipal;
 
@@ -39,6 +42,9 @@ public class GenericWindowsPrincipal extends GenericPrincipal {
     /** The groups. */
     private final Map<String, WindowsAccount> groups;
 
+    /** The roles, hashed for role checks. */
+    private final Set<String> roleSet;
+
     /**
      * A windows principal.
      *
@@ -56,6 +62,7 @@ public class GenericWindowsPrincipal extends GenericPrincipal {
         this.sid = windowsIdentity.getSid();
         this.sidString = windowsIdentity.getSidString();
         this.groups = GenericWindowsPrincipal.getGroups(windowsIdentity.getGroups());
+        this.roleSet = new HashSet<>(Arrays.asList(this.getRoles()));
     }
 
     /**
@@ -180,6 +187,18 @@ public class GenericWindowsPrincipal extends GenericPrincipal {
         return principals;
     }
 
+    /**
+     * Checks the role against the roles precomputed at logon rather than searching the role array.
+     *
+     * @param role
+     *            the role
+     * @return true if the principal is in the role, or the role is "*"
+     */
+    @Override
+    public boolean hasRole(final String role) {
+        return "*".equals(role) || this.roleSet.contains(role);
+    }
+
     /**
      * Get an array of roles as a string.
      *
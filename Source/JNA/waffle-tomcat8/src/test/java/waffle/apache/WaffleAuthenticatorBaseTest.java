@@ -12,15 +12,22 @@
 package waffle.apache;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.catalina.Session;
+import org.apache.catalina.authenticator.Constants;
 import org.apache.catalina.connector.Request;
+import org.apache.catalina.session.StandardSession;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.LoggerFactory;
 
+import waffle.apache.catalina.SimpleHttpRequest;
+
 /**
  * Waffle Authenticator Base Tests.
  *
@@ -92,4 +99,40 @@ public class WaffleAuthenticatorBaseTest {
         });
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that a principal from a sibling context joins the single sign on entry, and nothing happens without one.
+     */
+    @Test
+    public void testAssociateSingleSignOn() {
+        final List<String> associated = new ArrayList<>();
+        final WaffleAuthenticatorBase authenticator = new WaffleAuthenticatorBase() {
+            {
+                this.log = LoggerFactory.getLogger(WaffleAuthenticatorBaseTest.class);
+            }
+
+            @Override
+            public boolean authenticate(final Request request, final HttpServletResponse response) {
+                return false;
+            }
+
+            @Override
+            protected void associate(final String ssoId, final Session session) {
+                associated.add(ssoId);
+            }
+        };
+        final Session standardSession = new StandardSession(null);
+        final SimpleHttpRequest request = new SimpleHttpRequest() {
+            @Override
+            public Session getSessionInternal(final boolean create) {
+                return standardSession;
+            }
+        };
+        authenticator.associateSingleSignOn(request);
+        Assertions.assertTrue(associated.isEmpty());
+
+        request.setNote(Constants.REQ_SSOID_NOTE, "sso");
+        authenticator.associateSingleSignOn(request);
+        Assertions.assertEquals(1, associated.size());
+        Assertions.assertEquals("sso", associated.get(0));
+    }
+}
@@ -14,19 +14,30 @@ package waffle.apache;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Set;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
 import org.apache.catalina.authenticator.AuthenticatorBase;
+import org.apache.catalina.authenticator.Constants;
 import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
 import org.apache.catalina.realm.GenericPrincipal;
+import org.apache.coyote.ActionCode;
 import org.slf4j.Logger;
 
+import waffle.util.AdaptiveChallengePolicy;
+import waffle.util.ChallengeResponseWriter;
+import waffle.util.HandshakeThrottle;
+import waffle.util.RequestBodyCheck;
+import waffle.util.WarmUp;
 import waffle.windows.auth.IWindowsAuthProvider;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.PrincipalFormat;
@@ -66,6 +77,30 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
     /** The auth. */
     protected IWindowsAuthProvider auth;
 
+    /** The adaptive challenge policy. */
+    protected final AdaptiveChallengePolicy adaptivePolicy = new AdaptiveChallengePolicy();
+
+    /** The challenge writer. */
+    protected final ChallengeResponseWriter challengeWriter = new ChallengeResponseWriter();
+
+    /** The handshake throttle. */
+    protected final HandshakeThrottle handshakeThrottle = new HandshakeThrottle();
+
+    /** The warm up enabled. */
+    protected boolean warmUpEnabled;
+
+    /** The warm up groups. */
+    protected String warmUpGroups;
+
+    /** The readiness path, null when disabled. */
+    protected String readinessPath;
+
+    /** The warm up, null when disabled. */
+    protected WarmUp warmUp;
+
+    /** The realm of the context sharing the provider of the valve, null if none. */
+    private WindowsRealm contextRealm;
+
     /**
      * Gets the continue context time out configuration.
      *
@@ -196,6 +231,299 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
         }
     }
 
+    /**
+     * Gets the adaptive challenge policy.
+     *
+     * @return the adaptive challenge policy
+     */
+    public AdaptiveChallengePolicy getAdaptivePolicy() {
+        return this.adaptivePolicy;
+    }
+
+    /**
+     * Enable/Disable adaptive advertisement of Negotiate only to clients known to complete Kerberos. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAdaptiveAdvertisement(final boolean value) {
+        this.adaptivePolicy.setEnabled(value);
+    }
+
+    /**
+     * Set the request URI patterns adaptive advertisement applies to. Default is all paths.
+     *
+     * @param value
+     *            Whitespace separated regular expressions.
+     */
+    public void setAdaptivePaths(final String value) {
+        this.adaptivePolicy.setPaths(value.trim().split("\\s+"));
+    }
+
+    /**
+     * Set the network prefix length used to group clients for adaptive advertisement. Default is 24.
+     *
+     * @param value
+     *            Prefix length.
+     */
+    public void setAdaptiveNetworkPrefix(final int value) {
+        this.adaptivePolicy.setNetworkPrefix(value);
+    }
+
+    /**
+     * Set whether clients are grouped by User-Agent in addition to their network. Default is true.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAdaptiveKeyByUserAgent(final boolean value) {
+        this.adaptivePolicy.setKeyByUserAgent(value);
+    }
+
+    /**
+     * Set how long, in seconds, a completed Kerberos handshake is remembered for a client. Default is 3600.
+     *
+     * @param value
+     *            Timeout in seconds.
+     */
+    public void setAdaptiveTimeout(final int value) {
+        this.adaptivePolicy.setTimeout(value);
+    }
+
+    /**
+     * Set whether NTLM sent under the Negotiate scheme by a client known to complete Kerberos is rejected once with a
+     * fresh Negotiate challenge. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setRejectNtlmInNegotiate(final boolean value) {
+        this.adaptivePolicy.setRejectNtlmInNegotiate(value);
+    }
+
+    /**
+     * Set whether intermediate handshake challenges set the 401 status directly, with an empty body on a kept-alive
+     * connection, instead of rendering the container error page. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setLightweightChallenge(final boolean value) {
+        this.challengeWriter.setLightweight(value);
+    }
+
+    /**
+     * Checks if intermediate handshake challenges bypass the container error page.
+     *
+     * @return True if lightweight challenges are enabled.
+     */
+    public boolean isLightweightChallenge() {
+        return this.challengeWriter.isLightweight();
+    }
+
+    /**
+     * Gets the handshake throttle.
+     *
+     * @return the handshake throttle
+     */
+    public HandshakeThrottle getHandshakeThrottle() {
+        return this.handshakeThrottle;
+    }
+
+    /**
+     * Set whether clients and accounts with too many failed handshakes are refused with 429 before calling the
+     * security package. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setThrottleFailures(final boolean value) {
+        this.handshakeThrottle.setEnabled(value);
+    }
+
+    /**
+     * Set the failed handshakes a client address may make before being throttled. Default is 20.
+     *
+     * @param value
+     *            Failed handshakes.
+     */
+    public void setThrottleClientBurst(final int value) {
+        this.handshakeThrottle.setClientBurst(value);
+    }
+
+    /**
+     * Set the failed handshakes per minute a throttled client address is allowed again. Default is 20.
+     *
+     * @param value
+     *            Failed handshakes per minute.
+     */
+    public void setThrottleClientRate(final int value) {
+        this.handshakeThrottle.setClientRate(value);
+    }
+
+    /**
+     * Set the failed handshakes a client address may target an account with before being throttled. Default is 5.
+     *
+     * @param value
+     *            Failed handshakes.
+     */
+    public void setThrottleAccountBurst(final int value) {
+        this.handshakeThrottle.setAccountBurst(value);
+    }
+
+    /**
+     * Set the failed handshakes per minute a client address throttled for an account may target it with again.
+     * Default is 2.
+     *
+     * @param value
+     *            Failed handshakes per minute.
+     */
+    public void setThrottleAccountRate(final int value) {
+        this.handshakeThrottle.setAccountRate(value);
+    }
+
+    /**
+     * Set whether the native authentication stack is warmed up in the background on start. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setWarmUp(final boolean value) {
+        this.warmUpEnabled = value;
+    }
+
+    /**
+     * Set the groups resolved during the warm-up.
+     *
+     * @param value
+     *            Whitespace or comma separated group names.
+     */
+    public void setWarmUpGroups(final String value) {
+        this.warmUpGroups = value;
+    }
+
+    /**
+     * Set the path, within the context, answering readiness checks with 200 once the warm-up completed and 503
+     * before. Default is none.
+     *
+     * @param value
+     *            Readiness path, eg. /ready.
+     */
+    public void setReadinessPath(final String value) {
+        this.readinessPath = value;
+    }
+
+    /**
+     * Checks if the authenticator is ready, i.e. its warm-up completed or is disabled.
+     *
+     * @return True if ready.
+     */
+    public boolean isReady() {
+        return this.warmUp == null || this.warmUp.isReady();
+    }
+
+    /**
+     * Answers readiness checks before authentication.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     * @throws ServletException
+     *             the servlet exception
+     */
+    @Override
+    public void invoke(final Request request, final Response response) throws IOException, ServletException {
+        if (WarmUp.isReadinessRequest(request, this.readinessPath)) {
+            WarmUp.sendReadiness(response, this.isReady());
+            return;
+        }
+        super.invoke(request, response);
+    }
+
+    /**
+     * Send the initial 401 Unauthorized challenge along with protocol authentication headers adapted to the request.
+     * Lightweight challenges keep the connection alive for the next leg, otherwise this is the same as
+     * {@link #sendUnauthorized(HttpServletRequest, HttpServletResponse)}.
+     *
+     * @param request
+     *            HTTP Request
+     * @param response
+     *            HTTP Response
+     */
+    protected void sendChallenge(final HttpServletRequest request, final HttpServletResponse response) {
+        if (!this.challengeWriter.isLightweight()) {
+            this.sendUnauthorized(request, response);
+            return;
+        }
+        try {
+            final boolean close = !RequestBodyCheck.isDrainable(request);
+            if (close) {
+                this.disableSwallowInput(request);
+            }
+            this.challengeWriter.sendChallenge(response, this.adaptivePolicy.getProtocols(request, this.protocols),
+                    close);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Send an intermediate 401 Unauthorized challenge on a kept-alive connection. The authentication headers must have
+     * been added to the response already.
+     *
+     * @param response
+     *            HTTP Response
+     */
+    protected void sendChallenge(final HttpServletResponse response) {
+        try {
+            this.challengeWriter.sendChallenge(response);
+        } catch (final IOException e) {
+            this.log.error(e.getMessage());
+            this.log.trace("", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Joins the session of this context to the single sign on entry of a principal negotiated by a sibling context,
+     * when a host level SingleSignOn valve is configured, so that the sessions are invalidated together.
+     *
+     * @param request
+     *            HTTP Request
+     */
+    protected void associateSingleSignOn(final Request request) {
+        final String ssoId = (String) request.getNote(Constants.REQ_SSOID_NOTE);
+        if (ssoId == null) {
+            return;
+        }
+        final Session session = request.getSessionInternal(true);
+        if (session != null) {
+            this.log.debug("single sign on id: {}, session id: {}", ssoId, session.getIdInternal());
+            this.associate(ssoId, session);
+        }
+    }
+
+    /**
+     * Refuse a throttled request with 429 Too Many Requests and close the connection.
+     *
+     * @param request
+     *            HTTP Request
+     * @param response
+     *            HTTP Response
+     */
+    protected void sendThrottled(final HttpServletRequest request, final HttpServletResponse response) {
+        this.log.warn("throttling failed handshakes from {}", request.getRemoteAddr());
+        try {
+            this.disableSwallowInput(request);
+            this.handshakeThrottle.sendThrottled(response);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Send a 401 Unauthorized along with protocol authentication headers.
      *
@@ -203,11 +531,26 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
      *            HTTP Response
      */
     protected void sendUnauthorized(final HttpServletResponse response) {
+        this.sendUnauthorized(null, response);
+    }
+
+    /**
+     * Send a 401 Unauthorized along with protocol authentication headers adapted to the request.
+     *
+     * @param request
+     *            HTTP Request, null to advertise all configured protocols
+     * @param response
+     *            HTTP Response
+     */
+    protected void sendUnauthorized(final HttpServletRequest request, final HttpServletResponse response) {
         try {
-            for (final String protocol : this.protocols) {
+            final Collection<String> advertised = request == null ? this.protocols
+                    : this.adaptivePolicy.getProtocols(request, this.protocols);
+            for (final String protocol : advertised) {
                 response.addHeader("WWW-Authenticate", protocol);
             }
             response.setHeader("Connection", "close");
+            this.disableSwallowInput(request);
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
             response.flushBuffer();
         } catch (final IOException e) {
@@ -215,6 +558,19 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
         }
     }
 
+    /**
+     * Tells the connector not to drain the unread body of a request whose connection is closed. A client waiting for
+     * 100 Continue then never uploads its body.
+     *
+     * @param request
+     *            HTTP Request, may be null
+     */
+    protected void disableSwallowInput(final HttpServletRequest request) {
+        if (request instanceof Request && RequestBodyCheck.hasBody(request)) {
+            ((Request) request).getCoyoteRequest().action(ActionCode.DISABLE_SWALLOW_INPUT, null);
+        }
+    }
+
     /**
      * Send an error code.
      *
@@ -248,12 +604,12 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
         } catch (final Exception e) {
             this.log.error(e.getMessage());
             this.log.trace("", e);
-            return super.doLogin(request, username, password);
+            return this.doRealmLogin(request, username, password);
         }
         // disable guest login
         if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
             this.log.warn("guest login disabled: {}", windowsIdentity.getFqn());
-            return super.doLogin(request, username, password);
+            return this.doRealmLogin(request, username, password);
         }
         try {
             this.log.debug("successfully logged in {} ({})", username, windowsIdentity.getSidString());
@@ -265,6 +621,28 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
         }
     }
 
+    /**
+     * Logs on with the realm of the context after the logon of the authenticator failed. A {@link WindowsRealm} is not
+     * asked, it would only repeat the failed logon and count a second failure against the account.
+     *
+     * @param request
+     *            the request
+     * @param username
+     *            the username
+     * @param password
+     *            the password
+     * @return the principal
+     * @throws ServletException
+     *             when the logon fails
+     */
+    private Principal doRealmLogin(final Request request, final String username, final String password)
+            throws ServletException {
+        if (this.context != null && this.context.getRealm() instanceof WindowsRealm) {
+            throw new ServletException("Login failed");
+        }
+        return super.doLogin(request, username, password);
+    }
+
     /**
      * This method will create an instance of a IWindowsIdentity based GenericPrincipal. It is used for creating custom
      * implementation within subclasses.
@@ -288,7 +666,64 @@ abstract class WaffleAuthenticatorBase extends AuthenticatorBase {
         this.log.debug("Creating a windows authentication provider with continueContextsTimeout property set to: {}",
                 this.continueContextsTimeout);
         this.auth = new WindowsAuthProviderImpl(this.continueContextsTimeout);
+        this.contextRealm = this.getOwnWindowsRealm();
+        if (this.contextRealm != null) {
+            // logons through the realm get the same provider and settings as the valve
+            this.contextRealm.setAuth(this.auth);
+            this.contextRealm.setPrincipalFormat(this.principalFormat.name());
+            this.contextRealm.setRoleFormat(this.roleFormat.name());
+            this.contextRealm.setAllowGuestLogin(this.allowGuestLogin);
+        }
+        if (this.warmUpEnabled) {
+            this.warmUp = new WarmUp(this.auth);
+            this.warmUp.setSecurityPackages(this.protocols);
+            if (this.warmUpGroups != null) {
+                this.warmUp.setGroups(this.warmUpGroups);
+            }
+            this.warmUp.start();
+        }
         super.startInternal();
     }
 
+    /**
+     * Hook to the stop, stopping the warm-up and disposing the pending security contexts of the provider, which the
+     * realm of the context no longer shares.
+     *
+     * @throws LifecycleException
+     *             the lifecycle exception
+     */
+    @Override
+    public synchronized void stopInternal() throws LifecycleException {
+        if (this.warmUp != null) {
+            this.warmUp.stop();
+            this.warmUp = null;
+        }
+        if (this.contextRealm != null) {
+            // the realm creates its own provider on its next logon
+            this.contextRealm.setAuth(null);
+            this.contextRealm = null;
+        }
+        if (this.auth instanceof WindowsAuthProviderImpl) {
+            ((WindowsAuthProviderImpl) this.auth).dispose();
+        }
+        super.stopInternal();
+    }
+
+    /**
+     * Gets the {@link WindowsRealm} of the context, unless it is inherited from the host or the engine: a realm shared
+     * with other applications keeps its own provider and settings.
+     *
+     * @return the windows realm of the context, null if none
+     */
+    private WindowsRealm getOwnWindowsRealm() {
+        if (this.context == null || !(this.context.getRealm() instanceof WindowsRealm)) {
+            return null;
+        }
+        if (this.context.getParent() != null && this.context.getRealm() == this.context.getParent().getRealm()) {
+            this.log.debug("not configuring the windows realm inherited from {}", this.context.getParent().getName());
+            return null;
+        }
+        return (WindowsRealm) this.context.getRealm();
+    }
+
 }
@@ -332,6 +332,7 @@ public class MixedAuthenticatorTests {
     @Test
     public void testSecurityCheckParameters() {
         this.authenticator.setAuth(new MockWindowsAuthProvider());
+        this.authenticator.setFormFieldRoutes(true);
         final SimpleHttpRequest request = new SimpleHttpRequest();
         request.addParameter("j_security_check", "");
         request.addParameter("j_username", WindowsAccountImpl.getCurrentUsername());
@@ -370,6 +371,7 @@ public class MixedAuthenticatorTests {
             customAuthenticator.start();
 
             customAuthenticator.setAuth(new MockWindowsAuthProvider());
+            customAuthenticator.setFormFieldRoutes(true);
             final SimpleHttpRequest request = new SimpleHttpRequest();
             request.addParameter("j_security_check", "");
             request.addParameter("j_username", WindowsAccountImpl.getCurrentUsername());
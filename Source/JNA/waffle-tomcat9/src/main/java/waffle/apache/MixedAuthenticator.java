@@ -30,6 +30,7 @@ import org.apache.tomcat.util.descriptor.web.LoginConfig;
 import org.slf4j.LoggerFactory;
 
 import waffle.util.AuthorizationHeader;
+import waffle.util.LoginRoute;
 import waffle.util.NtlmServletRequest;
 import waffle.windows.auth.IWindowsIdentity;
 import waffle.windows.auth.IWindowsSecurityContext;
@@ -41,6 +42,9 @@ import waffle.windows.auth.IWindowsSecurityContext;
  */
 public class MixedAuthenticator extends WaffleAuthenticatorBase {
 
+    /** The form field routes. */
+    private boolean formFieldRoutes;
+
     /**
      * Instantiates a new mixed authenticator.
      */
@@ -51,6 +55,27 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
         this.log.debug("[waffle.apache.MixedAuthenticator] loaded");
     }
 
+    /**
+     * Checks if j_security_check and j_negotiate_check are also recognized as form fields in the request body.
+     *
+     * @return True if requests are routed on form fields.
+     */
+    public boolean isFormFieldRoutes() {
+        return this.formFieldRoutes;
+    }
+
+    /**
+     * Sets whether j_security_check and j_negotiate_check are also recognized as form fields in the request body, as
+     * hidden inputs of a login form posted to a page. This parses the body of every form POST before authentication.
+     * Default is false, the URI and query string only.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setFormFieldRoutes(final boolean value) {
+        this.formFieldRoutes = value;
+    }
+
     @Override
     public synchronized void startInternal() throws LifecycleException {
         this.log.info("[waffle.apache.MixedAuthenticator] started");
@@ -76,9 +101,11 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
         this.log.debug("{} {}, contentlength: {}", request.getMethod(), request.getRequestURI(),
                 Integer.valueOf(request.getContentLength()));
 
-        final boolean negotiateCheck = request.getParameter("j_negotiate_check") != null;
+        // route on the URI and query string, the body is only read by the form login itself
+        final LoginRoute route = LoginRoute.of(request, this.formFieldRoutes);
+        final boolean negotiateCheck = route == LoginRoute.NEGOTIATE_CHECK;
         this.log.debug("negotiateCheck: {}", Boolean.valueOf(negotiateCheck));
-        final boolean securityCheck = request.getParameter("j_security_check") != null;
+        final boolean securityCheck = route == LoginRoute.SECURITY_CHECK;
         this.log.debug("securityCheck: {}", Boolean.valueOf(securityCheck));
 
         final Principal principal = request.getUserPrincipal();
@@ -91,13 +118,14 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
 
         if (principal != null && !ntlmPost) {
             this.log.debug("previously authenticated user: {}", principal.getName());
+            this.associateSingleSignOn(request);
             return true;
         } else if (negotiateCheck) {
             if (!authorizationHeader.isNull()) {
                 return this.negotiate(request, response, authorizationHeader);
             }
             this.log.debug("authorization required");
-            this.sendUnauthorized(response);
+            this.sendChallenge(request, response);
             return false;
         } else if (securityCheck) {
             final boolean postResult = this.post(request, response);
@@ -143,6 +171,19 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
         final byte[] tokenBuffer = authorizationHeader.getTokenBytes();
         this.log.debug("token buffer: {} byte(s)", Integer.valueOf(tokenBuffer.length));
 
+        if (this.adaptivePolicy.isRejected(request, securityPackage, tokenBuffer)) {
+            // client is known to complete Kerberos, offer it a fresh Negotiate challenge instead of NTLM
+            this.auth.resetSecurityToken(connectionId);
+            response.addHeader("WWW-Authenticate", "Negotiate");
+            this.sendChallenge(response);
+            return false;
+        }
+
+        if (this.handshakeThrottle.isThrottled(request, authorizationHeader)) {
+            this.sendThrottled(request, response);
+            return false;
+        }
+
         // log the user in using the token
         IWindowsSecurityContext securityContext;
         try {
@@ -150,7 +191,8 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
         } catch (final Win32Exception e) {
             this.log.warn("error logging in user: {}", e.getMessage());
             this.log.trace("", e);
-            this.sendUnauthorized(response);
+            this.handshakeThrottle.recordFailure(request, authorizationHeader);
+            this.sendUnauthorized(request, response);
             return false;
         }
         this.log.debug("continue required: {}", Boolean.valueOf(securityContext.isContinue()));
@@ -164,25 +206,24 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
 
         try {
             if (securityContext.isContinue() || ntlmPost) {
-                response.setHeader("Connection", "keep-alive");
-                response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
-                response.flushBuffer();
+                this.challengeWriter.sendChallenge(response);
                 return false;
             }
         } catch (final IOException e) {
             this.log.warn("error logging in user: {}", e.getMessage());
             this.log.trace("", e);
-            this.sendUnauthorized(response);
+            this.sendUnauthorized(request, response);
             return false;
         }
 
         // create and register the user principal with the session
         final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+        this.adaptivePolicy.recordSuccess(request, securityPackage, tokenBuffer);
 
         // disable guest login
         if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
             this.log.warn("guest login disabled: {}", windowsIdentity.getFqn());
-            this.sendUnauthorized(response);
+            this.sendUnauthorized(request, response);
             return false;
         }
 
@@ -224,12 +265,18 @@ public class MixedAuthenticator extends WaffleAuthenticatorBase {
 
         this.log.debug("logging in: {}", username);
 
+        if (this.handshakeThrottle.isThrottled(request.getRemoteAddr(), username)) {
+            this.log.warn("throttling failed logons from {}", request.getRemoteAddr());
+            return false;
+        }
+
         IWindowsIdentity windowsIdentity;
         try {
             windowsIdentity = this.auth.logonUser(username, password);
         } catch (final Exception e) {
             this.log.error(e.getMessage());
             this.log.trace("", e);
+            this.handshakeThrottle.recordFailure(request.getRemoteAddr(), username);
             return false;
         }
 
@@ -73,6 +73,7 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
         if (principal != null && !ntlmPost) {
             // user already authenticated
             this.log.debug("previously authenticated user: {}", principal.getName());
+            this.associateSingleSignOn(request);
             return true;
         }
 
@@ -93,6 +94,19 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
             final byte[] tokenBuffer = authorizationHeader.getTokenBytes();
             this.log.debug("token buffer: {} byte(s)", Integer.valueOf(tokenBuffer.length));
 
+            if (this.adaptivePolicy.isRejected(request, securityPackage, tokenBuffer)) {
+                // client is known to complete Kerberos, offer it a fresh Negotiate challenge instead of NTLM
+                this.auth.resetSecurityToken(connectionId);
+                response.addHeader("WWW-Authenticate", "Negotiate");
+                this.sendChallenge(response);
+                return false;
+            }
+
+            if (this.handshakeThrottle.isThrottled(request, authorizationHeader)) {
+                this.sendThrottled(request, response);
+                return false;
+            }
+
             // log the user in using the token
             IWindowsSecurityContext securityContext;
             try {
@@ -100,7 +114,8 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
             } catch (final Win32Exception e) {
                 this.log.warn("error logging in user: {}", e.getMessage());
                 this.log.trace("", e);
-                this.sendUnauthorized(response);
+                this.handshakeThrottle.recordFailure(request, authorizationHeader);
+                this.sendUnauthorized(request, response);
                 return false;
             }
             this.log.debug("continue required: {}", Boolean.valueOf(securityContext.isContinue()));
@@ -114,15 +129,13 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
 
             try {
                 if (securityContext.isContinue()) {
-                    response.setHeader("Connection", "keep-alive");
-                    response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
-                    response.flushBuffer();
+                    this.challengeWriter.sendChallenge(response);
                     return false;
                 }
             } catch (final IOException e) {
                 this.log.warn("error logging in user: {}", e.getMessage());
                 this.log.trace("", e);
-                this.sendUnauthorized(response);
+                this.sendUnauthorized(request, response);
                 return false;
             }
 
@@ -135,11 +148,12 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
 
             // create and register the user principal with the session
             final IWindowsIdentity windowsIdentity = securityContext.getIdentity();
+            this.adaptivePolicy.recordSuccess(request, securityPackage, tokenBuffer);
 
             // disable guest login
             if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
                 this.log.warn("guest login disabled: {}", windowsIdentity.getFqn());
-                this.sendUnauthorized(response);
+                this.sendUnauthorized(request, response);
                 return false;
             }
 
@@ -169,7 +183,7 @@ public class NegotiateAuthenticator extends WaffleAuthenticatorBase {
         }
 
         this.log.debug("authorization required");
-        this.sendUnauthorized(response);
+        this.sendChallenge(request, response);
         return false;
     }
 
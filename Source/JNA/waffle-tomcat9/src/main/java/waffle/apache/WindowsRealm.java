@@ -11,20 +11,85 @@
  */
 package waffle.apache;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.realm.RealmBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.PrincipalFormat;
+import waffle.windows.auth.impl.WindowsAuthProviderImpl;
 
 /**
- * A rudimentary Windows realm.
+ * A Windows realm, authenticating username and password logons with the Windows authentication provider.
+ *
+ * Verified principals are cached for a short while, keyed by an HMAC of the username and password under a random key
+ * of the realm, so that Tomcat's BASIC and FORM authenticators do not call LogonUser on every request. A Waffle
+ * authenticator of the context configures the realm with its own provider and formats when it starts.
  *
  * @author dblock[at]dblock[dot]org
  */
 public class WindowsRealm extends RealmBase {
 
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsRealm.class);
+
     /** The Constant NAME. */
     protected static final String NAME = "waffle.apache.WindowsRealm/1.0";
 
+    /** The Constant DEFAULT_CACHE_TIMEOUT, in seconds. */
+    public static final int DEFAULT_CACHE_TIMEOUT = 60;
+
+    /** The Constant DEFAULT_CACHE_SIZE. */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /** The auth, created on first use when not set. */
+    private IWindowsAuthProvider auth;
+
+    /** The cache timeout, in seconds. */
+    private int cacheTimeout = WindowsRealm.DEFAULT_CACHE_TIMEOUT;
+
+    /** The cache size. */
+    private int cacheSize = WindowsRealm.DEFAULT_CACHE_SIZE;
+
+    /** The verified principals, keyed by an HMAC of the username and password. */
+    private Cache<ByteBuffer, GenericPrincipal> principals = this.newCache();
+
+    /** The cache key, random for each realm so that the keys of the principals cannot be precomputed. */
+    private final byte[] cacheKey = new byte[32];
+
+    /**
+     * Instantiates a new windows realm.
+     */
+    public WindowsRealm() {
+        super();
+        new SecureRandom().nextBytes(this.cacheKey);
+    }
+
     /**
      * Gets the name.
      *
@@ -53,4 +118,223 @@ public class WindowsRealm extends RealmBase {
         return null;
     }
 
+    @Override
+    public Principal authenticate(final String username, final String credentials) {
+        if (username == null || credentials == null) {
+            return null;
+        }
+        final ByteBuffer key = this.getKey(username, credentials);
+        final GenericPrincipal cached = this.principals.getIfPresent(key);
+        if (cached != null) {
+            WindowsRealm.LOGGER.debug("cached logon: {}", username);
+            return cached;
+        }
+
+        WindowsRealm.LOGGER.debug("logging in: {}", username);
+        final IWindowsIdentity windowsIdentity;
+        try {
+            windowsIdentity = this.getAuth().logonUser(username, credentials);
+        } catch (final Exception e) {
+            WindowsRealm.LOGGER.warn("error logging in user: {}", e.getMessage());
+            WindowsRealm.LOGGER.trace("", e);
+            return null;
+        }
+        try {
+            // disable guest login
+            if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+                WindowsRealm.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+                return null;
+            }
+            WindowsRealm.LOGGER.debug("successfully logged in {} ({})", username, windowsIdentity.getSidString());
+            final GenericPrincipal principal = this.createPrincipal(windowsIdentity);
+            this.principals.put(key, principal);
+            return principal;
+        } finally {
+            windowsIdentity.dispose();
+        }
+    }
+
+    /**
+     * This method will create an instance of a IWindowsIdentity based GenericPrincipal. It is used for creating custom
+     * implementation within subclasses.
+     *
+     * @param windowsIdentity
+     *            the windows identity to initialize GenericPrincipal
+     * @return the Generic Principal
+     */
+    protected GenericPrincipal createPrincipal(final IWindowsIdentity windowsIdentity) {
+        return new GenericWindowsPrincipal(windowsIdentity, this.principalFormat, this.roleFormat);
+    }
+
+    /**
+     * Windows authentication provider, created on first use when not set.
+     *
+     * @return IWindowsAuthProvider.
+     */
+    public synchronized IWindowsAuthProvider getAuth() {
+        if (this.auth == null) {
+            this.auth = new WindowsAuthProviderImpl();
+        }
+        return this.auth;
+    }
+
+    /**
+     * Set Windows auth provider.
+     *
+     * @param provider
+     *            Class implements IWindowsAuthProvider.
+     */
+    public synchronized void setAuth(final IWindowsAuthProvider provider) {
+        this.auth = provider;
+        this.principals.invalidateAll();
+    }
+
+    /**
+     * Set the principal format.
+     *
+     * @param format
+     *            Principal format.
+     */
+    public void setPrincipalFormat(final String format) {
+        this.principalFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+        this.principals.invalidateAll();
+    }
+
+    /**
+     * Principal format.
+     *
+     * @return Principal format.
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Set the role format.
+     *
+     * @param format
+     *            Role format.
+     */
+    public void setRoleFormat(final String format) {
+        this.roleFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+        this.principals.invalidateAll();
+    }
+
+    /**
+     * Role format.
+     *
+     * @return Role format.
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * True if Guest login permitted.
+     *
+     * @return True if Guest login permitted, false otherwise.
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Set whether Guest login is permitted. Default is true, if the Guest account is enabled, an invalid
+     * username/password results in a Guest login.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+        this.principals.invalidateAll();
+    }
+
+    /**
+     * Gets how long, in seconds, a verified principal is cached. A changed or revoked password keeps working for at
+     * most this long.
+     *
+     * @return the cache timeout
+     */
+    public int getCacheTimeout() {
+        return this.cacheTimeout;
+    }
+
+    /**
+     * Sets how long, in seconds, a verified principal is cached, 0 disables the cache.
+     *
+     * @param value
+     *            the new cache timeout
+     */
+    public void setCacheTimeout(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid cache timeout: " + value);
+        }
+        this.cacheTimeout = value;
+        this.principals = this.newCache();
+    }
+
+    /**
+     * Gets the maximum number of verified principals cached.
+     *
+     * @return the cache size
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * Sets the maximum number of verified principals cached, 0 disables the cache.
+     *
+     * @param value
+     *            the new cache size
+     */
+    public void setCacheSize(final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + value);
+        }
+        this.cacheSize = value;
+        this.principals = this.newCache();
+    }
+
+    /**
+     * Discards all cached principals, for example after a group membership change.
+     */
+    public void invalidateCache() {
+        this.principals.invalidateAll();
+    }
+
+    /**
+     * Creates the verified principal cache.
+     *
+     * @return the cache
+     */
+    private Cache<ByteBuffer, GenericPrincipal> newCache() {
+        return Caffeine.newBuilder().expireAfterWrite(this.cacheTimeout, TimeUnit.SECONDS).maximumSize(this.cacheSize)
+                .build();
+    }
+
+    /**
+     * Gets the cache key of a logon, an HMAC-SHA256 of the username and password under the random key of the realm so
+     * that no password is kept in memory and the keys cannot be matched against precomputed digests.
+     *
+     * @param username
+     *            the username
+     * @param password
+     *            the password
+     * @return the key
+     */
+    private ByteBuffer getKey(final String username, final String password) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(this.cacheKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(mac.doFinal());
+        } catch (final GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
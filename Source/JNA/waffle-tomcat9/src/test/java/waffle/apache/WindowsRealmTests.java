@@ -11,9 +11,18 @@
  */
 package waffle.apache;
 
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.realm.GenericPrincipal;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.windows.auth.IWindowsIdentity;
+
 /**
  * Windows Realm Tests.
  *
@@ -30,5 +39,88 @@ public class WindowsRealmTests {
         Assertions.assertNull(realm.getPassword(null));
         Assertions.assertNull(realm.getPrincipal(null));
         Assertions.assertEquals("WindowsRealm", realm.getClass().getSimpleName());
+        Assertions.assertEquals(WindowsRealm.DEFAULT_CACHE_TIMEOUT, realm.getCacheTimeout());
+        Assertions.assertEquals(WindowsRealm.DEFAULT_CACHE_SIZE, realm.getCacheSize());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> realm.setCacheTimeout(-1));
+    }
+
+    /**
+     * Test that a verified logon is cached, and a wrong password is neither accepted from the cache nor cached.
+     */
+    @Test
+    public void testAuthenticate() {
+        final CountingAuthProvider auth = new CountingAuthProvider();
+        final WindowsRealm realm = new WindowsRealm();
+        realm.setAuth(auth);
+
+        final Principal principal = realm.authenticate("EXAMPLE\\alice", "secret");
+        Assertions.assertTrue(principal instanceof GenericWindowsPrincipal);
+        Assertions.assertEquals("EXAMPLE\\alice", principal.getName());
+        Assertions.assertSame(principal, realm.authenticate("EXAMPLE\\alice", "secret"));
+        Assertions.assertEquals(1, auth.logons.get());
+
+        Assertions.assertNull(realm.authenticate("EXAMPLE\\alice", "wrong"));
+        Assertions.assertNull(realm.authenticate("EXAMPLE\\alice", "wrong"));
+        Assertions.assertNull(realm.authenticate("EXAMPLE\\alice", null));
+        Assertions.assertEquals(3, auth.logons.get());
+
+        realm.invalidateCache();
+        Assertions.assertNotSame(principal, realm.authenticate("EXAMPLE\\alice", "secret"));
+        Assertions.assertEquals(4, auth.logons.get());
+
+        realm.setCacheTimeout(0);
+        realm.authenticate("EXAMPLE\\alice", "secret");
+        realm.authenticate("EXAMPLE\\alice", "secret");
+        Assertions.assertEquals(6, auth.logons.get());
+    }
+
+    /**
+     * Test that guest logons are refused when disabled.
+     */
+    @Test
+    public void testGuest() {
+        final WindowsRealm realm = new WindowsRealm();
+        realm.setAuth(new CountingAuthProvider());
+        Assertions.assertNotNull(realm.authenticate("Guest", "secret"));
+        realm.setAllowGuestLogin(false);
+        Assertions.assertNull(realm.authenticate("Guest", "secret"));
+    }
+
+    /**
+     * Test the roles of an authenticated principal.
+     */
+    @Test
+    public void testHasRole() {
+        final WindowsRealm realm = new WindowsRealm();
+        realm.setAuth(new CountingAuthProvider());
+        realm.setRoleFormat("both");
+        final GenericPrincipal principal = (GenericPrincipal) realm.authenticate("EXAMPLE\\alice", "secret");
+        Assertions.assertTrue(principal.hasRole("Users"));
+        Assertions.assertTrue(principal.hasRole("S-" + "Everyone".hashCode()));
+        Assertions.assertTrue(principal.hasRole("EXAMPLE\\alice"));
+        Assertions.assertTrue(principal.hasRole("*"));
+        Assertions.assertFalse(principal.hasRole("Administrators"));
+        Assertions.assertFalse(principal.hasRole(null));
+        Assertions.assertTrue(realm.hasRole(null, principal, "Users"));
+        Assertions.assertFalse(realm.hasRole(null, principal, "Administrators"));
+    }
+
+    /**
+     * An auth provider accepting the password "secret" for any user, counting logons.
+     */
+    private static final class CountingAuthProvider extends MockWindowsAuthProvider {
+
+        /** The logons. */
+        final AtomicInteger logons = new AtomicInteger();
+
+        @Override
+        public IWindowsIdentity logonUser(final String username, final String password) {
+            this.logons.incrementAndGet();
+            if (!"secret".equals(password)) {
+                throw new RuntimeException("Mock error: " + username);
+            }
+            return new MockWindowsIdentity(username, Arrays.asList("Users", "Everyone"));
+        }
+
     }
 }
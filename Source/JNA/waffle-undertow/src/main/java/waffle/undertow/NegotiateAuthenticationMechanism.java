@@ -0,0 +1,491 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import com.sun.jna.platform.win32.Win32Exception;
+
+import io.undertow.security.api.AuthenticationMechanism;
+import io.undertow.security.api.SecurityContext;
+import io.undertow.security.idm.Account;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import waffle.servlet.WindowsPrincipal;
+import waffle.util.NtlmMessage;
+import waffle.windows.auth.IWindowsAuthProvider;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsSecurityContext;
+import waffle.windows.auth.PrincipalFormat;
+import waffle.windows.auth.impl.WindowsAuthProviderImpl;
+
+/**
+ * An Undertow authentication mechanism for Negotiate (Kerberos/NTLM) single sign-on and, optionally, Basic
+ * authentication.
+ *
+ * The handshake is keyed by an id kept in the attachments of the server connection, and the account it establishes
+ * is kept there too: later requests on an authenticated connection are authenticated without a native call, and an
+ * unfinished handshake is released when the connection closes. The native calls block, so requests carrying
+ * credentials should reach the mechanism through a {@link NegotiateDispatchHandler}.
+ */
+public class NegotiateAuthenticationMechanism implements AuthenticationMechanism {
+
+    /** The Constant LOGGER. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateAuthenticationMechanism.class);
+
+    /** The Constant SUPPORTED_PROTOCOLS. */
+    private static final Set<String> SUPPORTED_PROTOCOLS = new LinkedHashSet<>(Arrays.asList("Negotiate", "NTLM"));
+
+    /** The Constant BASIC. */
+    private static final String BASIC = "Basic";
+
+    /** The Constant CHALLENGE. */
+    private static final AttachmentKey<String> CHALLENGE = AttachmentKey.create(String.class);
+
+    /** The auth. */
+    private final IWindowsAuthProvider auth;
+
+    /** The protocols. */
+    private Set<String> protocols = NegotiateAuthenticationMechanism.SUPPORTED_PROTOCOLS;
+
+    /** The basic enabled. */
+    private boolean basicEnabled;
+
+    /** The realm. */
+    private String realm = "BasicSecurityFilterProvider";
+
+    /** The principal format. */
+    private PrincipalFormat principalFormat = PrincipalFormat.FQN;
+
+    /** The role format. */
+    private PrincipalFormat roleFormat = PrincipalFormat.FQN;
+
+    /** The allow guest login. */
+    private boolean allowGuestLogin = true;
+
+    /** The connection identity reuse. */
+    private boolean reuseConnectionIdentity = true;
+
+    /**
+     * Instantiates a new negotiate authentication mechanism with a default windows auth provider.
+     */
+    public NegotiateAuthenticationMechanism() {
+        this(new WindowsAuthProviderImpl());
+    }
+
+    /**
+     * Instantiates a new negotiate authentication mechanism.
+     *
+     * @param auth
+     *            the windows auth provider
+     */
+    public NegotiateAuthenticationMechanism(final IWindowsAuthProvider auth) {
+        this.auth = auth;
+    }
+
+    @Override
+    public AuthenticationMechanismOutcome authenticate(final HttpServerExchange exchange,
+            final SecurityContext securityContext) {
+        final NegotiateConnectionState state = NegotiateConnectionState.get(exchange, this.auth);
+        final String authorization = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+
+        if (authorization == null) {
+            final Account account = state.getAccount();
+            if (account != null && this.reuseConnectionIdentity) {
+                // connection already authenticated
+                securityContext.authenticationComplete(account, state.getMechanismName(), false);
+                return AuthenticationMechanismOutcome.AUTHENTICATED;
+            }
+            return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
+        }
+        if (!this.isSupported(authorization)) {
+            return AuthenticationMechanismOutcome.NOT_ATTEMPTED;
+        }
+
+        final int space = authorization.indexOf(' ');
+        final String securityPackage = authorization.substring(0, space);
+        final byte[] tokenBuffer;
+        try {
+            tokenBuffer = Base64.getDecoder().decode(authorization.substring(space + 1).trim());
+        } catch (final IllegalArgumentException e) {
+            NegotiateAuthenticationMechanism.LOGGER.warn("invalid {} token: {}", securityPackage, e.getMessage());
+            return this.fail(exchange, securityContext, securityPackage, e.getMessage());
+        }
+
+        if (NegotiateAuthenticationMechanism.BASIC.equalsIgnoreCase(securityPackage)) {
+            return this.basic(exchange, securityContext, tokenBuffer);
+        }
+        return this.negotiate(exchange, securityContext, state, securityPackage, tokenBuffer);
+    }
+
+    /**
+     * Runs a leg of a Negotiate or NTLM handshake.
+     *
+     * @param exchange
+     *            the exchange
+     * @param securityContext
+     *            the security context
+     * @param state
+     *            the connection state
+     * @param securityPackage
+     *            the security package
+     * @param tokenBuffer
+     *            the token
+     * @return the outcome
+     */
+    private AuthenticationMechanismOutcome negotiate(final HttpServerExchange exchange,
+            final SecurityContext securityContext, final NegotiateConnectionState state, final String securityPackage,
+            final byte[] tokenBuffer) {
+        final String connectionId = state.getConnectionId();
+        NegotiateAuthenticationMechanism.LOGGER.debug("security package: {}, connection id: {}, {} byte(s)",
+                securityPackage, connectionId, Integer.valueOf(tokenBuffer.length));
+
+        if (NtlmMessage.isNtlmMessage(tokenBuffer) && NtlmMessage.getMessageType(tokenBuffer) == 1) {
+            // type 1 NTLM authentication message starts a new handshake
+            this.auth.resetSecurityToken(connectionId);
+        }
+
+        final IWindowsSecurityContext windowsSecurityContext;
+        try {
+            windowsSecurityContext = this.auth.acceptSecurityToken(connectionId, tokenBuffer, securityPackage);
+        } catch (final Win32Exception e) {
+            NegotiateAuthenticationMechanism.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateAuthenticationMechanism.LOGGER.trace("", e);
+            return this.fail(exchange, securityContext, securityPackage, e.getMessage());
+        }
+        NegotiateAuthenticationMechanism.LOGGER.debug("continue required: {}",
+                Boolean.valueOf(windowsSecurityContext.isContinue()));
+
+        final byte[] continueTokenBytes = windowsSecurityContext.getToken();
+        final String continueToken = continueTokenBytes == null || continueTokenBytes.length == 0 ? null
+                : securityPackage + " " + Base64.getEncoder().encodeToString(continueTokenBytes);
+
+        if (windowsSecurityContext.isContinue()) {
+            // the provider keeps the context for the next leg, the continue token is sent by sendChallenge
+            exchange.putAttachment(NegotiateAuthenticationMechanism.CHALLENGE, continueToken);
+            return AuthenticationMechanismOutcome.NOT_AUTHENTICATED;
+        }
+
+        final Account account;
+        final IWindowsIdentity windowsIdentity = windowsSecurityContext.getIdentity();
+        try {
+            account = this.newAccount(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+            windowsSecurityContext.dispose();
+        }
+        if (account == null) {
+            return this.fail(exchange, securityContext, securityPackage, "guest login disabled");
+        }
+
+        if (continueToken != null) {
+            // mutual authentication
+            exchange.getResponseHeaders().add(Headers.WWW_AUTHENTICATE, continueToken);
+        }
+        if (this.reuseConnectionIdentity) {
+            state.setAccount(account, securityPackage);
+        }
+        NegotiateAuthenticationMechanism.LOGGER.info("successfully logged in user: {}", account);
+        securityContext.authenticationComplete(account, securityPackage, false);
+        return AuthenticationMechanismOutcome.AUTHENTICATED;
+    }
+
+    /**
+     * Logs a user on with Basic credentials. The account is not kept on the connection.
+     *
+     * @param exchange
+     *            the exchange
+     * @param securityContext
+     *            the security context
+     * @param tokenBuffer
+     *            the username:password token
+     * @return the outcome
+     */
+    private AuthenticationMechanismOutcome basic(final HttpServerExchange exchange,
+            final SecurityContext securityContext, final byte[] tokenBuffer) {
+        final String[] usernamePassword = new String(tokenBuffer, StandardCharsets.UTF_8).split(":", 2);
+        if (usernamePassword.length != 2) {
+            return this.fail(exchange, securityContext, NegotiateAuthenticationMechanism.BASIC,
+                    "Invalid username:password in Authorization header.");
+        }
+        NegotiateAuthenticationMechanism.LOGGER.debug("logging in user: {}", usernamePassword[0]);
+
+        final IWindowsIdentity windowsIdentity;
+        try {
+            windowsIdentity = this.auth.logonUser(usernamePassword[0], usernamePassword[1]);
+        } catch (final Win32Exception e) {
+            NegotiateAuthenticationMechanism.LOGGER.warn("error logging in user: {}", e.getMessage());
+            NegotiateAuthenticationMechanism.LOGGER.trace("", e);
+            return this.fail(exchange, securityContext, NegotiateAuthenticationMechanism.BASIC, e.getMessage());
+        }
+
+        final Account account;
+        try {
+            account = this.newAccount(windowsIdentity);
+        } finally {
+            windowsIdentity.dispose();
+        }
+        if (account == null) {
+            return this.fail(exchange, securityContext, NegotiateAuthenticationMechanism.BASIC,
+                    "guest login disabled");
+        }
+        NegotiateAuthenticationMechanism.LOGGER.info("successfully logged in user: {}", account);
+        securityContext.authenticationComplete(account, NegotiateAuthenticationMechanism.BASIC, false);
+        return AuthenticationMechanismOutcome.AUTHENTICATED;
+    }
+
+    /**
+     * Creates the account of a logged on windows identity. The windows identity is not disposed.
+     *
+     * @param windowsIdentity
+     *            the windows identity
+     * @return the account, null if the identity is a guest and guest login is disabled
+     */
+    private Account newAccount(final IWindowsIdentity windowsIdentity) {
+        NegotiateAuthenticationMechanism.LOGGER.debug("logged in user: {} ({})", windowsIdentity.getFqn(),
+                windowsIdentity.getSidString());
+        if (!this.allowGuestLogin && windowsIdentity.isGuest()) {
+            NegotiateAuthenticationMechanism.LOGGER.warn("guest login disabled: {}", windowsIdentity.getFqn());
+            return null;
+        }
+        final WindowsPrincipal windowsPrincipal = new WindowsPrincipal(windowsIdentity, this.principalFormat,
+                this.roleFormat);
+        NegotiateAuthenticationMechanism.LOGGER.debug("roles: {}", windowsPrincipal.getRolesString());
+        return new WindowsPrincipalAccount(windowsPrincipal);
+    }
+
+    /**
+     * Fails the authentication; the challenge closes the connection.
+     *
+     * @param exchange
+     *            the exchange
+     * @param securityContext
+     *            the security context
+     * @param mechanismName
+     *            the mechanism name
+     * @param message
+     *            the failure message
+     * @return the outcome
+     */
+    private AuthenticationMechanismOutcome fail(final HttpServerExchange exchange,
+            final SecurityContext securityContext, final String mechanismName, final String message) {
+        exchange.setPersistent(false);
+        securityContext.authenticationFailed(message, mechanismName);
+        return AuthenticationMechanismOutcome.NOT_AUTHENTICATED;
+    }
+
+    @Override
+    public ChallengeResult sendChallenge(final HttpServerExchange exchange, final SecurityContext securityContext) {
+        final String continueToken = exchange.getAttachment(NegotiateAuthenticationMechanism.CHALLENGE);
+        if (continueToken != null) {
+            NegotiateAuthenticationMechanism.LOGGER.debug("continue token: {}", continueToken);
+            exchange.getResponseHeaders().add(Headers.WWW_AUTHENTICATE, continueToken);
+        } else {
+            for (final String protocol : this.protocols) {
+                exchange.getResponseHeaders().add(Headers.WWW_AUTHENTICATE, protocol);
+            }
+            if (this.basicEnabled) {
+                exchange.getResponseHeaders().add(Headers.WWW_AUTHENTICATE,
+                        NegotiateAuthenticationMechanism.BASIC + " realm=\"" + this.realm + "\"");
+            }
+        }
+        return new ChallengeResult(true, Integer.valueOf(StatusCodes.UNAUTHORIZED));
+    }
+
+    /**
+     * Checks if an authorization header carries credentials of a protocol this mechanism runs, and thus needs native
+     * calls.
+     *
+     * @param authorization
+     *            the authorization header value
+     * @return true, if supported
+     */
+    public boolean isSupported(final String authorization) {
+        final int space = authorization.indexOf(' ');
+        if (space <= 0) {
+            return false;
+        }
+        final String securityPackage = authorization.substring(0, space);
+        return this.protocols.contains(securityPackage)
+                || (this.basicEnabled && NegotiateAuthenticationMechanism.BASIC.equalsIgnoreCase(securityPackage));
+    }
+
+    /**
+     * Windows authentication provider.
+     *
+     * @return IWindowsAuthProvider.
+     */
+    public IWindowsAuthProvider getAuth() {
+        return this.auth;
+    }
+
+    /**
+     * Set the authentication protocols. Default is "Negotiate, NTLM".
+     *
+     * @param value
+     *            Authentication protocols
+     */
+    public void setProtocols(final String value) {
+        this.protocols = new LinkedHashSet<>();
+        final String[] protocolNames = value.split(",", -1);
+        for (String protocolName : protocolNames) {
+            protocolName = protocolName.trim();
+            if (!protocolName.isEmpty()) {
+                NegotiateAuthenticationMechanism.LOGGER.debug("init protocol: {}", protocolName);
+                if (NegotiateAuthenticationMechanism.SUPPORTED_PROTOCOLS.contains(protocolName)) {
+                    this.protocols.add(protocolName);
+                } else {
+                    NegotiateAuthenticationMechanism.LOGGER.error("unsupported protocol: {}", protocolName);
+                    throw new RuntimeException("Unsupported protocol: " + protocolName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the protocols.
+     *
+     * @return the protocols
+     */
+    public Set<String> getProtocols() {
+        return this.protocols;
+    }
+
+    /**
+     * Checks if Basic authentication is enabled.
+     *
+     * @return true, if is basic enabled
+     */
+    public boolean isBasicEnabled() {
+        return this.basicEnabled;
+    }
+
+    /**
+     * Sets whether Basic authentication is accepted and advertised. Default is false.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setBasicEnabled(final boolean value) {
+        this.basicEnabled = value;
+    }
+
+    /**
+     * Gets the realm.
+     *
+     * @return the realm
+     */
+    public String getRealm() {
+        return this.realm;
+    }
+
+    /**
+     * Sets the Basic realm.
+     *
+     * @param value
+     *            the new realm
+     */
+    public void setRealm(final String value) {
+        this.realm = value;
+    }
+
+    /**
+     * Principal format.
+     *
+     * @return Principal format.
+     */
+    public PrincipalFormat getPrincipalFormat() {
+        return this.principalFormat;
+    }
+
+    /**
+     * Set the principal format.
+     *
+     * @param format
+     *            Principal format.
+     */
+    public void setPrincipalFormat(final String format) {
+        this.principalFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Role format.
+     *
+     * @return Role format.
+     */
+    public PrincipalFormat getRoleFormat() {
+        return this.roleFormat;
+    }
+
+    /**
+     * Set the role format.
+     *
+     * @param format
+     *            Role format.
+     */
+    public void setRoleFormat(final String format) {
+        this.roleFormat = PrincipalFormat.valueOf(format.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * True if Guest login permitted.
+     *
+     * @return True if Guest login permitted, false otherwise.
+     */
+    public boolean isAllowGuestLogin() {
+        return this.allowGuestLogin;
+    }
+
+    /**
+     * Set whether Guest login is permitted. Default is true, if the Guest account is enabled, an invalid
+     * username/password results in a Guest login.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setAllowGuestLogin(final boolean value) {
+        this.allowGuestLogin = value;
+    }
+
+    /**
+     * Checks if later requests on an authenticated connection reuse its account.
+     *
+     * @return true, if connection identities are reused
+     */
+    public boolean isReuseConnectionIdentity() {
+        return this.reuseConnectionIdentity;
+    }
+
+    /**
+     * Set whether later requests on a connection authenticated by a Negotiate or NTLM handshake reuse its account
+     * without sending credentials, as NTLM clients expect. Disable when a proxy shares connections between users.
+     * Default is true.
+     *
+     * @param value
+     *            True or false.
+     */
+    public void setReuseConnectionIdentity(final boolean value) {
+        this.reuseConnectionIdentity = value;
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import io.undertow.security.idm.Account;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.util.AttachmentKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import waffle.windows.auth.IWindowsAuthProvider;
+
+/**
+ * The authentication state of a server connection, kept in its attachments: the connection id the handshake is
+ * keyed by, and the account established on it. The partial security context of an unfinished handshake is released
+ * when the connection closes.
+ */
+final class NegotiateConnectionState {
+
+    /** The Constant KEY. */
+    static final AttachmentKey<NegotiateConnectionState> KEY = AttachmentKey.create(NegotiateConnectionState.class);
+
+    /** The Constant CONNECTION_IDS. */
+    private static final AtomicLong CONNECTION_IDS = new AtomicLong();
+
+    /** The connection id. */
+    private final String connectionId = "undertow:" + NegotiateConnectionState.CONNECTION_IDS.incrementAndGet();
+
+    /** The account. */
+    private volatile Account account;
+
+    /** The mechanism name. */
+    private volatile String mechanismName;
+
+    /**
+     * Gets the state of the connection of an exchange, attaching a new one on first use.
+     *
+     * @param exchange
+     *            the exchange
+     * @param auth
+     *            the windows auth provider holding the handshakes of the connection
+     * @return the connection state
+     */
+    static NegotiateConnectionState get(final HttpServerExchange exchange, final IWindowsAuthProvider auth) {
+        final ServerConnection connection = exchange.getConnection();
+        NegotiateConnectionState state = connection.getAttachment(NegotiateConnectionState.KEY);
+        if (state == null) {
+            final NegotiateConnectionState newState = new NegotiateConnectionState();
+            connection.putAttachment(NegotiateConnectionState.KEY, newState);
+            connection.addCloseListener(closed -> auth.resetSecurityToken(newState.getConnectionId()));
+            state = newState;
+        }
+        return state;
+    }
+
+    /**
+     * Gets the connection id.
+     *
+     * @return the connection id
+     */
+    String getConnectionId() {
+        return this.connectionId;
+    }
+
+    /**
+     * Gets the account established on the connection.
+     *
+     * @return the account, null if none
+     */
+    Account getAccount() {
+        return this.account;
+    }
+
+    /**
+     * Gets the name of the mechanism that established the account.
+     *
+     * @return the mechanism name, null if none
+     */
+    String getMechanismName() {
+        return this.mechanismName;
+    }
+
+    /**
+     * Sets the account established on the connection.
+     *
+     * @param value
+     *            the account
+     * @param name
+     *            the name of the mechanism that established it
+     */
+    void setAccount(final Account value, final String name) {
+        this.mechanismName = name;
+        this.account = value;
+    }
+
+}
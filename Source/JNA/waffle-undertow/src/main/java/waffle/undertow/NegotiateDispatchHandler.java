@@ -0,0 +1,81 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Dispatches requests carrying credentials for a {@link NegotiateAuthenticationMechanism} off the IO thread before
+ * they reach the security handlers, since logging them on blocks in native calls. Requests without credentials, such
+ * as those of an already authenticated connection, stay on the IO thread.
+ */
+public class NegotiateDispatchHandler implements HttpHandler {
+
+    /** The next. */
+    private final HttpHandler next;
+
+    /** The mechanism. */
+    private final NegotiateAuthenticationMechanism mechanism;
+
+    /** The executor. */
+    private final Executor executor;
+
+    /**
+     * Instantiates a new negotiate dispatch handler dispatching to the worker pool.
+     *
+     * @param next
+     *            the next handler, typically the security initial handler
+     * @param mechanism
+     *            the mechanism
+     */
+    public NegotiateDispatchHandler(final HttpHandler next, final NegotiateAuthenticationMechanism mechanism) {
+        this(next, mechanism, null);
+    }
+
+    /**
+     * Instantiates a new negotiate dispatch handler.
+     *
+     * @param next
+     *            the next handler, typically the security initial handler
+     * @param mechanism
+     *            the mechanism
+     * @param executor
+     *            the executor native calls run on, null for the worker pool
+     */
+    public NegotiateDispatchHandler(final HttpHandler next, final NegotiateAuthenticationMechanism mechanism,
+            final Executor executor) {
+        this.next = next;
+        this.mechanism = mechanism;
+        this.executor = executor;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            final String authorization = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
+            if (authorization != null && this.mechanism.isSupported(authorization)) {
+                if (this.executor == null) {
+                    exchange.dispatch(this);
+                } else {
+                    exchange.dispatch(this.executor, this);
+                }
+                return;
+            }
+        }
+        this.next.handleRequest(exchange);
+    }
+
+}
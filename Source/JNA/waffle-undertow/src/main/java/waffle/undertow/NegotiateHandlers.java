@@ -0,0 +1,69 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import io.undertow.security.api.AuthenticationMode;
+import io.undertow.security.handlers.AuthenticationCallHandler;
+import io.undertow.security.handlers.AuthenticationConstraintHandler;
+import io.undertow.security.handlers.AuthenticationMechanismsHandler;
+import io.undertow.security.handlers.SecurityInitialHandler;
+import io.undertow.server.HttpHandler;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds the handler chains securing a handler with a {@link NegotiateAuthenticationMechanism}.
+ */
+public final class NegotiateHandlers {
+
+    /**
+     * Secures a handler, requiring authentication of every request and dispatching native calls to the worker pool.
+     *
+     * @param next
+     *            the handler to secure
+     * @param mechanism
+     *            the mechanism
+     * @return the secured handler
+     */
+    public static HttpHandler secure(final HttpHandler next, final NegotiateAuthenticationMechanism mechanism) {
+        return NegotiateHandlers.secure(next, mechanism, null);
+    }
+
+    /**
+     * Secures a handler, requiring authentication of every request.
+     *
+     * @param next
+     *            the handler to secure
+     * @param mechanism
+     *            the mechanism
+     * @param executor
+     *            the executor native calls run on, null for the worker pool
+     * @return the secured handler
+     */
+    public static HttpHandler secure(final HttpHandler next, final NegotiateAuthenticationMechanism mechanism,
+            final Executor executor) {
+        HttpHandler handler = new AuthenticationCallHandler(next);
+        handler = new AuthenticationConstraintHandler(handler);
+        handler = new AuthenticationMechanismsHandler(handler, Collections.singletonList(mechanism));
+        handler = new SecurityInitialHandler(AuthenticationMode.PRO_ACTIVE, null, handler);
+        return new NegotiateDispatchHandler(handler, mechanism, executor);
+    }
+
+    /**
+     * Instantiates a new negotiate handlers.
+     */
+    private NegotiateHandlers() {
+        // Prevent Instantiation of object
+    }
+
+}
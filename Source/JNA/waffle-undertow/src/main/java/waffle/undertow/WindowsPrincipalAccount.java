@@ -0,0 +1,72 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import io.undertow.security.idm.Account;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import waffle.servlet.WindowsPrincipal;
+
+/**
+ * An Undertow account backed by a {@link WindowsPrincipal}, whose roles are the principal's user and group names.
+ */
+public class WindowsPrincipalAccount implements Account {
+
+    /** The Constant serialVersionUID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The windows principal. */
+    private final WindowsPrincipal windowsPrincipal;
+
+    /** The roles. */
+    private final Set<String> roles;
+
+    /**
+     * Instantiates a new windows principal account.
+     *
+     * @param windowsPrincipal
+     *            the windows principal
+     */
+    public WindowsPrincipalAccount(final WindowsPrincipal windowsPrincipal) {
+        this.windowsPrincipal = windowsPrincipal;
+        this.roles = Collections.unmodifiableSet(new LinkedHashSet<>(windowsPrincipal.getRoles()));
+    }
+
+    @Override
+    public Principal getPrincipal() {
+        return this.windowsPrincipal;
+    }
+
+    /**
+     * Gets the windows principal.
+     *
+     * @return the windows principal
+     */
+    public WindowsPrincipal getWindowsPrincipal() {
+        return this.windowsPrincipal;
+    }
+
+    @Override
+    public Set<String> getRoles() {
+        return this.roles;
+    }
+
+    @Override
+    public String toString() {
+        return this.windowsPrincipal.getName();
+    }
+
+}
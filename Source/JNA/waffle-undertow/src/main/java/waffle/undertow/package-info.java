@@ -0,0 +1,20 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+/**
+ * Waffle Undertow Package.
+ *
+ * <p>
+ * An Undertow {@link io.undertow.security.api.AuthenticationMechanism} for Negotiate, NTLM and Basic authentication,
+ * with handshake state kept on the server connection and native calls dispatched off the IO threads.
+ * </p>
+ */
+package waffle.undertow;
@@ -0,0 +1,284 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A minimal HTTP/1.1 client connection, so that tests control which requests share a connection. It keeps the
+ * session cookie the server sets and answers Negotiate challenges with {@link SimulatedWindowsAuthProvider} tokens.
+ */
+public class HttpTestConnection implements Closeable {
+
+    /** The socket. */
+    private final Socket socket;
+
+    /** The input. */
+    private final InputStream input;
+
+    /** The output. */
+    private final OutputStream output;
+
+    /** The session cookie. */
+    private String cookie;
+
+    /** The handshakes. */
+    private int handshakes;
+
+    /**
+     * Opens a new connection.
+     *
+     * @param address
+     *            the server address
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public HttpTestConnection(final InetSocketAddress address) throws IOException {
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setSoTimeout(10000);
+        this.input = this.socket.getInputStream();
+        this.output = this.socket.getOutputStream();
+    }
+
+    /**
+     * Gets a path as a user, running the Negotiate handshake when challenged.
+     *
+     * @param path
+     *            the path
+     * @param user
+     *            the user
+     * @return the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public Response getAuthenticated(final String path, final String user) throws IOException {
+        Response response = this.get(path, null);
+        if (response.getStatus() == 401) {
+            this.handshakes++;
+            response = this.get(path, HttpTestConnection.negotiate(user));
+            if (response.getStatus() == 401 && response.getHeaders("www-authenticate").size() == 1) {
+                response = this.get(path, HttpTestConnection.negotiate("response"));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Gets a path.
+     *
+     * @param path
+     *            the path
+     * @param authorization
+     *            the authorization header, null for none
+     * @return the response
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    public Response get(final String path, final String authorization) throws IOException {
+        final StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+        if (authorization != null) {
+            request.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        if (this.cookie != null) {
+            request.append("Cookie: ").append(this.cookie).append("\r\n");
+        }
+        request.append("\r\n");
+        this.output.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        this.output.flush();
+
+        final Response response = new Response(Integer.parseInt(this.readLine().split(" ", 3)[1]));
+        String line;
+        while (!(line = this.readLine()).isEmpty()) {
+            final int colon = line.indexOf(':');
+            response.headers.add(new String[] { line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                    line.substring(colon + 1).trim() });
+        }
+        for (final String setCookie : response.getHeaders("set-cookie")) {
+            this.cookie = setCookie.split(";", 2)[0];
+        }
+        response.body = this.readBody(response);
+        return response;
+    }
+
+    /**
+     * Reads the body of a response.
+     *
+     * @param response
+     *            the response
+     * @return the body
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private String readBody(final Response response) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final List<String> contentLength = response.getHeaders("content-length");
+        if (!contentLength.isEmpty()) {
+            this.read(body, Integer.parseInt(contentLength.get(0)));
+        } else if (response.getHeaders("transfer-encoding").contains("chunked")) {
+            int size;
+            while ((size = Integer.parseInt(this.readLine().trim(), 16)) > 0) {
+                this.read(body, size);
+                this.readLine();
+            }
+            this.readLine();
+        } else {
+            int b;
+            while ((b = this.input.read()) != -1) {
+                body.write(b);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a number of bytes.
+     *
+     * @param body
+     *            the buffer to read to
+     * @param size
+     *            the number of bytes
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private void read(final ByteArrayOutputStream body, final int size) throws IOException {
+        final byte[] buffer = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+            final int read = this.input.read(buffer, offset, size - offset);
+            if (read == -1) {
+                throw new IOException("connection closed");
+            }
+            offset += read;
+        }
+        body.write(buffer, 0, size);
+    }
+
+    /**
+     * Reads a line.
+     *
+     * @return the line, without its terminator
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    private String readLine() throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = this.input.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("connection closed");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the number of handshakes run.
+     *
+     * @return the handshakes
+     */
+    public int getHandshakes() {
+        return this.handshakes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    /**
+     * Creates a Negotiate authorization header.
+     *
+     * @param token
+     *            the token
+     * @return the authorization header
+     */
+    public static String negotiate(final String token) {
+        return "Negotiate " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A response.
+     */
+    public static class Response {
+
+        /** The status. */
+        private final int status;
+
+        /** The headers, with lower case names. */
+        private final List<String[]> headers = new ArrayList<>();
+
+        /** The body. */
+        private String body;
+
+        /**
+         * Instantiates a new response.
+         *
+         * @param status
+         *            the status
+         */
+        Response(final int status) {
+            this.status = status;
+        }
+
+        /**
+         * Gets the status.
+         *
+         * @return the status
+         */
+        public int getStatus() {
+            return this.status;
+        }
+
+        /**
+         * Gets the values of a header.
+         *
+         * @param name
+         *            the lower case header name
+         * @return the values
+         */
+        public List<String> getHeaders(final String name) {
+            final List<String> values = new ArrayList<>();
+            for (final String[] header : this.headers) {
+                if (header[0].equals(name)) {
+                    values.add(header[1]);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Gets the body.
+         *
+         * @return the body
+         */
+        public String getBody() {
+            return this.body;
+        }
+
+    }
+
+}
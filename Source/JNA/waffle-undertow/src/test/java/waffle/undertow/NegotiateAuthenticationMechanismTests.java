@@ -0,0 +1,195 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Class NegotiateAuthenticationMechanismTests.
+ */
+public class NegotiateAuthenticationMechanismTests {
+
+    /** The provider. */
+    private final SimulatedWindowsAuthProvider provider = new SimulatedWindowsAuthProvider();
+
+    /** The mechanism. */
+    private final NegotiateAuthenticationMechanism mechanism = new NegotiateAuthenticationMechanism(this.provider);
+
+    /** The executor. */
+    private ExecutorService executor;
+
+    /** The server. */
+    private Undertow server;
+
+    /** The address. */
+    private InetSocketAddress address;
+
+    /**
+     * Starts the server, answering with the account name and roles.
+     */
+    @BeforeEach
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(2, runnable -> new Thread(runnable, "waffle-sspi"));
+        final HttpHandler handler = exchange -> exchange.getResponseSender().send(
+                exchange.getSecurityContext().getAuthenticatedAccount().getPrincipal().getName() + " "
+                        + exchange.getSecurityContext().getAuthenticatedAccount().getRoles().contains("Everyone"));
+        this.server = Undertow.builder().addHttpListener(0, "127.0.0.1")
+                .setHandler(NegotiateHandlers.secure(handler, this.mechanism, this.executor)).build();
+        this.server.start();
+        this.address = (InetSocketAddress) this.server.getListenerInfo().get(0).getAddress();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @AfterEach
+    public void tearDown() {
+        this.server.stop();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Test that requests without credentials are challenged.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testChallenge() throws IOException {
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            final HttpTestConnection.Response response = connection.get("/", null);
+            Assertions.assertEquals(401, response.getStatus());
+            Assertions.assertEquals(2, response.getHeaders("www-authenticate").size());
+            Assertions.assertTrue(response.getHeaders("www-authenticate").contains("Negotiate"));
+            Assertions.assertTrue(response.getHeaders("www-authenticate").contains("NTLM"));
+        }
+        Assertions.assertEquals(0, this.provider.getCalls());
+    }
+
+    /**
+     * Test a two-leg handshake run off the IO thread, and the connection identity reused without native calls.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testHandshake() throws IOException {
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            HttpTestConnection.Response response = connection.get("/", HttpTestConnection.negotiate("user"));
+            Assertions.assertEquals(401, response.getStatus());
+            Assertions.assertEquals(
+                    "Negotiate " + Base64.getEncoder().encodeToString(SimulatedWindowsAuthProvider.CONTINUE_TOKEN),
+                    response.getHeaders("www-authenticate").get(0));
+            Assertions.assertEquals("waffle-sspi", this.provider.getLastThread());
+
+            response = connection.get("/", HttpTestConnection.negotiate("response"));
+            Assertions.assertEquals(200, response.getStatus());
+            Assertions.assertEquals("user true", response.getBody());
+
+            response = connection.get("/", null);
+            Assertions.assertEquals(200, response.getStatus());
+            Assertions.assertEquals("user true", response.getBody());
+            Assertions.assertEquals(2, this.provider.getCalls());
+        }
+
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            Assertions.assertEquals(401, connection.get("/", null).getStatus());
+        }
+    }
+
+    /**
+     * Test that an unfinished handshake is released when its connection closes.
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    public void testUnfinishedHandshakeReleased() throws Exception {
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            Assertions.assertEquals(401, connection.get("/", HttpTestConnection.negotiate("user")).getStatus());
+            Assertions.assertEquals(1, this.provider.getHandshakes());
+        }
+        for (int i = 0; i < 100 && this.provider.getHandshakes() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, this.provider.getHandshakes());
+    }
+
+    /**
+     * Test that guests are rejected when guest login is disabled.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testGuestDisabled() throws IOException {
+        this.mechanism.setAllowGuestLogin(false);
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            Assertions.assertEquals(401, connection.get("/", HttpTestConnection.negotiate("Guest")).getStatus());
+            final HttpTestConnection.Response response = connection.get("/",
+                    HttpTestConnection.negotiate("response"));
+            Assertions.assertEquals(401, response.getStatus());
+            Assertions.assertEquals("close", response.getHeaders("connection").get(0));
+        }
+    }
+
+    /**
+     * Test Basic authentication, which is not kept on the connection.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testBasic() throws IOException {
+        this.mechanism.setBasicEnabled(true);
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            Assertions.assertEquals(3, connection.get("/", null).getHeaders("www-authenticate").size());
+            final HttpTestConnection.Response response = connection.get("/", "Basic "
+                    + Base64.getEncoder().encodeToString("user:password".getBytes(StandardCharsets.UTF_8)));
+            Assertions.assertEquals(200, response.getStatus());
+            Assertions.assertEquals("user true", response.getBody());
+            Assertions.assertEquals(401, connection.get("/", null).getStatus());
+        }
+        Assertions.assertEquals("waffle-sspi", this.provider.getLastThread());
+    }
+
+    /**
+     * Test that credentials of other schemes are not dispatched nor attempted.
+     *
+     * @throws IOException
+     *             Signals that an I/O exception has occurred.
+     */
+    @Test
+    public void testOtherScheme() throws IOException {
+        try (final HttpTestConnection connection = new HttpTestConnection(this.address)) {
+            final HttpTestConnection.Response response = connection.get("/", "Bearer token");
+            Assertions.assertEquals(401, response.getStatus());
+        }
+        Assertions.assertEquals(0, this.provider.getCalls());
+        Assertions.assertFalse(this.mechanism.isSupported("Bearer token"));
+        Assertions.assertTrue(this.mechanism.isSupported("Negotiate token"));
+    }
+
+}
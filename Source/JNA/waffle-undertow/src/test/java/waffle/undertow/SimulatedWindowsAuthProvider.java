@@ -0,0 +1,172 @@
+/**
+ * Waffle (https://github.com/Waffle/waffle)
+ *
+ * Copyright (c) 2010-2019 Application Security, Inc.
+ *
+ * All rights reserved. This program and the accompanying materials are made available under the terms of the Eclipse
+ * Public License v1.0 which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors: Application Security, Inc.
+ */
+package waffle.undertow;
+
+import com.sun.jna.platform.win32.Sspi.CtxtHandle;
+import com.sun.jna.platform.win32.Sspi.SecBufferDesc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import waffle.mock.MockWindowsAuthProvider;
+import waffle.mock.MockWindowsIdentity;
+import waffle.mock.MockWindowsSecurityContext;
+import waffle.windows.auth.IWindowsIdentity;
+import waffle.windows.auth.IWindowsImpersonationContext;
+import waffle.windows.auth.IWindowsSecurityContext;
+
+/**
+ * A windows auth provider simulating a two-leg handshake without native calls: the first token of a connection names
+ * the user and is answered with a continue token, the second completes the logon.
+ */
+public class SimulatedWindowsAuthProvider extends MockWindowsAuthProvider {
+
+    /** The Constant CONTINUE_TOKEN. */
+    public static final byte[] CONTINUE_TOKEN = "challenge".getBytes(StandardCharsets.UTF_8);
+
+    /** The users of the handshakes in progress, by connection id. */
+    private final Map<String, String> handshakes = new ConcurrentHashMap<>();
+
+    /** The calls. */
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /** The thread of the last call. */
+    private volatile String lastThread;
+
+    @Override
+    public IWindowsSecurityContext acceptSecurityToken(final String connectionId, final byte[] token,
+            final String securityPackage) {
+        this.simulateCall();
+        final String username = this.handshakes.remove(connectionId);
+        if (username == null) {
+            this.handshakes.put(connectionId, new String(token, StandardCharsets.UTF_8));
+            return new ContinueSecurityContext(securityPackage);
+        }
+        return new MockWindowsSecurityContext(username);
+    }
+
+    @Override
+    public IWindowsIdentity logonUser(final String username, final String password) {
+        this.simulateCall();
+        return new MockWindowsIdentity(username, Arrays.asList("Users", "Everyone"));
+    }
+
+    @Override
+    public void resetSecurityToken(final String connectionId) {
+        this.handshakes.remove(connectionId);
+    }
+
+    /**
+     * Records a call.
+     */
+    private void simulateCall() {
+        this.calls.incrementAndGet();
+        this.lastThread = Thread.currentThread().getName();
+    }
+
+    /**
+     * Gets the number of calls.
+     *
+     * @return the calls
+     */
+    public int getCalls() {
+        return this.calls.get();
+    }
+
+    /**
+     * Gets the thread of the last call.
+     *
+     * @return the thread name
+     */
+    public String getLastThread() {
+        return this.lastThread;
+    }
+
+    /**
+     * Gets the number of handshakes in progress.
+     *
+     * @return the handshakes in progress
+     */
+    public int getHandshakes() {
+        return this.handshakes.size();
+    }
+
+    /**
+     * The security context of a handshake needing another leg.
+     */
+    private static final class ContinueSecurityContext implements IWindowsSecurityContext {
+
+        /** The security package. */
+        private final String securityPackage;
+
+        /**
+         * Instantiates a new continue security context.
+         *
+         * @param securityPackage
+         *            the security package
+         */
+        ContinueSecurityContext(final String securityPackage) {
+            this.securityPackage = securityPackage;
+        }
+
+        @Override
+        public String getSecurityPackage() {
+            return this.securityPackage;
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return null;
+        }
+
+        @Override
+        public byte[] getToken() {
+            return SimulatedWindowsAuthProvider.CONTINUE_TOKEN.clone();
+        }
+
+        @Override
+        public boolean isContinue() {
+            return true;
+        }
+
+        @Override
+        public IWindowsIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public CtxtHandle getHandle() {
+            return null;
+        }
+
+        @Override
+        public void initialize(final CtxtHandle continueCtx, final SecBufferDesc continueToken,
+                final String targetName) {
+            // Do Nothing
+        }
+
+        @Override
+        public IWindowsImpersonationContext impersonate() {
+            return null;
+        }
+
+        @Override
+        public void dispose() {
+            // Do Nothing
+        }
+
+    }
+
+}